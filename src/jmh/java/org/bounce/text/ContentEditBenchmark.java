@@ -0,0 +1,62 @@
+package org.bounce.text;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.GapContent;
+import javax.swing.text.PlainDocument;
+
+import org.bounce.text.xml.XMLDocuments;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures edits that alternate between the start and the end of a document,
+ * like a replace of all occurrences, for a gap and a piece table content.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ContentEditBenchmark {
+	@Param({ "gap", "piece" })
+	public String content;
+
+	@Param({ "1000000" })
+	public int size;
+
+	private PlainDocument document = null;
+	private int edit = 0;
+
+	@Setup
+	public void setUp() throws BadLocationException {
+		String text = XMLDocuments.createText(XMLDocuments.ATTRIBUTES, size);
+		AbstractDocument.Content data = "piece".equals(content) ? (AbstractDocument.Content) new PieceTableContent() : new GapContent();
+
+		document = new PlainDocument(data);
+		document.insertString(0, text, null);
+	}
+
+	@Benchmark
+	public int scatteredEdits() throws BadLocationException {
+		int length = document.getLength();
+		int offset = (edit++ & 1) == 0 ? length / 10 : length - length / 10;
+
+		document.insertString(offset, "x", null);
+		document.remove(offset, 1);
+
+		return document.getLength();
+	}
+}
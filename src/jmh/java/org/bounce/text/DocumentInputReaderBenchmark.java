@@ -0,0 +1,107 @@
+package org.bounce.text;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+
+import org.bounce.text.xml.XMLDocuments;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to read a complete document, per character, in blocks and
+ * through the buffer window of the reader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DocumentInputReaderBenchmark {
+	@Param({ "1000000" })
+	public int size;
+
+	private PlainDocument document = null;
+	private DocumentInputReader in = null;
+	private final char[] chars = new char[4096];
+
+	@Setup
+	public void setUp() throws BadLocationException {
+		document = XMLDocuments.create(XMLDocuments.ATTRIBUTES, size);
+
+		// moves the gap of the content to the middle of the text.
+		document.insertString(document.getLength() / 2, "x", null);
+		document.remove(document.getLength() / 2, 1);
+
+		in = new DocumentInputReader(document);
+	}
+
+	@Benchmark
+	public int read() throws IOException {
+		in.setRange(0, document.getLength());
+
+		int count = 0;
+
+		while (in.read() != -1) {
+			count++;
+		}
+
+		return count;
+	}
+
+	@Benchmark
+	public int readChars() throws IOException {
+		in.setRange(0, document.getLength());
+
+		int count = 0;
+		int read = in.read(chars, 0, chars.length);
+
+		while (read != -1) {
+			count += read;
+			read = in.read(chars, 0, chars.length);
+		}
+
+		return count;
+	}
+
+	@Benchmark
+	public int readBuffer() throws IOException {
+		in.setRange(0, document.getLength());
+
+		int count = 0;
+		int character = in.read();
+
+		while (character != -1) {
+			char[] buffer = in.getBuffer();
+			int index = in.getIndex();
+			int limit = in.getLimit();
+			int i = index;
+
+			while (i < limit && buffer[i] != '\r') {
+				i++;
+			}
+
+			if (i > index) {
+				in.advance(i - index);
+				count += i - index;
+			}
+
+			character = in.read();
+			count++;
+		}
+
+		return count;
+	}
+}
@@ -0,0 +1,93 @@
+package org.bounce.text.xml;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+
+import org.bounce.text.BackgroundTokenizer;
+import org.bounce.text.SyntaxHighlightingScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time until the spans of a complete document have been
+ * published, with the document scanned at once or in parts on all processors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BackgroundTokenizerBenchmark {
+	@Param({ XMLDocuments.ATTRIBUTES, XMLDocuments.NESTING, XMLDocuments.CDATA, XMLDocuments.COMMENTS })
+	public String shape;
+
+	@Param({ "1000000" })
+	public int size;
+
+	// the minimum length of a document that is scanned in parts, -1 to scan
+	// all documents at once.
+	@Param({ "-1", "0" })
+	public String parallel;
+
+	private PlainDocument document = null;
+
+	@Setup
+	public void setUp() throws BadLocationException {
+		System.setProperty(BackgroundTokenizer.PARALLEL_PROPERTY, parallel);
+
+		document = XMLDocuments.create(shape, size);
+	}
+
+	@Benchmark
+	public BackgroundTokenizer tokenize() throws InterruptedException {
+		final Object lock = new Object();
+		final boolean[] published = new boolean[1];
+
+		BackgroundTokenizer tokenizer = new BackgroundTokenizer(document) {
+			protected SyntaxHighlightingScanner createScanner(Document document) throws IOException {
+				return new XMLScanner(document);
+			}
+
+			protected int[] getSafeOffsets(Document document, int interval) {
+				return TagBoundaryIndex.findSafeOffsets(document, interval);
+			}
+		};
+
+		tokenizer.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent event) {
+				synchronized (lock) {
+					published[0] = true;
+					lock.notifyAll();
+				}
+			}
+		});
+
+		tokenizer.start();
+
+		synchronized (lock) {
+			while (!published[0]) {
+				lock.wait();
+			}
+		}
+
+		tokenizer.stop();
+
+		return tokenizer;
+	}
+}
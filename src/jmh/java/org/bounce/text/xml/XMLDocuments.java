@@ -0,0 +1,119 @@
+package org.bounce.text.xml;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+
+/**
+ * Creates synthetic XML documents of different shapes for the benchmarks.
+ */
+public class XMLDocuments {
+	/** Many elements with many attributes, namespaces and entities. */
+	public static final String ATTRIBUTES = "attributes";
+	/** Deeply nested elements with short text content. */
+	public static final String NESTING = "nesting";
+	/** Large CDATA sections. */
+	public static final String CDATA = "cdata";
+	/** Many comments spanning multiple lines. */
+	public static final String COMMENTS = "comments";
+
+	private XMLDocuments() {
+	}
+
+	/**
+	 * Creates a document of the shape, of about the size in characters.
+	 * 
+	 * @param shape
+	 *            the shape of the document.
+	 * @param size
+	 *            the minimum number of characters.
+	 * @return the document.
+	 * @throws BadLocationException
+	 *             if the text cannot be inserted.
+	 */
+	public static PlainDocument create(String shape, int size) throws BadLocationException {
+		PlainDocument document = new PlainDocument();
+		document.insertString(0, createText(shape, size), null);
+
+		return document;
+	}
+
+	/**
+	 * Creates the text of a document of the shape, of about the size in
+	 * characters.
+	 * 
+	 * @param shape
+	 *            the shape of the document.
+	 * @param size
+	 *            the minimum number of characters.
+	 * @return the text.
+	 */
+	public static String createText(String shape, int size) {
+		StringBuilder text = new StringBuilder(size + 1024);
+		text.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		text.append("<root xmlns=\"http://www.bounce.org/test\" xmlns:b=\"http://www.bounce.org/bounce\">\n");
+
+		for (int i = 0; text.length() < size; i++) {
+			if (ATTRIBUTES.equals(shape)) {
+				appendAttributes(text, i);
+			} else if (NESTING.equals(shape)) {
+				appendNesting(text, i);
+			} else if (CDATA.equals(shape)) {
+				appendCDATA(text, i);
+			} else if (COMMENTS.equals(shape)) {
+				appendComments(text, i);
+			} else {
+				throw new IllegalArgumentException("Unknown shape: " + shape);
+			}
+		}
+
+		text.append("</root>\n");
+
+		return text.toString();
+	}
+
+	private static void appendAttributes(StringBuilder text, int i) {
+		text.append("  <b:item id=\"").append(i).append("\" name='item ").append(i).append("' b:type=\"value &amp; more\"");
+		text.append(" xmlns:i").append(i % 10).append("=\"http://www.bounce.org/").append(i).append("\"\n");
+		text.append("      i").append(i % 10).append(":first=\"a\" second=\"b &#x20; c\" third=\"&lt;d&gt;\"/>\n");
+	}
+
+	private static void appendNesting(StringBuilder text, int i) {
+		int depth = 20 + i % 20;
+
+		for (int level = 0; level < depth; level++) {
+			indent(text, level);
+			text.append("<level").append(level).append(" depth=\"").append(level).append("\">\n");
+		}
+
+		indent(text, depth);
+		text.append("<text>content ").append(i).append(" &amp; more</text>\n");
+
+		for (int level = depth - 1; level >= 0; level--) {
+			indent(text, level);
+			text.append("</level").append(level).append(">\n");
+		}
+	}
+
+	private static void appendCDATA(StringBuilder text, int i) {
+		text.append("  <script id=\"").append(i).append("\"><![CDATA[\n");
+
+		for (int line = 0; line < 200; line++) {
+			text.append("    if (a < b && b > c) { value[").append(line).append("] = \"<element>\"; }\n");
+		}
+
+		text.append("  ]]></script>\n");
+	}
+
+	private static void appendComments(StringBuilder text, int i) {
+		text.append("  <!-- comment ").append(i).append("\n");
+		text.append("       <element attribute=\"value\"> - with markup - </element>\n");
+		text.append("       and more text -->\n");
+		text.append("  <element>").append(i).append("</element>\n");
+	}
+
+	private static void indent(StringBuilder text, int level) {
+		for (int i = 0; i < level; i++) {
+			text.append("  ");
+		}
+	}
+}
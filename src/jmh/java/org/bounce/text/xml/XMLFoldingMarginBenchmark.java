@@ -0,0 +1,87 @@
+package org.bounce.text.xml;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JEditorPane;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to find the closing lines of the folds, for all lines of
+ * a document and for a screen of lines after an edit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class XMLFoldingMarginBenchmark {
+	private static final int SCREEN = 50;
+
+	@Param({ XMLDocuments.ATTRIBUTES, XMLDocuments.NESTING })
+	public String shape;
+
+	@Param({ "1000000" })
+	public int size;
+
+	private Document document = null;
+	private XMLFoldingMargin margin = null;
+	private int lines = 0;
+
+	@Setup
+	public void setUp() throws BadLocationException, IOException {
+		JEditorPane editor = new JEditorPane();
+		editor.setEditorKit(new XMLEditorKit());
+		editor.setDocument(XMLDocuments.create(shape, size));
+
+		document = editor.getDocument();
+		margin = new XMLFoldingMargin(editor);
+		lines = document.getDefaultRootElement().getElementCount();
+	}
+
+	@Benchmark
+	public int foldAllLines() {
+		int folds = 0;
+
+		for (int line = 0; line < lines; line++) {
+			if (margin.getFoldClosingLine(line, lines - 1) > line) {
+				folds++;
+			}
+		}
+
+		return folds;
+	}
+
+	@Benchmark
+	public int foldScreenAfterEdit() throws BadLocationException {
+		int offset = document.getLength() / 2;
+
+		document.insertString(offset, " ", null);
+		document.remove(offset, 1);
+
+		int first = document.getDefaultRootElement().getElementIndex(offset);
+		int folds = 0;
+
+		for (int line = first; line < Math.min(first + SCREEN, lines); line++) {
+			if (margin.getFoldClosingLine(line, lines - 1) > line) {
+				folds++;
+			}
+		}
+
+		return folds;
+	}
+}
@@ -0,0 +1,63 @@
+package org.bounce.text.xml;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to scan a complete document with both scanner engines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class XMLScannerBenchmark {
+	@Param({ XMLDocuments.ATTRIBUTES, XMLDocuments.NESTING, XMLDocuments.CDATA, XMLDocuments.COMMENTS })
+	public String shape;
+
+	@Param({ "1000000" })
+	public int size;
+
+	@Param({ "0", "1" })
+	public int engine;
+
+	private PlainDocument document = null;
+	private XMLScanner scanner = null;
+
+	@Setup
+	public void setUp() throws BadLocationException, IOException {
+		document = XMLDocuments.create(shape, size);
+		scanner = new XMLScanner(document, engine);
+	}
+
+	@Benchmark
+	public int scan() throws IOException {
+		int length = document.getLength();
+		int tokens = 0;
+
+		scanner.setRange(0, length);
+
+		while (scanner.getEndOffset() < length) {
+			scanner.scan();
+			tokens++;
+		}
+
+		return tokens;
+	}
+}
@@ -0,0 +1,99 @@
+package org.bounce.text.xml;
+
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JEditorPane;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the mapping of the offsets of a line to positions and back, the x
+ * positions of a monospaced font are computed from the characters and the
+ * positions of a proportional font are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class XMLViewCaretBenchmark {
+	@Param({ "Monospaced", "Dialog" })
+	public String font;
+
+	@Param({ "100000" })
+	public int size;
+
+	private JEditorPane editor = null;
+	private int start = 0;
+	private int end = 0;
+	private int y = 0;
+	private int width = 0;
+
+	@Setup
+	public void setUp() throws BadLocationException {
+		editor = new JEditorPane();
+		editor.setFont(new Font(font, Font.PLAIN, 12));
+		editor.setEditorKit(new XMLEditorKit());
+		editor.setDocument(XMLDocuments.create(XMLDocuments.ATTRIBUTES, size));
+		editor.setSize(editor.getPreferredSize());
+
+		// the longest line in the middle of the document.
+		Element root = editor.getDocument().getDefaultRootElement();
+		Element line = root.getElement(root.getElementCount() / 2);
+
+		for (int i = root.getElementCount() / 2; i < root.getElementCount() / 2 + 100; i++) {
+			Element next = root.getElement(i);
+
+			if (next.getEndOffset() - next.getStartOffset() > line.getEndOffset() - line.getStartOffset()) {
+				line = next;
+			}
+		}
+
+		start = line.getStartOffset();
+		end = line.getEndOffset() - 1;
+
+		Rectangle first = editor.modelToView(start);
+		y = first.y + 1;
+		width = editor.modelToView(end).x;
+	}
+
+	@Benchmark
+	public int modelToView() throws BadLocationException {
+		int result = 0;
+
+		for (int offset = start; offset <= end; offset++) {
+			result += editor.modelToView(offset).x;
+		}
+
+		return result;
+	}
+
+	@Benchmark
+	public int viewToModel() {
+		int result = 0;
+		Point point = new Point(0, y);
+
+		for (int x = 0; x < width; x += 4) {
+			point.x = x;
+			result += editor.viewToModel(point);
+		}
+
+		return result;
+	}
+}
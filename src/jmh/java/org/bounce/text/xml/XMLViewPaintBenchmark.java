@@ -0,0 +1,77 @@
+package org.bounce.text.xml;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JEditorPane;
+import javax.swing.text.BadLocationException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to paint a screen of an XML editor into an image, the
+ * document is tokenized in the background during the warmup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class XMLViewPaintBenchmark {
+	private static final int WIDTH = 1000;
+	private static final int HEIGHT = 800;
+
+	@Param({ XMLDocuments.ATTRIBUTES, XMLDocuments.NESTING, XMLDocuments.CDATA, XMLDocuments.COMMENTS })
+	public String shape;
+
+	@Param({ "1000000" })
+	public int size;
+
+	private JEditorPane editor = null;
+	private BufferedImage image = null;
+	private Graphics2D graphics = null;
+	private int y = 0;
+
+	@Setup
+	public void setUp() throws BadLocationException {
+		editor = new JEditorPane();
+		editor.setFont(new Font("Monospaced", Font.PLAIN, 12));
+		editor.setEditorKit(new XMLEditorKit());
+		editor.setDocument(XMLDocuments.create(shape, size));
+		editor.setSize(WIDTH, editor.getPreferredSize().height);
+
+		image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+
+		// paints the middle of the document.
+		y = editor.getHeight() / 2;
+		graphics.translate(0, -y);
+	}
+
+	@TearDown
+	public void tearDown() {
+		graphics.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage paint() {
+		graphics.setClip(0, y, WIDTH, HEIGHT);
+		editor.paint(graphics);
+
+		return image;
+	}
+}
@@ -0,0 +1,927 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.EventListenerList;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+
+/**
+ * Scans a document on a background thread and publishes the tokens of every
+ * line as immutable spans, see {@link #getSpans(int)}.
+ * <p>
+ * The document is scanned from a {@link DocumentSnapshot}, taken while holding
+ * the read lock of the document. Every change of the document increases the
+ * version of the document and schedules a new scan. Until the new scan has
+ * finished, only the spans of the lines before the first changed line are
+ * returned. Listeners are notified on the event dispatch thread when new spans
+ * have been published.
+ * </p>
+ * <p>
+ * The state of the scanner at the start of every line is kept with the spans,
+ * like {@link ScannerCheckpoints}, so a new scan restarts at the line before
+ * the first changed line. When the state at the start of a line after the
+ * last changed line is the same as before the changes, the scan stops and the
+ * spans of the following lines are reused.
+ * </p>
+ * <p>
+ * A large document can be scanned in parts on a pool of worker threads, when
+ * the tokenizer knows where the scanner can start without a previous state,
+ * see {@link #getSafeOffsets(Document, int)}. Every part is scanned from the
+ * start state and the parts are joined in order, a part that does not start
+ * with the state at the end of the previous part is scanned again, from that
+ * state, so the spans are the same as when the document is scanned at once.
+ * </p>
+ */
+public abstract class BackgroundTokenizer implements DocumentListener {
+	/**
+	 * The system property with the minimum number of characters of a document
+	 * that is scanned in parts, a negative number disables scanning in parts.
+	 */
+	public static final String PARALLEL_PROPERTY = "org.bounce.text.BackgroundTokenizer.parallel";
+
+	private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+	// the default minimum length of a document that is scanned in parts.
+	private static final int PARALLEL_LENGTH = 262144;
+
+	// the minimum length of a part.
+	private static final int PART_LENGTH = 65536;
+
+	// the number of tokens of a part between the checks for a change.
+	private static final int CHECK_INTERVAL = 4096;
+
+	private static final ExecutorService WORKERS = Executors.newFixedThreadPool(PROCESSORS, new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "BackgroundTokenizer worker");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+
+			return thread;
+		}
+	});
+
+	private final Document document;
+	private final EventListenerList listeners = new EventListenerList();
+
+	private boolean started = false;
+	private boolean pending = false;
+	private long version = 0;
+
+	// the published spans, the checkpoint states and the end offsets of the
+	// checkpoints relative to the line start, kept in line with the document.
+	private TokenSpans[] lines = null;
+	private SyntaxHighlightingScanner.State[] states = null;
+	private int[] offsets = null;
+	private int count = 0;
+
+	// the lines before dirty have not changed since the spans were published,
+	// the lines before valid also have valid checkpoints.
+	private int dirty = 0;
+	private int valid = 0;
+
+	// the last line changed since the spans were published, the checkpoints
+	// of the following lines are the checkpoints from before the changes.
+	private int changed = -1;
+
+	private final Runnable task = new Runnable() {
+		public void run() {
+			synchronized (BackgroundTokenizer.this) {
+				pending = false;
+			}
+
+			tokenize();
+		}
+	};
+
+	/**
+	 * Constructs a tokenizer for the document.
+	 * 
+	 * @param document
+	 *            the document.
+	 */
+	public BackgroundTokenizer(Document document) {
+		this.document = document;
+	}
+
+	/**
+	 * Creates the scanner used to scan a snapshot of the document, this is
+	 * called on the background thread and on the worker threads, once for
+	 * every part of the document that is scanned separately.
+	 * 
+	 * @param document
+	 *            the snapshot of the document.
+	 * @return the scanner.
+	 * 
+	 * @throws IOException if the scanner cannot be created
+	 */
+	protected abstract SyntaxHighlightingScanner createScanner(Document document) throws IOException;
+
+	/**
+	 * Returns the offsets at which a scanner can start scanning the snapshot
+	 * without a previous state, to scan the parts between the offsets in
+	 * parallel. The offsets only have to be a good guess, a part that does not
+	 * start with the state of the scanner at the end of the previous part is
+	 * scanned again.
+	 * <p>
+	 * Returns null, the document is scanned at once.
+	 * </p>
+	 * 
+	 * @param document
+	 *            the snapshot of the document.
+	 * @param interval
+	 *            the minimum distance between the offsets.
+	 * @return the sorted offsets starting with 0, or null.
+	 */
+	protected int[] getSafeOffsets(Document document, int interval) {
+		return null;
+	}
+
+	/**
+	 * Starts listening to the document and schedules the first scan.
+	 */
+	public synchronized void start() {
+		if (!started) {
+			started = true;
+			document.addDocumentListener(this);
+
+			schedule();
+		}
+	}
+
+	/**
+	 * Stops listening to the document and discards the spans.
+	 */
+	public synchronized void stop() {
+		if (started) {
+			started = false;
+			document.removeDocumentListener(this);
+
+			clear();
+		}
+	}
+
+	/**
+	 * Returns the spans of the line, if the line has been scanned since the
+	 * last change of the line or a line before.
+	 * 
+	 * @param line
+	 *            the line index.
+	 * @return the spans or null when the line is not covered.
+	 */
+	public synchronized TokenSpans getSpans(int line) {
+		if (lines != null && line < dirty && line < count) {
+			return lines[line];
+		}
+
+		return null;
+	}
+
+	/**
+	 * Adds a listener that is notified on the event dispatch thread when new
+	 * spans have been published.
+	 * 
+	 * @param listener
+	 *            the change listener.
+	 */
+	public void addChangeListener(ChangeListener listener) {
+		listeners.add(ChangeListener.class, listener);
+	}
+
+	/**
+	 * Removes the change listener.
+	 * 
+	 * @param listener
+	 *            the change listener.
+	 */
+	public void removeChangeListener(ChangeListener listener) {
+		listeners.remove(ChangeListener.class, listener);
+	}
+
+	public void insertUpdate(DocumentEvent event) {
+		changed(event);
+	}
+
+	public void removeUpdate(DocumentEvent event) {
+		changed(event);
+	}
+
+	public void changedUpdate(DocumentEvent event) {}
+
+	// Invalidates the lines from the change, moves the spans and checkpoints
+	// of the following lines and schedules a new scan.
+	private synchronized void changed(DocumentEvent event) {
+		version++;
+
+		Element root = document.getDefaultRootElement();
+		int offset = event.getOffset();
+		int line = root.getElementIndex(offset);
+
+		dirty = Math.min(dirty, line);
+
+		if (lines != null) {
+			DocumentEvent.ElementChange change = event.getChange(root);
+
+			if (change != null) {
+				int removed = change.getChildrenRemoved().length;
+				int added = change.getChildrenAdded().length;
+
+				if (count - removed + added == root.getElementCount()) {
+					replace(change.getIndex(), removed, added);
+				}
+			}
+
+			if (count != root.getElementCount()) {
+				// not in line with the document, scan all lines again.
+				clear();
+			} else {
+				// a checkpoint depends on all characters up to and including
+				// the character at its offset.
+				int limit = Math.min(line + 1, valid);
+
+				while (limit > 0 && root.getElement(limit - 1).getStartOffset() + offsets[limit - 1] >= offset) {
+					limit--;
+				}
+
+				valid = limit;
+
+				if (event.getType() == DocumentEvent.EventType.INSERT) {
+					line = root.getElementIndex(offset + event.getLength());
+				}
+
+				changed = Math.max(changed, line);
+			}
+		}
+
+		schedule();
+	}
+
+	// Replaces the removed lines with the added lines, the added lines have
+	// no spans and no checkpoints.
+	private void replace(int index, int removed, int added) {
+		int size = count - removed + added;
+
+		if (size > lines.length) {
+			int capacity = Math.max(size, lines.length * 3 / 2);
+			TokenSpans[] newLines = new TokenSpans[capacity];
+			SyntaxHighlightingScanner.State[] newStates = new SyntaxHighlightingScanner.State[capacity];
+			int[] newOffsets = new int[capacity];
+
+			System.arraycopy(lines, 0, newLines, 0, index);
+			System.arraycopy(states, 0, newStates, 0, index);
+			System.arraycopy(offsets, 0, newOffsets, 0, index);
+			System.arraycopy(lines, index + removed, newLines, index + added, count - index - removed);
+			System.arraycopy(states, index + removed, newStates, index + added, count - index - removed);
+			System.arraycopy(offsets, index + removed, newOffsets, index + added, count - index - removed);
+
+			lines = newLines;
+			states = newStates;
+			offsets = newOffsets;
+		} else {
+			System.arraycopy(lines, index + removed, lines, index + added, count - index - removed);
+			System.arraycopy(states, index + removed, states, index + added, count - index - removed);
+			System.arraycopy(offsets, index + removed, offsets, index + added, count - index - removed);
+		}
+
+		for (int i = index; i < index + added; i++) {
+			lines[i] = null;
+			states[i] = null;
+		}
+
+		for (int i = size; i < count; i++) {
+			lines[i] = null;
+			states[i] = null;
+		}
+
+		dirty = Math.min(dirty, index);
+		valid = Math.min(valid, index);
+
+		if (changed >= index + removed) {
+			changed = changed + added - removed;
+		} else {
+			changed = Math.max(changed, index + added - 1);
+		}
+
+		count = size;
+	}
+
+	// Discards the spans and checkpoints.
+	private void clear() {
+		lines = null;
+		states = null;
+		offsets = null;
+		count = 0;
+		dirty = 0;
+		valid = 0;
+		changed = -1;
+	}
+
+	private synchronized void schedule() {
+		if (!pending) {
+			pending = true;
+			BackgroundExecutor.execute(task);
+		}
+	}
+
+	private synchronized boolean isStale(long version) {
+		return !started || this.version != version;
+	}
+
+	// Scans a snapshot of the document, on the background thread.
+	private void tokenize() {
+		final long version;
+		LineTable previous = null;
+		int first = 0;
+		int last = -1;
+
+		synchronized (this) {
+			version = this.version;
+
+			if (lines != null) {
+				previous = new LineTable(copy(lines, new TokenSpans[count]), copy(states, new SyntaxHighlightingScanner.State[count]), copy(offsets, new int[count]));
+				first = Math.min(Math.min(dirty, valid), count - 1);
+				last = changed;
+			}
+		}
+
+		// a change after the version has been read makes the snapshot stale.
+		DocumentSnapshot snapshot = DocumentSnapshot.create(document);
+
+		if (snapshot == null || isStale(version)) {
+			return;
+		}
+
+		try {
+			final LineTable result = tokenize(snapshot, createScanner(snapshot), previous, first, last, version);
+
+			if (result != null) {
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						publish(result, version);
+					}
+				});
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// Returns the spans and checkpoints for all lines of the document, null
+	// when the document has changed. With the previous table the scanner
+	// restarts at the checkpoint of the line before the first line, and the
+	// previous table is used from the line where the state converges with
+	// the state before the changes, after the last changed line.
+	private LineTable tokenize(Document snapshot, SyntaxHighlightingScanner scanner, LineTable previous, int first, int last, long version) throws IOException {
+		int length = snapshot.getLength();
+		Element root = snapshot.getDefaultRootElement();
+
+		// without a complete lexical state the scanner cannot be restarted.
+		if (previous == null || previous.spans.length != root.getElementCount() || !scanner.hasLexicalState()) {
+			int parallel = getParallelLength();
+
+			if (scanner.hasLexicalState() && parallel >= 0 && length >= parallel) {
+				int[] offsets = getSafeOffsets(snapshot, Math.max(PART_LENGTH, length / (PROCESSORS * 4)));
+
+				if (offsets != null && offsets.length > 1) {
+					return tokenize(snapshot, scanner, offsets, version);
+				}
+			}
+
+			previous = null;
+			first = 0;
+		}
+
+		SpanCollector spans = new SpanCollector(snapshot, version, previous, first, last);
+
+		if (first == 0) {
+			scanner.setRange(0, length);
+		} else {
+			scanner.setState(previous.states[first - 1], root.getElement(first - 1).getStartOffset() + previous.offsets[first - 1], length);
+		}
+
+		if (!scan(scanner, length, length, spans) && !spans.isConverged()) {
+			// the scanner cannot make any progress, leave the rest uncovered.
+			return isStale(version) ? null : spans.getLines();
+		}
+
+		return spans.finish();
+	}
+
+	// Scans the parts between the offsets on the worker threads and joins the
+	// tokens of the parts, the first part is scanned on this thread.
+	private LineTable tokenize(Document snapshot, SyntaxHighlightingScanner scanner, int[] offsets, long version) throws IOException {
+		int length = snapshot.getLength();
+		List<Future<Part>> parts = new ArrayList<Future<Part>>();
+
+		for (int i = 1; i < offsets.length; i++) {
+			int end = i + 1 < offsets.length ? offsets[i + 1] : length;
+			parts.add(WORKERS.submit(new Part(snapshot, offsets[i], end, version)));
+		}
+
+		try {
+			SpanCollector spans = new SpanCollector(snapshot, version, null, 0, -1);
+			scanner.setRange(0, length);
+
+			if (!scan(scanner, offsets[1], length, spans)) {
+				return isStale(version) ? null : spans.getLines();
+			}
+
+			// the state at the end of the tokens that have been joined.
+			SyntaxHighlightingScanner.State state = scanner.getState();
+			int offset = scanner.getEndOffset();
+
+			for (int i = 0; i < parts.size() && offset < length; i++) {
+				Part part = parts.get(i).get();
+
+				if (part.complete && part.startOffset == offset && part.startState.equals(state)) {
+					// the first token of the part is the last token joined.
+					if (!part.tokens.addTo(spans, 1)) {
+						return null;
+					}
+
+					state = part.endState;
+					offset = part.endOffset;
+				} else {
+					// the part does not start with the state, scan it again.
+					scanner.setState(state, offset, length);
+
+					if (!scan(scanner, part.end, length, spans)) {
+						return isStale(version) ? null : spans.getLines();
+					}
+
+					state = scanner.getState();
+					offset = scanner.getEndOffset();
+				}
+			}
+
+			return spans.finish();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+
+			e.printStackTrace();
+			return null;
+		} finally {
+			for (int i = 0; i < parts.size(); i++) {
+				parts.get(i).cancel(false);
+			}
+		}
+	}
+
+	// Adds the tokens to the sink until a token ends after the limit, starting
+	// with the current token of the scanner. Returns false when the scanner
+	// cannot make any progress or the sink does not accept more tokens.
+	private static boolean scan(SyntaxHighlightingScanner scanner, int limit, int length, TokenSink sink) throws IOException {
+		int covered = 0;
+		int stalled = 0;
+
+		while (true) {
+			int end = Math.min(scanner.getEndOffset(), length);
+			SyntaxHighlightingScanner.State state = sink.needsState(scanner.getEndOffset()) ? scanner.getState() : null;
+
+			if (!sink.add(scanner.getStartOffset(), end, scanner.getTokenId(), scanner.isError(), state)) {
+				return false;
+			}
+
+			covered = Math.max(covered, end);
+
+			if (covered > limit || covered >= length) {
+				return true;
+			}
+
+			scanner.scan();
+
+			if (scanner.getEndOffset() <= covered) {
+				if (++stalled > 2) {
+					return false;
+				}
+			} else {
+				stalled = 0;
+			}
+		}
+	}
+
+	private static int getParallelLength() {
+		try {
+			String length = System.getProperty(PARALLEL_PROPERTY);
+
+			if (length != null) {
+				return Integer.parseInt(length.trim());
+			}
+		} catch (SecurityException e) {
+			// use the default length.
+		} catch (NumberFormatException e) {
+			// use the default length.
+		}
+
+		return PROCESSORS > 1 ? PARALLEL_LENGTH : -1;
+	}
+
+	private static <T> T[] copy(T[] source, T[] target) {
+		System.arraycopy(source, 0, target, 0, target.length);
+		return target;
+	}
+
+	private static int[] copy(int[] source, int[] target) {
+		System.arraycopy(source, 0, target, 0, target.length);
+		return target;
+	}
+
+	// Publishes the spans, on the event dispatch thread.
+	private void publish(LineTable result, long version) {
+		synchronized (this) {
+			if (isStale(version)) {
+				return;
+			}
+
+			lines = result.spans;
+			states = result.states;
+			offsets = result.offsets;
+			count = lines.length;
+
+			dirty = Integer.MAX_VALUE;
+			valid = result.getValidLines();
+			changed = -1;
+		}
+
+		ChangeEvent event = new ChangeEvent(this);
+		Object[] list = listeners.getListenerList();
+
+		for (int i = list.length - 2; i >= 0; i -= 2) {
+			if (list[i] == ChangeListener.class) {
+				((ChangeListener) list[i + 1]).stateChanged(event);
+			}
+		}
+	}
+
+	// The spans of the lines of a version of the document, with the state of
+	// the scanner at the checkpoint of every line, see ScannerCheckpoints,
+	// and the end offset of the checkpoint relative to the line start.
+	private static class LineTable {
+		private final TokenSpans[] spans;
+		private final SyntaxHighlightingScanner.State[] states;
+		private final int[] offsets;
+
+		public LineTable(TokenSpans[] spans, SyntaxHighlightingScanner.State[] states, int[] offsets) {
+			this.spans = spans;
+			this.states = states;
+			this.offsets = offsets;
+		}
+
+		// Returns the index of the first line without a checkpoint.
+		public int getValidLines() {
+			int line = 0;
+
+			while (line < states.length && states[line] != null) {
+				line++;
+			}
+
+			return line;
+		}
+	}
+
+	// Receives the tokens of a scan, in document order.
+	private interface TokenSink {
+		// Returns true when the state of the scanner is needed for the token
+		// that ends at the offset.
+		boolean needsState(int end);
+
+		// Adds the token with the state of the scanner after the token, or
+		// null when not needed. Returns false when no more tokens are
+		// accepted.
+		boolean add(int start, int end, int id, boolean error, SyntaxHighlightingScanner.State state);
+	}
+
+	// Builds the spans and checkpoints of the lines from the tokens, the part
+	// of a token that has been covered by the previous tokens is skipped.
+	private class SpanCollector implements TokenSink {
+		private final Element root;
+		private final TokenSpans.Builder builder = new TokenSpans.Builder();
+		private final long version;
+
+		private final TokenSpans[] spans;
+		private final SyntaxHighlightingScanner.State[] states;
+		private final int[] offsets;
+
+		// the table from before the changes and the last changed line.
+		private final LineTable previous;
+		private final int last;
+
+		private int line;
+		private int lineStart;
+		private int lineEnd;
+		private int covered;
+
+		// the next line without a checkpoint and the line where the state has
+		// converged with the state before the changes.
+		private int checkpoint;
+		private int checkpointStart;
+		private int converged = -1;
+
+		// the last state of a checkpoint, equal states are shared.
+		private SyntaxHighlightingScanner.State shared = null;
+
+		public SpanCollector(Document document, long version, LineTable previous, int first, int last) {
+			this.version = version;
+			this.previous = previous;
+			this.last = last;
+
+			root = document.getDefaultRootElement();
+
+			int size = root.getElementCount();
+			spans = new TokenSpans[size];
+			states = new SyntaxHighlightingScanner.State[size];
+			offsets = new int[size];
+
+			if (first > 0) {
+				// the lines before the first line have not changed.
+				System.arraycopy(previous.spans, 0, spans, 0, first);
+				System.arraycopy(previous.states, 0, states, 0, first);
+				System.arraycopy(previous.offsets, 0, offsets, 0, first);
+			}
+
+			line = first;
+			lineStart = root.getElement(first).getStartOffset();
+			lineEnd = root.getElement(first).getEndOffset();
+			covered = lineStart;
+
+			checkpoint = first;
+			checkpointStart = lineStart;
+		}
+
+		public boolean needsState(int end) {
+			return end >= checkpointStart;
+		}
+
+		// Returns false when the document has changed or the state has
+		// converged.
+		public boolean add(int start, int end, int id, boolean error, SyntaxHighlightingScanner.State state) {
+			if (state != null && !checkpoint(start + state.getLength(), state)) {
+				// the tokens from the converged line are the same as before.
+				addSpans(start, Math.min(end, root.getElement(converged).getStartOffset()), id, error);
+				return false;
+			}
+
+			return addSpans(start, end, id, error);
+		}
+
+		// Sets the checkpoints of the lines that start before or at the end
+		// of the token, returns false when the state has converged.
+		private boolean checkpoint(int end, SyntaxHighlightingScanner.State state) {
+			if (state.equals(shared)) {
+				state = shared;
+			}
+
+			shared = state;
+
+			while (end >= checkpointStart) {
+				int offset = end - checkpointStart;
+
+				if (previous != null && checkpoint > last && previous.states[checkpoint] != null && previous.offsets[checkpoint] == offset
+						&& state.equals(previous.states[checkpoint])) {
+					converged = checkpoint;
+					return false;
+				}
+
+				states[checkpoint] = state;
+				offsets[checkpoint] = offset;
+				checkpoint++;
+
+				checkpointStart = checkpoint < states.length ? root.getElement(checkpoint).getStartOffset() : Integer.MAX_VALUE;
+			}
+
+			return true;
+		}
+
+		private boolean addSpans(int start, int end, int id, boolean error) {
+			start = Math.max(start, covered);
+
+			while (start < end) {
+				if (start >= lineEnd) {
+					spans[line++] = builder.build();
+
+					if (isStale(version)) {
+						return false;
+					}
+
+					Element element = root.getElement(line);
+					lineStart = element.getStartOffset();
+					lineEnd = element.getEndOffset();
+				} else {
+					int next = Math.min(end, lineEnd);
+					builder.add(start - lineStart, next - start, id, error);
+					start = next;
+				}
+			}
+
+			covered = Math.max(covered, end);
+
+			return true;
+		}
+
+		// Returns true when the state has converged.
+		public boolean isConverged() {
+			return converged != -1;
+		}
+
+		// Returns the lines that have been completed.
+		public LineTable getLines() {
+			return new LineTable(spans, states, offsets);
+		}
+
+		// Returns all lines, the lines from the converged line are taken from
+		// the table before the changes, otherwise the lines after the last
+		// token are empty.
+		public LineTable finish() {
+			if (converged != -1) {
+				while (line < converged) {
+					spans[line++] = builder.build();
+				}
+
+				System.arraycopy(previous.spans, converged, spans, converged, spans.length - converged);
+				System.arraycopy(previous.states, converged, states, converged, states.length - converged);
+				System.arraycopy(previous.offsets, converged, offsets, converged, offsets.length - converged);
+			} else {
+				spans[line] = builder.build();
+
+				for (int i = line + 1; i < spans.length; i++) {
+					spans[i] = builder.build();
+				}
+			}
+
+			return new LineTable(spans, states, offsets);
+		}
+	}
+
+	// The tokens of a part, kept until the part is joined, with the states of
+	// the tokens that are the checkpoint of a line.
+	private class TokenBuffer implements TokenSink {
+		private final Element root;
+		private final long version;
+
+		private int[] starts = new int[1024];
+		private int[] ends = new int[1024];
+		private int[] ids = new int[1024];
+		private boolean[] errors = new boolean[1024];
+		private SyntaxHighlightingScanner.State[] states = new SyntaxHighlightingScanner.State[1024];
+		private int size = 0;
+
+		// the next line without a checkpoint.
+		private int checkpoint;
+		private int checkpointStart;
+
+		public TokenBuffer(Document document, int start, long version) {
+			this.version = version;
+
+			root = document.getDefaultRootElement();
+			checkpoint = root.getElementIndex(start);
+			checkpointStart = root.getElement(checkpoint).getStartOffset();
+		}
+
+		public boolean needsState(int end) {
+			return end >= checkpointStart;
+		}
+
+		// Returns false when the document has changed, this is checked every
+		// few tokens.
+		public boolean add(int start, int end, int id, boolean error, SyntaxHighlightingScanner.State state) {
+			if (size == starts.length) {
+				int capacity = size * 2;
+				int[] newStarts = new int[capacity];
+				int[] newEnds = new int[capacity];
+				int[] newIds = new int[capacity];
+				boolean[] newErrors = new boolean[capacity];
+				SyntaxHighlightingScanner.State[] newStates = new SyntaxHighlightingScanner.State[capacity];
+
+				System.arraycopy(starts, 0, newStarts, 0, size);
+				System.arraycopy(ends, 0, newEnds, 0, size);
+				System.arraycopy(ids, 0, newIds, 0, size);
+				System.arraycopy(errors, 0, newErrors, 0, size);
+				System.arraycopy(states, 0, newStates, 0, size);
+
+				starts = newStarts;
+				ends = newEnds;
+				ids = newIds;
+				errors = newErrors;
+				states = newStates;
+			}
+
+			if (state != null) {
+				int tokenEnd = start + state.getLength();
+
+				while (tokenEnd >= checkpointStart) {
+					checkpoint++;
+					checkpointStart = checkpoint < root.getElementCount() ? root.getElement(checkpoint).getStartOffset() : Integer.MAX_VALUE;
+				}
+			}
+
+			starts[size] = start;
+			ends[size] = end;
+			ids[size] = id;
+			errors[size] = error;
+			states[size] = state;
+			size++;
+
+			return size % CHECK_INTERVAL != 0 || !isStale(version);
+		}
+
+		// Adds the tokens from the index to the sink, returns false when the
+		// sink does not accept more tokens.
+		public boolean addTo(TokenSink sink, int index) {
+			for (int i = index; i < size; i++) {
+				if (!sink.add(starts[i], ends[i], ids[i], errors[i], states[i])) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+
+	// A part of the document that is scanned on a worker thread, from the
+	// start state of the scanner.
+	private class Part implements Callable<Part> {
+		private final Document snapshot;
+		private final int start;
+		private final int end;
+
+		private final TokenBuffer tokens;
+
+		// the state after the first token and after the first token that ends
+		// after the end of the part.
+		private SyntaxHighlightingScanner.State startState = null;
+		private int startOffset = -1;
+		private SyntaxHighlightingScanner.State endState = null;
+		private int endOffset = -1;
+
+		// false when the part has not been scanned up to the end.
+		private boolean complete = false;
+
+		public Part(Document snapshot, int start, int end, long version) {
+			this.snapshot = snapshot;
+			this.start = start;
+			this.end = end;
+
+			tokens = new TokenBuffer(snapshot, start, version);
+		}
+
+		public Part call() throws IOException {
+			int length = snapshot.getLength();
+			SyntaxHighlightingScanner scanner = createScanner(snapshot);
+			scanner.setRange(start, length);
+
+			startState = scanner.getState();
+			startOffset = scanner.getEndOffset();
+
+			complete = scan(scanner, end, length, tokens);
+
+			endState = scanner.getState();
+			endOffset = scanner.getEndOffset();
+
+			return this;
+		}
+	}
+}
@@ -29,9 +29,7 @@
 package org.bounce.text;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.Reader;
-import java.io.UnsupportedEncodingException;
 
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
@@ -41,6 +39,19 @@ import javax.swing.text.Segment;
  * A Reader for XML input, which can handle escape characters.
  * 
  * <p>
+ * The characters are read directly from the document content, using a
+ * partial return segment, so no characters are copied. The characters that
+ * are available without a call to the document are exposed as a window, see
+ * {@link #getBuffer()}, {@link #getIndex()}, {@link #getLimit()} and
+ * {@link #advance(int)}, to allow scanners to skip over runs of characters.
+ * </p>
+ * 
+ * <p>
+ * The reader does not lock the document, a document that can be changed while
+ * it is read on another thread should be read from a {@link DocumentSnapshot}.
+ * </p>
+ * 
+ * <p>
  * <b>Note: </b> The XML Editor package is based on the JavaEditorKit example as
  * described in the article <i>'Customizing a Text Editor' </i> by <b>Timothy
  * Prinzing </b>. See:
@@ -52,29 +63,34 @@ import javax.swing.text.Segment;
  */
 public class DocumentInputReader extends Reader {
 
-    private static final int BUFFERLEN = 10240;
+    private static final long LINE = 0x100000000L;
 
-    private final char buffer[] = new char[BUFFERLEN];
-
-    private DocumentInputStream stream = null;
+    private final Document document;
+    private final Segment segment = new Segment();
 
     public long pos = 0;
 
-    private long chpos = 0x100000000L;
-    private int pushBack = -1;
+    private long chpos = LINE;
     private int lastChar = -1;
-    private int currentIndex = 0;
-    private int numChars = 0;
 
-    // test this
-    
+    // the current window in the document content.
+    private char[] array = null;
+    private int index = 0;
+    private int limit = 0;
+
+    private int next = 0; // document position of the next window
+    private int end = 0; // end position
+
     /**
      * Constructs the new input stream reader out of the Xml input strem.
      * 
      * @param document the document.
      */
     public DocumentInputReader(Document document) {
-        stream = new DocumentInputStream(document);
+        this.document = document;
+
+        segment.setPartialReturn(true);
+        end = document.getLength();
     }
 
     /**
@@ -86,14 +102,15 @@ public class DocumentInputReader extends Reader {
      *            the end position.
      */
     public void setRange( int start, int end) throws IOException {
-        stream.setRange( start, end);
+        this.end = end;
+        next = start;
 
         pos = 0;
-        chpos = 0x100000000L;
-        pushBack = -1;
+        chpos = LINE;
         lastChar = -1;
-        currentIndex = 0;
-        numChars = 0;
+        array = null;
+        index = 0;
+        limit = 0;
     }
     
     /**
@@ -104,9 +121,37 @@ public class DocumentInputReader extends Reader {
      * @throws IOException
      */
     public int read() throws IOException {
-        lastChar = readInternal();
+        int i;
 
-        return lastChar;
+        pos = chpos;
+        chpos++;
+
+        if ( index < limit || load()) {
+            i = array[index++];
+        } else {
+            i = -1;
+        }
+
+        switch ( i) {
+        case 10: // '\n'
+            chpos += LINE;
+            break;
+
+        case 13: // '\r'
+            if ( index < limit || load()) {
+                if ( array[index] == 10) {
+                    index++;
+                    chpos++;
+                }
+            }
+            chpos += LINE;
+            i = 10;
+            break;
+        }
+
+        lastChar = i;
+
+        return i;
     }
 
     /**
@@ -118,194 +163,177 @@ public class DocumentInputReader extends Reader {
         return lastChar;
     }
 
-    // The implementation of the read method.
-    private int readInternal() throws IOException {
-        int i;
-        label0: {
-            pos = chpos;
-            chpos++;
-            i = pushBack;
+    /**
+     * Reads characters until the character is found or the end of the stream
+     * has been reached, at least one character is read.
+     * 
+     * @param character
+     *            the character to stop at.
+     * 
+     * @return the character or -1 for an eof.
+     * 
+     * @throws IOException
+     */
+    public int readUntil( char character) throws IOException {
+        int i = read();
 
-            if ( i == -1) {
-                if ( currentIndex >= numChars) {
-                    numChars = stream.read( buffer);
+        while ( i != character && i != -1) {
+            int j = index;
+            int n = getLimit();
 
-                    if ( numChars == -1) {
-                        i = -1;
-                        break label0;
-                    }
+            while ( j < n) {
+                char c = array[j];
 
-                    currentIndex = 0;
+                if ( c == character || c == 13) {
+                    break;
                 }
-                i = buffer[currentIndex++];
-            } else {
-                pushBack = -1;
+
+                j++;
             }
-        }
 
-        switch ( i) {
-        case 10: // '\n'
-            chpos += 0x100000000L;
-            return 10;
+            if ( j > index) {
+                advance( j - index);
+            }
 
-        case 13: // '\r'
-            if ( (i = getNextChar()) != 10)
-                pushBack = i;
-            else
-                chpos++;
-            chpos += 0x100000000L;
-            return 10;
+            i = read();
         }
 
         return i;
     }
 
-    // Returns the next character from the stream
-    private int getNextChar() throws IOException {
-        if ( currentIndex >= numChars) {
-            numChars = stream.read( buffer);
+    /**
+     * Returns the array that contains the characters that can be read
+     * without accessing the document, the characters from {@link #getIndex()}
+     * up to {@link #getLimit()} will be returned by the next calls to
+     * {@link #read()}, except that a '\r' is returned as a '\n'.
+     * 
+     * @return the array with the characters.
+     */
+    public char[] getBuffer() {
+        return array;
+    }
+
+    /**
+     * Returns the index in the buffer of the next character.
+     * 
+     * @return the index of the next character.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the index in the buffer after the last available character,
+     * there are no characters available when the limit equals the index.
+     * 
+     * @return the limit of the buffer.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Reads a number of available characters from the buffer, this has the
+     * same result as calling {@link #read()} for every character. The
+     * characters may not contain a '\r'.
+     * 
+     * @param count
+     *            the number of characters, at least 1 and not more than the
+     *            characters available.
+     * 
+     * @return the last character read.
+     */
+    public int advance( int count) {
+        int last = index + count - 1;
+        long lines = 0;
 
-            if ( numChars == -1) {
-                return -1;
+        for ( int i = index; i < last; i++) {
+            if ( array[i] == 10) {
+                lines += LINE;
             }
+        }
+
+        pos = chpos + count - 1 + lines;
+        chpos = pos + 1;
 
-            currentIndex = 0;
+        lastChar = array[last];
+        index = last + 1;
+
+        if ( lastChar == 10) {
+            chpos += LINE;
         }
 
-        return buffer[currentIndex++];
+        return lastChar;
     }
 
-	@Override
-	public void close() throws IOException {
-		// TODO Auto-generated method stub
-	}
-
-	@Override
-	public int read(char[] ac, int i, int j) throws IOException {
-		// TODO Auto-generated method stub
-		return 0;
-	}
-	
-	private static class DocumentInputStream extends InputStream {
-
-	    private Segment segment = null;
-
-	    private Document document = null;
-
-	    private int end = 0; // end position
-
-	    private int pos = 0; // pos in document
-
-	    private int index = 0; // index into array of the segment
-
-	    /**
-	     * Constructs a stream for the document.
-	     * 
-	     * @param doc
-	     *            the document with Xml Information.
-	     */
-	    public DocumentInputStream( Document doc) {
-	        this.segment = new Segment();
-	        this.document = doc;
-
-	        end = document.getLength();
-	        pos = 0;
-
-            try {
-				loadSegment();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-	    }
-
-	    /**
-	     * Sets the new range to be scanned for the stream and loads the necessary
-	     * information.
-	     * 
-	     * @param start
-	     *            the start of the segment.
-	     * @param end
-	     *            the end of the segment.
-	     */
-	    public void setRange( int start, int end) throws IOException {
-	        this.end = end;
-	        pos = start;
-
-            loadSegment();
-	    }
-
-	    /**
-	     * Reads the next byte of data from this input stream. The value byte is
-	     * returned as an <code>int</code> in the range <code>0</code> to
-	     * <code>255</code>. If no byte is available because the end of the
-	     * stream has been reached, the value <code>-1</code> is returned.
-	     * 
-	     * @return the next byte of data, or <code>-1</code> if the end of the
-	     *         stream is reached.
-	     *         
-	     * @throws IOException
-	     */
-	    public int read() throws IOException {
-	        if ( index >= segment.offset + segment.count) {
-	            if ( pos >= end) {
-	                // no more data
-	                return -1;
-	            }
-
-	            loadSegment();
-	        }
-
-	        return segment.array[index++];
-	    }
-
-	    public int read(char[] chars) throws IOException {
-	    	return read(chars, 0, chars.length);
-	    }
-
-	public int read(char[] chars, int i, int j) throws IOException {
-	    if(chars == null)
-	        throw new NullPointerException();
-	    if(i < 0 || j < 0 || j > chars.length - i)
-	        throw new IndexOutOfBoundsException();
-	    if(j == 0)
-	        return 0;
-	    int k = read();
-	    if(k == -1)
-	        return -1;
-	    chars[i] = (char)k;
-	    int i1 = 1;
-	    do
-	    {
-	        try
-	        {
-	            if(i1 >= j)
-	                break;
-	            int l = read();
-	            if(l == -1)
-	                break;
-	            chars[i + i1] = (char)l;
-	            i1++;
-	            continue;
-	        }
-	        catch(IOException ioexception) { }
-	        break;
-	    } while(true);
-	    return i1;
-	}
-
-	// Loads the segment with new information if necessary...
-	    private void loadSegment() throws IOException {
-	        try {
-	            int n = Math.min( 1024, end - pos);
-
-	            document.getText( pos, n, segment);
-	            pos += n;
-
-	            index = segment.offset;
-	        } catch ( BadLocationException e) {
-	            throw new IOException( "Bad location");
-	        }
-	    }
-	}
+    /**
+     * Reads characters into a portion of an array, a '\r' or "\r\n" is
+     * returned as a '\n'.
+     * 
+     * @see Reader#read(char[], int, int)
+     */
+    @Override
+    public int read( char[] chars, int offset, int length) throws IOException {
+        if ( offset < 0 || length < 0 || length > chars.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int count = 0;
+
+        while ( count < length) {
+            int j = index;
+            int n = Math.min( getLimit(), index + length - count);
+
+            while ( j < n && array[j] != 13) {
+                j++;
+            }
+
+            if ( j > index) {
+                System.arraycopy( array, index, chars, offset + count, j - index);
+                count += j - index;
+
+                advance( j - index);
+            } else {
+                int i = read();
+
+                if ( i == -1) {
+                    break;
+                }
+
+                chars[offset + count++] = (char)i;
+            }
+        }
+
+        if ( count == 0 && length > 0) {
+            return -1;
+        }
+
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the document is not closed.
+    }
+
+    // Loads the next window of the document content, returns false for an eof.
+    private boolean load() throws IOException {
+        if ( next >= end) {
+            return false;
+        }
+
+        try {
+            document.getText( next, end - next, segment);
+        } catch ( BadLocationException e) {
+            throw new IOException( "Bad location");
+        }
+
+        next += segment.count;
+
+        array = segment.array;
+        index = segment.offset;
+        limit = segment.offset + segment.count;
+
+        return limit > index;
+    }
 }
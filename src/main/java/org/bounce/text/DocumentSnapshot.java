@@ -0,0 +1,687 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * A read-only copy of a document at one version, the snapshot can be read on
+ * any thread without holding the lock of the document, for instance by an
+ * {@link SyntaxHighlightingScanner} on a background thread.
+ * <p>
+ * The text of a snapshot is kept as a list of pieces of character arrays that
+ * never change. The pieces of the text that has not changed since the previous
+ * snapshot of the same document are shared with that snapshot, only the range
+ * of the document that has changed in between is copied, while holding the
+ * read lock of the document. The start offsets of the lines are kept in an int
+ * array, the lines before and after the changed range are taken over from the
+ * previous snapshot as well.
+ * </p>
+ * <p>
+ * Every change of the document increases the version of the document, a
+ * snapshot is stale when the document has changed since the snapshot was
+ * taken, see {@link #isStale()}. This is cheap enough to check while scanning,
+ * so a background task can stop as soon as its result is no longer needed.
+ * </p>
+ * <p>
+ * Any change to the snapshot throws a <code>BadLocationException</code>.
+ * </p>
+ */
+public final class DocumentSnapshot extends AbstractDocument {
+	private static final long serialVersionUID = -3385021364735279650L;
+
+	static final String TRACKER_ATTRIBUTE = "org.bounce.text.DocumentSnapshot";
+
+	// a snapshot with more pieces is copied into one piece.
+	private static final int MAX_PIECES = 64;
+
+	private static final Object LOCK = new Object();
+
+	private final Tracker tracker;
+	private final long version;
+	private final SnapshotContent content;
+
+	// the start offsets of the lines.
+	private final int[] lines;
+
+	private final Element root = new RootElement();
+
+	private DocumentSnapshot(Tracker tracker, long version, SnapshotContent content, int[] lines) {
+		super(content);
+
+		this.tracker = tracker;
+		this.version = version;
+		this.content = content;
+		this.lines = lines;
+	}
+
+	/**
+	 * Returns a snapshot of the current text of the document, the text is
+	 * read while holding the read lock of the document. When the document has
+	 * not changed since the last snapshot, the last snapshot is returned.
+	 * <p>
+	 * The first snapshot of a document registers a listener with the
+	 * document, to keep track of the version and the changed range.
+	 * </p>
+	 * 
+	 * @param document
+	 *            the document.
+	 * @return the snapshot, null when the text cannot be read.
+	 */
+	public static DocumentSnapshot create(final Document document) {
+		final Tracker tracker = getTracker(document);
+		final DocumentSnapshot[] snapshot = new DocumentSnapshot[1];
+
+		document.render(new Runnable() {
+			public void run() {
+				try {
+					snapshot[0] = tracker.snapshot(document);
+				} catch (BadLocationException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+
+		return snapshot[0];
+	}
+
+	/**
+	 * Returns the version of the document, the version is increased by every
+	 * change of the document after the first snapshot has been taken.
+	 * 
+	 * @param document
+	 *            the document.
+	 * @return the current version of the document.
+	 */
+	public static long getVersion(Document document) {
+		return getTracker(document).version;
+	}
+
+	private static Tracker getTracker(Document document) {
+		synchronized (LOCK) {
+			Tracker tracker = (Tracker) document.getProperty(TRACKER_ATTRIBUTE);
+
+			if (tracker == null) {
+				tracker = new Tracker();
+
+				document.addDocumentListener(tracker);
+				document.putProperty(TRACKER_ATTRIBUTE, tracker);
+			}
+
+			return tracker;
+		}
+	}
+
+	/**
+	 * @return the version of the document this is a snapshot of.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns true when the document has changed since the snapshot was
+	 * taken, this can be called on any thread.
+	 * 
+	 * @return true when the snapshot is stale.
+	 */
+	public boolean isStale() {
+		return tracker.version != version;
+	}
+
+	/**
+	 * Returns the character at the offset, without copying.
+	 * 
+	 * @param offset
+	 *            the offset, smaller than the length of the document.
+	 * @return the character.
+	 */
+	public char charAt(int offset) {
+		return content.charAt(offset);
+	}
+
+	/**
+	 * The snapshot is read-only.
+	 * 
+	 * @throws BadLocationException
+	 *             always.
+	 */
+	public void insertString(int offset, String text, AttributeSet attributes) throws BadLocationException {
+		throw new BadLocationException("Read-only document", offset);
+	}
+
+	/**
+	 * The snapshot is read-only.
+	 * 
+	 * @throws BadLocationException
+	 *             always.
+	 */
+	public void remove(int offset, int length) throws BadLocationException {
+		throw new BadLocationException("Read-only document", offset);
+	}
+
+	/**
+	 * @see Document#getDefaultRootElement()
+	 */
+	public Element getDefaultRootElement() {
+		return root;
+	}
+
+	/**
+	 * @see AbstractDocument#getParagraphElement(int)
+	 */
+	public Element getParagraphElement(int pos) {
+		return root.getElement(root.getElementIndex(pos));
+	}
+
+	// Keeps the version of a document and the range that has changed since
+	// the last snapshot, the text before the head and the last tail characters
+	// of the content have not changed.
+	private static final class Tracker implements DocumentListener {
+		private volatile long version = 0;
+
+		private int head = 0;
+		private int tail = 0;
+
+		// the length of the content after the last change, -1 before the
+		// first snapshot.
+		private int length = -1;
+
+		private Reference<DocumentSnapshot> last = null;
+
+		public void insertUpdate(DocumentEvent event) {
+			changed(event.getDocument().getLength() + 1, event.getOffset(), event.getOffset() + event.getLength());
+		}
+
+		public void removeUpdate(DocumentEvent event) {
+			changed(event.getDocument().getLength() + 1, event.getOffset(), event.getOffset());
+		}
+
+		public void changedUpdate(DocumentEvent event) {}
+
+		// Records the changed range, the offsets are in the changed content.
+		private synchronized void changed(int length, int start, int end) {
+			version++;
+			this.length = length;
+			head = Math.min(head, start);
+			tail = Math.min(tail, length - end);
+		}
+
+		// Returns a snapshot of the document, while holding the read lock.
+		public synchronized DocumentSnapshot snapshot(Document document) throws BadLocationException {
+			DocumentSnapshot previous = last != null ? last.get() : null;
+
+			// the content has an implied newline at the end.
+			int length = document.getLength() + 1;
+
+			if (this.length != -1 && this.length != length) {
+				// called by a document listener before the tracker has been
+				// notified of the change, copy the whole document.
+				return new DocumentSnapshot(this, version, copy(document, null, 0, length, length), getLines(null, null, 0, length, length));
+			}
+
+			if (previous != null && previous.version == version) {
+				return previous;
+			}
+			int start = 0;
+			int end = length;
+
+			if (previous != null) {
+				int previousLength = previous.content.length();
+
+				start = Math.min(head, Math.min(length, previousLength));
+				end = length - Math.min(tail, Math.min(length, previousLength) - start);
+			}
+
+			SnapshotContent content = copy(document, previous, start, end, length);
+			int[] lines = getLines(previous, content, start, end, length);
+
+			DocumentSnapshot snapshot = new DocumentSnapshot(this, version, content, lines);
+
+			this.length = length;
+			last = new SoftReference<DocumentSnapshot>(snapshot);
+			head = Integer.MAX_VALUE;
+			tail = Integer.MAX_VALUE;
+
+			return snapshot;
+		}
+
+		// Returns the content of the document, the range from the start to the
+		// end is copied from the document and the rest is shared with the
+		// previous snapshot.
+		private static SnapshotContent copy(Document document, DocumentSnapshot previous, int start, int end, int length) throws BadLocationException {
+			SnapshotContent.Builder builder = new SnapshotContent.Builder();
+
+			if (previous != null) {
+				previous.content.appendPieces(builder, 0, start);
+			}
+
+			char[] chars = new char[end - start];
+			Segment segment = new Segment();
+			segment.setPartialReturn(true);
+
+			int copied = 0;
+			int available = Math.min(end, length - 1) - start;
+
+			while (copied < available) {
+				document.getText(start + copied, available - copied, segment);
+				System.arraycopy(segment.array, segment.offset, chars, copied, segment.count);
+				copied += segment.count;
+			}
+
+			if (end == length && chars.length > 0) {
+				chars[chars.length - 1] = '\n';
+			}
+
+			builder.add(chars, 0, chars.length);
+
+			if (previous != null) {
+				int previousLength = previous.content.length();
+				previous.content.appendPieces(builder, previousLength - (length - end), previousLength);
+			}
+
+			return builder.build(MAX_PIECES);
+		}
+
+		// Returns the line starts, the lines that start in or just after the
+		// changed range are found in the content, the others are taken from
+		// the previous snapshot.
+		private static int[] getLines(DocumentSnapshot previous, SnapshotContent content, int start, int end, int length) throws BadLocationException {
+			int before = 1;
+			int after = 0;
+			int afterIndex = 0;
+			int delta = 0;
+
+			if (previous != null) {
+				int[] previousLines = previous.lines;
+
+				// the lines that start at or before the start.
+				before = Math.max(1, findLine(previousLines, start + 1));
+
+				// the lines that start after the first unchanged character
+				// after the end.
+				delta = length - previous.content.length();
+				afterIndex = findLine(previousLines, end - delta + 1);
+				after = previousLines.length - afterIndex;
+			}
+
+			int[] lines = new int[Math.max(16, before + after + 1)];
+
+			if (previous != null) {
+				System.arraycopy(previous.lines, 0, lines, 0, before);
+			}
+
+			int index = before;
+			Segment segment = new Segment();
+			segment.setPartialReturn(true);
+
+			// the last newline of the content does not start a line.
+			int limit = Math.min(end, length - 1);
+
+			for (int offset = start; offset < limit; offset += segment.count) {
+				content.getChars(offset, limit - offset, segment);
+
+				for (int i = 0; i < segment.count; i++) {
+					if (segment.array[segment.offset + i] == '\n') {
+						if (index + after == lines.length) {
+							int[] newLines = new int[lines.length * 2];
+							System.arraycopy(lines, 0, newLines, 0, index);
+							lines = newLines;
+						}
+
+						lines[index++] = offset + i + 1;
+					}
+				}
+			}
+
+			int[] result = new int[index + after];
+			System.arraycopy(lines, 0, result, 0, index);
+
+			for (int i = 0; i < after; i++) {
+				result[index + i] = previous.lines[afterIndex + i] + delta;
+			}
+
+			return result;
+		}
+
+		// Returns the index of the first line that starts at or after the
+		// offset.
+		private static int findLine(int[] lines, int offset) {
+			int low = 0;
+			int high = lines.length;
+
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+
+				if (lines[mid] < offset) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+
+			return low;
+		}
+	}
+
+	// The read-only pieces of the text of a snapshot.
+	private static final class SnapshotContent implements AbstractDocument.Content {
+		private final char[][] arrays;
+		private final int[] starts;
+
+		// the offset of every piece, followed by the length of the content.
+		private final int[] offsets;
+
+		private SnapshotContent(char[][] arrays, int[] starts, int[] offsets) {
+			this.arrays = arrays;
+			this.starts = starts;
+			this.offsets = offsets;
+		}
+
+		public int length() {
+			return offsets[arrays.length];
+		}
+
+		public Position createPosition(final int offset) throws BadLocationException {
+			if (offset < 0 || offset > length()) {
+				throw new BadLocationException("Invalid position", offset);
+			}
+
+			// the content never changes.
+			return new Position() {
+				public int getOffset() {
+					return offset;
+				}
+			};
+		}
+
+		public UndoableEdit insertString(int where, String str) throws BadLocationException {
+			throw new BadLocationException("Read-only content", where);
+		}
+
+		public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+			throw new BadLocationException("Read-only content", where);
+		}
+
+		public String getString(int where, int len) throws BadLocationException {
+			Segment text = new Segment();
+			getChars(where, len, text);
+
+			return new String(text.array, text.offset, text.count);
+		}
+
+		// Returns the characters of one piece without copying, when the range
+		// is part of the piece or for a partial return.
+		public void getChars(int where, int len, Segment txt) throws BadLocationException {
+			if (where < 0 || len < 0 || where + len > length()) {
+				throw new BadLocationException("Invalid location", where + len);
+			}
+
+			int piece = findPiece(where);
+			int available = offsets[piece + 1] - where;
+
+			if (len <= available || txt.isPartialReturn()) {
+				txt.array = arrays[piece];
+				txt.offset = starts[piece] + where - offsets[piece];
+				txt.count = Math.min(len, available);
+			} else {
+				char[] chars = new char[len];
+				int copied = 0;
+
+				while (copied < len) {
+					int count = Math.min(len - copied, offsets[piece + 1] - where - copied);
+					System.arraycopy(arrays[piece], starts[piece] + where + copied - offsets[piece], chars, copied, count);
+					copied += count;
+					piece++;
+				}
+
+				txt.array = chars;
+				txt.offset = 0;
+				txt.count = len;
+			}
+		}
+
+		public char charAt(int offset) {
+			int piece = findPiece(offset);
+
+			return arrays[piece][starts[piece] + offset - offsets[piece]];
+		}
+
+		// Adds the pieces of the range to the builder.
+		public void appendPieces(Builder builder, int start, int end) {
+			if (start >= end) {
+				return;
+			}
+
+			for (int piece = findPiece(start); piece < arrays.length && offsets[piece] < end; piece++) {
+				int from = Math.max(start, offsets[piece]);
+				int to = Math.min(end, offsets[piece + 1]);
+
+				builder.add(arrays[piece], starts[piece] + from - offsets[piece], to - from);
+			}
+		}
+
+		// Returns the index of the piece that contains the offset, the last
+		// piece for the length.
+		private int findPiece(int offset) {
+			int low = 0;
+			int high = arrays.length - 1;
+
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+
+				if (offsets[mid] <= offset) {
+					low = mid;
+				} else {
+					high = mid - 1;
+				}
+			}
+
+			return low;
+		}
+
+		// Collects the pieces of a content.
+		public static class Builder {
+			private char[][] arrays = new char[8][];
+			private int[] starts = new int[8];
+			private int[] lengths = new int[8];
+			private int size = 0;
+			private int length = 0;
+
+			public void add(char[] array, int start, int length) {
+				if (length == 0) {
+					return;
+				}
+
+				if (size == arrays.length) {
+					char[][] newArrays = new char[size * 2][];
+					int[] newStarts = new int[size * 2];
+					int[] newLengths = new int[size * 2];
+
+					System.arraycopy(arrays, 0, newArrays, 0, size);
+					System.arraycopy(starts, 0, newStarts, 0, size);
+					System.arraycopy(lengths, 0, newLengths, 0, size);
+
+					arrays = newArrays;
+					starts = newStarts;
+					lengths = newLengths;
+				}
+
+				arrays[size] = array;
+				starts[size] = start;
+				lengths[size] = length;
+				size++;
+
+				this.length += length;
+			}
+
+			// Returns the content, the pieces are copied into one piece when
+			// there are more than the maximum.
+			public SnapshotContent build(int max) {
+				if (size > max) {
+					char[] chars = new char[length];
+					int offset = 0;
+
+					for (int i = 0; i < size; i++) {
+						System.arraycopy(arrays[i], starts[i], chars, offset, lengths[i]);
+						offset += lengths[i];
+					}
+
+					return new SnapshotContent(new char[][] { chars }, new int[] { 0 }, new int[] { 0, length });
+				}
+
+				char[][] pieceArrays = new char[size][];
+				int[] pieceStarts = new int[size];
+				int[] offsets = new int[size + 1];
+
+				System.arraycopy(arrays, 0, pieceArrays, 0, size);
+				System.arraycopy(starts, 0, pieceStarts, 0, size);
+
+				for (int i = 0; i < size; i++) {
+					offsets[i + 1] = offsets[i] + lengths[i];
+				}
+
+				return new SnapshotContent(pieceArrays, pieceStarts, offsets);
+			}
+		}
+	}
+
+	private class RootElement implements Element {
+		public Document getDocument() {
+			return DocumentSnapshot.this;
+		}
+
+		public Element getParentElement() {
+			return null;
+		}
+
+		public String getName() {
+			return AbstractDocument.SectionElementName;
+		}
+
+		public AttributeSet getAttributes() {
+			return SimpleAttributeSet.EMPTY;
+		}
+
+		public int getStartOffset() {
+			return 0;
+		}
+
+		public int getEndOffset() {
+			return content.length();
+		}
+
+		public int getElementIndex(int offset) {
+			return Math.max(Tracker.findLine(lines, offset + 1) - 1, 0);
+		}
+
+		public int getElementCount() {
+			return lines.length;
+		}
+
+		public Element getElement(int index) {
+			if (index < 0 || index >= lines.length) {
+				return null;
+			}
+
+			return new LineElement(index);
+		}
+
+		public boolean isLeaf() {
+			return false;
+		}
+	}
+
+	private class LineElement implements Element {
+		private final int line;
+
+		public LineElement(int line) {
+			this.line = line;
+		}
+
+		public Document getDocument() {
+			return DocumentSnapshot.this;
+		}
+
+		public Element getParentElement() {
+			return root;
+		}
+
+		public String getName() {
+			return AbstractDocument.ParagraphElementName;
+		}
+
+		public AttributeSet getAttributes() {
+			return SimpleAttributeSet.EMPTY;
+		}
+
+		public int getStartOffset() {
+			return lines[line];
+		}
+
+		public int getEndOffset() {
+			return line + 1 < lines.length ? lines[line + 1] : content.length();
+		}
+
+		public int getElementIndex(int offset) {
+			return -1;
+		}
+
+		public int getElementCount() {
+			return 0;
+		}
+
+		public Element getElement(int index) {
+			return null;
+		}
+
+		public boolean isLeaf() {
+			return true;
+		}
+
+		public boolean equals(Object object) {
+			return object instanceof LineElement && ((LineElement) object).line == line;
+		}
+
+		public int hashCode() {
+			return line;
+		}
+	}
+}
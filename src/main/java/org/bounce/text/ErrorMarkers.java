@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text;
+
+import java.util.Arrays;
+
+/**
+ * The errors found in a document, as a list of markers sorted on the start
+ * offset. The markers are immutable and can be shared between threads.
+ * <p>
+ * The markers do not have to cover the whole document, the markers are only
+ * valid before the limit, see {@link #getLimit()}.
+ * </p>
+ */
+public final class ErrorMarkers {
+	private final int[] starts;
+	private final int[] ends;
+	private final String[] messages;
+	private final int limit;
+
+	// the largest end of the markers up to and including the index.
+	private final int[] maxEnds;
+
+	private ErrorMarkers(int[] starts, int[] ends, String[] messages, int limit) {
+		this.starts = starts;
+		this.ends = ends;
+		this.messages = messages;
+		this.limit = limit;
+
+		maxEnds = new int[starts.length];
+
+		for (int i = 0; i < starts.length; i++) {
+			maxEnds[i] = i > 0 ? Math.max(maxEnds[i - 1], ends[i]) : ends[i];
+		}
+	}
+
+	/**
+	 * @return the number of markers.
+	 */
+	public int getCount() {
+		return starts.length;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the marker.
+	 * @return the start offset of the marker.
+	 */
+	public int getStart(int index) {
+		return starts[index];
+	}
+
+	/**
+	 * @param index
+	 *            the index of the marker.
+	 * @return the end offset of the marker.
+	 */
+	public int getEnd(int index) {
+		return ends[index];
+	}
+
+	/**
+	 * @param index
+	 *            the index of the marker.
+	 * @return the description of the error.
+	 */
+	public String getMessage(int index) {
+		return messages[index];
+	}
+
+	/**
+	 * Returns the offset up to which the document has been checked, there
+	 * are no markers for the errors after this offset.
+	 *
+	 * @return the limit, Integer.MAX_VALUE when the whole document has been
+	 *         checked.
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Returns the index of the first marker that can end after the offset,
+	 * all markers before the index end at or before the offset.
+	 *
+	 * @param offset
+	 *            the offset in the document.
+	 * @return the index of the first marker that can end after the offset,
+	 *         the number of markers if no marker ends after the offset.
+	 */
+	public int getIndex(int offset) {
+		int low = 0;
+		int high = maxEnds.length;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (maxEnds[mid] <= offset) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the markers that end at or before the offset, to use when the
+	 * document has changed at the offset.
+	 *
+	 * @param offset
+	 *            the offset of the change.
+	 * @return the markers before the offset.
+	 */
+	public ErrorMarkers truncate(int offset) {
+		if (offset >= limit) {
+			return this;
+		}
+
+		Builder builder = new Builder();
+
+		for (int i = 0; i < starts.length && starts[i] < offset; i++) {
+			if (ends[i] <= offset) {
+				builder.add(starts[i], ends[i], messages[i]);
+			}
+		}
+
+		return builder.build(offset);
+	}
+
+	/**
+	 * Collects the markers of a document, in any order.
+	 */
+	public static class Builder {
+		private int[] starts = new int[16];
+		private int[] ends = new int[16];
+		private String[] messages = new String[16];
+		private int size = 0;
+
+		/**
+		 * Adds a marker.
+		 *
+		 * @param start
+		 *            the start offset of the error.
+		 * @param end
+		 *            the end offset of the error.
+		 * @param message
+		 *            the description of the error.
+		 */
+		public void add(int start, int end, String message) {
+			if (size == starts.length) {
+				int capacity = size * 2;
+				int[] newStarts = new int[capacity];
+				int[] newEnds = new int[capacity];
+				String[] newMessages = new String[capacity];
+
+				System.arraycopy(starts, 0, newStarts, 0, size);
+				System.arraycopy(ends, 0, newEnds, 0, size);
+				System.arraycopy(messages, 0, newMessages, 0, size);
+
+				starts = newStarts;
+				ends = newEnds;
+				messages = newMessages;
+			}
+
+			starts[size] = start;
+			ends[size] = end;
+			messages[size] = message;
+			size++;
+		}
+
+		/**
+		 * Returns the markers sorted on the start offset, markers with the
+		 * same start keep the order in which they have been added.
+		 *
+		 * @param limit
+		 *            the offset up to which the document has been checked.
+		 * @return the markers.
+		 */
+		public ErrorMarkers build(int limit) {
+			long[] keys = new long[size];
+
+			for (int i = 0; i < size; i++) {
+				keys[i] = ((long)starts[i] << 32) | i;
+			}
+
+			Arrays.sort(keys);
+
+			int[] sortedStarts = new int[size];
+			int[] sortedEnds = new int[size];
+			String[] sortedMessages = new String[size];
+
+			for (int i = 0; i < size; i++) {
+				int index = (int)keys[i];
+
+				sortedStarts[i] = starts[index];
+				sortedEnds[i] = ends[index];
+				sortedMessages[i] = messages[index];
+			}
+
+			return new ErrorMarkers(sortedStarts, sortedEnds, sortedMessages, limit);
+		}
+	}
+}
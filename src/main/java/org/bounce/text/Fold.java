@@ -41,11 +41,10 @@ import javax.swing.text.Element;
  * @version $Revision: 1.4 $, $Date: 2008/04/16 19:36:18 $
  */
 class Fold {
-	static final String FOLD_LIST_ATTRIBUTE = "org.bounce.text.FoldList";
+	static final String FOLD_MODEL_ATTRIBUTE = "org.bounce.text.FoldModel";
 	static final String FOLDS_UPDATED_ATTRIBUTE = "org.bounce.text.FoldsUpdated";
 	
 	private List<Fold> children = null;
-	private int fixedStart = -1;
 	private Element start;
 	private Element end;
 
@@ -64,11 +63,7 @@ class Fold {
 	 * @return the starting line of the fold.
 	 */
 	public int getStart() {
-		if (fixedStart == -1) {
-			return getRealStart();
-		}
-
-		return fixedStart;
+		return getRealStart();
 	}
 
 	/**
@@ -83,8 +78,7 @@ class Fold {
 	}
 
 	private int getRealStart() {
-		fixedStart = start.getParentElement().getElementIndex(start.getStartOffset());
-		return fixedStart;
+		return start.getParentElement().getElementIndex(start.getStartOffset());
 	}
 
 	private int getRealEnd() {
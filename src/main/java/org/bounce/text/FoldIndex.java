@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text;
+
+import java.util.Random;
+
+/**
+ * Index of the lines that are hidden by the folds, to convert between the
+ * visible rows and the lines of the document in O(log n) time.
+ * <p>
+ * The index is a treap of the top-level folds, ordered by their start line,
+ * every node keeps the number of lines hidden by the folds in its subtree.
+ * The start lines are read from the line elements of the folds, so the index
+ * moves with the document when lines are added or removed and only has to be
+ * updated when a fold is added to or removed from the top-level folds.
+ * </p>
+ */
+class FoldIndex {
+	private final Random random = new Random();
+
+	private Node root = null;
+
+	/**
+	 * Hides the lines inside the fold.
+	 * 
+	 * @param fold
+	 *            the fold that has been added.
+	 */
+	public void add(Fold fold) {
+		Node node = new Node(fold, Math.max(0, fold.getEnd() - fold.getStart() - 1), random.nextInt());
+		Node[] split = split(root, fold.getStart(), false);
+
+		root = merge(merge(split[0], node), split[1]);
+	}
+
+	/**
+	 * Shows the lines inside the fold again.
+	 * 
+	 * @param fold
+	 *            the fold that has been removed.
+	 */
+	public void remove(Fold fold) {
+		int start = fold.getStart();
+		Node[] before = split(root, start, false);
+		Node[] after = split(before[1], start, true);
+
+		// the folds with the same start line, after lines have been removed.
+		root = merge(merge(before[0], remove(after[0], fold)), after[1]);
+	}
+
+	/**
+	 * Removes all folds from the index.
+	 */
+	public void clear() {
+		root = null;
+	}
+
+	/**
+	 * @return the number of hidden lines.
+	 */
+	public int getHiddenCount() {
+		return getHidden(root);
+	}
+
+	/**
+	 * Returns true when the line is hidden by a fold.
+	 * 
+	 * @param line
+	 *            the line index.
+	 * @return true when the line is hidden.
+	 */
+	public boolean isHidden(int line) {
+		Node node = getLast(line);
+
+		return node != null && line - node.fold.getStart() <= node.hidden;
+	}
+
+	/**
+	 * Returns the visible row of the line, a hidden line returns the row after
+	 * the fold.
+	 * 
+	 * @param line
+	 *            the line index.
+	 * @return the visible row.
+	 */
+	public int getRow(int line) {
+		// the lines hidden by the folds that start before the line, the last
+		// of these folds can end after the line.
+		Node node = root;
+		Node last = null;
+		int hidden = 0;
+		int before = 0;
+
+		while (node != null) {
+			if (node.fold.getStart() < line) {
+				before = hidden + getHidden(node.left);
+				hidden = before + node.hidden;
+				last = node;
+				node = node.right;
+			} else {
+				node = node.left;
+			}
+		}
+
+		if (last == null) {
+			return line;
+		}
+
+		return line - before - Math.min(last.hidden, line - last.fold.getStart() - 1);
+	}
+
+	/**
+	 * Returns the line of the visible row.
+	 * 
+	 * @param row
+	 *            the visible row.
+	 * @return the line index.
+	 */
+	public int getLine(int row) {
+		// find the last fold that starts on or before the row, the rows after
+		// the start of that fold follow the lines it hides.
+		Node node = root;
+		Node last = null;
+		int hidden = 0;
+		int before = 0;
+
+		while (node != null) {
+			int left = hidden + getHidden(node.left);
+
+			if (node.fold.getStart() - left <= row) {
+				before = left;
+				hidden = left + node.hidden;
+				last = node;
+				node = node.right;
+			} else {
+				node = node.left;
+			}
+		}
+
+		if (last == null || row == last.fold.getStart() - before) {
+			return row + before;
+		}
+
+		return row + hidden;
+	}
+
+	// Returns the last fold that starts before the line.
+	private Node getLast(int line) {
+		Node node = root;
+		Node last = null;
+
+		while (node != null) {
+			if (node.fold.getStart() < line) {
+				last = node;
+				node = node.right;
+			} else {
+				node = node.left;
+			}
+		}
+
+		return last;
+	}
+
+	// Splits the folds that start before the line, or on the line when
+	// inclusive, from the other folds.
+	private static Node[] split(Node node, int line, boolean inclusive) {
+		if (node == null) {
+			return new Node[2];
+		}
+
+		int start = node.fold.getStart();
+
+		if (start < line || (inclusive && start == line)) {
+			Node[] split = split(node.right, line, inclusive);
+			node.right = split[0];
+			split[0] = node.update();
+
+			return split;
+		}
+
+		Node[] split = split(node.left, line, inclusive);
+		node.left = split[1];
+		split[1] = node.update();
+
+		return split;
+	}
+
+	private static Node merge(Node left, Node right) {
+		if (left == null) {
+			return right;
+		} else if (right == null) {
+			return left;
+		} else if (left.priority > right.priority) {
+			left.right = merge(left.right, right);
+			return left.update();
+		}
+
+		right.left = merge(left, right.left);
+		return right.update();
+	}
+
+	private static Node remove(Node node, Fold fold) {
+		if (node == null) {
+			return null;
+		} else if (node.fold == fold) {
+			return merge(node.left, node.right);
+		}
+
+		node.left = remove(node.left, fold);
+		node.right = remove(node.right, fold);
+
+		return node.update();
+	}
+
+	private static int getHidden(Node node) {
+		return (node != null) ? node.total : 0;
+	}
+
+	private static class Node {
+		final Fold fold;
+		final int hidden;
+		final int priority;
+
+		Node left = null;
+		Node right = null;
+
+		// the hidden lines of the folds in the subtree.
+		int total;
+
+		Node(Fold fold, int hidden, int priority) {
+			this.fold = fold;
+			this.hidden = hidden;
+			this.priority = priority;
+
+			total = hidden;
+		}
+
+		Node update() {
+			total = getHidden(left) + hidden + getHidden(right);
+
+			return this;
+		}
+	}
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.Element;
+
+/**
+ * The folds of a document, with the nested folds kept in the folds that
+ * contain them.
+ * <p>
+ * The top-level folds do not overlap and are sorted by their start line, the
+ * folds inside a top-level fold are kept in the children of the fold that
+ * contains them. The fold that hides a line is found with a binary search
+ * over the top-level folds. The model keeps the {@link FoldIndex} of the lines
+ * that are hidden by the top-level folds up to date.
+ * </p>
+ * <p>
+ * The lines of the folds are read from the line elements of the document, an
+ * edit only has to check the folds around the lines that have changed, see
+ * {@link #update(DocumentEvent)}.
+ * </p>
+ * <p>
+ * A batch of folds is merged with the top-level folds in a single pass, see
+ * {@link #fold(List)}.
+ * </p>
+ */
+class FoldModel {
+	// sorts the folds by start line, a fold before the folds it contains.
+	private static final Comparator<Fold> ORDER = new Comparator<Fold>() {
+		public int compare(Fold fold1, Fold fold2) {
+			if (fold1.getStart() != fold2.getStart()) {
+				return fold1.getStart() < fold2.getStart() ? -1 : 1;
+			} else if (fold1.getEnd() != fold2.getEnd()) {
+				return fold1.getEnd() > fold2.getEnd() ? -1 : 1;
+			}
+
+			return 0;
+		}
+	};
+
+	private List<Fold> folds = new ArrayList<Fold>();
+	private final FoldIndex index = new FoldIndex();
+
+	/**
+	 * @return the top-level folds, sorted by start line.
+	 */
+	public List<Fold> getFolds() {
+		return Collections.unmodifiableList(folds);
+	}
+
+	/**
+	 * @return the index of the lines hidden by the folds.
+	 */
+	public FoldIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the top-level fold that hides the line.
+	 * 
+	 * @param line
+	 *            the line index.
+	 * @return the fold or null when the line is not hidden.
+	 */
+	public Fold getFold(int line) {
+		int position = getPosition(line);
+
+		if (position != -1) {
+			return folds.get(position);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Adds the fold, the top-level folds that start inside the fold become
+	 * children of the fold. A fold that starts inside a top-level fold becomes
+	 * a child of that fold and a fold that starts on the same line as a
+	 * top-level fold is ignored.
+	 * 
+	 * @param fold
+	 *            the fold.
+	 * @return true when the fold has been added.
+	 */
+	public boolean fold(Fold fold) {
+		int start = fold.getStart();
+		int next = getNextIndex(start);
+
+		if (next > 0 && folds.get(next - 1).contains(start)) {
+			folds.get(next - 1).add(fold);
+			return true;
+		} else if (next < folds.size() && folds.get(next).getStart() == start) {
+			return false;
+		}
+
+		int end = next;
+
+		while (end < folds.size() && fold.contains(folds.get(end).getStart())) {
+			Fold child = folds.get(end++);
+
+			index.remove(child);
+			fold.add(child);
+		}
+
+		List<Fold> children = folds.subList(next, end);
+		children.clear();
+		children.add(fold);
+
+		index.add(fold);
+
+		return true;
+	}
+
+	/**
+	 * Adds the folds in one pass over the top-level folds, the folds are added
+	 * as if they were added one by one in the order of their start lines.
+	 * 
+	 * @param added
+	 *            the folds to add.
+	 * @return the number of folds that have been added.
+	 * 
+	 * @see #fold(Fold)
+	 */
+	public int fold(List<Fold> added) {
+		if (added.isEmpty()) {
+			return 0;
+		}
+
+		List<Fold> sorted = new ArrayList<Fold>(added);
+		Collections.sort(sorted, ORDER);
+
+		List<Fold> result = new ArrayList<Fold>(folds.size() + sorted.size());
+		Fold last = null;
+		int next = 0;
+		int count = 0;
+
+		for (Fold fold : sorted) {
+			int start = fold.getStart();
+
+			while (next < folds.size() && folds.get(next).getStart() < start) {
+				last = folds.get(next++);
+				result.add(last);
+			}
+
+			if (last != null && last.contains(start)) {
+				last.add(fold);
+			} else if ((next < folds.size() && folds.get(next).getStart() == start) || (last != null && last.getStart() == start)) {
+				continue;
+			} else {
+				while (next < folds.size() && fold.contains(folds.get(next).getStart())) {
+					Fold child = folds.get(next++);
+
+					index.remove(child);
+					fold.add(child);
+				}
+
+				index.add(fold);
+				result.add(fold);
+				last = fold;
+			}
+
+			count++;
+		}
+
+		while (next < folds.size()) {
+			result.add(folds.get(next++));
+		}
+
+		folds = result;
+
+		return count;
+	}
+
+	/**
+	 * Removes the top-level fold that hides the line and the nested folds
+	 * that hide the line, the other nested folds become top-level folds.
+	 * 
+	 * @param line
+	 *            the line index.
+	 * @return true when a fold has been removed.
+	 */
+	public boolean unfold(int line) {
+		int position = getPosition(line);
+
+		if (position == -1) {
+			return false;
+		}
+
+		Fold fold = folds.remove(position);
+		index.remove(fold);
+
+		fold.remove(line, line);
+		promote(fold);
+		fold.shallowCleanup();
+
+		return true;
+	}
+
+	/**
+	 * Removes all folds.
+	 */
+	public void clear() {
+		for (Fold fold : folds) {
+			fold.cleanup();
+		}
+
+		folds.clear();
+		index.clear();
+	}
+
+	/**
+	 * Updates the folds after a change of the document, a fold that no longer
+	 * spans the same number of lines is removed and its children become
+	 * top-level folds. Only the folds that overlap the lines that have been
+	 * added or removed can change, the other folds move with their lines.
+	 * 
+	 * @param event
+	 *            the change of the document.
+	 */
+	public void update(DocumentEvent event) {
+		Element root = event.getDocument().getDefaultRootElement();
+		DocumentEvent.ElementChange change = event.getChange(root);
+
+		if (change == null || folds.isEmpty()) {
+			return;
+		}
+
+		int first = change.getIndex();
+		int last = first + Math.max(0, change.getChildrenAdded().length - 1);
+		List<Fold> invalid = null;
+
+		for (int i = getEndIndex(first); i < folds.size() && folds.get(i).getStart() <= last; i++) {
+			if (!folds.get(i).isValid()) {
+				if (invalid == null) {
+					invalid = new ArrayList<Fold>();
+				}
+
+				invalid.add(folds.get(i));
+			}
+		}
+
+		if (invalid == null) {
+			return;
+		}
+
+		for (Fold fold : invalid) {
+			index.remove(fold);
+		}
+
+		folds.removeAll(invalid);
+
+		for (Fold fold : invalid) {
+			fold.update();
+			promote(fold);
+		}
+	}
+
+	// Adds the children of the fold that has been removed, the children can
+	// overlap the top-level folds after the fold.
+	private void promote(Fold fold) {
+		List<Fold> children = new ArrayList<Fold>(fold.getChildren());
+		Collections.sort(children, ORDER);
+
+		for (Fold child : children) {
+			fold(child);
+		}
+	}
+
+	// Returns the index of the first top-level fold that starts at or after
+	// the line.
+	private int getNextIndex(int line) {
+		int start = 0;
+		int end = folds.size();
+
+		while (start < end) {
+			int index = (start + end) >>> 1;
+
+			if (folds.get(index).getStart() < line) {
+				start = index + 1;
+			} else {
+				end = index;
+			}
+		}
+
+		return start;
+	}
+
+	// Returns the index of the first top-level fold that ends at or after the
+	// line.
+	private int getEndIndex(int line) {
+		int start = 0;
+		int end = folds.size();
+
+		while (start < end) {
+			int index = (start + end) >>> 1;
+
+			if (folds.get(index).getEnd() < line) {
+				start = index + 1;
+			} else {
+				end = index;
+			}
+		}
+
+		return start;
+	}
+
+	// Returns the position of the top-level fold that hides the line, -1 when
+	// the line is not hidden.
+	private int getPosition(int line) {
+		int start = 0;
+		int end = folds.size() - 1;
+
+		while (end >= start) {
+			int index = (((end - start) / 2) + start);
+			Fold fold = folds.get(index);
+
+			if (line >= fold.getEnd()) {
+				start = index + 1;
+			} else if (line <= fold.getStart()) {
+				end = index - 1;
+			} else {
+				return index;
+			}
+		}
+
+		return -1;
+	}
+}
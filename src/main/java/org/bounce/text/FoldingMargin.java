@@ -41,10 +41,11 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.border.CompoundBorder;
 import javax.swing.border.EmptyBorder;
@@ -52,6 +53,7 @@ import javax.swing.border.MatteBorder;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
 import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentEvent.ElementChange;
 import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
@@ -61,6 +63,23 @@ import javax.swing.text.JTextComponent;
 /**
  * Base folding margin for a JTextComponent. Just implement the
  * getLastFoldLine() method.
+ * <p>
+ * The closing line of every line that can start a fold is computed once for
+ * every version of the document, on a background thread, and the margin is
+ * painted from these fold candidates. Until the candidates of the current
+ * version have been computed, the lines that are painted are computed on the
+ * event dispatch thread and remembered.
+ * </p>
+ * <p>
+ * When the document changes, the candidates of the folds that end before the
+ * changed lines are kept and the candidates of the lines after the change are
+ * moved with their lines and used until the candidates from the changed lines
+ * on have been computed again.
+ * </p>
+ * <p>
+ * The candidates of a {@link LargeDocument} are not kept, the closing lines
+ * are computed when they are needed, up to the limit.
+ * </p>
  * 
  * @author Edwin Dankert (edankert@gmail.com)
  */
@@ -71,6 +90,10 @@ public abstract class FoldingMargin extends JComponent {
 	// Set right/left margin
 	private static final int ICON_WIDTH = 9;
 
+	// the number of lines computed while holding the read lock.
+	private static final int CANDIDATE_CHUNK = 1000;
+	private static final int UNKNOWN = -2;
+
 	// heights and widths
 	private int lineHeight = 16;
 	private int start = -1;
@@ -81,6 +104,26 @@ public abstract class FoldingMargin extends JComponent {
 
 	protected JTextComponent editor = null;
 
+	// the fold candidates of the version of the document, the closing line of
+	// every line or UNKNOWN, the candidates from the moved line on have been
+	// moved by a change, guarded by the lock.
+	private final Object lock = new Object();
+	private int[] candidates = null;
+	private int moved = 0;
+	private boolean complete = false;
+	private boolean pending = false;
+	private long version = 0;
+
+	private final Runnable task = new Runnable() {
+		public void run() {
+			synchronized (lock) {
+				pending = false;
+			}
+
+			computeCandidates();
+		}
+	};
+
 	/**
 	 * Convenience constructor for Text Components
 	 */
@@ -156,36 +199,46 @@ public abstract class FoldingMargin extends JComponent {
 	}
 
 	private void init(Document document) {
-		document.putProperty(Fold.FOLD_LIST_ATTRIBUTE, new ArrayList<Fold>());
+		document.putProperty(Fold.FOLD_MODEL_ATTRIBUTE, new FoldModel());
+		invalidateCandidates();
+
 		document.addDocumentListener(new DocumentListener() {
 
 			@Override
 			public void changedUpdate(DocumentEvent documentevent) {
-				updateFolds();
+				updateFolds(documentevent);
 			}
 
 			@Override
 			public void insertUpdate(DocumentEvent documentevent) {
-				updateFolds();
+				if (documentevent.getDocument() == editor.getDocument()) {
+					updateCandidates(documentevent);
+				}
+
+				updateFolds(documentevent);
 			}
 
 			@Override
 			public void removeUpdate(DocumentEvent documentevent) {
-				updateFolds();
+				if (documentevent.getDocument() == editor.getDocument()) {
+					updateCandidates(documentevent);
+				}
+
+				updateFolds(documentevent);
 			}
 
 		});
 	}
 	
-	@SuppressWarnings("unchecked")
-	private List<Fold> getFolds() {
-		List<Fold> folds = (List<Fold>) editor.getDocument().getProperty(Fold.FOLD_LIST_ATTRIBUTE);
-		
-		if (folds == null) {
-			folds = Collections.EMPTY_LIST;
+	private FoldModel getFoldModel() {
+		FoldModel model = (FoldModel) editor.getDocument().getProperty(Fold.FOLD_MODEL_ATTRIBUTE);
+
+		if (model == null) {
+			model = new FoldModel();
+			editor.getDocument().putProperty(Fold.FOLD_MODEL_ATTRIBUTE, model);
 		}
 
-		return folds;
+		return model;
 	}
 
 	private void toggleFold(int line) {
@@ -208,15 +261,7 @@ public abstract class FoldingMargin extends JComponent {
 	}
 
 	private void cleanupFolds() {
-		List<Fold> folds = getFolds();
-
-		for (int i = 0; i < folds.size(); i++) {
-			Fold f = folds.get(i);
-
-			f.cleanup();
-		}
-
-		folds.clear();
+		getFoldModel().clear();
 	}
 
 	public Dimension getPreferredSize() {
@@ -313,27 +358,7 @@ public abstract class FoldingMargin extends JComponent {
 
 	private void fold(Element start, Element end) {
 		if (isVisible()) {
-			List<Fold> folds = getFolds();
-
-			Fold fold = new Fold(start, end);
-			int startIndex = getNextFoldIndex(fold.getStart());
-
-			if (startIndex != -1) {
-				List<Fold> oldFolds = new ArrayList<Fold>(folds);
-
-				for (int i = startIndex; i < oldFolds.size(); i++) {
-					Fold f = (Fold) oldFolds.get(i);
-
-					if (fold.contains(f.getStart())) {
-						fold.add(f);
-						folds.remove(f);
-					} else if (f.getStart() > fold.getEnd()) {
-						break;
-					}
-				}
-			}
-
-			addFold(fold);
+			getFoldModel().fold(new Fold(start, end));
 
 			Element e = editor.getDocument().getDefaultRootElement();
 			int index = e.getElementIndex(editor.getCaretPosition());
@@ -346,130 +371,107 @@ public abstract class FoldingMargin extends JComponent {
 		}
 	}
 
-	private void fireFoldsUpdated() {
-		editor.getDocument().putProperty(Fold.FOLDS_UPDATED_ATTRIBUTE, true);
-
-		editor.revalidate();
-		editor.repaint();
-
-		getParent().invalidate();
-		getParent().repaint();
-	}
-
-	private void unfold(int line) {
+	/**
+	 * Folds the lines from every start line to the matching end line in one
+	 * batch, the editor is updated once for all folds. A start line that
+	 * does not hide any lines is ignored.
+	 * 
+	 * @param starts
+	 *            the start lines of the folds.
+	 * @param ends
+	 *            the end lines of the folds.
+	 * @param count
+	 *            the number of folds.
+	 */
+	protected void fold(int[] starts, int[] ends, int count) {
 		if (isVisible()) {
-			Fold f = getFold(line);
+			Element root = editor.getDocument().getDefaultRootElement();
+			List<Fold> folds = new ArrayList<Fold>(count);
 
-			if (f != null) {
-				List<Fold> folds = getFolds();
-				folds.remove(f);
+			for (int i = 0; i < count; i++) {
+				if (ends[i] > starts[i] + 1) {
+					folds.add(new Fold(root.getElement(starts[i]), root.getElement(ends[i])));
+				}
+			}
 
-				f.remove(line, line);
-				List<Fold> children = f.getChildren();
+			if (getFoldModel().fold(folds) > 0) {
+				Fold fold = getFold(root.getElementIndex(editor.getCaretPosition()));
 
-				for (int j = 0; j < children.size(); j++) {
-					addFold((Fold) children.get(j));
+				if (fold != null) {
+					editor.setCaretPosition(root.getElement(fold.getStart()).getEndOffset() - 1);
 				}
 
-				f.shallowCleanup();
 				fireFoldsUpdated();
 			}
 		}
 	}
 
-	private Fold getFold(int line) {
-		List<Fold> folds = getFolds();
-
-		if (isVisible() && folds != null) {
-			int start = 0;
-			int end = folds.size() - 1;
-
-			while (end >= start) {
-				int index = (((end - start) / 2) + start);
+	/**
+	 * Folds every line that starts a fold, the folds inside other folds are
+	 * folded as well and stay folded when the outer fold is unfolded.
+	 */
+	public void foldAll() {
+		int lines = getLines();
+		int[] starts = new int[lines];
+		int[] ends = new int[lines];
+		int count = 0;
 
-				Fold fold = folds.get(index);
+		for (int line = 0; line < lines; line++) {
+			int end = getLastFoldLine(line, lines - 1);
 
-				if (line >= fold.getEnd()) {
-					start = index + 1;
-				} else if (line <= fold.getStart()) {
-					end = index - 1;
-				} else {
-					return fold;
-				}
+			if (end != -1) {
+				starts[count] = line;
+				ends[count] = end;
+				count++;
 			}
 		}
 
-		return null;
+		fold(starts, ends, count);
 	}
 
-	private int getNextFoldIndex(int line) {
-		List<Fold> folds = getFolds();
+	/**
+	 * Removes all folds.
+	 */
+	public void unfoldAll() {
+		if (isVisible() && !getFoldModel().getFolds().isEmpty()) {
+			getFoldModel().clear();
+			fireFoldsUpdated();
+		}
+	}
 
-		if (isVisible() && folds != null) {
-			int start = 0;
-			int end = folds.size() - 1;
-			Fold lastFold = null;
-			int lastIndex = -1;
+	private void fireFoldsUpdated() {
+		editor.getDocument().putProperty(Fold.FOLDS_UPDATED_ATTRIBUTE, true);
 
-			while (end >= start) {
-				int index = (((end - start) / 2) + start);
-				Fold fold = folds.get(index);
+		editor.revalidate();
+		editor.repaint();
 
-				lastFold = fold;
-				lastIndex = index;
+		getParent().invalidate();
+		getParent().repaint();
+	}
 
-				if (line >= fold.getEnd()) {
-					start = index + 1;
-				} else if (line <= fold.getStart()) {
-					end = index - 1;
-				} else {
-					return index;
-				}
-			}
+	private void unfold(int line) {
+		if (isVisible() && getFoldModel().unfold(line)) {
+			fireFoldsUpdated();
+		}
+	}
 
-			if (lastFold == null || lastFold.getStart() > line) {
-				return lastIndex;
-			} else {
-				return lastIndex + 1;
-			}
+	private Fold getFold(int line) {
+		if (isVisible()) {
+			return getFoldModel().getFold(line);
 		}
 
-		return -1;
+		return null;
 	}
 
 	private boolean isFolded(int line) {
 		return getFold(line) != null;
 	}
 
-	private void addFold(Fold fold) {
-		List<Fold> folds = getFolds();
-		int index = getNextFoldIndex(fold.getStart());
-
-		if (index != -1 && index < folds.size()) {
-			folds.add(index, fold);
-			return;
-		}
-
-		folds.add(fold);
-	}
-
-	private void updateFolds() {
-		if (isVisible()) {
-			List<Fold> folds = getFolds();
-			List<Fold> oldFolds = new ArrayList<Fold>(folds);
-
-			// Update the folds, to make sure no line has been deleted.
-			for (Fold fold : oldFolds) {
-				if (!fold.isValid()) {
-					fold.update();
-					folds.remove(fold);
-
-					List<Fold> children = fold.getChildren();
-					for (Fold child : children) {
-						addFold(child);
-					}
-				}
-			}
+	private void updateFolds(DocumentEvent event) {
+		if (isVisible() && event.getDocument() == editor.getDocument()) {
+			// the folds around lines that have been added or removed can
+			// no longer span the same lines.
+			getFoldModel().update(event);
 		}
 	}
 
@@ -507,7 +509,7 @@ public abstract class FoldingMargin extends JComponent {
 	}
 
 	private int getLastFoldLine(int start, int limit) {
-		int closing = getFoldClosingLine(start, limit);
+		int closing = Math.min(getFoldCandidate(start, limit), limit);
 
 		if (closing > start + 1) {
 			return closing;
@@ -516,6 +518,193 @@ public abstract class FoldingMargin extends JComponent {
 		return -1;
 	}
 
+	// Returns the closing line of the line from the fold candidates, computes
+	// the closing line when the candidates of the version are not complete.
+	private int getFoldCandidate(int line, int limit) {
+		if (editor.getDocument() instanceof LargeDocument) {
+			return getFoldClosingLine(line, limit);
+		}
+
+		int lines = getLines();
+		int[] known = null;
+
+		synchronized (lock) {
+			if (candidates == null) {
+				candidates = new int[lines];
+				Arrays.fill(candidates, UNKNOWN);
+				moved = lines;
+			}
+
+			if (!complete && isVisible()) {
+				scheduleCandidates();
+			}
+
+			if (line < candidates.length && candidates[line] != UNKNOWN) {
+				return candidates[line];
+			}
+
+			known = candidates;
+		}
+
+		int closing = getFoldClosingLine(line, limit);
+
+		// a closing line before the limit does not depend on the limit.
+		if (closing < limit || limit >= lines - 1) {
+			synchronized (lock) {
+				if (known == candidates && line < known.length) {
+					known[line] = closing;
+				}
+			}
+		}
+
+		return closing;
+	}
+
+	// Discards the fold candidates, the document has changed.
+	private void invalidateCandidates() {
+		synchronized (lock) {
+			version++;
+			candidates = null;
+			moved = 0;
+			complete = false;
+		}
+	}
+
+	// Keeps the fold candidates that end before the changed lines and moves
+	// the candidates of the lines after the change, called by the writer.
+	private void updateCandidates(DocumentEvent event) {
+		Element root = event.getDocument().getDefaultRootElement();
+		ElementChange change = event.getChange(root);
+		int lines = root.getElementCount();
+		int first = root.getElementIndex(event.getOffset());
+		int removed = 1;
+		int added = 1;
+
+		if (change != null) {
+			first = Math.min(first, change.getIndex());
+			removed = change.getIndex() + change.getChildrenRemoved().length - first;
+			added = change.getIndex() + change.getChildrenAdded().length - first;
+		}
+
+		synchronized (lock) {
+			version++;
+			complete = false;
+
+			if (candidates == null || candidates.length - removed + added != lines) {
+				candidates = null;
+				moved = 0;
+				return;
+			}
+
+			int[] result = candidates;
+
+			if (removed != added) {
+				result = new int[lines];
+				System.arraycopy(candidates, 0, result, 0, first);
+			}
+
+			// the folds that end in or after the changed lines have changed.
+			for (int line = 0; line < first; line++) {
+				if (result[line] >= first) {
+					result[line] = UNKNOWN;
+				}
+			}
+
+			Arrays.fill(result, first, first + added, UNKNOWN);
+
+			int delta = added - removed;
+
+			for (int line = first + added; line < lines; line++) {
+				int closing = candidates[line - delta];
+				result[line] = closing != UNKNOWN ? closing + delta : UNKNOWN;
+			}
+
+			candidates = result;
+			moved = Math.min(moved, first);
+		}
+	}
+
+	private void scheduleCandidates() {
+		if (!pending) {
+			pending = true;
+			BackgroundExecutor.execute(task);
+		}
+	}
+
+	private boolean isStale(long version) {
+		synchronized (lock) {
+			return this.version != version;
+		}
+	}
+
+	// Computes the fold candidates of the lines from the moved line on and of
+	// the unknown lines before it, on the background thread. The read lock is
+	// released after every chunk of lines, so the document can be changed in
+	// between, the computation stops when the document has changed.
+	private void computeCandidates() {
+		final Document document = editor.getDocument();
+		final long version;
+		final int[] kept;
+		final int moved;
+
+		synchronized (lock) {
+			version = this.version;
+			kept = candidates != null ? candidates.clone() : null;
+			moved = candidates != null ? this.moved : 0;
+		}
+
+		final int[][] result = new int[1][];
+		final int[] next = new int[1];
+		final boolean[] stale = new boolean[1];
+
+		while (!stale[0] && (result[0] == null || next[0] < result[0].length)) {
+			document.render(new Runnable() {
+				public void run() {
+					if (isStale(version)) {
+						stale[0] = true;
+						return;
+					}
+
+					int lines = document.getDefaultRootElement().getElementCount();
+
+					if (result[0] == null) {
+						result[0] = new int[lines];
+					}
+
+					int end = Math.min(next[0] + CANDIDATE_CHUNK, lines);
+
+					for (int line = next[0]; line < end; line++) {
+						if (line < moved && kept[line] != UNKNOWN) {
+							result[0][line] = kept[line];
+						} else {
+							result[0][line] = getFoldClosingLine(line, lines - 1);
+						}
+					}
+
+					next[0] = end;
+				}
+			});
+		}
+
+		if (!stale[0]) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					synchronized (lock) {
+						if (version != FoldingMargin.this.version) {
+							return;
+						}
+
+						candidates = result[0];
+						FoldingMargin.this.moved = candidates.length;
+						complete = true;
+					}
+
+					repaint();
+				}
+			});
+		}
+	}
+
 	/**
 	 * Return the closing line of the fold, the first fold should be located on
 	 * the first line.
@@ -528,6 +717,9 @@ public abstract class FoldingMargin extends JComponent {
 	 * returned should not be higher than the limit. If the closing fold cannot
 	 * be found before the limit, the limit should be returned.
 	 * 
+	 * The fold candidates are computed on a background thread while holding the
+	 * read lock of the document, so this method can be called on any thread.
+	 * 
 	 * @param start
 	 *            the begin line of the fold.
 	 * @param limit
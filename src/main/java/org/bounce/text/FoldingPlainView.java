@@ -22,7 +22,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-import javax.swing.JEditorPane;
+import javax.swing.JComponent;
 import javax.swing.event.DocumentEvent;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Caret;
@@ -192,25 +192,17 @@ public class FoldingPlainView extends PlainView {
 	}
 
 	private Fold getFold(int line) {
-		List<Fold> folds = getFolds();
-
-		if (isVisible() && folds != null) {
-			int start = 0;
-			int end = folds.size() - 1;
-
-			while (end >= start) {
-				int index = (((end - start) / 2) + start);
+		if (isVisible()) {
+			return getFold(getFoldModel(getDocument()), line);
+		}
 
-				Fold fold = folds.get(index);
+		return null;
+	}
 
-				if (line >= fold.getEnd()) {
-					start = index + 1;
-				} else if (line <= fold.getStart()) {
-					end = index - 1;
-				} else {
-					return fold;
-				}
-			}
+	// Returns the top-level fold that hides the line.
+	private static Fold getFold(FoldModel model, int line) {
+		if (model != null) {
+			return model.getFold(line);
 		}
 
 		return null;
@@ -361,7 +353,7 @@ public class FoldingPlainView extends PlainView {
 
 		switch (axis) {
 		case View.X_AXIS:
-			return getLineWidth(longLine);
+			return getCachedLineWidth(longLine);
 
 		case View.Y_AXIS:
 			return getVisibleElementCount() * metrics.getHeight(); 
@@ -372,12 +364,18 @@ public class FoldingPlainView extends PlainView {
 	
 	/**
      * Non-Swing components do not get their anti-aliasing rendering hints configured correctly for text. This
-     * method gets the global hints and applies them to the given graphics object.
+     * method gets the global hints and applies them to the given graphics object. Nothing is
+     * applied when the desktop does not provide hints, for instance when headless.
      * @param g
      */
     public static void configureForTextRendering(Graphics2D g) {
         @SuppressWarnings("unchecked")
         final Map<RenderingHints.Key, Object> fontHints = (Map<RenderingHints.Key, Object>) Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+        if (fontHints == null) {
+            // no desktop hints, for instance when headless.
+            return;
+        }
+
         for (RenderingHints.Key key : fontHints.keySet()) {
             g.setRenderingHint(key, fontHints.get(key));
         }
@@ -486,19 +484,19 @@ public class FoldingPlainView extends PlainView {
 		Element map = getElement();
 		int result = map.getElementCount();
 
-		List<Fold> folds = getFolds();
+		FoldIndex index = getFoldIndex();
 
-		if (folds != null) {
-			for (int i = 0; i < folds.size(); i++) {
-				result = result - ((((Fold) folds.get(i)).getEnd() - ((Fold) folds.get(i)).getStart()) - 1);
-			}
+		if (index != null) {
+			result = result - index.getHiddenCount();
 		}
 
 		return result;
 	}
 
-	private List<Fold> getFolds() {
-		return getFolds((JEditorPane) getContainer());
+	private FoldIndex getFoldIndex() {
+		FoldModel model = getFoldModel(getDocument());
+
+		return (model != null) ? model.getIndex() : null;
 	}
 
 	/**
@@ -536,7 +534,12 @@ public class FoldingPlainView extends PlainView {
 		int p0 = line.getStartOffset();
 		Segment s = SegmentCache.getSharedSegment();
 		doc.getText(p0, pos - p0, s);
-		int xOffs = Utilities.getTabbedTextWidth(s, metrics, tabBase, this, p0);
+		int xOffs = (charWidth > 0) ? getMonospacedTextWidth(s, p0) : -1;
+
+		if (xOffs == -1) {
+			xOffs = Utilities.getTabbedTextWidth(s, metrics, tabBase, this, p0);
+		}
+
 		SegmentCache.releaseSharedSegment(s);
 
 		// fill in the results and return
@@ -628,7 +631,13 @@ public class FoldingPlainView extends PlainView {
 					Segment s = SegmentCache.getSharedSegment();
 					doc.getText(p0, p1 - p0, s);
 					tabBase = alloc.x;
-					int offs = p0 + Utilities.getTabbedTextOffset(s, metrics, tabBase, x, this, p0);
+					int offs = (charWidth > 0) ? getMonospacedTextOffset(s, x - tabBase, p0) : -1;
+
+					if (offs == -1) {
+						offs = Utilities.getTabbedTextOffset(s, metrics, tabBase, x, this, p0);
+					}
+
+					offs = p0 + offs;
 					SegmentCache.releaseSharedSegment(s);
 					return offs;
 				} catch (BadLocationException e) {
@@ -641,18 +650,10 @@ public class FoldingPlainView extends PlainView {
 
 	// convert from the currently visible lines to all lines
 	private int convertFromVisibleIndex(int index) {
-		List<Fold> folds = getFolds();
-
-		if (folds != null && folds.size() > 0) {
-			for (int i = 0; i < folds.size(); i++) {
-				Fold fold = (Fold) folds.get(i);
+		FoldIndex folds = getFoldIndex();
 
-				if (fold.getStart() < index) {
-					index = index + ((fold.getEnd() - fold.getStart()) - 1);
-				} else {
-					break;
-				}
-			}
+		if (folds != null && folds.getHiddenCount() > 0) {
+			index = folds.getLine(index);
 		}
 
 		return index;
@@ -660,20 +661,10 @@ public class FoldingPlainView extends PlainView {
 
 	// convert from all lines to only the currently visible lines
 	private int convertFromAllIndex(int index) {
-		List<Fold> folds = getFolds();
-
-		if (folds != null && folds.size() > 0) {
-			int oldIndex = index;
+		FoldIndex folds = getFoldIndex();
 
-			for (int i = 0; i < folds.size(); i++) {
-				Fold fold = folds.get(i);
-
-				if (fold.getStart() < oldIndex) {
-					index = index - ((fold.getEnd() - fold.getStart()) - 1);
-				} else {
-					break;
-				}
-			}
+		if (folds != null && folds.getHiddenCount() > 0) {
+			index = folds.getRow(index);
 		}
 
 		return index;
@@ -768,9 +759,10 @@ public class FoldingPlainView extends PlainView {
 
 	/*
 	 * Repaint the region of change covered by the given document event. Damages
-	 * the line that begins the range to cover the case when the insert/remove
-	 * is only on one line. If lines are added or removed, damages the whole
-	 * view. The longest line is checked to see if it has changed.
+	 * the changed lines and the following lines that are highlighted
+	 * differently, see getLastDamagedLine(). If lines are added or removed,
+	 * damages the view from the changed line, the lines below have moved. The
+	 * longest line is checked to see if it has changed.
 	 * 
 	 * @since 1.4
 	 */
@@ -784,40 +776,70 @@ public class FoldingPlainView extends PlainView {
 		Element[] removed = (ec != null) ? ec.getChildrenRemoved() : null;
 		if (((added != null) && (added.length > 0)) || ((removed != null) && (removed.length > 0))) {
 			// lines were added or removed...
-			if (added != null) {
-				int currWide = getLineWidth(longLine);
+			int addedCount = (added != null) ? added.length : 0;
+			int removedCount = (removed != null) ? removed.length : 0;
+
+			if (lineWidths.getLineCount() - removedCount + addedCount == elem.getElementCount()) {
+				lineWidths.replace(ec.getIndex(), removedCount, addedCount);
+			}
+
+			boolean removedLongest = false;
+
+			for (int i = 0; i < removedCount; i++) {
+				if (removed[i] == longLine) {
+					removedLongest = true;
+					break;
+				}
+			}
+
+			if (removedLongest) {
+				calculateLongestLine();
+			} else if (added != null) {
+				int currWide = getCachedLineWidth(longLine);
 
 				for (int i = 0; i < added.length; i++) {
-					int w = getLineWidth(added[i]);
+					int w = getCachedLineWidth(added[i]);
 					if (w > currWide) {
 						currWide = w;
 						longLine = added[i];
 					}
 				}
 			}
-			if (removed != null) {
-				for (int i = 0; i < removed.length; i++) {
-					if (removed[i] == longLine) {
-						calculateLongestLine();
-						break;
-					}
+			preferenceChanged(null, true, true);
+
+			if (a != null) {
+				int line = ec.getIndex();
+
+				if (addedCount != removedCount) {
+					// the lines below have moved, no need to find where the
+					// damage ends.
+					damageToEnd(line, a, host);
+				} else {
+					damageLineRange(line, getLastDamagedLine(line + Math.max(addedCount - 1, 0), getLastVisibleLine(a, host)), a, host);
 				}
+			} else {
+				host.repaint();
 			}
-			preferenceChanged(null, true, true);
-			host.repaint();
 		} else {
 			Element map = getElement();
 			int line = getElementIndex(changes.getOffset());
-			damageLineRange(line, line, a, host);
+
+			if (a != null) {
+				damageLineRange(line, getLastDamagedLine(line, getLastVisibleLine(a, host)), a, host);
+			}
+
+			if (lineWidths.getLineCount() == map.getElementCount()) {
+				lineWidths.setWidth(line, getLineWidth(map.getElement(line)));
+			}
 
 			if (changes.getType() == DocumentEvent.EventType.INSERT) {
 				// check to see if the line is longer than current
 				// longest line.
-				int w = getLineWidth(longLine);
+				int w = getCachedLineWidth(longLine);
 				Element e = map.getElement(line);
 				if (e == longLine) {
 					preferenceChanged(null, true, false);
-				} else if (getLineWidth(e) > w) {
+				} else if (getCachedLineWidth(e) > w) {
 					longLine = e;
 					preferenceChanged(null, true, false);
 				}
@@ -831,6 +853,49 @@ public class FoldingPlainView extends PlainView {
 		}
 	}
 
+	/**
+	 * Returns the last line that has to be repainted after a change that is
+	 * only on one line, the default implementation returns the changed line.
+	 * A highlighting view can return a later line when the change changes the
+	 * highlighting of the following lines.
+	 * 
+	 * @param line
+	 *            the changed line.
+	 * @param limit
+	 *            the last visible line, there is no need to look further.
+	 * @return the last line to repaint.
+	 */
+	protected int getLastDamagedLine(int line, int limit) {
+		return line;
+	}
+
+	// Returns the last line in the visible part of the host.
+	private int getLastVisibleLine(Shape a, Component host) {
+		int last = getElement().getElementCount() - 1;
+
+		if (metrics != null && host instanceof JComponent) {
+			Rectangle alloc = a.getBounds();
+			Rectangle visible = ((JComponent) host).getVisibleRect();
+			int row = (visible.y + visible.height - alloc.y) / metrics.getHeight();
+
+			return Math.max(0, Math.min(convertFromVisibleIndex(Math.max(row, 0)), last));
+		}
+
+		return last;
+	}
+
+	// Repaints the view from the line to the end.
+	private void damageToEnd(int line, Shape a, Component host) {
+		Rectangle area = lineToRect(a, line);
+
+		if (area != null) {
+			Rectangle alloc = a.getBounds();
+			host.repaint(alloc.x, area.y, alloc.width, Math.max(0, alloc.y + alloc.height - area.y));
+		} else {
+			host.repaint();
+		}
+	}
+
 	/**
 	 * Repaint the given line range.
 	 * 
@@ -893,27 +958,95 @@ public class FoldingPlainView extends PlainView {
 	 * <em>longLine</em> variable is updated to represent the longest line
 	 * contained. The <em>font</em> variable is updated to indicate the font
 	 * used to calculate the longest line.
+	 * <p>
+	 * The widths of the lines are cached, only the lines that have changed
+	 * since the last call are measured again, unless the font has changed.
+	 * </p>
 	 */
 	public void calculateLongestLine() {
 		Component c = getContainer();
-		font = c.getFont();
-		metrics = c.getFontMetrics(font);
-		// Document doc = getDocument();
+		Font f = c.getFont();
+		Document doc = getDocument();
 		Element lines = getElement();
 		int n = lines.getElementCount();
-		int maxWidth = -1;
 
-		for (int i = 0; i < n; i++) {
-			if (isVisible(i)) {
-				Element line = lines.getElement(i);
-				int w = getLineWidth(line);
+		if (f != font || metrics == null) {
+			font = f;
+			metrics = c.getFontMetrics(font);
+			tabSize = getTabSize() * metrics.charWidth('m');
+			charWidth = getMonospacedWidth(metrics);
+
+			lineWidths.clear(0);
+		}
 
-				if (w > maxWidth) {
-					maxWidth = w;
-					longLine = line;
+		if (doc instanceof LargeDocument) {
+			// measuring every line would read the complete file.
+			longLine = lines.getElement(((LargeDocument) doc).getLongestLine());
+			return;
+		}
+
+		if (lineWidths.getLineCount() != n) {
+			lineWidths.clear(n);
+		}
+
+		if (lineWidths.getUnknownCount() > 0) {
+			for (int i = 0; i < n; i++) {
+				if (lineWidths.getWidth(i) == -1) {
+					lineWidths.setWidth(i, getLineWidth(lines.getElement(i)));
 				}
 			}
 		}
+
+		// the longest of the lines before, between and after the folds.
+		FoldModel model = getFoldModel(getDocument());
+		List<Fold> folds = (model != null) ? model.getFolds() : Collections.<Fold>emptyList();
+		int longest = -1;
+		int start = 0;
+
+		for (int i = 0; i < folds.size(); i++) {
+			Fold fold = folds.get(i);
+
+			longest = getLongestLine(longest, lineWidths.getLongestLine(Math.min(start, n), Math.min(fold.getStart() + 1, n)));
+			start = Math.max(start, fold.getEnd());
+		}
+
+		longest = getLongestLine(longest, lineWidths.getLongestLine(Math.min(start, n), n));
+
+		if (longest != -1) {
+			longLine = lines.getElement(longest);
+		}
+	}
+
+	// Returns the longest of the lines, the first line when the lines have the
+	// same width.
+	private int getLongestLine(int line1, int line2) {
+		if (line1 == -1 || (line2 != -1 && lineWidths.getWidth(line2) > lineWidths.getWidth(line1))) {
+			return line2;
+		}
+
+		return line1;
+	}
+
+	/**
+	 * Returns the width of the line from the cache, the width is measured
+	 * when it is not known.
+	 */
+	private int getCachedLineWidth(Element line) {
+		Element lines = getElement();
+
+		if (lineWidths.getLineCount() != lines.getElementCount()) {
+			return getLineWidth(line);
+		}
+
+		int index = lines.getElementIndex(line.getStartOffset());
+		int width = lineWidths.getWidth(index);
+
+		if (width == -1) {
+			width = getLineWidth(line);
+			lineWidths.setWidth(index, width);
+		}
+
+		return width;
 	}
 
 	/**
@@ -928,7 +1061,11 @@ public class FoldingPlainView extends PlainView {
 
 		try {
 			line.getDocument().getText(p0, p1 - p0, s);
-			w = Utilities.getTabbedTextWidth(s, metrics, tabBase, this, p0);
+			w = (charWidth > 0) ? getMonospacedTextWidth(s, p0) : -1;
+
+			if (w == -1) {
+				w = Utilities.getTabbedTextWidth(s, metrics, tabBase, this, p0);
+			}
 		} catch (BadLocationException ble) {
 			w = 0;
 		}
@@ -938,6 +1075,89 @@ public class FoldingPlainView extends PlainView {
 		return w;
 	}
 
+	/**
+	 * Calculate the width of the text from the number of characters and the
+	 * tabs, for a monospaced font. Returns -1 when the text contains
+	 * characters that might not have the width of the other characters.
+	 */
+	private int getMonospacedTextWidth(Segment s, int startOffset) {
+		int x = 0;
+
+		for (int i = s.offset; i < s.offset + s.count; i++) {
+			char ch = s.array[i];
+
+			if (ch == '\t') {
+				x = (int) nextTabStop(tabBase + x, startOffset + i - s.offset) - tabBase;
+			} else if (ch >= ' ' && ch < 0x7F) {
+				x += charWidth;
+			} else if (ch != '\n') {
+				return -1;
+			}
+		}
+
+		return x;
+	}
+
+	/**
+	 * Calculate the offset in the text that is closest to the x position
+	 * relative to the start of the text, for a monospaced font. Returns -1
+	 * when the text before the position contains characters that might not
+	 * have the width of the other characters.
+	 */
+	private int getMonospacedTextOffset(Segment s, int x, int startOffset) {
+		if (x <= 0) {
+			return 0;
+		}
+
+		int currX = 0;
+
+		for (int i = s.offset; i < s.offset + s.count; i++) {
+			char ch = s.array[i];
+			int nextX;
+
+			if (ch == '\t') {
+				nextX = (int) nextTabStop(tabBase + currX, startOffset + i - s.offset) - tabBase;
+			} else if (ch >= ' ' && ch < 0x7F) {
+				nextX = currX + charWidth;
+			} else {
+				return -1;
+			}
+
+			if (x < nextX) {
+				// the closest side of the character.
+				return (x - currX < nextX - x) ? i - s.offset : i + 1 - s.offset;
+			}
+
+			currX = nextX;
+		}
+
+		return s.count;
+	}
+
+	/**
+	 * Returns the width of the characters when all printable ASCII characters
+	 * of the font have the same width, otherwise 0.
+	 */
+	private static int getMonospacedWidth(FontMetrics metrics) {
+		int width = metrics.charWidth('m');
+		char[] chars = new char[0x7F - ' '];
+
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = (char) (' ' + i);
+
+			if (metrics.charWidth(chars[i]) != width) {
+				return 0;
+			}
+		}
+
+		if (metrics.charsWidth(chars, 0, chars.length) != chars.length * width) {
+			// the widths of the characters are rounded.
+			return 0;
+		}
+
+		return width;
+	}
+
 	// --- member variables -----------------------------------------------
 
 	/**
@@ -958,6 +1178,16 @@ public class FoldingPlainView extends PlainView {
 	 */
 	Font font;
 
+	/**
+	 * The cached widths of the lines, for the current font.
+	 */
+	private final LineWidths lineWidths = new LineWidths();
+
+	/**
+	 * The width of the characters of a monospaced font, or 0.
+	 */
+	private int charWidth = 0;
+
 	Segment lineBuffer;
 	int tabSize;
 	int tabBase;
@@ -1015,18 +1245,12 @@ public class FoldingPlainView extends PlainView {
 				if (temp != null) {
 					r = temp;
 				} else {
-					List<Fold> folds = getFolds(c);
 					Document doc = c.getDocument();
 					Element root = doc.getDefaultRootElement();
-					int index = root.getElementIndex(lastOffs);
-
-					for (int i = 0; i < folds.size(); i++) {
-						Fold fold = (Fold) folds.get(i);
+					Fold fold = getFold(getFoldModel(doc), root.getElementIndex(lastOffs));
 
-						if (fold.contains(index)) {
-							lastOffs = root.getElement(fold.getStart()).getEndOffset();
-							break;
-						}
+					if (fold != null) {
+						lastOffs = root.getElement(fold.getStart()).getEndOffset();
 					}
 				}
 			} else {
@@ -1079,18 +1303,12 @@ public class FoldingPlainView extends PlainView {
 				if (temp != null) {
 					r = temp;
 				} else {
-					List<Fold> folds = getFolds(c);
 					Document doc = c.getDocument();
 					Element root = doc.getDefaultRootElement();
-					int index = root.getElementIndex(lastOffs);
+					Fold fold = getFold(getFoldModel(doc), root.getElementIndex(lastOffs));
 
-					for (int i = 0; i < folds.size(); i++) {
-						Fold fold = (Fold) folds.get(i);
-
-						if (fold.contains(index)) {
-							lastOffs = root.getElement(fold.getEnd()).getStartOffset() - 1;
-							break;
-						}
+					if (fold != null) {
+						lastOffs = root.getElement(fold.getEnd()).getStartOffset() - 1;
 					}
 				}
 			} else {
@@ -1101,15 +1319,8 @@ public class FoldingPlainView extends PlainView {
 		return offs;
 	}
 
-	@SuppressWarnings("unchecked")
-	private static final List<Fold> getFolds(JTextComponent c) {
-		List<Fold> folds = (List<Fold>)c.getDocument().getProperty(Fold.FOLD_LIST_ATTRIBUTE);
-		
-		if (folds == null) {
-			folds = Collections.EMPTY_LIST;
-		}
-		
-		return folds;
+	private static final FoldModel getFoldModel(Document doc) {
+		return (FoldModel) doc.getProperty(Fold.FOLD_MODEL_ATTRIBUTE);
 	}
 
 	/**
@@ -32,24 +32,39 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 
 import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.border.CompoundBorder;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.MatteBorder;
-import javax.swing.event.CaretEvent;
-import javax.swing.event.CaretListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
 import javax.swing.text.Element;
 import javax.swing.text.JTextComponent;
+import javax.swing.text.View;
 
 /**
  * Line number margin for a JTextComponent.
+ * <p>
+ * The digits are drawn from cached glyphs with the width of the widest digit.
+ * For an editor with a view of one row per line, the rows of the lines are
+ * computed from the line height and the folds instead of asking the editor.
+ * When lines are added or removed, only the rows from the changed line are
+ * repainted.
+ * </p>
  * 
  * <pre>
  * JEditorPane editor = new JEditorPane();
@@ -71,6 +86,23 @@ public class LineNumberMargin extends JComponent {
 
 	private int lines = 0;
 
+	// the glyphs of the digits, for the font render context.
+	private GlyphVector[] digitGlyphs = null;
+	private FontRenderContext digitContext = null;
+	private int digitWidth = 0;
+
+	private final DocumentListener documentListener = new DocumentListener() {
+		public void insertUpdate(DocumentEvent event) {
+			documentChanged(event);
+		}
+
+		public void removeUpdate(DocumentEvent event) {
+			documentChanged(event);
+		}
+
+		public void changedUpdate(DocumentEvent event) {}
+	};
+
 	/**
 	 * Convenience constructor for Text Components
 	 * @param editor the text component
@@ -82,14 +114,23 @@ public class LineNumberMargin extends JComponent {
 		setForeground(UIManager.getColor("textText"));
 		setFont(editor.getFont());
 		
-		editor.addCaretListener(new CaretListener() {
-			public void caretUpdate(CaretEvent evt) {
-				if (getLines() != lines) {
-					revalidate();
-					repaint();
-					
-					lines = getLines();
+		editor.getDocument().addDocumentListener(documentListener);
+		lines = getLines();
+
+		editor.addPropertyChangeListener("document", new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent event) {
+				if (event.getOldValue() instanceof Document) {
+					((Document) event.getOldValue()).removeDocumentListener(documentListener);
+				}
+
+				if (event.getNewValue() instanceof Document) {
+					((Document) event.getNewValue()).addDocumentListener(documentListener);
 				}
+
+				lines = getLines();
+
+				revalidate();
+				repaint();
 			}
 		});
 		
@@ -148,31 +189,60 @@ public class LineNumberMargin extends JComponent {
 	}
 
 	private int getMarginwidth() {
-		int lines = getLines();
-		int width = 0;
-		
-		if (fontMetrics != null) {
-			if (lines >= 1000000) {
-				width = fontMetrics.stringWidth("9999999");
-			} else if (lines >= 100000) {
-				width = fontMetrics.stringWidth("999999");
-		} else if (lines >= 10000) {
-				width = fontMetrics.stringWidth("99999");
-			} else if (lines >= 1000) {
-				width = fontMetrics.stringWidth("9999");
-			} else {
-				width = fontMetrics.stringWidth( "999");
-			}
+		return getMarginWidth(getLines());
+	}
+
+	// Returns the width of the numbers, for at least 3 digits.
+	private int getMarginWidth(int lines) {
+		int digits = 3;
+
+		for (long limit = 1000; limit <= lines; limit *= 10) {
+			digits++;
 		}
-		
-		return width;
+
+		return digits * digitWidth;
 	}
 
 	public void setFont(Font font) {
 		super.setFont(font);
 		
+		digitGlyphs = null;
+		digitWidth = 0;
+
 		if (font != null) {
 			fontMetrics = getFontMetrics(font);
+
+			for (char digit = '0'; digit <= '9'; digit++) {
+				digitWidth = Math.max(digitWidth, fontMetrics.charWidth(digit));
+			}
+		}
+	}
+
+	// Repaints the rows from the changed line, when lines have been added or
+	// removed. The row of the line is found later, after the fold model has
+	// been updated by its own document listener.
+	private void documentChanged(DocumentEvent event) {
+		int count = getLines();
+
+		if (count != lines) {
+			int width = getMarginWidth(lines);
+			lines = count;
+
+			revalidate();
+
+			if (width == getMarginWidth(count) && isFixedLineHeight()) {
+				final int line = editor.getDocument().getDefaultRootElement().getElementIndex(event.getOffset());
+
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						int y = getRowY(Math.min(line, Math.max(0, getLines() - 1)));
+
+						repaint(0, y, getWidth(), Math.max(0, getHeight() - y));
+					}
+				});
+			} else {
+				repaint();
+			}
 		}
 	}
 
@@ -188,29 +258,100 @@ public class LineNumberMargin extends JComponent {
 			g.setColor(getForeground());
 
 			FontMetrics editorMetrics = getFontMetrics(editor.getFont());
-			int startLine = getLineNumber(bounds.y);
-			int endLine = getLineNumber(bounds.y + bounds.height);
+			int ascent = editorMetrics.getHeight() - editorMetrics.getMaxDescent();
+			int right = getInsets().left + getMarginwidth();
 
-			if (endLine < getLines()) {
-				endLine = endLine + 1;
-			}
+			if (isFixedLineHeight()) {
+				int height = editorMetrics.getHeight();
+				int top = editor.getInsets().top;
+				int count = getLines();
+				FoldIndex folds = getFoldIndex();
+
+				int startRow = Math.max(0, (bounds.y - top) / height);
+				int endRow = ((bounds.y + bounds.height - top) / height) + 1;
+
+				for (int row = startRow; row < endRow; row++) {
+					int line = (folds != null) ? folds.getLine(row) : row;
+
+					if (line >= count) {
+						break;
+					}
+
+					drawLineNumber(g, line + 1, right, top + (row * height) + ascent);
+				}
+			} else {
+				int startLine = getLineNumber(bounds.y);
+				int endLine = getLineNumber(bounds.y + bounds.height);
+
+				if (endLine < getLines()) {
+					endLine = endLine + 1;
+				}
 
-			for (int line = startLine; line < endLine; line++) {
-				String lineNumber = String.valueOf(line+1);
-				
-				try {
-					int start = getLineStart(line);
-					
-					if (start != -1) { 
-						g.drawString(lineNumber, getInsets().left + (getMarginwidth() - fontMetrics.stringWidth(lineNumber)), start + (editorMetrics.getHeight() - editorMetrics.getMaxDescent()));
+				for (int line = startLine; line < endLine; line++) {
+					try {
+						int start = getLineStart(line);
+
+						if (start != -1) {
+							drawLineNumber(g, line + 1, right, start + ascent);
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+						return;
 					}
-				} catch ( Exception e) {
-					e.printStackTrace();
-					return;
 				}
 			}
 		}
 	}
+
+	// Draws the digits of the number from right to left, with the width of
+	// the widest digit.
+	private void drawLineNumber(Graphics g, int number, int right, int y) {
+		Graphics2D g2 = (Graphics2D) g;
+		GlyphVector[] glyphs = getDigitGlyphs(g2.getFontRenderContext());
+		int x = right;
+
+		do {
+			x -= digitWidth;
+			g2.drawGlyphVector(glyphs[number % 10], x, y);
+			number /= 10;
+		} while (number > 0);
+	}
+
+	private GlyphVector[] getDigitGlyphs(FontRenderContext context) {
+		if (digitGlyphs == null || !context.equals(digitContext)) {
+			digitGlyphs = new GlyphVector[10];
+
+			for (int i = 0; i < 10; i++) {
+				digitGlyphs[i] = getFont().createGlyphVector(context, new char[] { (char) ('0' + i) });
+			}
+
+			digitContext = context;
+		}
+
+		return digitGlyphs;
+	}
+
+	// Returns true when the view of the editor has a row for every visible
+	// line, with the height of the font.
+	private boolean isFixedLineHeight() {
+		View root = editor.getUI().getRootView(editor);
+
+		return root.getViewCount() > 0 && root.getView(0) instanceof FoldingPlainView;
+	}
+
+	// Returns the y position of the row of the line.
+	private int getRowY(int line) {
+		FoldIndex folds = getFoldIndex();
+		int row = (folds != null) ? folds.getRow(line) : line;
+
+		return editor.getInsets().top + (row * getFontMetrics(editor.getFont()).getHeight());
+	}
+
+	private FoldIndex getFoldIndex() {
+		FoldModel model = (FoldModel) editor.getDocument().getProperty(Fold.FOLD_MODEL_ATTRIBUTE);
+
+		return (model != null) ? model.getIndex() : null;
+	}
 	
     private int getLines() {
         return editor.getDocument().getDefaultRootElement().getElementCount();
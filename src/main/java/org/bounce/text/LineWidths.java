@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text;
+
+import java.util.Arrays;
+
+/**
+ * Cache of the widths of the lines of a view, with a tree to find the longest
+ * line in a range of lines in O(log n) time.
+ * <p>
+ * The width of a line that has changed is unknown until it is set again. The
+ * tree is rebuilt when lines have been added or removed and it is needed
+ * again, a change of the width of one line updates the tree in O(log n) time.
+ * </p>
+ */
+class LineWidths {
+	private static final int UNKNOWN = -1;
+
+	private int[] widths = new int[0];
+	private int lines = 0;
+	private int unknown = 0;
+
+	// a tree of the index of the longest line of a range of lines, the
+	// leaves are the lines.
+	private int[] tree = new int[0];
+	private int leaves = 0;
+	private boolean valid = false;
+
+	/**
+	 * Removes all widths.
+	 * 
+	 * @param size
+	 *            the number of lines.
+	 */
+	public void clear(int size) {
+		widths = new int[size];
+		Arrays.fill(widths, UNKNOWN);
+
+		lines = size;
+		unknown = size;
+		valid = false;
+	}
+
+	/**
+	 * @return the number of lines.
+	 */
+	public int getLineCount() {
+		return lines;
+	}
+
+	/**
+	 * @return the number of lines without a known width.
+	 */
+	public int getUnknownCount() {
+		return unknown;
+	}
+
+	/**
+	 * Returns the width of the line.
+	 * 
+	 * @param line
+	 *            the line index.
+	 * @return the width or -1 if the width is not known.
+	 */
+	public int getWidth(int line) {
+		return widths[line];
+	}
+
+	/**
+	 * Sets the width of the line.
+	 * 
+	 * @param line
+	 *            the line index.
+	 * @param width
+	 *            the width.
+	 */
+	public void setWidth(int line, int width) {
+		if (widths[line] == UNKNOWN) {
+			unknown--;
+		}
+
+		widths[line] = width;
+
+		if (valid) {
+			for (int i = (leaves + line) >> 1; i > 0; i >>= 1) {
+				tree[i] = longest(tree[i << 1], tree[(i << 1) + 1]);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the removed lines with the added lines, the added lines have
+	 * unknown widths.
+	 * 
+	 * @param index
+	 *            the index of the first line.
+	 * @param removed
+	 *            the number of removed lines.
+	 * @param added
+	 *            the number of added lines.
+	 */
+	public void replace(int index, int removed, int added) {
+		int size = lines - removed + added;
+
+		for (int i = index; i < index + removed; i++) {
+			if (widths[i] == UNKNOWN) {
+				unknown--;
+			}
+		}
+
+		if (size > widths.length) {
+			int[] newWidths = new int[Math.max(size, widths.length * 3 / 2)];
+			System.arraycopy(widths, 0, newWidths, 0, index);
+			System.arraycopy(widths, index + removed, newWidths, index + added, lines - index - removed);
+			widths = newWidths;
+		} else {
+			System.arraycopy(widths, index + removed, widths, index + added, lines - index - removed);
+		}
+
+		Arrays.fill(widths, index, index + added, UNKNOWN);
+
+		lines = size;
+		unknown += added;
+		valid = false;
+	}
+
+	/**
+	 * Returns the longest line of the range, the widths of all lines in the
+	 * range have to be known. The first line is returned when lines have the
+	 * same width.
+	 * 
+	 * @param start
+	 *            the first line of the range.
+	 * @param end
+	 *            the line after the range.
+	 * @return the longest line or -1 when the range is empty.
+	 */
+	public int getLongestLine(int start, int end) {
+		if (!valid) {
+			build();
+		}
+
+		int result = -1;
+
+		for (int low = start + leaves, high = end + leaves; low < high; low >>= 1, high >>= 1) {
+			if ((low & 1) == 1) {
+				result = longest(result, tree[low++]);
+			}
+
+			if ((high & 1) == 1) {
+				result = longest(result, tree[--high]);
+			}
+		}
+
+		return result;
+	}
+
+	// Returns the longer line, or the first line when the lines have the same
+	// width.
+	private int longest(int line1, int line2) {
+		if (line1 == -1) {
+			return line2;
+		} else if (line2 == -1) {
+			return line1;
+		}
+
+		int width1 = widths[line1];
+		int width2 = widths[line2];
+
+		if (width1 > width2 || (width1 == width2 && line1 < line2)) {
+			return line1;
+		}
+
+		return line2;
+	}
+
+	private void build() {
+		leaves = Math.max(1, Integer.highestOneBit(Math.max(1, lines - 1)) << 1);
+
+		if (tree.length < leaves * 2) {
+			tree = new int[leaves * 2];
+		}
+
+		for (int i = 0; i < leaves; i++) {
+			tree[leaves + i] = i < lines ? i : -1;
+		}
+
+		for (int i = leaves - 1; i > 0; i--) {
+			tree[i] = longest(tree[i << 1], tree[(i << 1) + 1]);
+		}
+
+		valid = true;
+	}
+}
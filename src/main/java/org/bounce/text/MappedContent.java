@@ -0,0 +1,507 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * A read-only document content backed by a memory-mapped file.
+ * <p>
+ * The characters are decoded from the mapped bytes when they are requested,
+ * the file is never copied into memory. The start offsets of the lines are
+ * kept in an int array that is built lazily, only the part of the file up to
+ * the requested line or offset is indexed. For UTF-8 files the byte offset of
+ * every 4096th character is indexed as well, so the characters at any offset
+ * can be decoded without decoding the file from the start.
+ * </p>
+ * <p>
+ * The characters are not converted, a "\r\n" line end is returned as two
+ * characters and lines only end with a '\n'. Like other contents, the content
+ * has an implied '\n' at the end.
+ * </p>
+ */
+public class MappedContent implements AbstractDocument.Content {
+	private static final int BLOCK_SHIFT = 12;
+
+	// the maximum number of characters returned for a partial return.
+	private static final int PARTIAL_LENGTH = 16384;
+
+	private static final int SCAN_LENGTH = 65536;
+
+	private static final char REPLACEMENT = '\uFFFD';
+
+	private final ByteBuffer buffer;
+	private final boolean utf8;
+	private final int size;
+
+	// the number of characters, -1 when not known yet.
+	private int length = -1;
+
+	// the start offsets of the known lines.
+	private int[] lines = new int[1024];
+	private int lineCount = 1;
+
+	// the first character and its byte offset of every UTF-8 block.
+	private int[] blockChars = new int[64];
+	private int[] blockBytes = new int[64];
+	private int blockCount = 0;
+
+	// the bytes and characters that have been indexed.
+	private int scannedBytes = 0;
+	private int scannedChars = 0;
+
+	private int longestLine = 0;
+	private int longestLength = 0;
+
+	private final byte[] chunk = new byte[SCAN_LENGTH];
+
+	/**
+	 * Maps the UTF-8 encoded file.
+	 * 
+	 * @param file
+	 *            the file.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be mapped.
+	 */
+	public MappedContent(File file) throws IOException {
+		this(file, "UTF-8");
+	}
+
+	/**
+	 * Maps the file.
+	 * 
+	 * @param file
+	 *            the file.
+	 * @param encoding
+	 *            the encoding of the file, "UTF-8", "ISO-8859-1" or
+	 *            "US-ASCII".
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be mapped or the encoding is not
+	 *             supported.
+	 */
+	public MappedContent(File file, String encoding) throws IOException {
+		if ("UTF-8".equalsIgnoreCase(encoding) || "UTF8".equalsIgnoreCase(encoding)) {
+			utf8 = true;
+		} else if ("ISO-8859-1".equalsIgnoreCase(encoding) || "US-ASCII".equalsIgnoreCase(encoding)) {
+			utf8 = false;
+		} else {
+			throw new UnsupportedEncodingException(encoding);
+		}
+
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = input.getChannel();
+
+			if (channel.size() >= Integer.MAX_VALUE) {
+				throw new IOException("File too large: " + file);
+			}
+
+			// the mapping stays valid after the channel has been closed.
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			size = (int) channel.size();
+		} finally {
+			input.close();
+		}
+
+		if (utf8) {
+			// skips the byte order mark.
+			if (size >= 3 && (buffer.get(0) & 0xFF) == 0xEF && (buffer.get(1) & 0xFF) == 0xBB && (buffer.get(2) & 0xFF) == 0xBF) {
+				scannedBytes = 3;
+			}
+
+			blockChars[0] = 0;
+			blockBytes[0] = scannedBytes;
+			blockCount = 1;
+		} else {
+			length = size + 1;
+		}
+	}
+
+	/**
+	 * @see AbstractDocument.Content#createPosition(int)
+	 */
+	public Position createPosition(final int offset) throws BadLocationException {
+		// a file has at most as many characters as bytes.
+		if (offset < 0 || offset > size + 1) {
+			throw new BadLocationException("Invalid position", offset);
+		}
+
+		// the content never changes.
+		return new Position() {
+			public int getOffset() {
+				return offset;
+			}
+		};
+	}
+
+	/**
+	 * @see AbstractDocument.Content#length()
+	 */
+	public synchronized int length() {
+		if (length == -1) {
+			scan(size);
+		}
+
+		return length;
+	}
+
+	/**
+	 * The content is read-only.
+	 * 
+	 * @throws BadLocationException
+	 *             always.
+	 */
+	public UndoableEdit insertString(int where, String str) throws BadLocationException {
+		throw new BadLocationException("Read-only content", where);
+	}
+
+	/**
+	 * The content is read-only.
+	 * 
+	 * @throws BadLocationException
+	 *             always.
+	 */
+	public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+		throw new BadLocationException("Read-only content", where);
+	}
+
+	/**
+	 * @see AbstractDocument.Content#getString(int, int)
+	 */
+	public String getString(int where, int len) throws BadLocationException {
+		Segment text = new Segment();
+		getChars(where, len, text);
+
+		return new String(text.array, text.offset, text.count);
+	}
+
+	/**
+	 * Decodes the characters into a new array, for a partial return at most
+	 * 16384 characters are decoded.
+	 * 
+	 * @see AbstractDocument.Content#getChars(int, int, Segment)
+	 */
+	public void getChars(int where, int len, Segment txt) throws BadLocationException {
+		if (where < 0 || len < 0 || where + len > length()) {
+			throw new BadLocationException("Invalid location", where + len);
+		}
+
+		if (txt.isPartialReturn()) {
+			len = Math.min(len, PARTIAL_LENGTH);
+		}
+
+		char[] chars = new char[len];
+		int count = Math.min(len, length() - 1 - where);
+
+		if (utf8) {
+			decode(where, chars, count);
+		} else {
+			for (int i = 0; i < count; i++) {
+				chars[i] = (char) (buffer.get(where + i) & 0xFF);
+			}
+		}
+
+		// the implied newline.
+		if (count < len) {
+			chars[count] = '\n';
+		}
+
+		txt.array = chars;
+		txt.offset = 0;
+		txt.count = len;
+	}
+
+	/**
+	 * Returns the number of lines, this indexes the complete file. The number
+	 * is not estimated, a document cannot change its number of lines without
+	 * a change to its text.
+	 * 
+	 * @return the number of lines.
+	 */
+	public synchronized int getLineCount() {
+		scan(size);
+
+		return lineCount;
+	}
+
+	/**
+	 * Returns the start offset of the line, this indexes the file up to the
+	 * line.
+	 * 
+	 * @param line
+	 *            the line index.
+	 * @return the start offset or -1 when the line does not exist.
+	 */
+	public synchronized int getLineStart(int line) {
+		while (line >= lineCount && scannedBytes < size) {
+			scan(scannedBytes + SCAN_LENGTH);
+		}
+
+		if (line >= lineCount) {
+			return -1;
+		}
+
+		return lines[line];
+	}
+
+	/**
+	 * Returns the end offset of the line, including the newline.
+	 * 
+	 * @param line
+	 *            the line index.
+	 * @return the end offset.
+	 */
+	public synchronized int getLineEnd(int line) {
+		int end = getLineStart(line + 1);
+
+		if (end == -1) {
+			return length();
+		}
+
+		return end;
+	}
+
+	/**
+	 * Returns the index of the line that contains the offset, this indexes the
+	 * file up to the offset.
+	 * 
+	 * @param offset
+	 *            the offset.
+	 * @return the line index.
+	 */
+	public synchronized int getLineIndex(int offset) {
+		while (scannedChars <= offset && scannedBytes < size) {
+			scan(scannedBytes + SCAN_LENGTH);
+		}
+
+		int low = 0;
+		int high = lineCount - 1;
+
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+
+			if (lines[mid] <= offset) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the line with the most characters of the lines that have been
+	 * indexed, the last line is only included when the complete file has been
+	 * indexed.
+	 * 
+	 * @return the index of the longest indexed line.
+	 */
+	public synchronized int getLongestLine() {
+		return longestLine;
+	}
+
+	// Indexes the lines and blocks up to the byte offset.
+	private void scan(int limit) {
+		limit = Math.min(limit, size);
+
+		byte[] bytes = chunk;
+		int chars = scannedChars;
+
+		while (scannedBytes < limit) {
+			// copies the bytes, a get per byte is much slower.
+			int count = Math.min(limit - scannedBytes, bytes.length);
+			ByteBuffer source = buffer.duplicate();
+			source.position(scannedBytes);
+			source.get(bytes, 0, count);
+
+			// the first character of the next block.
+			int block = utf8 ? blockCount << BLOCK_SHIFT : Integer.MAX_VALUE;
+
+			for (int i = 0; i < count; i++) {
+				int b = bytes[i];
+				int start = chars;
+
+				if (b == '\n') {
+					chars++;
+					addLine(chars);
+				} else if (b >= 0 || !utf8) {
+					chars++;
+				} else if (b >= (byte) 0xC0) {
+					// a lead byte, its continuation bytes do not add characters.
+					chars += (b >= (byte) 0xF0 && b < (byte) 0xF8) ? 2 : 1;
+				}
+
+				if (chars > block) {
+					addBlock(start, scannedBytes + i);
+					block = blockCount << BLOCK_SHIFT;
+				}
+			}
+
+			scannedBytes += count;
+		}
+
+		scannedChars = chars;
+
+		if (scannedBytes == size) {
+			if (length == -1) {
+				length = chars + 1;
+			}
+
+			updateLongestLine(lineCount - 1, length - lines[lineCount - 1]);
+		}
+	}
+
+	private void addLine(int start) {
+		updateLongestLine(lineCount - 1, start - lines[lineCount - 1]);
+
+		if (lineCount == lines.length) {
+			int[] newLines = new int[lines.length * 2];
+			System.arraycopy(lines, 0, newLines, 0, lineCount);
+			lines = newLines;
+		}
+
+		lines[lineCount++] = start;
+	}
+
+	private void updateLongestLine(int line, int length) {
+		if (length > longestLength) {
+			longestLength = length;
+			longestLine = line;
+		}
+	}
+
+	// Adds a block that starts with the character at the byte offset, a
+	// surrogate pair can start at the character before the block.
+	private void addBlock(int start, int offset) {
+		if (blockCount == blockChars.length) {
+			int[] newChars = new int[blockChars.length * 2];
+			int[] newBytes = new int[blockBytes.length * 2];
+			System.arraycopy(blockChars, 0, newChars, 0, blockCount);
+			System.arraycopy(blockBytes, 0, newBytes, 0, blockCount);
+			blockChars = newChars;
+			blockBytes = newBytes;
+		}
+
+		blockChars[blockCount] = start;
+		blockBytes[blockCount] = offset;
+		blockCount++;
+	}
+
+	// Decodes the UTF-8 characters from the offset, the characters have been
+	// indexed.
+	private void decode(int where, char[] chars, int count) {
+		int block;
+		int offset;
+		int index;
+
+		synchronized (this) {
+			// the blocks are only added for multi byte characters.
+			while (scannedChars < where + count && scannedBytes < size) {
+				scan(scannedBytes + SCAN_LENGTH);
+			}
+
+			block = Math.min(where >> BLOCK_SHIFT, blockCount - 1);
+
+			while (block > 0 && blockChars[block] > where) {
+				block--;
+			}
+
+			offset = blockBytes[block];
+			index = blockChars[block];
+		}
+
+		int i = 0;
+
+		while (i < count) {
+			int b = buffer.get(offset++) & 0xFF;
+
+			if (b < 0x80) {
+				if (index >= where) {
+					chars[i++] = (char) b;
+				}
+
+				index++;
+			} else if (b < 0xC0) {
+				// a continuation byte without a lead byte.
+			} else {
+				int needed = b >= 0xF8 ? 0 : b >= 0xF0 ? 3 : b >= 0xE0 ? 2 : 1;
+				int value = b & (0x3F >> needed);
+				boolean valid = needed > 0;
+
+				for (int j = 0; j < needed; j++) {
+					if (offset < size && (buffer.get(offset) & 0xC0) == 0x80) {
+						value = (value << 6) | (buffer.get(offset++) & 0x3F);
+					} else {
+						valid = false;
+						break;
+					}
+				}
+
+				if (needed == 3) {
+					char high = REPLACEMENT;
+					char low = REPLACEMENT;
+
+					if (valid && value >= 0x10000 && value <= 0x10FFFF) {
+						high = (char) (0xD800 + ((value - 0x10000) >> 10));
+						low = (char) (0xDC00 + ((value - 0x10000) & 0x3FF));
+					}
+
+					if (index >= where) {
+						chars[i++] = high;
+					}
+
+					if (index + 1 >= where && i < count) {
+						chars[i++] = low;
+					}
+
+					index += 2;
+				} else {
+					if (index >= where) {
+						chars[i++] = valid ? (char) value : REPLACEMENT;
+					}
+
+					index++;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+
+/**
+ * A read-only document for very large files, the text is kept in a
+ * {@link MappedContent} and the lines are not kept as elements.
+ * <p>
+ * The line elements of the root element are created when they are requested,
+ * from the line index of the content. Two elements for the same line are equal
+ * but not the same object.
+ * </p>
+ * <p>
+ * The number of lines of the root element is exact, the views use it for
+ * their height and the line elements must exist for every line, so the first
+ * view of the document indexes the complete file. The index is built in one
+ * pass over the bytes without decoding them and the longest line is found in
+ * the same pass.
+ * </p>
+ * <p>
+ * Any change to the document throws a <code>BadLocationException</code>,
+ * the editor that shows the document should not be editable.
+ * </p>
+ */
+public class MappedDocument extends AbstractDocument implements LargeDocument {
+	private static final long serialVersionUID = 2785429637012875126L;
+
+	private final MappedContent content;
+	private final Element root = new RootElement();
+
+	/**
+	 * Constructs a document for the UTF-8 encoded file.
+	 * 
+	 * @param file
+	 *            the file.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be mapped.
+	 */
+	public MappedDocument(File file) throws IOException {
+		this(new MappedContent(file));
+	}
+
+	/**
+	 * Constructs a document for the content.
+	 * 
+	 * @param content
+	 *            the mapped content.
+	 */
+	public MappedDocument(MappedContent content) {
+		super(content);
+
+		this.content = content;
+	}
+
+	/**
+	 * Returns the line with the most characters of the indexed lines, this
+	 * does not index the file.
+	 * 
+	 * @see LargeDocument#getLongestLine()
+	 */
+	public int getLongestLine() {
+		return content.getLongestLine();
+	}
+
+	/**
+	 * The document is read-only.
+	 * 
+	 * @throws BadLocationException
+	 *             always.
+	 */
+	public void insertString(int offset, String text, AttributeSet attributes) throws BadLocationException {
+		throw new BadLocationException("Read-only document", offset);
+	}
+
+	/**
+	 * The document is read-only.
+	 * 
+	 * @throws BadLocationException
+	 *             always.
+	 */
+	public void remove(int offset, int length) throws BadLocationException {
+		throw new BadLocationException("Read-only document", offset);
+	}
+
+	/**
+	 * @see Document#getDefaultRootElement()
+	 */
+	public Element getDefaultRootElement() {
+		return root;
+	}
+
+	/**
+	 * @see AbstractDocument#getParagraphElement(int)
+	 */
+	public Element getParagraphElement(int pos) {
+		return root.getElement(root.getElementIndex(pos));
+	}
+
+	private class RootElement implements Element {
+		public Document getDocument() {
+			return MappedDocument.this;
+		}
+
+		public Element getParentElement() {
+			return null;
+		}
+
+		public String getName() {
+			return AbstractDocument.SectionElementName;
+		}
+
+		public AttributeSet getAttributes() {
+			return SimpleAttributeSet.EMPTY;
+		}
+
+		public int getStartOffset() {
+			return 0;
+		}
+
+		public int getEndOffset() {
+			return content.length();
+		}
+
+		public int getElementIndex(int offset) {
+			return content.getLineIndex(Math.max(offset, 0));
+		}
+
+		public int getElementCount() {
+			return content.getLineCount();
+		}
+
+		public Element getElement(int index) {
+			if (index < 0 || content.getLineStart(index) == -1) {
+				return null;
+			}
+
+			return new LineElement(index);
+		}
+
+		public boolean isLeaf() {
+			return false;
+		}
+	}
+
+	private class LineElement implements Element {
+		private final int line;
+
+		public LineElement(int line) {
+			this.line = line;
+		}
+
+		public Document getDocument() {
+			return MappedDocument.this;
+		}
+
+		public Element getParentElement() {
+			return root;
+		}
+
+		public String getName() {
+			return AbstractDocument.ParagraphElementName;
+		}
+
+		public AttributeSet getAttributes() {
+			return SimpleAttributeSet.EMPTY;
+		}
+
+		public int getStartOffset() {
+			return content.getLineStart(line);
+		}
+
+		public int getEndOffset() {
+			return content.getLineEnd(line);
+		}
+
+		public int getElementIndex(int offset) {
+			return -1;
+		}
+
+		public int getElementCount() {
+			return 0;
+		}
+
+		public Element getElement(int index) {
+			return null;
+		}
+
+		public boolean isLeaf() {
+			return true;
+		}
+
+		public boolean equals(Object object) {
+			return object instanceof LineElement && ((LineElement) object).line == line;
+		}
+
+		public int hashCode() {
+			return line;
+		}
+	}
+}
@@ -0,0 +1,763 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * A document content that keeps the text as a sequence of pieces, for
+ * documents that are edited at many places.
+ * <p>
+ * Inserted text is appended to an add buffer and never changed, the document
+ * is a balanced tree (a treap) of pieces that refer to parts of the add
+ * buffers. An insert or remove splits and joins the tree in O(log n) time and
+ * never moves the text after the change. The undoable edits keep the pieces of
+ * the changed text instead of a copy of the text.
+ * </p>
+ * <p>
+ * The positions move like the positions of a <code>GapContent</code>, a
+ * position at the offset of an insert moves with the insert, except at offset
+ * 0. For a partial return, {@link #getChars(int, int, Segment)} returns the
+ * text of one piece without copying.
+ * </p>
+ * <p>
+ * To use the content with an <code>XMLEditorKit</code>, set a document that
+ * uses the content:
+ * </p>
+ * 
+ * <pre><code>
+ * editor.setEditorKit(new XMLEditorKit());
+ * editor.setDocument(new PlainDocument(new PieceTableContent()));
+ * </code></pre>
+ */
+public class PieceTableContent implements AbstractDocument.Content {
+	private static final int BUFFER_SIZE = 65536;
+
+	// the length of the virtual gap that is used to update the marks.
+	private static final long GAP_LENGTH = 1L << 40;
+
+	private static final Comparator<Mark> MARK_ORDER = new Comparator<Mark>() {
+		public int compare(Mark mark1, Mark mark2) {
+			return mark1.value < mark2.value ? -1 : mark1.value == mark2.value ? 0 : 1;
+		}
+	};
+
+	private final Random random = new Random();
+
+	private Node root = null;
+
+	// the add buffer that is currently appended to.
+	private char[] buffer = new char[BUFFER_SIZE];
+	private int used = 0;
+
+	// the marks, sorted by value. The offset of a mark that is at or after
+	// the virtual gap is the value minus the gap length, like the marks of a
+	// GapContent, only the marks between the old and the new position of the
+	// gap have to be updated.
+	private Mark[] marks = new Mark[16];
+	private int markCount = 0;
+	private long gapStart = Integer.MAX_VALUE;
+	private long gapEnd = gapStart + GAP_LENGTH;
+
+	private final ReferenceQueue<MarkPosition> queue = new ReferenceQueue<MarkPosition>();
+	private int unused = 0;
+
+	/**
+	 * Constructs an empty content, with only the implied newline.
+	 */
+	public PieceTableContent() {
+		root = new Node(append("\n"), random.nextInt());
+	}
+
+	/**
+	 * @see AbstractDocument.Content#length()
+	 */
+	public int length() {
+		return root.size;
+	}
+
+	/**
+	 * Creates a position that moves with the changes of the content, the
+	 * positions at the same offset are shared.
+	 * 
+	 * @see AbstractDocument.Content#createPosition(int)
+	 */
+	public Position createPosition(int offset) throws BadLocationException {
+		if (offset < 0 || offset > length()) {
+			throw new BadLocationException("Invalid position", offset);
+		}
+
+		removeUnusedMarks();
+
+		long value = offset < gapStart ? offset : offset + gapEnd - gapStart;
+		int index = findSortIndex(value);
+
+		if (index < markCount && marks[index].value == value) {
+			MarkPosition position = marks[index].get();
+
+			if (position != null) {
+				return position;
+			}
+		}
+
+		MarkPosition position = new MarkPosition();
+		Mark mark = new Mark(position, queue, value);
+		position.mark = mark;
+
+		if (markCount == marks.length) {
+			Mark[] newMarks = new Mark[marks.length * 2];
+			System.arraycopy(marks, 0, newMarks, 0, markCount);
+			marks = newMarks;
+		}
+
+		System.arraycopy(marks, index, marks, index + 1, markCount - index);
+		marks[index] = mark;
+		markCount++;
+
+		return position;
+	}
+
+	/**
+	 * @see AbstractDocument.Content#insertString(int, String)
+	 */
+	public UndoableEdit insertString(int where, String str) throws BadLocationException {
+		if (where < 0 || where > length()) {
+			throw new BadLocationException("Invalid insert", length());
+		}
+
+		if (str.length() == 0) {
+			return null;
+		}
+
+		insert(where, str);
+
+		return new InsertUndo(where, str.length());
+	}
+
+	/**
+	 * @see AbstractDocument.Content#remove(int, int)
+	 */
+	public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+		if (where < 0 || nitems < 0 || where + nitems >= length()) {
+			throw new BadLocationException("Invalid remove", length());
+		}
+
+		if (nitems == 0) {
+			return null;
+		}
+
+		List<UndoMark> positions = getMarks(where, nitems);
+		List<Piece> pieces = remove(where, nitems, positions);
+
+		return new RemoveUndo(where, nitems, pieces, positions);
+	}
+
+	/**
+	 * @see AbstractDocument.Content#getString(int, int)
+	 */
+	public String getString(int where, int len) throws BadLocationException {
+		Segment text = new Segment();
+		getChars(where, len, text);
+
+		return new String(text.array, text.offset, text.count);
+	}
+
+	/**
+	 * Returns the characters of the range, the characters are only copied
+	 * when the range is not part of one piece and the segment does not allow
+	 * a partial return.
+	 * 
+	 * @see AbstractDocument.Content#getChars(int, int, Segment)
+	 */
+	public void getChars(int where, int len, Segment txt) throws BadLocationException {
+		if (where < 0 || len < 0 || where + len > length()) {
+			throw new BadLocationException("Invalid location", length());
+		}
+
+		Node node = root;
+		int offset = where;
+
+		while (true) {
+			int left = size(node.left);
+
+			if (offset < left) {
+				node = node.left;
+			} else if (offset - left < node.piece.length || node.right == null) {
+				offset -= left;
+				break;
+			} else {
+				offset -= left + node.piece.length;
+				node = node.right;
+			}
+		}
+
+		Piece piece = node.piece;
+		int available = piece.length - offset;
+
+		if (len <= available || txt.isPartialReturn()) {
+			txt.array = piece.array;
+			txt.offset = piece.start + offset;
+			txt.count = Math.min(len, available);
+		} else {
+			char[] chars = new char[len];
+			copy(root, 0, where, where + len, chars);
+
+			txt.array = chars;
+			txt.offset = 0;
+			txt.count = len;
+		}
+	}
+
+	// Inserts the text, extends the last piece when the text follows the
+	// text of the piece in the add buffer.
+	private void insert(int where, String str) {
+		int end = used;
+		char[] array = buffer;
+		Piece piece = append(str);
+
+		if (where == 0 || array != piece.array || !extend(where, end, str.length())) {
+			insert(where, new Node(piece, random.nextInt()));
+		}
+
+		updateMarksForInsert(where, str.length());
+	}
+
+	// Inserts the pieces, without updating the marks.
+	private void insert(int where, List<Piece> pieces) {
+		Node node = null;
+
+		for (int i = 0; i < pieces.size(); i++) {
+			node = merge(node, new Node(pieces.get(i), random.nextInt()));
+		}
+
+		insert(where, node);
+	}
+
+	private void insert(int where, Node node) {
+		Node[] split = split(root, where);
+
+		root = merge(merge(split[0], node), split[1]);
+	}
+
+	// Extends the piece that ends at the offset, when it ends at the end of
+	// the add buffer.
+	private boolean extend(int where, int end, int length) {
+		Node[] path = new Node[64];
+		int depth = 0;
+		Node node = root;
+		int offset = where - 1;
+
+		while (true) {
+			if (depth == path.length) {
+				Node[] newPath = new Node[path.length * 2];
+				System.arraycopy(path, 0, newPath, 0, depth);
+				path = newPath;
+			}
+
+			path[depth++] = node;
+
+			int left = size(node.left);
+
+			if (offset < left) {
+				node = node.left;
+			} else if (offset - left < node.piece.length) {
+				offset -= left;
+				break;
+			} else {
+				offset -= left + node.piece.length;
+				node = node.right;
+			}
+		}
+
+		Piece piece = node.piece;
+
+		if (piece.array != buffer || piece.start + piece.length != end || offset != piece.length - 1) {
+			return false;
+		}
+
+		node.piece = new Piece(piece.array, piece.start, piece.length + length);
+
+		for (int i = 0; i < depth; i++) {
+			path[i].size += length;
+		}
+
+		return true;
+	}
+
+	// Removes the text and returns the pieces of the removed text, the
+	// positions in the range are collapsed to the start.
+	private List<Piece> remove(int where, int length, List<UndoMark> positions) {
+		Node[] split = split(root, where);
+		Node[] end = split(split[1], length);
+
+		List<Piece> pieces = new ArrayList<Piece>();
+		collect(end[0], pieces);
+
+		root = merge(split[0], end[1]);
+
+		updateMarksForRemove(where, length);
+
+		return pieces;
+	}
+
+	// Appends the text to the add buffer, returns the piece of the text.
+	private Piece append(String str) {
+		int length = str.length();
+
+		if (used + length > buffer.length) {
+			buffer = new char[Math.max(BUFFER_SIZE, length)];
+			used = 0;
+		}
+
+		str.getChars(0, length, buffer, used);
+		Piece piece = new Piece(buffer, used, length);
+		used += length;
+
+		return piece;
+	}
+
+	// Splits the tree into the nodes of the first characters and the nodes of
+	// the rest, a piece that contains the offset is split into two pieces.
+	private Node[] split(Node node, int offset) {
+		if (node == null) {
+			return new Node[2];
+		}
+
+		int left = size(node.left);
+
+		if (offset <= left) {
+			Node[] split = split(node.left, offset);
+			node.left = split[1];
+			update(node);
+			split[1] = node;
+
+			return split;
+		}
+
+		offset -= left;
+
+		if (offset >= node.piece.length) {
+			Node[] split = split(node.right, offset - node.piece.length);
+			node.right = split[0];
+			update(node);
+			split[0] = node;
+
+			return split;
+		}
+
+		Piece piece = node.piece;
+		Node rest = new Node(new Piece(piece.array, piece.start + offset, piece.length - offset), random.nextInt());
+		Node right = node.right;
+
+		node.piece = new Piece(piece.array, piece.start, offset);
+		node.right = null;
+		update(node);
+
+		return new Node[] { node, merge(rest, right) };
+	}
+
+	// Joins the trees, all nodes of the first tree are before the nodes of the
+	// second tree.
+	private static Node merge(Node first, Node second) {
+		if (first == null) {
+			return second;
+		} else if (second == null) {
+			return first;
+		}
+
+		if (first.priority > second.priority) {
+			first.right = merge(first.right, second);
+			update(first);
+
+			return first;
+		}
+
+		second.left = merge(first, second.left);
+		update(second);
+
+		return second;
+	}
+
+	// Copies the characters of the range that are in the subtree that starts
+	// at the offset.
+	private static void copy(Node node, int offset, int start, int end, char[] chars) {
+		while (node != null) {
+			int pieceStart = offset + size(node.left);
+			int pieceEnd = pieceStart + node.piece.length;
+
+			if (start < pieceStart) {
+				copy(node.left, offset, start, end, chars);
+			}
+
+			int from = Math.max(start, pieceStart);
+			int to = Math.min(end, pieceEnd);
+
+			if (from < to) {
+				System.arraycopy(node.piece.array, node.piece.start + from - pieceStart, chars, from - start, to - from);
+			}
+
+			if (end <= pieceEnd) {
+				return;
+			}
+
+			offset = pieceEnd;
+			node = node.right;
+		}
+	}
+
+	private static void collect(Node node, List<Piece> pieces) {
+		while (node != null) {
+			collect(node.left, pieces);
+			pieces.add(node.piece);
+			node = node.right;
+		}
+	}
+
+	private static int size(Node node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static void update(Node node) {
+		node.size = size(node.left) + node.piece.length + size(node.right);
+	}
+
+	// Moves the virtual gap to the offset, the marks at the offset are after
+	// the gap.
+	private void moveGap(int offset) {
+		long length = gapEnd - gapStart;
+
+		if (offset < gapStart) {
+			for (int i = findMark(offset); i < markCount && marks[i].value < gapStart; i++) {
+				marks[i].value += length;
+			}
+		} else if (offset > gapStart) {
+			long end = gapEnd + offset - gapStart;
+
+			for (int i = findMark(gapEnd); i < markCount && marks[i].value < end; i++) {
+				marks[i].value -= length;
+			}
+		}
+
+		gapStart = offset;
+		gapEnd = offset + length;
+
+		resetMarksAtZero();
+	}
+
+	// Moves the marks at offset 0 before the gap, like a gap content, the
+	// marks stay at offset 0 when text is inserted at the start.
+	private void resetMarksAtZero() {
+		if (gapStart == 0) {
+			for (int i = 0; i < markCount && marks[i].value <= gapEnd; i++) {
+				marks[i].value = 0;
+			}
+		}
+	}
+
+	private void updateMarksForInsert(int where, int length) {
+		moveGap(where);
+
+		// the marks after the gap move with the insert.
+		gapStart += length;
+	}
+
+	private void updateMarksForRemove(int where, int length) {
+		moveGap(where);
+
+		long end = gapEnd + length;
+
+		// the marks in the removed range are moved to the start of the range.
+		for (int i = findMark(gapEnd); i < markCount && marks[i].value < end; i++) {
+			marks[i].value = end;
+		}
+
+		gapEnd = end;
+
+		resetMarksAtZero();
+	}
+
+	// Returns the marks in the range, including the end, with their current
+	// offsets.
+	private List<UndoMark> getMarks(int where, int length) {
+		List<UndoMark> result = new ArrayList<UndoMark>();
+
+		for (int i = findStartMark(where); i < markCount && getOffset(marks[i]) <= where + length; i++) {
+			Mark mark = marks[i];
+
+			if (mark.get() != null) {
+				result.add(new UndoMark(mark, getOffset(mark)));
+			}
+		}
+
+		return result;
+	}
+
+	// Moves the marks of an undone remove back to their offsets, the marks are
+	// in the range.
+	private void resetMarks(List<UndoMark> positions, int where, int length) {
+		for (int i = 0; i < positions.size(); i++) {
+			UndoMark position = positions.get(i);
+			position.mark.value = toValue(position.offset);
+		}
+
+		int start = findStartMark(where);
+		int end = start;
+
+		while (end < markCount && getOffset(marks[end]) <= where + length) {
+			end++;
+		}
+
+		Arrays.sort(marks, start, end, MARK_ORDER);
+	}
+
+	private long toValue(int offset) {
+		return offset < gapStart ? offset : offset + gapEnd - gapStart;
+	}
+
+	private int getOffset(Mark mark) {
+		return (int) (mark.value < gapStart ? mark.value : Math.max(mark.value - (gapEnd - gapStart), 0));
+	}
+
+	// Returns the index of a mark with the value, or the index to insert a
+	// mark with the value, this finds the same mark as a gap content.
+	private int findSortIndex(long value) {
+		if (markCount == 0) {
+			return 0;
+		} else if (value > marks[markCount - 1].value) {
+			return markCount;
+		}
+
+		int low = 0;
+		int high = markCount - 1;
+		int mid = 0;
+		boolean less = false;
+
+		while (low <= high) {
+			mid = (low + high) >>> 1;
+			long markValue = marks[mid].value;
+
+			if (value == markValue) {
+				return mid;
+			}
+
+			less = value < markValue;
+
+			if (less) {
+				high = mid - 1;
+			} else {
+				low = mid + 1;
+			}
+		}
+
+		return less ? mid : mid + 1;
+	}
+
+	// Returns the index of the first mark at or after the offset.
+	private int findStartMark(int offset) {
+		return offset == 0 ? 0 : findMark(toValue(offset));
+	}
+
+	// Returns the index of the first mark with a value that is not less than
+	// the value.
+	private int findMark(long value) {
+		int low = 0;
+		int high = markCount;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (marks[mid].value < value) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	// Removes the marks of the positions that are no longer used, when there
+	// are many of them.
+	private void removeUnusedMarks() {
+		while (queue.poll() != null) {
+			unused++;
+		}
+
+		if (unused > Math.max(5, markCount / 10)) {
+			int count = 0;
+
+			for (int i = 0; i < markCount; i++) {
+				if (marks[i].get() != null) {
+					marks[count++] = marks[i];
+				}
+			}
+
+			Arrays.fill(marks, count, markCount, null);
+			markCount = count;
+			unused = 0;
+		}
+	}
+
+	// A part of an add buffer, the characters of a piece never change.
+	private static final class Piece {
+		private final char[] array;
+		private final int start;
+		private final int length;
+
+		public Piece(char[] array, int start, int length) {
+			this.array = array;
+			this.start = start;
+			this.length = length;
+		}
+	}
+
+	private static final class Node {
+		private final int priority;
+		private Piece piece;
+		private Node left = null;
+		private Node right = null;
+		private int size;
+
+		public Node(Piece piece, int priority) {
+			this.piece = piece;
+			this.priority = priority;
+
+			size = piece.length;
+		}
+	}
+
+	private static final class Mark extends WeakReference<MarkPosition> {
+		private long value;
+
+		public Mark(MarkPosition position, ReferenceQueue<MarkPosition> queue, long value) {
+			super(position, queue);
+
+			this.value = value;
+		}
+	}
+
+	// A mark in a removed range and the offset of the mark before the remove.
+	private static final class UndoMark {
+		private final Mark mark;
+		private final int offset;
+
+		public UndoMark(Mark mark, int offset) {
+			this.mark = mark;
+			this.offset = offset;
+		}
+	}
+
+	private final class MarkPosition implements Position {
+		private Mark mark = null;
+
+		public int getOffset() {
+			return PieceTableContent.this.getOffset(mark);
+		}
+
+		public String toString() {
+			return Integer.toString(getOffset());
+		}
+	}
+
+	private class InsertUndo extends AbstractUndoableEdit {
+		private static final long serialVersionUID = -2893453417815917934L;
+
+		private final int offset;
+		private final int length;
+		private List<Piece> pieces = null;
+		private List<UndoMark> positions = null;
+
+		public InsertUndo(int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+
+		public void undo() throws CannotUndoException {
+			super.undo();
+
+			positions = getMarks(offset, length);
+			pieces = remove(offset, length, positions);
+		}
+
+		public void redo() throws CannotRedoException {
+			super.redo();
+
+			insert(offset, pieces);
+			updateMarksForInsert(offset, length);
+			resetMarks(positions, offset, length);
+
+			pieces = null;
+			positions = null;
+		}
+	}
+
+	private class RemoveUndo extends AbstractUndoableEdit {
+		private static final long serialVersionUID = 4436417567024839622L;
+
+		private final int offset;
+		private final int length;
+		private List<Piece> pieces;
+		private List<UndoMark> positions;
+
+		public RemoveUndo(int offset, int length, List<Piece> pieces, List<UndoMark> positions) {
+			this.offset = offset;
+			this.length = length;
+			this.pieces = pieces;
+			this.positions = positions;
+		}
+
+		public void undo() throws CannotUndoException {
+			super.undo();
+
+			insert(offset, pieces);
+			updateMarksForInsert(offset, length);
+			resetMarks(positions, offset, length);
+		}
+
+		public void redo() throws CannotRedoException {
+			super.redo();
+
+			positions = getMarks(offset, length);
+			pieces = remove(offset, length, positions);
+		}
+	}
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text;
+
+import java.io.IOException;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+
+/**
+ * Keeps a scanner state for every line of the document, so scanning can start
+ * at any line without rescanning the document from the start.
+ * <p>
+ * The checkpoint of a line is the state of the scanner after the first token
+ * that ends at or after the start of the line. The checkpoints are computed
+ * lazily and when the document changes only the checkpoints from the changed
+ * line onwards are invalidated. When the checkpoints are recomputed and the
+ * state of a line after the change matches the state that was computed before
+ * the change, all following checkpoints are valid again.
+ * </p>
+ * <p>
+ * The known checkpoints are always the checkpoints of the document before
+ * the last change, so {@link #converge(int)} also tells which lines are
+ * highlighted differently after the last change.
+ * </p>
+ * <p>
+ * The table has to be notified of all document changes, see
+ * {@link #update(DocumentEvent)}.
+ * </p>
+ */
+public class ScannerCheckpoints {
+	private final SyntaxHighlightingScanner scanner;
+	private final Document document;
+
+	// the states and the end offset of the state relative to the line start.
+	private SyntaxHighlightingScanner.State[] states = new SyntaxHighlightingScanner.State[0];
+	private int[] offsets = new int[0];
+
+	// the number of lines in the table
+	private int lines = 0;
+
+	// the lines before valid have valid checkpoints.
+	private int valid = 0;
+
+	// the lines between valid and known have checkpoints that are valid if
+	// the state converges after the last changed line.
+	private int known = 0;
+	private int changed = -1;
+
+	// the line at which the state converged during the last computation.
+	private int converged = -1;
+
+	/**
+	 * Constructs a checkpoint table for the document.
+	 *
+	 * @param scanner
+	 *            the scanner used to compute and restore the checkpoints.
+	 * @param document
+	 *            the document.
+	 */
+	public ScannerCheckpoints(SyntaxHighlightingScanner scanner, Document document) {
+		this.scanner = scanner;
+		this.document = document;
+	}
+
+	/**
+	 * Sets the scanner to the checkpoint of the line, the first token returned
+	 * by the scanner ends at or after the start of the line.
+	 *
+	 * @param line
+	 *            the line index.
+	 *
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public void restore(int line) throws IOException {
+		Element root = document.getDefaultRootElement();
+
+		if (lines != root.getElementCount()) {
+			// not in sync with the document, start again.
+			clear(root.getElementCount());
+		}
+
+		if (line >= valid) {
+			compute(root, line);
+		}
+
+		scanner.setState(states[line], getOffset(root, line), document.getLength());
+	}
+
+	/**
+	 * Returns the index of the first line that does not have a valid
+	 * checkpoint.
+	 *
+	 * @return the first line without a valid checkpoint.
+	 */
+	public int getValidLines() {
+		return valid;
+	}
+
+	/**
+	 * Computes the checkpoints after a change up to the line where the state
+	 * of the scanner converges with the state from before the change, or up
+	 * to the limit. The tokens from the returned line onwards are the same as
+	 * before the change, only the lines before the returned line can be
+	 * highlighted differently.
+	 *
+	 * @param limit
+	 *            the last line to compute.
+	 * @return the line where the state has converged, the line after the
+	 *         limit when the state has not converged before the limit.
+	 *
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public int converge(int limit) throws IOException {
+		Element root = document.getDefaultRootElement();
+
+		if (lines != root.getElementCount()) {
+			// not in sync with the document, start again.
+			clear(root.getElementCount());
+		}
+
+		limit = Math.min(limit, lines - 1);
+
+		if (limit < valid) {
+			return valid;
+		}
+
+		converged = -1;
+		compute(root, limit);
+
+		if (converged != -1) {
+			return converged;
+		}
+
+		return limit + 1;
+	}
+
+	/**
+	 * Updates the table for a change in the document, this invalidates the
+	 * checkpoints from the changed line. The table is cleared when it is not
+	 * in sync with the document, for instance when the document has changed
+	 * before the table was first used.
+	 *
+	 * @param event
+	 *            the document event.
+	 */
+	public void update(DocumentEvent event) {
+		if (changed != -1) {
+			// the previous change has not converged, the known checkpoints
+			// after the valid lines are older than the previous change.
+			known = valid;
+		}
+
+		Element root = document.getDefaultRootElement();
+		DocumentEvent.ElementChange change = event.getChange(root);
+
+		if (change != null) {
+			int removed = change.getChildrenRemoved().length;
+			int added = change.getChildrenAdded().length;
+
+			if (lines - removed + added == root.getElementCount()) {
+				replace(change.getIndex(), removed, added);
+			}
+		}
+
+		if (lines != root.getElementCount()) {
+			// not in sync with the document, start again.
+			clear(root.getElementCount());
+			return;
+		}
+
+		int offset = event.getOffset();
+		int line = root.getElementIndex(offset);
+
+		// a checkpoint depends on all characters up to and including the
+		// character at its offset.
+		int limit = Math.min(line + 1, valid);
+
+		while (limit > 0 && getOffset(root, limit - 1) >= offset) {
+			limit--;
+		}
+
+		valid = limit;
+
+		if (event.getType() == DocumentEvent.EventType.INSERT) {
+			line = root.getElementIndex(offset + event.getLength());
+		}
+
+		changed = Math.max(changed, line);
+	}
+
+	// Computes the checkpoints up to and including the line.
+	private void compute(Element root, int line) throws IOException {
+		int length = document.getLength();
+		int index = valid;
+
+		if (index == 0) {
+			scanner.setRange(0, length);
+		} else {
+			scanner.setState(states[index - 1], getOffset(root, index - 1), length);
+		}
+
+		SyntaxHighlightingScanner.State previous = null;
+
+		while (index <= line) {
+			int start = root.getElement(index).getStartOffset();
+			int end = scanner.getEndOffset();
+
+			while (end < start) {
+				scanner.scan();
+
+				if (scanner.getEndOffset() <= end) {
+					// the scanner cannot make any progress.
+					break;
+				}
+
+				end = scanner.getEndOffset();
+			}
+
+			SyntaxHighlightingScanner.State state = scanner.getState();
+
+			if (state.equals(previous)) {
+				state = previous;
+			}
+
+			if (index > changed && index < known && end - start == offsets[index] && state.equals(states[index])) {
+				// the state has converged, all known checkpoints are valid.
+				valid = known;
+				changed = -1;
+				converged = index;
+
+				if (line >= valid) {
+					compute(root, line);
+				}
+
+				return;
+			}
+
+			states[index] = state;
+			offsets[index] = end - start;
+			previous = state;
+
+			index++;
+			valid = index;
+		}
+
+		known = Math.max(known, valid);
+
+		if (valid >= known) {
+			// all known checkpoints have been computed again.
+			changed = -1;
+		}
+	}
+
+	// Returns the offset of the checkpoint of the line.
+	private int getOffset(Element root, int line) {
+		return root.getElement(line).getStartOffset() + offsets[line];
+	}
+
+	// Replaces the removed lines with the added lines.
+	private void replace(int index, int removed, int added) {
+		int size = lines - removed + added;
+
+		if (size > states.length) {
+			int capacity = Math.max(size, states.length * 3 / 2);
+			SyntaxHighlightingScanner.State[] newStates = new SyntaxHighlightingScanner.State[capacity];
+			int[] newOffsets = new int[capacity];
+
+			System.arraycopy(states, 0, newStates, 0, index);
+			System.arraycopy(offsets, 0, newOffsets, 0, index);
+			System.arraycopy(states, index + removed, newStates, index + added, lines - index - removed);
+			System.arraycopy(offsets, index + removed, newOffsets, index + added, lines - index - removed);
+
+			states = newStates;
+			offsets = newOffsets;
+		} else {
+			System.arraycopy(states, index + removed, states, index + added, lines - index - removed);
+			System.arraycopy(offsets, index + removed, offsets, index + added, lines - index - removed);
+		}
+
+		for (int i = index; i < index + added; i++) {
+			states[i] = null;
+		}
+
+		for (int i = size; i < lines; i++) {
+			states[i] = null;
+		}
+
+		// the checkpoints of the added lines are not known.
+		valid = Math.min(valid, index);
+		known = adjust(known, index, removed, added);
+
+		if (changed >= index + removed) {
+			changed = changed + added - removed;
+		} else {
+			changed = Math.max(changed, index + added - 1);
+		}
+
+		lines = size;
+	}
+
+	// Adjusts a line limit for replaced lines.
+	private static int adjust(int limit, int index, int removed, int added) {
+		if (limit >= index + removed) {
+			return limit + added - removed;
+		} else if (limit > index) {
+			return index;
+		}
+
+		return limit;
+	}
+
+	// Removes all checkpoints.
+	private void clear(int size) {
+		states = new SyntaxHighlightingScanner.State[size];
+		offsets = new int[size];
+		lines = size;
+		valid = 0;
+		known = 0;
+		changed = -1;
+	}
+}
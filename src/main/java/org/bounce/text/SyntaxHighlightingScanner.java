@@ -29,6 +29,7 @@
 package org.bounce.text;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import javax.swing.text.Document;
 
@@ -45,6 +46,9 @@ import javax.swing.text.Document;
  * @author Edwin Dankert (edankert@gmail.com)
  */
 public abstract class SyntaxHighlightingScanner {
+	private static final String[] NO_TOKENS = new String[0];
+	private static final int[] NO_STATE = new int[0];
+
 	protected int start = 0;
 	protected long pos = 0;
 	protected boolean error = false;
@@ -55,6 +59,9 @@ public abstract class SyntaxHighlightingScanner {
 	/** The last token scanned */
 	public String token = null;
 
+	/** The id of the last token scanned, set together with the token */
+	protected int tokenId = -1;
+
 	/**
 	 * Constructs a scanner for the Document.
 	 * 
@@ -112,6 +119,7 @@ public abstract class SyntaxHighlightingScanner {
 		this.start = start;
 
 		token = null;
+		tokenId = -1;
 		pos = 0;
 
 		in.read();
@@ -136,6 +144,79 @@ public abstract class SyntaxHighlightingScanner {
 		return start + (int) in.pos;
 	}
 
+	/**
+	 * Returns the tokens this scanner can return, the index of a token in the
+	 * array is the id of the token. The array should not be changed.
+	 * 
+	 * @return the tokens.
+	 */
+	public String[] getTokens() {
+		return NO_TOKENS;
+	}
+
+	/**
+	 * Returns the id of the last token scanned, a scanner sets the id
+	 * whenever it sets the token. The id of a token that has been set without
+	 * an id is looked up in the tokens.
+	 * 
+	 * @return the index of the token in the tokens, or -1 when the token is
+	 *         not known.
+	 * @see #getTokens()
+	 */
+	public int getTokenId() {
+		if (tokenId == -1 && token != null) {
+			String[] tokens = getTokens();
+
+			for (int i = 0; i < tokens.length; i++) {
+				if (token.equals(tokens[i])) {
+					return i;
+				}
+			}
+		}
+
+		return tokenId;
+	}
+
+	/**
+	 * Returns a snapshot of the scanner state at the end of the current token.
+	 * The snapshot does not contain a document position, the state can be
+	 * restored at the end offset of the current token, see
+	 * {@link #setState(State, int, int)}.
+	 * 
+	 * @return the scanner state.
+	 */
+	public State getState() {
+		return new State(token, tokenId, getEndOffset() - getStartOffset(), error, getLexicalState());
+	}
+
+	/**
+	 * Restores the scanner to a previously saved state, the scanner will
+	 * continue scanning as if it had just scanned the token that ended at the
+	 * offset.
+	 * 
+	 * @param state
+	 *            the state as returned by {@link #getState()}.
+	 * @param offset
+	 *            the end offset of the token the state was saved at.
+	 * @param end
+	 *            the end of the range.
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	public void setState(State state, int offset, int end) throws IOException {
+		in.setRange(offset, end);
+
+		this.start = offset;
+
+		token = state.token;
+		tokenId = state.tokenId;
+		error = state.error;
+		pos = -state.length;
+
+		in.read();
+		setLexicalState(state.lexical);
+	}
+
 	/**
 	 * Scans the Xml Stream for XML specific tokens.
 	 * 
@@ -144,4 +225,99 @@ public abstract class SyntaxHighlightingScanner {
 	 * @throws IOException if an IO error occurs
 	 */
 	public abstract long scan() throws IOException;
+
+	/**
+	 * Returns true when the scanner saves the complete state of its (sub)
+	 * scanners in the lexical state, only then can the scanner be restarted
+	 * from a {@link State} and can the states be compared. The default
+	 * implementation returns false, the scanner is not restarted from line
+	 * checkpoints.
+	 * 
+	 * @return true when the lexical state is complete.
+	 */
+	public boolean hasLexicalState() {
+		return false;
+	}
+
+	/**
+	 * Returns the state of the (sub) scanners, the array returned should not be
+	 * changed after it has been returned. The default implementation returns
+	 * an empty state.
+	 * 
+	 * @return the lexical state.
+	 * @see #hasLexicalState()
+	 */
+	protected int[] getLexicalState() {
+		return NO_STATE;
+	}
+
+	/**
+	 * Sets the state of the (sub) scanners. The default implementation does
+	 * nothing.
+	 * 
+	 * @param state
+	 *            the lexical state as returned by {@link #getLexicalState()}.
+	 * @see #hasLexicalState()
+	 */
+	protected void setLexicalState(int[] state) {
+	}
+
+	/**
+	 * An immutable snapshot of the scanner state, two states are equal when
+	 * scanning the same input from them will return the same tokens.
+	 */
+	public static final class State {
+		private final String token;
+		private final int tokenId;
+		private final int length;
+		private final boolean error;
+		private final int[] lexical;
+
+		State(String token, int tokenId, int length, boolean error, int[] lexical) {
+			this.token = token;
+			this.tokenId = tokenId;
+			this.length = length;
+			this.error = error;
+			this.lexical = lexical;
+		}
+
+		/**
+		 * @return the token that was last scanned.
+		 */
+		public String getToken() {
+			return token;
+		}
+
+		/**
+		 * @return the length of the token that was last scanned.
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * @return true when the last token was in error.
+		 */
+		public boolean isError() {
+			return error;
+		}
+
+		public boolean equals(Object object) {
+			if (object == this) {
+				return true;
+			}
+
+			if (!(object instanceof State)) {
+				return false;
+			}
+
+			State state = (State) object;
+
+			return length == state.length && tokenId == state.tokenId && error == state.error && (token == null ? state.token == null : token.equals(state.token)) && Arrays.equals(lexical, state.lexical);
+		}
+
+		public int hashCode() {
+			return Arrays.hashCode(lexical) * 31 + length;
+		}
+	}
 }
@@ -30,12 +30,19 @@
 package org.bounce.text;
 
 import java.awt.Color;
+import java.awt.Component;
 import java.awt.Font;
 import java.awt.Graphics;
-import java.awt.Rectangle;
 import java.awt.Shape;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Caret;
 import javax.swing.text.Document;
@@ -49,6 +56,7 @@ import javax.swing.text.StyleContext;
 import javax.swing.text.TabExpander;
 import javax.swing.text.Utilities;
 import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
 
 /**
  * The View uses the syntax highlighting scanner to determine the style (font, color) of the
@@ -64,16 +72,66 @@ import javax.swing.text.View;
  * @version $Revision: 1.4 $, $Date: 2008/04/16 19:36:18 $
  */
 public abstract class SyntaxHighlightingView extends FoldingPlainView {
-	private static Style DEFAULT_STYLE = (new StyleContext()).new NamedStyle();
+	private static final Color ERROR_COLOR = new Color(255, 0, 0);
+
+	// the zig-zag underline repeats every 4 pixels, the strip is a multiple
+	// of the period so every part of the strip starts with the same phase.
+	private static final int ZIGZAG_PERIOD = 4;
+	private static final int ZIGZAG_HEIGHT = 3;
+	private static final int ZIGZAG_STRIP_WIDTH = 512;
+
+	// the prerendered zig-zag strips of the last used colors, only used on
+	// the event dispatch thread.
+	private static final Map<Color, BufferedImage> ZIGZAG_STRIPS = new LinkedHashMap<Color, BufferedImage>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Color, BufferedImage> eldest) {
+			return size() > 8;
+		}
+	};
 
 	private Color selected = null;
 
 	private SyntaxHighlightingScanner scanner = null;
+	private ScannerCheckpoints checkpoints = null;
+	private TokenStyleTable styles = null;
+	private BackgroundTokenizer tokenizer = null;
+
+	// the styles of the legacy constructor, the style table is invalidated
+	// when a style is added, removed or changed.
 	private StyleContext context = null;
 
+	// the error markers used while painting.
+	private ErrorMarkers markers = null;
+
+	private final ChangeListener tokenizerListener = new ChangeListener() {
+		public void stateChanged(ChangeEvent event) {
+			Component container = getContainer();
+
+			if (container != null) {
+				container.repaint();
+			}
+		}
+	};
+
+	private final ChangeListener contextListener = new ChangeListener() {
+		public void stateChanged(ChangeEvent event) {
+			// a style has been added, listen to the changes of the new style.
+			listenToStyles(true);
+			styles.invalidate();
+
+			Component container = getContainer();
+
+			if (container != null) {
+				container.repaint();
+			}
+		}
+	};
+
 	/**
 	 * Construct a colorized view of xml text for the element. Gets the current
-	 * document and creates a new Scanner object.
+	 * document and creates a new Scanner object. The fonts and colors are
+	 * derived again when a style in the context changes.
 	 * 
 	 * @param context
 	 *            the styles used to colorize the view.
@@ -83,10 +141,176 @@ public abstract class SyntaxHighlightingView extends FoldingPlainView {
 	 *             input/output exception while reading document
 	 */
 	public SyntaxHighlightingView(SyntaxHighlightingScanner scanner, StyleContext context, Element elem) throws IOException {
-		super(elem);
+		this(scanner, context != null ? new TokenStyleTable(context, scanner.getTokens()) : null, elem);
 
 		this.context = context;
+	}
+
+	/**
+	 * Construct a colorized view of xml text for the element, the fonts and
+	 * colors of the tokens are taken from the style table.
+	 * 
+	 * @param scanner
+	 *            the scanner used to find the tokens.
+	 * @param styles
+	 *            the fonts and colors of the tokens.
+	 * @param elem
+	 *            the element to create the view for.
+	 * @throws IOException
+	 *             input/output exception while reading document
+	 */
+	public SyntaxHighlightingView(SyntaxHighlightingScanner scanner, TokenStyleTable styles, Element elem) throws IOException {
+		super(elem);
+
+		this.styles = styles;
 		this.scanner = scanner;
+
+		if (scanner.hasLexicalState()) {
+			checkpoints = new ScannerCheckpoints(scanner, getDocument());
+		}
+	}
+
+	/**
+	 * Returns the scanner checkpoints for the lines of this view.
+	 * 
+	 * @return the scanner checkpoints, null when the scanner cannot be
+	 *         restarted from its state, see
+	 *         {@link SyntaxHighlightingScanner#hasLexicalState()}.
+	 */
+	protected ScannerCheckpoints getCheckpoints() {
+		return checkpoints;
+	}
+
+	/**
+	 * Creates the tokenizer that scans the document in the background, the
+	 * default implementation returns null, all text is scanned while painting.
+	 * 
+	 * @return the background tokenizer or null.
+	 */
+	protected BackgroundTokenizer createTokenizer() {
+		return null;
+	}
+
+	/**
+	 * Returns the markers of the errors in the document, the errors before
+	 * the limit of the markers are painted from the markers instead of from
+	 * the error tokens found while painting. The default implementation
+	 * returns null.
+	 * 
+	 * @return the error markers or null.
+	 */
+	protected ErrorMarkers getErrorMarkers() {
+		return null;
+	}
+
+	/**
+	 * Starts the background tokenizer when the view is added to the view
+	 * hierarchy and stops it when the view is removed. The styles of the
+	 * style context are only listened to while the view is in the hierarchy.
+	 * 
+	 * @see View#setParent(View)
+	 */
+	public void setParent(View parent) {
+		boolean attached = getParent() != null;
+
+		super.setParent(parent);
+
+		if (context != null && attached != (parent != null)) {
+			if (parent != null) {
+				// a style might have changed while the view was removed.
+				styles.invalidate();
+				context.addChangeListener(contextListener);
+			} else {
+				context.removeChangeListener(contextListener);
+			}
+
+			listenToStyles(parent != null);
+		}
+
+		if (parent != null) {
+			if (tokenizer == null) {
+				tokenizer = createTokenizer();
+
+				if (tokenizer != null) {
+					tokenizer.addChangeListener(tokenizerListener);
+					tokenizer.start();
+				}
+			}
+		} else if (tokenizer != null) {
+			tokenizer.removeChangeListener(tokenizerListener);
+			tokenizer.stop();
+			tokenizer = null;
+		}
+	}
+
+	// Adds or removes the context listener to all styles in the context, a
+	// listener is never added twice to the same style.
+	private void listenToStyles(boolean listen) {
+		Enumeration<?> names = context.getStyleNames();
+
+		while (names.hasMoreElements()) {
+			Style style = context.getStyle((String) names.nextElement());
+
+			if (style != null) {
+				style.removeChangeListener(contextListener);
+
+				if (listen) {
+					style.addChangeListener(contextListener);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Invalidates the scanner checkpoints for the changed lines.
+	 * 
+	 * @see View#insertUpdate(DocumentEvent, Shape, ViewFactory)
+	 */
+	public void insertUpdate(DocumentEvent changes, Shape a, ViewFactory f) {
+		if (checkpoints != null) {
+			checkpoints.update(changes);
+		}
+
+		scanner.setValid(false);
+
+		super.insertUpdate(changes, a, f);
+	}
+
+	/**
+	 * Invalidates the scanner checkpoints for the changed lines.
+	 * 
+	 * @see View#removeUpdate(DocumentEvent, Shape, ViewFactory)
+	 */
+	public void removeUpdate(DocumentEvent changes, Shape a, ViewFactory f) {
+		if (checkpoints != null) {
+			checkpoints.update(changes);
+		}
+
+		scanner.setValid(false);
+
+		super.removeUpdate(changes, a, f);
+	}
+
+	/**
+	 * Returns the line before the line where the state of the scanner
+	 * converges with the state from before the change, the highlighting of the
+	 * lines after that line has not changed. Without checkpoints the lines up
+	 * to the limit are damaged.
+	 * 
+	 * @see FoldingPlainView#getLastDamagedLine(int, int)
+	 */
+	protected int getLastDamagedLine(int line, int limit) {
+		if (checkpoints == null) {
+			return limit;
+		}
+
+		try {
+			return Math.max(line, checkpoints.converge(limit) - 1);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return limit;
 	}
 
 	/**
@@ -105,11 +329,61 @@ public abstract class SyntaxHighlightingView extends FoldingPlainView {
 		Caret caret = component.getCaret();
 		selected = !caret.isSelectionVisible() || highlighter == null ? unselected : component.getSelectedTextColor();
 
+		if (styles != null) {
+			styles.update(component.getFont());
+		}
+
+		markers = isErrorHighlighting() ? getErrorMarkers() : null;
+
 		super.paint(g, a);
 
+		markers = null;
 		scanner.setValid(false);
 	}
 
+	/**
+	 * Draws the error markers on the line, after the text of the line.
+	 * 
+	 * @see FoldingPlainView#drawLine(int, Graphics, int, int)
+	 */
+	protected void drawLine(int lineIndex, Graphics g, int x, int y) {
+		super.drawLine(lineIndex, g, x, y);
+
+		if (markers != null && markers.getCount() > 0) {
+			try {
+				drawMarkers(lineIndex, g, x, y);
+			} catch (BadLocationException e) {
+				throw new RuntimeException("State Invariant Error", e);
+			}
+		}
+	}
+
+	// Draws the parts of the error markers that are on the line.
+	private void drawMarkers(int lineIndex, Graphics g, int x, int y) throws BadLocationException {
+		Document doc = getDocument();
+		Element line = getElement().getElement(lineIndex);
+		int start = line.getStartOffset();
+		int end = Math.min(line.getEndOffset() - 1, doc.getLength());
+		int count = markers.getCount();
+
+		for (int i = markers.getIndex(start); i < count && markers.getStart(i) < end; i++) {
+			int p0 = Math.max(markers.getStart(i), start);
+			int p1 = Math.min(markers.getEnd(i), end);
+
+			if (p1 > p0) {
+				Segment text = getLineBuffer();
+				doc.getText(start, p0 - start, text);
+				int x0 = Utilities.getTabbedTextWidth(text, metrics, x, (TabExpander) this, start) + x;
+
+				doc.getText(p0, p1 - p0, text);
+				int x1 = Utilities.getTabbedTextWidth(text, metrics, x0, (TabExpander) this, p0) + x0;
+
+				g.setColor(ERROR_COLOR);
+				drawZigZag(g, x0, x1 - x0, y);
+			}
+		}
+	}
+
 	/**
 	 * Renders the given range in the model as normal unselected text. This will
 	 * paint the text according to the styles..
@@ -129,8 +403,13 @@ public abstract class SyntaxHighlightingView extends FoldingPlainView {
 	 *             if the range is invalid
 	 */
 	protected int drawUnselectedText(Graphics g, int x, int y, int start, int end) throws BadLocationException {
-		if (this.context != null) {
+		if (styles != null) {
 			Document doc = getDocument();
+			TokenSpans spans = getSpans(doc, start);
+
+			if (spans != null) {
+				return drawSpans(g, spans, x, y, start, end, false);
+			}
 	
 			while (start < end) {
 				updateScanner(scanner, doc, start, doc.getLength());
@@ -138,15 +417,19 @@ public abstract class SyntaxHighlightingView extends FoldingPlainView {
 				int position = Math.min(scanner.getEndOffset(), end);
 				position = (position <= start) ? end : position;
 	
-				Style style = context.getStyle(scanner.token);
-				
-				if (style == null) {
-					style = DEFAULT_STYLE;
+				int id = getTokenId();
+				Color color = styles.getForeground(id);
+				Font font = styles.getFont(id);
+				boolean error = scanner.isError();
+				int offset = scanner.getStartOffset();
+
+				if (!error) {
+					position = getRunEnd(doc, position, end, font, color);
 				}
 	
 				// color change, flush what we have
-				g.setColor(context.getForeground(style));
-				g.setFont(g.getFont().deriveFont(getFontStyle(style)));
+				g.setColor(color);
+				g.setFont(font);
 	
 				Segment text = getLineBuffer();
 				doc.getText(start, position - start, text);
@@ -155,8 +438,8 @@ public abstract class SyntaxHighlightingView extends FoldingPlainView {
 	
 				x = Utilities.drawTabbedText(text, x, y, g, (TabExpander) this, start);
 	
-				if (scanner.isError()) {
-					drawError(scanner, g, x1, x - x1, y, false);
+				if (error) {
+					drawError(offset, g, x1, x - x1, y, false);
 				}
 	
 				start = position;
@@ -166,46 +449,170 @@ public abstract class SyntaxHighlightingView extends FoldingPlainView {
 		return x;
 	}
 
-	private void drawError(SyntaxHighlightingScanner scanner, Graphics g, int x, int length, int y, boolean selected) throws BadLocationException {
-		if (isErrorHighlighting()) {
+	// Returns the spans of the line that contains the offset, null when the
+	// line has not been scanned in the background.
+	private TokenSpans getSpans(Document doc, int offset) {
+		if (tokenizer != null) {
+			return tokenizer.getSpans(doc.getDefaultRootElement().getElementIndex(offset));
+		}
+
+		return null;
+	}
+
+	// Draws the text using the spans of the line, the spans with the same font
+	// and color (only the same font for selected text) are drawn at once.
+	private int drawSpans(Graphics g, TokenSpans spans, int x, int y, int start, int end, boolean selected) throws BadLocationException {
+		Document doc = getDocument();
+		Element line = doc.getDefaultRootElement().getElement(doc.getDefaultRootElement().getElementIndex(start));
+		int lineStart = line.getStartOffset();
+		int count = spans.getCount();
+		int index = 0;
+
+		while (start < end) {
+			while (index < count && lineStart + spans.getStart(index) + spans.getLength(index) <= start) {
+				index++;
+			}
+
+			int id = -1;
+			boolean error = false;
+			int offset = start;
+			int position = end;
+
+			if (index < count) {
+				int spanStart = lineStart + spans.getStart(index);
+
+				if (spanStart > start) {
+					// not covered by a token.
+					position = Math.min(spanStart, end);
+				} else {
+					id = spans.getTokenId(index);
+					error = spans.isError(index);
+					offset = spanStart;
+					position = Math.min(spanStart + spans.getLength(index), end);
+					index++;
+
+					while (!error && position < end && index < count && lineStart + spans.getStart(index) == position && !spans.isError(index) && isSameStyle(id, spans.getTokenId(index), selected)) {
+						position = Math.min(position + spans.getLength(index), end);
+						index++;
+					}
+				}
+			}
+
 			if (!selected) {
-				g.setColor(new Color(255, 0, 0));
+				g.setColor(styles.getForeground(id));
+			}
+
+			g.setFont(styles.getFont(id));
+
+			Segment text = getLineBuffer();
+			doc.getText(start, position - start, text);
+
+			int x1 = x;
+			x = Utilities.drawTabbedText(text, x, y, g, (TabExpander) this, start);
+
+			if (error) {
+				drawError(offset, g, x1, x - x1, y, selected);
+			}
+
+			start = position;
+		}
+
+		return x;
+	}
+
+	private boolean isSameStyle(int id, int other, boolean selected) {
+		return styles.getFont(id) == styles.getFont(other) && (selected || styles.getForeground(id) == styles.getForeground(other));
+	}
+
+	// Returns the id of the token of the scanner, the styles of the legacy
+	// constructor are looked up by the name of a token without an id.
+	private int getTokenId() {
+		int id = scanner.getTokenId();
+
+		if (id == -1 && context != null && scanner.token != null) {
+			id = styles.getTokenId(scanner.token);
+		}
+
+		return id;
+	}
+
+	// Returns the end of the run of tokens, starting at the position, that
+	// are drawn with the same font and color (null for any color).
+	private int getRunEnd(Document doc, int position, int end, Font font, Color color) {
+		while (position < end) {
+			updateScanner(scanner, doc, position, doc.getLength());
+
+			int id = getTokenId();
+
+			if (scanner.isError() || styles.getFont(id) != font || (color != null && styles.getForeground(id) != color)) {
+				break;
+			}
+
+			int next = Math.min(scanner.getEndOffset(), end);
+
+			if (next <= position) {
+				break;
 			}
 
-			Rectangle rec = ((JTextComponent) getContainer()).modelToView(scanner.getStartOffset());
-			
-			if (rec != null) {
-				drawZigZag(g, x, rec.x, length, y);
+			position = next;
+		}
+
+		return position;
+	}
+
+	private void drawError(int offset, Graphics g, int x, int length, int y, boolean selected) throws BadLocationException {
+		// the errors before the limit of the markers are drawn from the markers.
+		if (isErrorHighlighting() && (markers == null || offset >= markers.getLimit())) {
+			if (!selected) {
+				g.setColor(ERROR_COLOR);
 			}
+
+			drawZigZag(g, x, length, y);
 		}
 	}
 
 	protected abstract boolean isErrorHighlighting();
 	
-	static private void drawZigZag(Graphics g, int x, int x1, int width, int y) {
-		int pos = 0;
-		int before = x - x1;
-		int npoints = width;
+	// Draws the zig-zag underline in the current color by copying parts of a
+	// prerendered strip, the phase depends on the x coordinate only, so the
+	// underline of adjacent runs is continuous.
+	static private void drawZigZag(Graphics g, int x, int width, int y) {
+		if (width <= 0) {
+			return;
+		}
+
+		BufferedImage strip = getZigZagStrip(g.getColor());
+		int phase = ((x % ZIGZAG_PERIOD) + ZIGZAG_PERIOD) % ZIGZAG_PERIOD;
+
+		for (int i = 0; i < width; i += ZIGZAG_STRIP_WIDTH) {
+			int length = Math.min(ZIGZAG_STRIP_WIDTH, width - i);
+
+			g.drawImage(strip, x + i, y, x + i + length, y + ZIGZAG_HEIGHT, phase, 0, phase + length, ZIGZAG_HEIGHT, null);
+		}
+	}
+
+	// Returns the strip with the zig-zag pattern in the color, the strip is
+	// one period wider than the longest part that is copied.
+	private static BufferedImage getZigZagStrip(Color color) {
+		BufferedImage strip = ZIGZAG_STRIPS.get(color);
 
-		if (npoints > 0) {
-			int[] xpoints = new int[npoints];
-			int[] ypoints = new int[npoints];
+		if (strip == null) {
+			strip = new BufferedImage(ZIGZAG_STRIP_WIDTH + ZIGZAG_PERIOD, ZIGZAG_HEIGHT, BufferedImage.TYPE_INT_ARGB);
 
-			for (int i = 0; i < npoints; i++) {
-				int height = ((i + before) % 4);
+			for (int i = 0; i < strip.getWidth(); i++) {
+				int height = i % ZIGZAG_PERIOD;
 
 				if (height > 2) {
 					height = height - 2;
 				}
 
-				xpoints[i] = x + pos;
-				ypoints[i] = y + 2 - height;
-
-				pos += 1;
+				strip.setRGB(i, 2 - height, color.getRGB());
 			}
 
-			g.drawPolyline(xpoints, ypoints, npoints);
+			ZIGZAG_STRIPS.put(color, strip);
 		}
+
+		return strip;
 	}
 
 	/**
@@ -230,6 +637,11 @@ public abstract class SyntaxHighlightingView extends FoldingPlainView {
 		g.setColor(selected);
 
 		Document doc = getDocument();
+		TokenSpans spans = styles != null ? getSpans(doc, start) : null;
+
+		if (spans != null) {
+			return drawSpans(g, spans, x, y, start, end, true);
+		}
 
 		while (start < end) {
 			updateScanner(scanner, doc, start, doc.getLength());
@@ -237,14 +649,19 @@ public abstract class SyntaxHighlightingView extends FoldingPlainView {
 			int position = (int) Math.min(scanner.getEndOffset(), end);
 			position = (position <= start) ? end : position;
 
-			Style style = context.getStyle(scanner.token);
-			
-			if (style == null) {
-				style = DEFAULT_STYLE;
-			}
+			boolean error = scanner.isError();
+			int offset = scanner.getStartOffset();
 
 			// color change, flush what we have
-			g.setFont(g.getFont().deriveFont(getFontStyle(style)));
+			if (styles != null) {
+				Font font = styles.getFont(getTokenId());
+
+				if (!error) {
+					position = getRunEnd(doc, position, end, font, null);
+				}
+
+				g.setFont(font);
+			}
 
 			Segment text = getLineBuffer();
 			doc.getText(start, position - start, text);
@@ -252,8 +669,8 @@ public abstract class SyntaxHighlightingView extends FoldingPlainView {
 			int x1 = x;
 			x = Utilities.drawTabbedText(text, x, y, g, (TabExpander) this, start);
 
-			if (scanner.isError()) {
-				drawError(scanner, g, x1, x - x1, y, true);
+			if (error) {
+				drawError(offset, g, x1, x - x1, y, true);
 			}
 
 			start = position;
@@ -287,4 +704,4 @@ public abstract class SyntaxHighlightingView extends FoldingPlainView {
 
 		return fontStyle;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
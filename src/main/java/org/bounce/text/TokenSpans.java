@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text;
+
+/**
+ * The tokens of a single line, as found by a scanner. The spans are immutable
+ * and can be shared between threads.
+ * <p>
+ * A token that continues over several lines has a span on every line it
+ * covers, the start of a span is relative to the start of the line.
+ * </p>
+ */
+public final class TokenSpans {
+	// start, length and (token id + 1) << 1 | error for every span.
+	private final int[] spans;
+
+	TokenSpans(int[] spans) {
+		this.spans = spans;
+	}
+
+	/**
+	 * @return the number of spans.
+	 */
+	public int getCount() {
+		return spans.length / 3;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the span.
+	 * @return the start of the span, relative to the start of the line.
+	 */
+	public int getStart(int index) {
+		return spans[index * 3];
+	}
+
+	/**
+	 * @param index
+	 *            the index of the span.
+	 * @return the length of the span.
+	 */
+	public int getLength(int index) {
+		return spans[index * 3 + 1];
+	}
+
+	/**
+	 * @param index
+	 *            the index of the span.
+	 * @return the token id, -1 for an unknown token.
+	 * @see SyntaxHighlightingScanner#getTokenId()
+	 */
+	public int getTokenId(int index) {
+		return (spans[index * 3 + 2] >> 1) - 1;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the span.
+	 * @return true when the token of the span is in error.
+	 */
+	public boolean isError(int index) {
+		return (spans[index * 3 + 2] & 1) != 0;
+	}
+
+	/**
+	 * Collects the spans of the lines of a document.
+	 */
+	static class Builder {
+		private int[] spans = new int[48];
+		private int size = 0;
+
+		/**
+		 * Adds a span to the current line.
+		 */
+		void add(int start, int length, int id, boolean error) {
+			if (size + 3 > spans.length) {
+				int[] newSpans = new int[spans.length * 2];
+				System.arraycopy(spans, 0, newSpans, 0, size);
+				spans = newSpans;
+			}
+
+			spans[size++] = start;
+			spans[size++] = length;
+			spans[size++] = ((id + 1) << 1) | (error ? 1 : 0);
+		}
+
+		/**
+		 * Returns the spans of the current line and starts a new line.
+		 */
+		TokenSpans build() {
+			int[] result = new int[size];
+			System.arraycopy(spans, 0, result, 0, size);
+			size = 0;
+
+			return new TokenSpans(result);
+		}
+	}
+}
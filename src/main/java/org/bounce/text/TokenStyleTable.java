@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.swing.text.Style;
+import javax.swing.text.StyleContext;
+
+/**
+ * The fonts and colors of the tokens of a scanner, indexed by token id, see
+ * {@link SyntaxHighlightingScanner#getTokenId()}.
+ * <p>
+ * The fonts and colors are derived from the styles in the style context when
+ * the table is used for the first time, after the styles have changed, see
+ * {@link #invalidate()}, or when the base font has changed, so painting a
+ * token does not need to look up the style or derive a font.
+ * </p>
+ * <p>
+ * The tokens of a scanner that does not return its tokens are added to the
+ * table when they are first looked up by name, see {@link #getTokenId(String)}.
+ * </p>
+ */
+public class TokenStyleTable {
+	private static final Style DEFAULT_STYLE = (new StyleContext()).new NamedStyle();
+
+	private final StyleContext context;
+	private String[] tokens;
+	private int count;
+
+	// the ids of the tokens that have been looked up by name.
+	private Map<String, Integer> ids = null;
+
+	private Font base = null;
+	private boolean valid = false;
+
+	// the entry at index 0 is used for tokens without a style.
+	private Font[] fonts;
+	private Color[] colors;
+
+	/**
+	 * Constructs a table for the tokens.
+	 * 
+	 * @param context
+	 *            the styles used to colorize the tokens.
+	 * @param tokens
+	 *            the tokens, indexed by token id.
+	 */
+	public TokenStyleTable(StyleContext context, String[] tokens) {
+		this.context = context;
+		this.tokens = tokens;
+
+		count = tokens.length;
+		fonts = new Font[count + 1];
+		colors = new Color[count + 1];
+	}
+
+	/**
+	 * Returns the id of the token, a token that is not one of the tokens of
+	 * the table is added to the table.
+	 * 
+	 * @param token
+	 *            the token.
+	 * @return the id of the token.
+	 */
+	public int getTokenId(String token) {
+		if (ids == null) {
+			ids = new HashMap<String, Integer>();
+
+			for (int i = 0; i < count; i++) {
+				ids.put(tokens[i], i);
+			}
+		}
+
+		Integer id = ids.get(token);
+
+		if (id != null) {
+			return id;
+		}
+
+		if (count == tokens.length) {
+			String[] newTokens = new String[count * 2 + 4];
+			Font[] newFonts = new Font[newTokens.length + 1];
+			Color[] newColors = new Color[newTokens.length + 1];
+
+			System.arraycopy(tokens, 0, newTokens, 0, count);
+			System.arraycopy(fonts, 0, newFonts, 0, count + 1);
+			System.arraycopy(colors, 0, newColors, 0, count + 1);
+
+			tokens = newTokens;
+			fonts = newFonts;
+			colors = newColors;
+		}
+
+		tokens[count] = token;
+		ids.put(token, count);
+
+		if (base != null) {
+			derive(count);
+		}
+
+		return count++;
+	}
+
+	/**
+	 * Marks the fonts and colors to be derived again, this has to be called
+	 * when a style has changed.
+	 */
+	public void invalidate() {
+		valid = false;
+	}
+
+	/**
+	 * Sets the font the token fonts are derived from, the fonts and colors
+	 * are only derived again when the font or the styles have changed.
+	 * 
+	 * @param font
+	 *            the base font.
+	 */
+	public void update(Font font) {
+		if (!valid || !font.equals(base)) {
+			base = font;
+
+			fonts[0] = font.deriveFont(SyntaxHighlightingView.getFontStyle(DEFAULT_STYLE));
+			colors[0] = context.getForeground(DEFAULT_STYLE);
+
+			for (int i = 0; i < count; i++) {
+				derive(i);
+			}
+
+			valid = true;
+		}
+	}
+
+	// Derives the font and color of the token from its style.
+	private void derive(int id) {
+		Style style = context.getStyle(tokens[id]);
+
+		if (style == null) {
+			style = DEFAULT_STYLE;
+		}
+
+		fonts[id + 1] = base.deriveFont(SyntaxHighlightingView.getFontStyle(style));
+		colors[id + 1] = context.getForeground(style);
+	}
+
+	/**
+	 * Returns the font for the token.
+	 * 
+	 * @param id
+	 *            the token id, -1 for an unknown token.
+	 * 
+	 * @return the font.
+	 */
+	public Font getFont(int id) {
+		return fonts[id + 1];
+	}
+
+	/**
+	 * Returns the foreground color for the token.
+	 * 
+	 * @param id
+	 *            the token id, -1 for an unknown token.
+	 * 
+	 * @return the foreground color.
+	 */
+	public Color getForeground(int id) {
+		return colors[id + 1];
+	}
+}
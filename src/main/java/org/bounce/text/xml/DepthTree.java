@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text.xml;
+
+/**
+ * A segment tree over the depth changes of the slots of the tag boundary
+ * index, every slot changes the element depth by -1, 0 or 1. The tree keeps
+ * the sum and the minimum prefix sum of every range of slots, so the end of
+ * an element can be found without visiting the slots of its content.
+ */
+class DepthTree {
+	private final int size;
+
+	// the sum of the changes and the minimum prefix sum of every node, the
+	// leaves start at the size.
+	private final int[] sums;
+	private final int[] mins;
+
+	/**
+	 * Builds the tree for the depth changes, the number of changes has to be
+	 * a power of two.
+	 * 
+	 * @param changes
+	 *            the depth change of every slot.
+	 */
+	DepthTree(byte[] changes) {
+		size = changes.length;
+		sums = new int[size * 2];
+		mins = new int[size * 2];
+
+		for (int i = 0; i < size; i++) {
+			sums[size + i] = changes[i];
+			mins[size + i] = changes[i];
+		}
+
+		for (int node = size - 1; node > 0; node--) {
+			combine(node);
+		}
+	}
+
+	/**
+	 * Sets the depth change of a slot.
+	 * 
+	 * @param slot
+	 *            the slot.
+	 * @param change
+	 *            the depth change.
+	 */
+	void set(int slot, int change) {
+		int node = size + slot;
+
+		if (sums[node] != change) {
+			sums[node] = change;
+			mins[node] = change;
+
+			for (node >>= 1; node > 0; node >>= 1) {
+				combine(node);
+			}
+		}
+	}
+
+	/**
+	 * @param slot
+	 *            the slot.
+	 * @return the sum of the depth changes before the slot.
+	 */
+	int getSum(int slot) {
+		int sum = 0;
+		int low = size;
+		int high = size + slot;
+
+		while (low < high) {
+			if ((low & 1) == 1) {
+				sum += sums[low++];
+			}
+
+			if ((high & 1) == 1) {
+				sum += sums[--high];
+			}
+
+			low >>= 1;
+			high >>= 1;
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Returns the first slot after the slot where the sum of the depth changes
+	 * after the slot becomes negative, this is the slot that closes the element
+	 * opened at the slot.
+	 * 
+	 * @param slot
+	 *            the slot.
+	 * @return the closing slot or -1 if there is none.
+	 */
+	int findClose(int slot) {
+		int sum = 0;
+		int node = size + slot + 1;
+		int end = size * 2;
+
+		// the nodes that cover the slots after the slot, from left to right.
+		while (node < end) {
+			if ((node & 1) == 1) {
+				if (sum + mins[node] < 0) {
+					return descend(node, sum);
+				}
+
+				sum += sums[node++];
+			}
+
+			node >>= 1;
+			end >>= 1;
+		}
+
+		return -1;
+	}
+
+	// Finds the first leaf in the node where the prefix sum becomes negative.
+	private int descend(int node, int sum) {
+		while (node < size) {
+			int left = node * 2;
+
+			if (sum + mins[left] < 0) {
+				node = left;
+			} else {
+				sum += sums[left];
+				node = left + 1;
+			}
+		}
+
+		return node - size;
+	}
+
+	private void combine(int node) {
+		int left = node * 2;
+		int right = left + 1;
+
+		sums[node] = sums[left] + sums[right];
+		mins[node] = Math.min(mins[left], sums[left] + mins[right]);
+	}
+}
@@ -0,0 +1,710 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text.xml;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * A sorted index of the markup boundaries in an XML document: the start and
+ * end of tags, comments and CDATA sections. The index is kept up to date with
+ * the changes of the document, only the part of the document from before the
+ * change up to the first boundary after the change that has not changed is
+ * scanned again.
+ * <p>
+ * The start of a tag, comment or CDATA section is a safe position to restart
+ * scanning the document, see {@link #getSafeOffset(int)}.
+ * </p>
+ * <p>
+ * The boundaries are kept in a gap buffer, the offsets before the gap are
+ * stored as is and the offsets after the gap relative to the end of the
+ * document, so a change only has to move the gap and does not have to update
+ * the offsets after the change.
+ * </p>
+ * <p>
+ * The index also pairs the start and end tags of elements, a start tag
+ * increases the element depth and an end tag or the end of an empty element
+ * tag decreases the depth. The depth changes are kept in a tree, so the end of
+ * an element is found in logarithmic time, see {@link #getElementEnd(int)}.
+ * </p>
+ */
+public class TagBoundaryIndex implements DocumentListener {
+	static final String INDEX_ATTRIBUTE = "org.bounce.text.xml.TagBoundaryIndex";
+
+	/** The '&lt;' of a start tag, end tag, processing instruction or declaration. */
+	public static final int TAG_START = 1;
+	/** The '&gt;' at the end of a tag. */
+	public static final int TAG_END = 2;
+	/** The '&lt;' of a "&lt;!--". */
+	public static final int COMMENT_START = 3;
+	/** The '&gt;' of a "--&gt;". */
+	public static final int COMMENT_END = 4;
+	/** The '&lt;' of a "&lt;![CDATA[". */
+	public static final int CDATA_START = 5;
+	/** The '&gt;' of a "]]&gt;". */
+	public static final int CDATA_END = 6;
+
+	// a change can change a start that begins this many characters before.
+	private static final int MAX_MARKER_LENGTH = 9;
+
+	private final Document document;
+	private final Segment segment = new Segment();
+
+	private int[] offsets = new int[64];
+	private byte[] kinds = new byte[64];
+	private byte[] changes = new byte[64];
+	private int gapStart = 0;
+	private int gapEnd = 64;
+
+	// the length of the document the offsets after the gap are relative to.
+	private int length = 0;
+
+	// the tree of the depth changes, created when it is first used. The tree
+	// can be first used by several readers of the document at the same time.
+	private volatile DepthTree tree = null;
+
+	/**
+	 * Constructs an index for the document, the index has to be notified of
+	 * all changes of the document.
+	 * 
+	 * @param document
+	 *            the XML document.
+	 * 
+	 * @see #getInstance(Document)
+	 */
+	public TagBoundaryIndex(Document document) {
+		this.document = document;
+
+		segment.setPartialReturn(true);
+		length = document.getLength();
+
+		scan(0, -1, 0);
+	}
+
+	/**
+	 * Returns the index shared by all users of the document, the index is
+	 * created and registered as a listener to the document when it is first
+	 * used. The index can be requested on any thread that holds the read lock
+	 * of the document.
+	 * 
+	 * @param document
+	 *            the XML document.
+	 * @return the index for the document.
+	 */
+	public static synchronized TagBoundaryIndex getInstance(Document document) {
+		TagBoundaryIndex index = (TagBoundaryIndex) document.getProperty(INDEX_ATTRIBUTE);
+
+		if (index == null) {
+			index = new TagBoundaryIndex(document);
+
+			document.addDocumentListener(index);
+			document.putProperty(INDEX_ATTRIBUTE, index);
+		}
+
+		return index;
+	}
+
+	/**
+	 * Finds the start of a start or end tag in every part of the document, so
+	 * the parts can be scanned separately. The document is read once with the
+	 * same lexer as the index, the comments, CDATA sections and attribute
+	 * values are skipped, but no index is built.
+	 * <p>
+	 * The offsets are likely safe offsets, a '&lt;' in a processing
+	 * instruction or a document type declaration is taken for a tag as well.
+	 * </p>
+	 * 
+	 * @param document
+	 *            the XML document, for instance a snapshot.
+	 * @param interval
+	 *            the minimum distance between two offsets.
+	 * @return the sorted offsets, the first offset is 0.
+	 */
+	public static int[] findSafeOffsets(Document document, int interval) {
+		Segment segment = new Segment();
+		segment.setPartialReturn(true);
+
+		Lexer lexer = new Lexer();
+		int[] result = new int[16];
+		int count = 1;
+
+		int next = interval;
+		int position = 0;
+		int length = document.getLength();
+
+		try {
+			while (position < length) {
+				document.getText(position, length - position, segment);
+
+				char[] array = segment.array;
+				int last = segment.offset + segment.count;
+
+				for (int i = segment.offset; i < last; i++) {
+					int kind = lexer.next(array[i], position + i - segment.offset);
+
+					if (kind == TAG_START && lexer.change != 0 && lexer.start >= next) {
+						if (count == result.length) {
+							int[] newResult = new int[count * 2];
+							System.arraycopy(result, 0, newResult, 0, count);
+							result = newResult;
+						}
+
+						result[count++] = lexer.start;
+						next = lexer.start + interval;
+					}
+
+					if (kind != 0 && lexer.reprocess) {
+						// the character after a tag start has to be read again
+						i--;
+					}
+				}
+
+				position += segment.count;
+			}
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+		}
+
+		int[] offsets = new int[count];
+		System.arraycopy(result, 0, offsets, 0, count);
+
+		return offsets;
+	}
+
+	/**
+	 * @return the number of boundaries.
+	 */
+	public int getCount() {
+		return gapStart + offsets.length - gapEnd;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the boundary.
+	 * @return the offset of the boundary in the document.
+	 */
+	public int getOffset(int index) {
+		if (index < gapStart) {
+			return offsets[index];
+		}
+
+		return offsets[index - gapStart + gapEnd] + length;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the boundary.
+	 * @return the kind of the boundary, for instance {@link #TAG_START}.
+	 */
+	public int getKind(int index) {
+		if (index < gapStart) {
+			return kinds[index];
+		}
+
+		return kinds[index - gapStart + gapEnd];
+	}
+
+	/**
+	 * Returns the index of the last boundary at or before the offset.
+	 * 
+	 * @param offset
+	 *            the offset in the document.
+	 * @return the index of the boundary or -1 if there is none.
+	 */
+	public int getIndex(int offset) {
+		int low = 0;
+		int high = getCount() - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+
+			if (getOffset(mid) <= offset) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		return high;
+	}
+
+	/**
+	 * Returns the start of the last tag, comment or CDATA section that starts
+	 * at or before the offset, a scanner can start scanning at this offset
+	 * without any previous state.
+	 * 
+	 * @param offset
+	 *            the offset in the document.
+	 * @return the safe offset, 0 if there is no markup before the offset.
+	 */
+	public int getSafeOffset(int offset) {
+		int index = getStartIndex(getIndex(offset));
+
+		if (index != -1) {
+			return getOffset(index);
+		}
+
+		return 0;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the boundary.
+	 * @return true when the boundary is the start of a start tag.
+	 */
+	public boolean isElementStart(int index) {
+		return getChange(index) == 1;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the boundary.
+	 * @return true when the boundary is the start of an end tag or the end of
+	 *         an empty element tag.
+	 */
+	public boolean isElementEnd(int index) {
+		return getChange(index) == -1;
+	}
+
+	/**
+	 * Returns the number of elements that are open at the boundary, the
+	 * element started by the boundary is not included.
+	 * 
+	 * @param index
+	 *            the index of the boundary.
+	 * @return the element depth.
+	 */
+	public int getDepth(int index) {
+		return getTree().getSum(getSlot(index));
+	}
+
+	/**
+	 * Returns the boundary that ends the element started at the boundary, the
+	 * start of the end tag or the end of the empty element tag.
+	 * 
+	 * @param index
+	 *            the index of a boundary for which
+	 *            {@link #isElementStart(int)} is true.
+	 * @return the index of the end boundary or -1 if the element is not ended.
+	 */
+	public int getElementEnd(int index) {
+		if (!isElementStart(index)) {
+			return -1;
+		}
+
+		int slot = getTree().findClose(getSlot(index));
+
+		if (slot == -1) {
+			return -1;
+		} else if (slot < gapStart) {
+			return slot;
+		}
+
+		return slot - gapEnd + gapStart;
+	}
+
+	public void insertUpdate(DocumentEvent event) {
+		update(event.getOffset(), event.getOffset() + event.getLength(), event.getLength());
+	}
+
+	public void removeUpdate(DocumentEvent event) {
+		update(event.getOffset(), event.getOffset(), -event.getLength());
+	}
+
+	public void changedUpdate(DocumentEvent event) {}
+
+	/**
+	 * Returns true when the boundary is the start of a tag, comment or CDATA
+	 * section.
+	 * 
+	 * @param kind
+	 *            the kind of boundary.
+	 * @return true for a start.
+	 */
+	public static boolean isStart(int kind) {
+		return kind == TAG_START || kind == COMMENT_START || kind == CDATA_START;
+	}
+
+	private int getSlot(int index) {
+		if (index < gapStart) {
+			return index;
+		}
+
+		return index - gapStart + gapEnd;
+	}
+
+	private int getChange(int index) {
+		return changes[getSlot(index)];
+	}
+
+	private synchronized DepthTree getTree() {
+		if (tree == null) {
+			tree = new DepthTree(changes);
+		}
+
+		return tree;
+	}
+
+	// Sets the depth change of the slot.
+	private void setChange(int slot, int change) {
+		changes[slot] = (byte) change;
+
+		if (tree != null) {
+			tree.set(slot, change);
+		}
+	}
+
+	// Removes the first boundary after the gap.
+	private void removeAfterGap() {
+		setChange(gapEnd, 0);
+		gapEnd++;
+	}
+
+	// Returns the last start at or before the index.
+	private int getStartIndex(int index) {
+		while (index >= 0 && !isStart(getKind(index))) {
+			index--;
+		}
+
+		return index;
+	}
+
+	// Updates the index for a change, end is the end of the changed text in
+	// the new document.
+	private void update(int offset, int end, int delta) {
+		int start = 0;
+		int index = getStartIndex(getIndex(offset - MAX_MARKER_LENGTH));
+
+		if (index != -1) {
+			start = getOffset(index);
+		} else {
+			index = 0;
+		}
+
+		// all boundaries from the start onwards are after the gap.
+		moveGap(index);
+
+		int oldEnd = end - delta;
+
+		// remove the boundaries in the changed text.
+		while (gapEnd < offsets.length && offsets[gapEnd] + length < Math.max(offset, oldEnd)) {
+			removeAfterGap();
+		}
+
+		length += delta;
+
+		scan(start, end, delta);
+	}
+
+	// Scans the document from the start, until the boundaries after the end
+	// are the same as the boundaries after the gap.
+	private void scan(int start, int end, int delta) {
+		Lexer lexer = new Lexer();
+		int position = start;
+		int documentLength = document.getLength();
+
+		try {
+			while (position < documentLength) {
+				document.getText(position, documentLength - position, segment);
+
+				char[] array = segment.array;
+				int last = segment.offset + segment.count;
+
+				for (int i = segment.offset; i < last; i++) {
+					int kind = lexer.next(array[i], position + i - segment.offset);
+
+					if (kind != 0) {
+						int boundary = kind == TAG_END || kind == COMMENT_END || kind == CDATA_END ? position + i - segment.offset : lexer.start;
+
+						if (add(kind, boundary, lexer.change, end)) {
+							return;
+						}
+
+						if (lexer.reprocess) {
+							// the character after a tag start has to be read again
+							i--;
+						}
+					}
+				}
+
+				position += segment.count;
+			}
+
+			// the start of a tag at the end of the document.
+			if (lexer.isMarkup() && add(TAG_START, lexer.start, 0, end)) {
+				return;
+			}
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+		}
+
+		// nothing after the end of the document.
+		while (gapEnd < offsets.length) {
+			removeAfterGap();
+		}
+	}
+
+	// Adds the boundary before the gap, returns true when the boundary is
+	// already in the index after the end of the change.
+	private boolean add(int kind, int offset, int change, int end) {
+		while (gapEnd < offsets.length && offsets[gapEnd] + length < offset) {
+			removeAfterGap();
+		}
+
+		if (end != -1 && offset >= end && isStart(kind) && gapEnd < offsets.length && offsets[gapEnd] + length == offset && kinds[gapEnd] == kind && changes[gapEnd] == change) {
+			return true;
+		}
+
+		// replaced by the new boundary.
+		while (gapEnd < offsets.length && offsets[gapEnd] + length <= offset) {
+			removeAfterGap();
+		}
+
+		if (gapStart == gapEnd) {
+			grow();
+		}
+
+		offsets[gapStart] = offset;
+		kinds[gapStart] = (byte) kind;
+		setChange(gapStart, change);
+		gapStart++;
+
+		return false;
+	}
+
+	// Moves the gap to the index.
+	private void moveGap(int index) {
+		if (tree != null && Math.abs(gapStart - index) > changes.length / 32) {
+			// cheaper to build the tree again than to update it for every slot.
+			tree = null;
+		}
+
+		while (gapStart > index) {
+			gapStart--;
+			gapEnd--;
+
+			int change = changes[gapStart];
+
+			offsets[gapEnd] = offsets[gapStart] - length;
+			kinds[gapEnd] = kinds[gapStart];
+			setChange(gapStart, 0);
+			setChange(gapEnd, change);
+		}
+
+		while (gapStart < index) {
+			int change = changes[gapEnd];
+
+			offsets[gapStart] = offsets[gapEnd] + length;
+			kinds[gapStart] = kinds[gapEnd];
+			setChange(gapEnd, 0);
+			setChange(gapStart, change);
+
+			gapStart++;
+			gapEnd++;
+		}
+	}
+
+	private void grow() {
+		int capacity = offsets.length * 2;
+		int tail = offsets.length - gapEnd;
+
+		int[] newOffsets = new int[capacity];
+		byte[] newKinds = new byte[capacity];
+		byte[] newChanges = new byte[capacity];
+
+		System.arraycopy(offsets, 0, newOffsets, 0, gapStart);
+		System.arraycopy(kinds, 0, newKinds, 0, gapStart);
+		System.arraycopy(offsets, gapEnd, newOffsets, capacity - tail, tail);
+		System.arraycopy(kinds, gapEnd, newKinds, capacity - tail, tail);
+		System.arraycopy(changes, 0, newChanges, 0, gapStart);
+		System.arraycopy(changes, gapEnd, newChanges, capacity - tail, tail);
+
+		offsets = newOffsets;
+		kinds = newKinds;
+		changes = newChanges;
+		gapEnd = capacity - tail;
+		tree = null;
+	}
+
+	/**
+	 * Finds the markup boundaries, one character at a time.
+	 */
+	private static class Lexer {
+		private static final String COMMENT = "<!--";
+		private static final String CDATA = "<![CDATA[";
+
+		private static final int OUTSIDE = 0;
+		private static final int MARKUP = 1;
+		private static final int TAG = 2;
+		private static final int QUOTE = 3;
+		private static final int IN_COMMENT = 4;
+		private static final int IN_CDATA = 5;
+
+		private int state = OUTSIDE;
+		private String marker = null;
+		private int matched = 0;
+		private char quote = 0;
+
+		// the depth change of the current tag and the last character in it.
+		private int element = 0;
+		private char last = 0;
+
+		// the start of the current markup.
+		int start = 0;
+
+		// the last character has to be processed again.
+		boolean reprocess = false;
+
+		// the depth change of the boundary found.
+		int change = 0;
+
+		// Processes the character, returns the kind of boundary found or 0.
+		int next(char character, int offset) {
+			reprocess = false;
+			change = 0;
+
+			switch (state) {
+			case MARKUP:
+				if (marker == null) {
+					if (matched == 1 && character == '!') {
+						matched++;
+						return 0;
+					} else if (matched == 2 && character == '-') {
+						marker = COMMENT;
+						matched++;
+						return 0;
+					} else if (matched == 2 && character == '[') {
+						marker = CDATA;
+						matched++;
+						return 0;
+					}
+				} else if (marker.charAt(matched) == character) {
+					matched++;
+
+					if (matched == marker.length()) {
+						state = marker == COMMENT ? IN_COMMENT : IN_CDATA;
+						matched = 0;
+
+						return marker == COMMENT ? COMMENT_START : CDATA_START;
+					}
+
+					return 0;
+				}
+
+				if (marker == null && matched == 1) {
+					if (character == '/') {
+						element = -1;
+					} else if (isNameStart(character)) {
+						element = 1;
+					}
+				}
+
+				state = TAG;
+				reprocess = true;
+				change = element;
+				return TAG_START;
+
+			case TAG:
+				if (character == '>') {
+					if (element == 1 && last == '/') {
+						// the end of an empty element
+						change = -1;
+					}
+
+					state = OUTSIDE;
+					return TAG_END;
+				}
+
+				last = character;
+
+				if (character == '"' || character == '\'') {
+					quote = character;
+					state = QUOTE;
+				} else if (character == '<') {
+					startMarkup(offset);
+				}
+				return 0;
+
+			case QUOTE:
+				if (character == quote) {
+					state = TAG;
+				} else if (character == '<') {
+					startMarkup(offset);
+				}
+				return 0;
+
+			case IN_COMMENT:
+				return endMarkup(character, '-', COMMENT_END);
+
+			case IN_CDATA:
+				return endMarkup(character, ']', CDATA_END);
+
+			default:
+				if (character == '<') {
+					startMarkup(offset);
+				}
+				return 0;
+			}
+		}
+
+		boolean isMarkup() {
+			return state == MARKUP;
+		}
+
+		private void startMarkup(int offset) {
+			state = MARKUP;
+			marker = null;
+			matched = 1;
+			start = offset;
+			element = 0;
+			last = 0;
+		}
+
+		private static boolean isNameStart(char character) {
+			return Character.isLetter(character) || character == '_' || character == ':';
+		}
+
+		// Matches the "--&gt;" or "]]&gt;" at the end of a comment or CDATA.
+		private int endMarkup(char character, char end, int kind) {
+			if (character == end) {
+				matched = Math.min(matched + 1, 2);
+			} else if (character == '>' && matched == 2) {
+				state = OUTSIDE;
+				matched = 0;
+
+				return kind;
+			} else {
+				matched = 0;
+			}
+
+			return 0;
+		}
+	}
+}
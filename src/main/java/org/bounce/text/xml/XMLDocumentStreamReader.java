@@ -0,0 +1,1292 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text.xml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.bounce.text.DocumentInputReader;
+
+/**
+ * Reads the content of an XML document as a stream of StAX events, without
+ * copying the content of the document.
+ * <p>
+ * The markup is found with the {@link XMLScanner} and the text of the events
+ * is read straight from the document when it is asked for. The document
+ * should not change while it is read, read the document while holding a read
+ * lock, see {@link javax.swing.text.AbstractDocument#render(Runnable)}.
+ * </p>
+ * <p>
+ * The reader does not check the document for errors: characters that cannot
+ * be scanned are skipped, end tags are not matched with start tags, a tag that
+ * is not closed ends at the next markup and references to entities other than
+ * the predefined entities are returned as they are. The DTD is not processed.
+ * </p>
+ * <p>
+ * The location of an event is the location of the start of the event in the
+ * document, {@link Location#getCharacterOffset()} returns the document offset.
+ * </p>
+ */
+public class XMLDocumentStreamReader implements XMLStreamReader {
+	// the maximum length of a character reference: "&#x10FFFF;"
+	private static final int MAX_REFERENCE_LENGTH = 10;
+
+	private final Document document;
+	private final XMLScanner scanner;
+	private final DocumentInputReader reader;
+	private final Segment segment = new Segment();
+	private final int length;
+
+	// the current token of the scanner.
+	private String token = null;
+	private int tokenStart = 0;
+	private int tokenEnd = 0;
+	private boolean finished = false;
+
+	// the current event.
+	private int event = START_DOCUMENT;
+	private int start = 0;
+	private String prefix = null;
+	private String localName = null;
+	private String target = null;
+	private boolean emptyElement = false;
+
+	// the text of the event is only read from the document when asked for.
+	private int textStart = 0;
+	private int textEnd = 0;
+	private boolean replacing = false;
+	private char[] text = new char[256];
+	private int textLength = 0;
+	private String string = null;
+
+	// the prefix, local name and value of the attributes.
+	private final List<String> attributes = new ArrayList<String>();
+
+	// the prefix and uri of the namespace declarations in scope and the number
+	// of declarations of every open element.
+	private final List<String> namespaces = new ArrayList<String>();
+	private int[] declarations = new int[16];
+	private int depth = 0;
+
+	// the end element event closes an open element.
+	private boolean closing = false;
+
+	private String version = null;
+	private String encoding = null;
+	private boolean standalone = false;
+	private boolean standaloneSet = false;
+
+	/**
+	 * Constructs a stream reader for the document, the reader starts at the
+	 * start of the document.
+	 *
+	 * @param document
+	 *            the document containing the XML content.
+	 *
+	 * @throws IOException if the document cannot be read
+	 */
+	public XMLDocumentStreamReader(Document document) throws IOException {
+		this.document = document;
+
+		length = document.getLength();
+		scanner = new XMLScanner(document);
+		reader = new DocumentInputReader(document);
+
+		restart(0);
+
+		if (startsWith(0, "<?xml") && length > 5 && isWhitespace(charAt(5))) {
+			parseProcessingInstruction();
+		}
+	}
+
+	/**
+	 * Returns the next event, errors in the document do not cause an
+	 * exception.
+	 *
+	 * @see XMLStreamReader#next()
+	 */
+	public int next() throws XMLStreamException {
+		if (event == END_DOCUMENT) {
+			throw new NoSuchElementException("No more events");
+		}
+
+		if (closing) {
+			// the namespaces of the closed element go out of scope.
+			depth--;
+
+			for (int i = 0; i < declarations[depth]; i++) {
+				namespaces.remove(namespaces.size() - 1);
+				namespaces.remove(namespaces.size() - 1);
+			}
+
+			closing = false;
+		}
+
+		attributes.clear();
+
+		if (emptyElement) {
+			emptyElement = false;
+			closing = true;
+			event = END_ELEMENT;
+
+			return event;
+		}
+
+		prefix = null;
+		localName = null;
+		target = null;
+
+		try {
+			while (!finished) {
+				int type = parseEvent();
+
+				if (type != -1) {
+					event = type;
+					return event;
+				}
+			}
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+
+		start = length;
+		event = END_DOCUMENT;
+
+		return event;
+	}
+
+	/**
+	 * @see XMLStreamReader#hasNext()
+	 */
+	public boolean hasNext() throws XMLStreamException {
+		return event != END_DOCUMENT;
+	}
+
+	/**
+	 * @see XMLStreamReader#nextTag()
+	 */
+	public int nextTag() throws XMLStreamException {
+		int type = next();
+
+		while ((type == CHARACTERS && isWhiteSpace()) || (type == CDATA && isWhiteSpace()) || type == SPACE || type == PROCESSING_INSTRUCTION || type == COMMENT) {
+			type = next();
+		}
+
+		if (type != START_ELEMENT && type != END_ELEMENT) {
+			throw new XMLStreamException("Expected a start or end tag", getLocation());
+		}
+
+		return type;
+	}
+
+	/**
+	 * @see XMLStreamReader#getElementText()
+	 */
+	public String getElementText() throws XMLStreamException {
+		if (event != START_ELEMENT) {
+			throw new XMLStreamException("The current event is not a start tag", getLocation());
+		}
+
+		StringBuilder content = new StringBuilder();
+		int type = next();
+
+		while (type != END_ELEMENT) {
+			if (type == CHARACTERS || type == CDATA || type == SPACE || type == ENTITY_REFERENCE) {
+				readText();
+				content.append(text, 0, textLength);
+			} else if (type == START_ELEMENT) {
+				throw new XMLStreamException("The element contains elements", getLocation());
+			} else if (type == END_DOCUMENT) {
+				throw new XMLStreamException("The element is not closed", getLocation());
+			}
+
+			type = next();
+		}
+
+		return content.toString();
+	}
+
+	/**
+	 * @see XMLStreamReader#require(int, String, String)
+	 */
+	public void require(int type, String namespaceURI, String localName) throws XMLStreamException {
+		if (type != event) {
+			throw new XMLStreamException("Expected event " + type + " instead of " + event, getLocation());
+		}
+
+		if (localName != null && (!hasName() || !localName.equals(getLocalName()))) {
+			throw new XMLStreamException("Expected local name " + localName, getLocation());
+		}
+
+		if (namespaceURI != null && (!hasName() || !namespaceURI.equals(getNamespaceURI()))) {
+			throw new XMLStreamException("Expected namespace " + namespaceURI, getLocation());
+		}
+	}
+
+	/**
+	 * @see XMLStreamReader#getProperty(String)
+	 */
+	public Object getProperty(String name) {
+		return null;
+	}
+
+	/**
+	 * The document is not closed.
+	 *
+	 * @see XMLStreamReader#close()
+	 */
+	public void close() throws XMLStreamException {
+	}
+
+	/**
+	 * @see XMLStreamReader#getEventType()
+	 */
+	public int getEventType() {
+		return event;
+	}
+
+	/**
+	 * @see XMLStreamReader#isStartElement()
+	 */
+	public boolean isStartElement() {
+		return event == START_ELEMENT;
+	}
+
+	/**
+	 * @see XMLStreamReader#isEndElement()
+	 */
+	public boolean isEndElement() {
+		return event == END_ELEMENT;
+	}
+
+	/**
+	 * @see XMLStreamReader#isCharacters()
+	 */
+	public boolean isCharacters() {
+		return event == CHARACTERS;
+	}
+
+	/**
+	 * @see XMLStreamReader#isWhiteSpace()
+	 */
+	public boolean isWhiteSpace() {
+		if (event != CHARACTERS && event != CDATA && event != SPACE) {
+			return false;
+		}
+
+		readText();
+
+		for (int i = 0; i < textLength; i++) {
+			if (!isWhitespace(text[i])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @see XMLStreamReader#hasName()
+	 */
+	public boolean hasName() {
+		return event == START_ELEMENT || event == END_ELEMENT;
+	}
+
+	/**
+	 * @see XMLStreamReader#getName()
+	 */
+	public QName getName() {
+		checkName();
+
+		String uri = getNamespaceURI();
+
+		return new QName(uri != null ? uri : XMLConstants.NULL_NS_URI, localName, getPrefix());
+	}
+
+	/**
+	 * @see XMLStreamReader#getLocalName()
+	 */
+	public String getLocalName() {
+		checkName();
+
+		return localName;
+	}
+
+	/**
+	 * @see XMLStreamReader#getPrefix()
+	 */
+	public String getPrefix() {
+		checkName();
+
+		return prefix != null ? prefix : XMLConstants.DEFAULT_NS_PREFIX;
+	}
+
+	/**
+	 * @see XMLStreamReader#getNamespaceURI()
+	 */
+	public String getNamespaceURI() {
+		checkName();
+
+		return getNamespaceURI(prefix != null ? prefix : XMLConstants.DEFAULT_NS_PREFIX);
+	}
+
+	/**
+	 * @see XMLStreamReader#getNamespaceURI(String)
+	 */
+	public String getNamespaceURI(String prefix) {
+		if (prefix == null) {
+			throw new IllegalArgumentException("The prefix is null");
+		}
+
+		for (int i = namespaces.size() - 2; i >= 0; i -= 2) {
+			if (prefix.equals(namespaces.get(i))) {
+				String uri = namespaces.get(i + 1);
+
+				// an empty default namespace undeclares the default namespace.
+				return uri.length() > 0 ? uri : null;
+			}
+		}
+
+		if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+			return XMLConstants.XML_NS_URI;
+		} else if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+			return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @see XMLStreamReader#getNamespaceCount()
+	 */
+	public int getNamespaceCount() {
+		checkName();
+
+		if (event == END_ELEMENT && !closing) {
+			return 0;
+		}
+
+		return declarations[depth - 1];
+	}
+
+	/**
+	 * @see XMLStreamReader#getNamespacePrefix(int)
+	 */
+	public String getNamespacePrefix(int index) {
+		String prefix = namespaces.get(getNamespaceIndex(index));
+
+		return prefix.length() > 0 ? prefix : null;
+	}
+
+	/**
+	 * @see XMLStreamReader#getNamespaceURI(int)
+	 */
+	public String getNamespaceURI(int index) {
+		String uri = namespaces.get(getNamespaceIndex(index) + 1);
+
+		return uri.length() > 0 ? uri : null;
+	}
+
+	/**
+	 * Returns the namespaces in scope of the current element, the context
+	 * changes with the current event. The <code>xml</code> and
+	 * <code>xmlns</code> prefixes are always bound to their predefined
+	 * namespaces.
+	 *
+	 * @see XMLStreamReader#getNamespaceContext()
+	 */
+	public NamespaceContext getNamespaceContext() {
+		return new NamespaceContext() {
+			public String getNamespaceURI(String prefix) {
+				String uri = XMLDocumentStreamReader.this.getNamespaceURI(prefix);
+
+				return uri != null ? uri : XMLConstants.NULL_NS_URI;
+			}
+
+			public String getPrefix(String uri) {
+				Iterator<String> prefixes = getPrefixes(uri);
+
+				return prefixes.hasNext() ? prefixes.next() : null;
+			}
+
+			public Iterator<String> getPrefixes(String uri) {
+				if (uri == null) {
+					throw new IllegalArgumentException("The namespace URI is null");
+				}
+
+				// the predefined prefixes cannot be declared or undeclared.
+				if (XMLConstants.XML_NS_URI.equals(uri)) {
+					return Collections.singletonList(XMLConstants.XML_NS_PREFIX).iterator();
+				} else if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(uri)) {
+					return Collections.singletonList(XMLConstants.XMLNS_ATTRIBUTE).iterator();
+				}
+
+				List<String> prefixes = new ArrayList<String>();
+
+				for (int i = namespaces.size() - 2; i >= 0; i -= 2) {
+					String prefix = namespaces.get(i);
+
+					if (uri.equals(namespaces.get(i + 1)) && !prefixes.contains(prefix) && uri.equals(getNamespaceURI(prefix))) {
+						prefixes.add(prefix);
+					}
+				}
+
+				return Collections.unmodifiableList(prefixes).iterator();
+			}
+		};
+	}
+
+	/**
+	 * @see XMLStreamReader#getAttributeCount()
+	 */
+	public int getAttributeCount() {
+		checkStartElement();
+
+		return attributes.size() / 3;
+	}
+
+	/**
+	 * @see XMLStreamReader#getAttributeName(int)
+	 */
+	public QName getAttributeName(int index) {
+		String uri = getAttributeNamespace(index);
+
+		return new QName(uri != null ? uri : XMLConstants.NULL_NS_URI, getAttributeLocalName(index), getAttributePrefix(index));
+	}
+
+	/**
+	 * @see XMLStreamReader#getAttributeNamespace(int)
+	 */
+	public String getAttributeNamespace(int index) {
+		String prefix = getAttributePrefix(index);
+
+		// attributes without a prefix are not in a namespace.
+		return prefix.length() > 0 ? getNamespaceURI(prefix) : null;
+	}
+
+	/**
+	 * @see XMLStreamReader#getAttributeLocalName(int)
+	 */
+	public String getAttributeLocalName(int index) {
+		checkStartElement();
+
+		return attributes.get(index * 3 + 1);
+	}
+
+	/**
+	 * @see XMLStreamReader#getAttributePrefix(int)
+	 */
+	public String getAttributePrefix(int index) {
+		checkStartElement();
+
+		return attributes.get(index * 3);
+	}
+
+	/**
+	 * The DTD is not processed, all attributes are of type CDATA.
+	 *
+	 * @see XMLStreamReader#getAttributeType(int)
+	 */
+	public String getAttributeType(int index) {
+		checkStartElement();
+
+		return "CDATA";
+	}
+
+	/**
+	 * @see XMLStreamReader#getAttributeValue(int)
+	 */
+	public String getAttributeValue(int index) {
+		checkStartElement();
+
+		return attributes.get(index * 3 + 2);
+	}
+
+	/**
+	 * @see XMLStreamReader#getAttributeValue(String, String)
+	 */
+	public String getAttributeValue(String namespaceURI, String localName) {
+		int count = getAttributeCount();
+
+		for (int i = 0; i < count; i++) {
+			if (localName.equals(getAttributeLocalName(i))) {
+				String uri = getAttributeNamespace(i);
+
+				if (namespaceURI == null || namespaceURI.equals(uri != null ? uri : XMLConstants.NULL_NS_URI)) {
+					return getAttributeValue(i);
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * The DTD is not processed, all attributes are specified.
+	 *
+	 * @see XMLStreamReader#isAttributeSpecified(int)
+	 */
+	public boolean isAttributeSpecified(int index) {
+		checkStartElement();
+
+		return true;
+	}
+
+	/**
+	 * @see XMLStreamReader#hasText()
+	 */
+	public boolean hasText() {
+		return event == CHARACTERS || event == CDATA || event == SPACE || event == COMMENT || event == DTD || event == ENTITY_REFERENCE;
+	}
+
+	/**
+	 * @see XMLStreamReader#getText()
+	 */
+	public String getText() {
+		checkText();
+
+		if (string == null) {
+			readText();
+			string = new String(text, 0, textLength);
+		}
+
+		return string;
+	}
+
+	/**
+	 * Returns a buffer that is reused for the text of the following events.
+	 *
+	 * @see XMLStreamReader#getTextCharacters()
+	 */
+	public char[] getTextCharacters() {
+		checkText();
+		readText();
+
+		return text;
+	}
+
+	/**
+	 * @see XMLStreamReader#getTextCharacters(int, char[], int, int)
+	 */
+	public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) throws XMLStreamException {
+		checkText();
+		readText();
+
+		int count = Math.max(0, Math.min(length, textLength - sourceStart));
+		System.arraycopy(text, sourceStart, target, targetStart, count);
+
+		return count;
+	}
+
+	/**
+	 * @see XMLStreamReader#getTextStart()
+	 */
+	public int getTextStart() {
+		checkText();
+
+		return 0;
+	}
+
+	/**
+	 * @see XMLStreamReader#getTextLength()
+	 */
+	public int getTextLength() {
+		checkText();
+		readText();
+
+		return textLength;
+	}
+
+	/**
+	 * @see XMLStreamReader#getPITarget()
+	 */
+	public String getPITarget() {
+		return event == PROCESSING_INSTRUCTION ? target : null;
+	}
+
+	/**
+	 * @see XMLStreamReader#getPIData()
+	 */
+	public String getPIData() {
+		if (event != PROCESSING_INSTRUCTION) {
+			return null;
+		}
+
+		readText();
+
+		return new String(text, 0, textLength);
+	}
+
+	/**
+	 * The content is read from a document, the encoding of the input is not
+	 * known.
+	 *
+	 * @see XMLStreamReader#getEncoding()
+	 */
+	public String getEncoding() {
+		return null;
+	}
+
+	/**
+	 * @see XMLStreamReader#getVersion()
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * @see XMLStreamReader#isStandalone()
+	 */
+	public boolean isStandalone() {
+		return standalone;
+	}
+
+	/**
+	 * @see XMLStreamReader#standaloneSet()
+	 */
+	public boolean standaloneSet() {
+		return standaloneSet;
+	}
+
+	/**
+	 * @see XMLStreamReader#getCharacterEncodingScheme()
+	 */
+	public String getCharacterEncodingScheme() {
+		return encoding;
+	}
+
+	/**
+	 * Returns the location of the start of the current event in the
+	 * document, the lines and columns start at 1.
+	 *
+	 * @see XMLStreamReader#getLocation()
+	 */
+	public Location getLocation() {
+		final int offset = start;
+
+		Element root = document.getDefaultRootElement();
+		final int line = root.getElementIndex(offset);
+		final int column = offset - root.getElement(line).getStartOffset();
+
+		return new Location() {
+			public int getLineNumber() {
+				return line + 1;
+			}
+
+			public int getColumnNumber() {
+				return column + 1;
+			}
+
+			public int getCharacterOffset() {
+				return offset;
+			}
+
+			public String getPublicId() {
+				return null;
+			}
+
+			public String getSystemId() {
+				return null;
+			}
+		};
+	}
+
+	// Parses the event that starts with the current token, returns -1 when
+	// the tokens do not start an event.
+	private int parseEvent() throws IOException {
+		start = tokenStart;
+
+		if (token == XMLStyleConstants.SPECIAL) {
+			if (isToken("<")) {
+				return parseStartTag();
+			} else if (isToken("</")) {
+				return parseEndTag();
+			} else if (isToken("<?")) {
+				return parseProcessingInstruction();
+			} else if (isToken("<!")) {
+				return parseDeclaration();
+			}
+		} else if (token == XMLStyleConstants.COMMENT) {
+			return parseSection(COMMENT, "<!--", "-->");
+		} else if (token == XMLStyleConstants.CDATA) {
+			return parseSection(CDATA, "<![CDATA[", "]]>");
+		} else if (isCharacters(token)) {
+			return parseCharacters();
+		}
+
+		// skip errors and tokens that are out of place.
+		nextToken();
+
+		return -1;
+	}
+
+	private int parseStartTag() throws IOException {
+		nextToken();
+		parseName();
+
+		int count = 0;
+		String attributePrefix = XMLConstants.DEFAULT_NS_PREFIX;
+		String name = null;
+		boolean declaration = false;
+
+		while (!finished) {
+			if (token == XMLStyleConstants.ATTRIBUTE_PREFIX) {
+				attributePrefix = getTokenText();
+			} else if (token == XMLStyleConstants.ATTRIBUTE_NAME || token == XMLStyleConstants.NAMESPACE_PREFIX) {
+				name = getTokenText();
+			} else if (token == XMLStyleConstants.NAMESPACE_NAME) {
+				declaration = true;
+			} else if (isValue(token)) {
+				String value = parseValue();
+
+				if (declaration) {
+					namespaces.add(name != null ? name : XMLConstants.DEFAULT_NS_PREFIX);
+					namespaces.add(value);
+					count++;
+				} else if (name != null) {
+					attributes.add(attributePrefix);
+					attributes.add(name);
+					attributes.add(value);
+				}
+
+				attributePrefix = XMLConstants.DEFAULT_NS_PREFIX;
+				name = null;
+				declaration = false;
+
+				continue;
+			} else if (token == XMLStyleConstants.SPECIAL && isToken("/>")) {
+				emptyElement = true;
+				nextToken();
+				break;
+			} else if (token == XMLStyleConstants.SPECIAL && isToken(">")) {
+				nextToken();
+				break;
+			} else if (token != XMLStyleConstants.WHITESPACE && !(token == XMLStyleConstants.SPECIAL && (isToken("=") || isToken(":")))) {
+				// the tag is not closed.
+				break;
+			}
+
+			nextToken();
+		}
+
+		if (depth == declarations.length) {
+			int[] newDeclarations = new int[depth * 2];
+			System.arraycopy(declarations, 0, newDeclarations, 0, depth);
+			declarations = newDeclarations;
+		}
+
+		declarations[depth++] = count;
+
+		return START_ELEMENT;
+	}
+
+	private int parseEndTag() throws IOException {
+		nextToken();
+		parseName();
+
+		while (!finished && token == XMLStyleConstants.WHITESPACE) {
+			nextToken();
+		}
+
+		if (!finished && token == XMLStyleConstants.SPECIAL && isToken(">")) {
+			nextToken();
+		}
+
+		// an end tag without a start tag does not close an element.
+		closing = depth > 0;
+
+		return END_ELEMENT;
+	}
+
+	// Parses the (prefixed) name of a tag.
+	private void parseName() throws IOException {
+		while (!finished) {
+			if (token == XMLStyleConstants.ELEMENT_PREFIX) {
+				prefix = getTokenText();
+			} else if (token == XMLStyleConstants.ELEMENT_NAME) {
+				localName = getTokenText();
+			} else if (token != XMLStyleConstants.SPECIAL || !isToken(":")) {
+				break;
+			}
+
+			nextToken();
+		}
+
+		if (localName == null) {
+			localName = "";
+		}
+	}
+
+	// Parses an attribute value, without the quotes and with the references
+	// replaced.
+	private String parseValue() throws IOException {
+		int valueStart = tokenStart;
+		int valueEnd = tokenEnd;
+
+		do {
+			valueEnd = tokenEnd;
+			nextToken();
+		} while (!finished && isValue(token));
+
+		char quote = charAt(valueStart);
+
+		if (quote == '"' || quote == '\'') {
+			valueStart++;
+
+			if (valueEnd > valueStart && charAt(valueEnd - 1) == quote) {
+				valueEnd--;
+			}
+		}
+
+		return new String(text, 0, fill(valueStart, valueEnd, true, true));
+	}
+
+	// Parses a comment or CDATA section, the text is the content between the
+	// delimiters.
+	private int parseSection(int type, String open, String close) throws IOException {
+		String style = token;
+		int contentStart = startsWith(start, open) ? start + open.length() : start;
+		int end = tokenEnd;
+
+		do {
+			end = tokenEnd;
+			nextToken();
+		} while (!finished && token == style && !endsWith(contentStart, end, close));
+
+		setText(Math.min(contentStart, end), endsWith(contentStart, end, close) ? end - close.length() : end, false);
+
+		return type;
+	}
+
+	private int parseCharacters() throws IOException {
+		int end = tokenEnd;
+
+		do {
+			end = tokenEnd;
+			nextToken();
+		} while (!finished && isCharacters(token));
+
+		setText(start, end, true);
+		event = CHARACTERS;
+
+		if (depth == 0 && isWhiteSpace()) {
+			// whitespace outside the root element is not reported.
+			return -1;
+		}
+
+		return CHARACTERS;
+	}
+
+	// Parses a processing instruction or the XML declaration.
+	private int parseProcessingInstruction() throws IOException {
+		int end = indexOf("?>", start + 2);
+		int dataEnd = end != -1 ? end : length;
+
+		StringBuilder name = new StringBuilder();
+		reader.setRange(start + 2, dataEnd);
+
+		int character = reader.read();
+
+		while (character != -1 && !isWhitespace((char)character)) {
+			name.append((char)character);
+			character = reader.read();
+		}
+
+		while (character != -1 && isWhitespace((char)character)) {
+			character = reader.read();
+		}
+
+		target = name.toString();
+		setText(character != -1 ? start + 2 + (int)reader.pos : dataEnd, dataEnd, false);
+
+		restart(end != -1 ? end + 2 : length);
+
+		if (start == 0 && "xml".equals(target)) {
+			readText();
+
+			String declaration = new String(text, 0, textLength);
+			version = getPseudoAttribute(declaration, "version");
+			encoding = getPseudoAttribute(declaration, "encoding");
+
+			String value = getPseudoAttribute(declaration, "standalone");
+
+			if (value != null) {
+				standaloneSet = true;
+				standalone = "yes".equals(value);
+			}
+
+			target = null;
+
+			return -1;
+		}
+
+		return PROCESSING_INSTRUCTION;
+	}
+
+	// Parses the document type declaration, other declarations are skipped.
+	private int parseDeclaration() throws IOException {
+		int end = length;
+
+		if (startsWith(start + 2, "DOCTYPE")) {
+			// find the end of the internal subset.
+			reader.setRange(start + 2, length);
+
+			int quote = -1;
+			int brackets = 0;
+
+			for (int character = reader.read(); character != -1; character = reader.read()) {
+				if (quote != -1) {
+					if (character == quote) {
+						quote = -1;
+					}
+				} else if (character == '"' || character == '\'') {
+					quote = character;
+				} else if (character == '[') {
+					brackets++;
+				} else if (character == ']') {
+					brackets = Math.max(0, brackets - 1);
+				} else if (character == '>' && brackets == 0) {
+					end = start + 2 + (int)reader.pos + 1;
+					break;
+				}
+			}
+
+			setText(start, end, false);
+			restart(end);
+
+			return DTD;
+		}
+
+		int index = indexOf(">", start + 2);
+		restart(index != -1 ? index + 1 : length);
+
+		return -1;
+	}
+
+	// Moves to the next token of the scanner.
+	private void nextToken() throws IOException {
+		int end = tokenEnd;
+
+		if (end >= length) {
+			finished = true;
+			return;
+		}
+
+		scanner.scan();
+
+		if (scanner.getEndOffset() <= end) {
+			// the scanner cannot make progress, skip a character.
+			restart(end + 1);
+		} else {
+			token = scanner.token;
+			tokenStart = scanner.getStartOffset();
+			tokenEnd = scanner.getEndOffset();
+		}
+	}
+
+	// Starts scanning again at the offset.
+	private void restart(int offset) throws IOException {
+		if (offset >= length) {
+			token = null;
+			tokenStart = length;
+			tokenEnd = length;
+			finished = true;
+			return;
+		}
+
+		scanner.setRange(offset, length);
+
+		token = scanner.token;
+		tokenStart = scanner.getStartOffset();
+		tokenEnd = scanner.getEndOffset();
+	}
+
+	private void setText(int start, int end, boolean replacing) {
+		textStart = start;
+		textEnd = Math.max(start, end);
+		this.replacing = replacing;
+
+		textLength = -1;
+		string = null;
+	}
+
+	// Reads the text of the current event.
+	private void readText() {
+		if (textLength == -1) {
+			try {
+				textLength = fill(textStart, textEnd, replacing, false);
+			} catch (IOException e) {
+				e.printStackTrace();
+				textLength = 0;
+			}
+		}
+	}
+
+	// Reads the characters into the text buffer, line ends are normalized,
+	// the predefined entity and character references are replaced and
+	// whitespace is normalized for attribute values.
+	private int fill(int start, int end, boolean replacing, boolean attribute) throws IOException {
+		int count = 0;
+		reader.setRange(start, end);
+
+		for (int character = reader.read(); character != -1; character = reader.read()) {
+			if (character == '&' && replacing) {
+				int offset = start + (int)reader.pos;
+				int referenceEnd = getReferenceEnd(offset + 1, Math.min(end, offset + MAX_REFERENCE_LENGTH));
+				String replacement = referenceEnd != -1 ? getReplacement(offset + 1, referenceEnd) : null;
+
+				if (replacement != null) {
+					reader.skip(referenceEnd - offset);
+
+					for (int i = 0; i < replacement.length(); i++) {
+						count = append(count, replacement.charAt(i));
+					}
+
+					continue;
+				}
+			} else if (attribute && (character == '\n' || character == '\t')) {
+				character = ' ';
+			}
+
+			count = append(count, (char)character);
+		}
+
+		return count;
+	}
+
+	private int append(int count, char character) {
+		if (count == text.length) {
+			char[] newText = new char[text.length * 2];
+			System.arraycopy(text, 0, newText, 0, count);
+			text = newText;
+		}
+
+		text[count] = character;
+
+		return count + 1;
+	}
+
+	// Returns the replacement text of a predefined entity or character
+	// reference, null for other references.
+	private String getReplacement(int start, int end) throws IOException {
+		String name = getText(start, end - start);
+
+		if (name.equals("lt")) {
+			return "<";
+		} else if (name.equals("gt")) {
+			return ">";
+		} else if (name.equals("amp")) {
+			return "&";
+		} else if (name.equals("apos")) {
+			return "'";
+		} else if (name.equals("quot")) {
+			return "\"";
+		} else if (name.startsWith("#")) {
+			try {
+				int codePoint = name.startsWith("#x") ? Integer.parseInt(name.substring(2), 16) : Integer.parseInt(name.substring(1));
+
+				if (Character.isValidCodePoint(codePoint) && codePoint > 0) {
+					return new String(Character.toChars(codePoint));
+				}
+			} catch (NumberFormatException e) {
+				// not a character reference.
+			}
+		}
+
+		return null;
+	}
+
+	// Returns the offset of the string in the document, -1 if not found.
+	private int indexOf(String string, int from) throws IOException {
+		if (from >= length) {
+			return -1;
+		}
+
+		reader.setRange(from, length);
+
+		int matched = 0;
+
+		for (int character = reader.read(); character != -1; character = reader.read()) {
+			if (character == string.charAt(matched)) {
+				matched++;
+			} else {
+				matched = character == string.charAt(0) ? 1 : 0;
+			}
+
+			if (matched == string.length()) {
+				return from + (int)reader.pos - matched + 1;
+			}
+		}
+
+		return -1;
+	}
+
+	// Returns the offset of the ';' that ends a reference, -1 if not found.
+	private int getReferenceEnd(int start, int end) throws IOException {
+		if (start >= end) {
+			return -1;
+		}
+
+		getText(start, end - start, segment);
+
+		for (int i = 0; i < segment.count; i++) {
+			if (segment.array[segment.offset + i] == ';') {
+				return start + i;
+			}
+		}
+
+		return -1;
+	}
+
+	private boolean isToken(String text) throws IOException {
+		return tokenEnd - tokenStart == text.length() && startsWith(tokenStart, text);
+	}
+
+	private String getTokenText() throws IOException {
+		return getText(tokenStart, tokenEnd - tokenStart);
+	}
+
+	private boolean startsWith(int offset, String string) throws IOException {
+		if (offset + string.length() > length) {
+			return false;
+		}
+
+		getText(offset, string.length(), segment);
+
+		for (int i = 0; i < string.length(); i++) {
+			if (segment.array[segment.offset + i] != string.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private boolean endsWith(int start, int end, String string) throws IOException {
+		return end - string.length() >= start && startsWith(end - string.length(), string);
+	}
+
+	private char charAt(int offset) throws IOException {
+		getText(offset, 1, segment);
+
+		return segment.array[segment.offset];
+	}
+
+	private String getText(int offset, int length) throws IOException {
+		getText(offset, length, segment);
+
+		return segment.toString();
+	}
+
+	private void getText(int offset, int length, Segment segment) throws IOException {
+		try {
+			document.getText(offset, length, segment);
+		} catch (BadLocationException e) {
+			throw new IOException("Bad location");
+		}
+	}
+
+	private int getNamespaceIndex(int index) {
+		int count = getNamespaceCount();
+
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Namespace " + index);
+		}
+
+		return namespaces.size() - (count - index) * 2;
+	}
+
+	private void checkName() {
+		if (!hasName()) {
+			throw new IllegalStateException("The current event is not a start or end tag");
+		}
+	}
+
+	private void checkStartElement() {
+		if (event != START_ELEMENT) {
+			throw new IllegalStateException("The current event is not a start tag");
+		}
+	}
+
+	private void checkText() {
+		if (!hasText()) {
+			throw new IllegalStateException("The current event has no text");
+		}
+	}
+
+	private static boolean isCharacters(String token) {
+		return token == XMLStyleConstants.ELEMENT_VALUE || token == XMLStyleConstants.ENTITY_REFERENCE || token == XMLStyleConstants.WHITESPACE;
+	}
+
+	private static boolean isValue(String token) {
+		return token == XMLStyleConstants.ATTRIBUTE_VALUE || token == XMLStyleConstants.NAMESPACE_VALUE || token == XMLStyleConstants.ENTITY_REFERENCE;
+	}
+
+	private static boolean isWhitespace(char character) {
+		return character == ' ' || character == '\t' || character == '\n' || character == '\r';
+	}
+
+	// Returns the value of a pseudo attribute of the XML declaration.
+	private static String getPseudoAttribute(String declaration, String name) {
+		int index = declaration.indexOf(name);
+
+		if (index == -1) {
+			return null;
+		}
+
+		index = declaration.indexOf('=', index + name.length());
+
+		while (index != -1 && ++index < declaration.length()) {
+			char quote = declaration.charAt(index);
+
+			if (quote == '"' || quote == '\'') {
+				int end = declaration.indexOf(quote, index + 1);
+
+				return end != -1 ? declaration.substring(index + 1, end) : null;
+			} else if (!isWhitespace(quote)) {
+				return null;
+			}
+		}
+
+		return null;
+	}
+}
@@ -39,12 +39,15 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultEditorKit;
 import javax.swing.text.Document;
 import javax.swing.text.Element;
+import javax.swing.text.Segment;
 import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyleContext;
 import javax.swing.text.View;
 import javax.swing.text.ViewFactory;
 
+import org.bounce.text.TokenStyleTable;
+
 /**
  * The XML editor kit supports handling of editing XML content. It supports
  * syntax highlighting, line wrapping, automatic indentation and tag completion.
@@ -108,11 +111,15 @@ public class XMLEditorKit extends DefaultEditorKit implements XMLStyleConstants,
 	private static final long serialVersionUID = 6303638967973333256L;
 
 	public final static String ERROR_HIGHLIGHTING_ATTRIBUTE = "errorHighlighting";
+
+	// the number of characters read at a time when scanning backward.
+	private static final int SCAN_CHUNK = 128;
 	
 	private boolean tagCompletion = false;
 	private boolean autoIndent = false;
 
 	private StyleContext context = null;
+	private TokenStyleTable styles = null;
 	private ViewFactory factory = null;
 
 	/**
@@ -121,6 +128,7 @@ public class XMLEditorKit extends DefaultEditorKit implements XMLStyleConstants,
 	 */
 	public XMLEditorKit() {
 		context = new StyleContext();
+		styles = new TokenStyleTable(context, XMLScanner.TOKENS);
 		
 		setStyle(ELEMENT_NAME, new Color(136, 18, 128), Font.PLAIN);
 		setStyle(ELEMENT_VALUE, Color.black, Font.PLAIN);
@@ -196,6 +204,7 @@ public class XMLEditorKit extends DefaultEditorKit implements XMLStyleConstants,
 		StyleConstants.setBold(s, (fontStyle & Font.BOLD) > 0);
 		StyleConstants.setForeground(s, foreground);
 		
+		styles.invalidate();
 	}
 	
 	@Override
@@ -225,7 +234,7 @@ public class XMLEditorKit extends DefaultEditorKit implements XMLStyleConstants,
 		 */
 		public View create(Element elem) {
 			try {
-				return new XMLView(new XMLScanner(elem.getDocument()), context, elem);
+				return new XMLView(new XMLScanner(elem.getDocument()), styles, elem);
 			} catch (IOException e) {
 				// Instead of an IOException, this will return null if the
 				// XMLView could not be instantiated.
@@ -236,35 +245,32 @@ public class XMLEditorKit extends DefaultEditorKit implements XMLStyleConstants,
 		}
 	}
 	
+	// Inserts the end tag for the start tag that ends at the offset, the tag
+	// is found by scanning backward from the offset to the last '<' or '>'.
 	private static void completeTag(Document document, int off) throws BadLocationException {
 		StringBuffer endTag = new StringBuffer();
+		Segment segment = new Segment();
 
-		String text = document.getText(0, off);
-		int startTag = text.lastIndexOf('<', off);
-		int prefEndTag = text.lastIndexOf('>', off);
+		int startTag = lastIndexOfMarkup(document, off, segment);
 
 		// If there was a start tag and if the start tag is not empty
 		// and if the start-tag has not got an end-tag already.
-		if ((startTag > 0) && (startTag > prefEndTag) && (startTag < text.length() - 1)) {
-			String tag = text.substring(startTag, text.length());
-			char first = tag.charAt(1);
+		if ((startTag > 0) && (startTag < off - 1)) {
+			document.getText(startTag, off - startTag, segment);
 
-			if (first != '/' && first != '!' && first != '?' && !Character.isWhitespace(first)) {
-				boolean finished = false;
-				char previous = tag.charAt(tag.length() - 1);
+			char[] tag = segment.array;
+			int start = segment.offset;
+			int end = segment.offset + segment.count;
+			char first = tag[start + 1];
 
-				if (previous != '/' && previous != '-') {
+			if (tag[start] == '<' && first != '/' && first != '!' && first != '?' && !Character.isWhitespace(first)) {
+				char previous = tag[end - 1];
 
+				if (previous != '/' && previous != '-') {
 					endTag.append("</");
 
-					for (int i = 1; (i < tag.length()) && !finished; i++) {
-						char ch = tag.charAt(i);
-
-						if (!Character.isWhitespace(ch)) {
-							endTag.append(ch);
-						} else {
-							finished = true;
-						}
+					for (int i = start + 1; i < end && !Character.isWhitespace(tag[i]); i++) {
+						endTag.append(tag[i]);
 					}
 
 					endTag.append(">");
@@ -275,22 +281,45 @@ public class XMLEditorKit extends DefaultEditorKit implements XMLStyleConstants,
 		document.insertString(off, endTag.toString(), null);
 	}
 
+	// Returns the offset of the last '<' or '>' before the offset, -1 if
+	// there is none.
+	private static int lastIndexOfMarkup(Document document, int off, Segment segment) throws BadLocationException {
+		int end = off;
+
+		while (end > 0) {
+			int start = Math.max(0, end - SCAN_CHUNK);
+			document.getText(start, end - start, segment);
+
+			for (int i = segment.offset + segment.count - 1; i >= segment.offset; i--) {
+				char ch = segment.array[i];
+
+				if (ch == '<' || ch == '>') {
+					return start + i - segment.offset;
+				}
+			}
+
+			end = start;
+		}
+
+		return -1;
+	}
+
 	private static void autoIndent(Document document, int off) throws BadLocationException {
 		StringBuffer newStr = new StringBuffer("\r\n");
 		Element elem = document.getDefaultRootElement().getElement(document.getDefaultRootElement().getElementIndex(off));
 		int start = elem.getStartOffset();
-//		int end = elem.getEndOffset();
-		String line = document.getText(start, off - start);
+		Segment line = new Segment();
+		document.getText(start, off - start, line);
 
-		boolean finished = false;
+		int end = line.offset + line.count;
 
-		for (int i = 0; (i < line.length()) && !finished; i++) {
-			char ch = line.charAt(i);
+		for (int i = line.offset; i < end; i++) {
+			char ch = line.array[i];
 
 			if (((ch != '\n') && (ch != '\f') && (ch != '\r')) && Character.isWhitespace(ch)) {
 				newStr.append(ch);
 			} else {
-				finished = true;
+				break;
 			}
 		}
 
@@ -302,25 +331,31 @@ public class XMLEditorKit extends DefaultEditorKit implements XMLStyleConstants,
 	}
 	
 	// Tries to find out if the line finishes with an element start
-	private static boolean isStartElement(String line) {
-		boolean result = false;
-
-		int first = line.lastIndexOf("<");
-		int last = line.lastIndexOf(">");
+	private static boolean isStartElement(Segment line) {
+		char[] text = line.array;
+		int first = -1;
+		int last = -1;
+
+		// the last '<' and the last '>' of the line.
+		for (int i = line.offset + line.count - 1; i >= line.offset && (first == -1 || last == -1); i--) {
+			if (text[i] == '<' && first == -1) {
+				first = i;
+			} else if (text[i] == '>' && last == -1) {
+				last = i;
+			}
+		}
 
 		if (last < first) { // In the Tag
-			result = true;
-		} else {
-			int firstEnd = line.lastIndexOf("</");
-			int lastEnd = line.lastIndexOf("/>");
-
-			// Last Tag is not an End Tag
-			if ((firstEnd != first) && ((lastEnd + 1) != last)) {
-				result = true;
-			}
+			return true;
+		} else if (first == -1) {
+			return false;
 		}
 
-		return result;
+		boolean endTag = first + 1 < line.offset + line.count && text[first + 1] == '/';
+		boolean emptyTag = last == line.offset || text[last - 1] == '/';
+
+		// Last Tag is not an End Tag
+		return !endTag && !emptyTag;
 	}
 
 	@Override
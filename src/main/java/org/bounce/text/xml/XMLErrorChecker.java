@@ -0,0 +1,705 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text.xml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.EventListenerList;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+import org.bounce.text.BackgroundExecutor;
+import org.bounce.text.DocumentSnapshot;
+import org.bounce.text.ErrorMarkers;
+
+/**
+ * Checks the well-formedness of an XML document on a background thread and
+ * publishes the errors as markers, see {@link #getMarkers()}.
+ * <p>
+ * The check reports the tokens that the {@link XMLScanner} marks as errors,
+ * end tags that do not match the start tag of the open element and elements
+ * that are not closed.
+ * </p>
+ * <p>
+ * The checker keeps a checkpoint with the open elements every few tags, after
+ * a change the document is only checked again from the last checkpoint before
+ * the change, the document is read from a {@link DocumentSnapshot}. The check
+ * stops at the first tag after the changed text where an old checkpoint with
+ * the same open elements is found, the checkpoints and markers after it are
+ * moved by the length of the change and reused. Until the new check has
+ * finished, only the markers before the first change are returned. Listeners
+ * are notified on the event dispatch thread when new markers have been
+ * published.
+ * </p>
+ * <p>
+ * The views of a document share one checker, see {@link #getInstance(Document)}.
+ * </p>
+ */
+public class XMLErrorChecker implements DocumentListener {
+	// the property of the document with the shared checker.
+	static final String CHECKER_ATTRIBUTE = "org.bounce.text.xml.XMLErrorChecker";
+
+	// the number of tags between checkpoints.
+	private static final int CHECKPOINT_INTERVAL = 64;
+
+	// the number of characters checked between tests for a newer change.
+	private static final int STALE_INTERVAL = 4096;
+
+	private static final Checkpoint START = new Checkpoint(0, 0, null, 0);
+
+	private final Document document;
+	private final EventListenerList listeners = new EventListenerList();
+
+	private boolean started = false;
+	private boolean pending = false;
+	private long version = 0;
+
+	// the result of the last check, the first offset that has changed since,
+	// the end of the changed text and the change of the length.
+	private List<Checkpoint> checkpoints = Collections.singletonList(START);
+	private List<Marker> found = Collections.emptyList();
+	private List<Marker> unclosed = Collections.emptyList();
+	private ErrorMarkers markers = null;
+	private int dirty = 0;
+	private int dirtyEnd = 0;
+	private int delta = 0;
+
+	// the first offset where the last published markers differ from the
+	// markers before.
+	private int changed = Integer.MAX_VALUE;
+
+	private final Runnable task = new Runnable() {
+		public void run() {
+			synchronized (XMLErrorChecker.this) {
+				pending = false;
+			}
+
+			check();
+		}
+	};
+
+	/**
+	 * Constructs a checker for the document.
+	 *
+	 * @param document
+	 *            the document.
+	 */
+	public XMLErrorChecker(Document document) {
+		this.document = document;
+	}
+
+	/**
+	 * Returns the checker shared by all users of the document, the checker is
+	 * created when it is first used and kept as a property of the document.
+	 * The shared checker is started by every user and checks the document
+	 * until all users have stopped it.
+	 * 
+	 * @param document
+	 *            the XML document.
+	 * @return the checker for the document.
+	 */
+	public static synchronized XMLErrorChecker getInstance(Document document) {
+		XMLErrorChecker checker = (XMLErrorChecker) document.getProperty(CHECKER_ATTRIBUTE);
+
+		if (checker == null) {
+			checker = new SharedChecker(document);
+			document.putProperty(CHECKER_ATTRIBUTE, checker);
+		}
+
+		return checker;
+	}
+
+	/**
+	 * Starts listening to the document and schedules the first check.
+	 */
+	public synchronized void start() {
+		if (!started) {
+			started = true;
+			document.addDocumentListener(this);
+
+			schedule();
+		}
+	}
+
+	/**
+	 * Stops listening to the document and discards the markers.
+	 */
+	public synchronized void stop() {
+		if (started) {
+			started = false;
+			document.removeDocumentListener(this);
+
+			checkpoints = Collections.singletonList(START);
+			found = Collections.emptyList();
+			unclosed = Collections.emptyList();
+			markers = null;
+			dirty = 0;
+			dirtyEnd = 0;
+			delta = 0;
+		}
+	}
+
+	/**
+	 * Returns the markers of the errors found by the last check, only the
+	 * markers before the first change since the last check are returned.
+	 *
+	 * @return the markers or null when the document has not been checked
+	 *         yet.
+	 */
+	public synchronized ErrorMarkers getMarkers() {
+		return markers;
+	}
+
+	/**
+	 * Returns the start of the first marker that differs between the last
+	 * published markers and the markers before, the listeners only have to
+	 * repaint the text from this offset.
+	 *
+	 * @return the offset of the first changed marker, Integer.MAX_VALUE when
+	 *         no marker has changed.
+	 */
+	public synchronized int getChangedOffset() {
+		return changed;
+	}
+
+	/**
+	 * Adds a listener that is notified on the event dispatch thread when new
+	 * markers have been published.
+	 *
+	 * @param listener
+	 *            the change listener.
+	 */
+	public void addChangeListener(ChangeListener listener) {
+		listeners.add(ChangeListener.class, listener);
+	}
+
+	/**
+	 * Removes the change listener.
+	 *
+	 * @param listener
+	 *            the change listener.
+	 */
+	public void removeChangeListener(ChangeListener listener) {
+		listeners.remove(ChangeListener.class, listener);
+	}
+
+	public void insertUpdate(DocumentEvent event) {
+		changed(event.getOffset(), event.getLength());
+	}
+
+	public void removeUpdate(DocumentEvent event) {
+		changed(event.getOffset(), -event.getLength());
+	}
+
+	public void changedUpdate(DocumentEvent event) {}
+
+	// Invalidates the markers from the offset and schedules a new check, the
+	// length is negative for removed text.
+	private synchronized void changed(int offset, int length) {
+		version++;
+		dirty = Math.min(dirty, offset);
+
+		// the text after the end of the changed text is the text of the last
+		// check, moved by the delta.
+		if (length > 0 && dirtyEnd >= offset) {
+			dirtyEnd += length;
+		} else if (length < 0 && dirtyEnd > offset) {
+			dirtyEnd = Math.max(offset, dirtyEnd + length);
+		}
+
+		dirtyEnd = Math.max(dirtyEnd, offset + Math.max(length, 0));
+		delta += length;
+
+		if (markers != null) {
+			markers = markers.truncate(dirty);
+		}
+
+		schedule();
+	}
+
+	private synchronized void schedule() {
+		if (!pending) {
+			pending = true;
+			BackgroundExecutor.execute(task);
+		}
+	}
+
+	private synchronized boolean isStale(long version) {
+		return !started || this.version != version;
+	}
+
+	// Checks a snapshot of the document from the last checkpoint before the
+	// first change, on the background thread.
+	private void check() {
+		final long version;
+		final Checkpoint checkpoint;
+		final Previous previous;
+
+		synchronized (this) {
+			version = this.version;
+			checkpoint = getCheckpoint(dirty);
+			previous = new Previous(checkpoints, found, unclosed, dirty, dirtyEnd, delta);
+		}
+
+		// a change after the version has been read makes the snapshot stale.
+		DocumentSnapshot snapshot = DocumentSnapshot.create(document);
+
+		if (snapshot == null || isStale(version)) {
+			return;
+		}
+
+		try {
+			final Result result = check(snapshot, checkpoint, previous, version);
+
+			if (result != null) {
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						publish(result, version);
+					}
+				});
+			}
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// Returns the last checkpoint before the offset.
+	private Checkpoint getCheckpoint(int offset) {
+		int low = 1;
+		int high = checkpoints.size();
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (checkpoints.get(mid).offset < offset) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return checkpoints.get(low - 1);
+	}
+
+	// Checks the text that follows the checkpoint until the state converges
+	// with a checkpoint of the previous check, returns null when the document
+	// has changed.
+	private Result check(DocumentSnapshot text, Checkpoint checkpoint, Previous previous, long version) throws BadLocationException, IOException {
+		XMLScanner scanner = new XMLScanner(text);
+		Result result = new Result(checkpoint);
+
+		int length = text.getLength();
+		int covered = checkpoint.offset;
+		int stalled = 0;
+		int stale = covered + STALE_INTERVAL;
+
+		OpenElement open = checkpoint.open;
+		int tags = 0;
+
+		// the next checkpoint of the previous check.
+		int next = checkpoint.index + 1;
+
+		// the tag that is scanned and the range of its name.
+		boolean startTag = false;
+		boolean endTag = false;
+		int nameStart = -1;
+		int nameEnd = -1;
+
+		scanner.setRange(checkpoint.offset, length);
+
+		while (true) {
+			String token = scanner.token;
+			int start = scanner.getStartOffset();
+			int end = Math.min(scanner.getEndOffset(), length);
+
+			if (end > covered) {
+				if (scanner.isError()) {
+					result.found.add(new Marker(Math.max(start, covered), end, "Syntax error"));
+				}
+
+				if (token == XMLStyleConstants.SPECIAL) {
+					if (isTagStart(text, start, end)) {
+						if (start >= previous.end) {
+							while (next < previous.checkpoints.size() && previous.checkpoints.get(next).offset + previous.delta < start) {
+								next++;
+							}
+
+							if (next < previous.checkpoints.size() && previous.checkpoints.get(next).offset + previous.delta == start && previous.matches(open, previous.checkpoints.get(next).open)) {
+								converge(result, previous, previous.checkpoints.get(next), open);
+								return result;
+							}
+						}
+
+						if (tags > 0 && tags % CHECKPOINT_INTERVAL == 0) {
+							result.checkpoints.add(new Checkpoint(checkpoint.index + result.checkpoints.size() + 1, start, open, checkpoint.markers + result.found.size()));
+						}
+
+						tags++;
+						startTag = end - start == 1;
+						endTag = !startTag;
+						nameStart = -1;
+					} else if (text.charAt(start) == '>') {
+						if (nameStart != -1) {
+							String name = text.getText(nameStart, nameEnd - nameStart);
+
+							if (startTag) {
+								open = new OpenElement(name, nameStart, nameEnd, open);
+							} else if (endTag) {
+								open = close(result, open, name, nameStart, nameEnd);
+							}
+						}
+
+						startTag = false;
+						endTag = false;
+					} else if (text.charAt(start) == '<' || text.charAt(start) == '/') {
+						// an empty element, a declaration or processing instruction.
+						startTag = false;
+						endTag = false;
+					}
+				} else if (token == XMLStyleConstants.ELEMENT_PREFIX || token == XMLStyleConstants.ELEMENT_NAME) {
+					if (nameStart == -1) {
+						nameStart = start;
+					}
+
+					nameEnd = end;
+				}
+			}
+
+			covered = Math.max(covered, end);
+
+			if (covered >= length) {
+				break;
+			} else if (covered >= stale) {
+				if (isStale(version)) {
+					return null;
+				}
+
+				stale = covered + STALE_INTERVAL;
+			}
+
+			scanner.scan();
+
+			if (scanner.getEndOffset() <= covered) {
+				// the scanner cannot make any progress, the rest is an error.
+				if (++stalled > 2) {
+					result.found.add(new Marker(covered, length, "Syntax error"));
+					break;
+				}
+			} else {
+				stalled = 0;
+			}
+		}
+
+		for (OpenElement element = open; element != null; element = element.parent) {
+			result.unclosed.add(new Marker(element.start, element.end, "Element \"" + element.name + "\" is not closed"));
+		}
+
+		return result;
+	}
+
+	// Adds the checkpoints and markers of the previous check from the old
+	// checkpoint, moved to the text after the change. The open elements at
+	// the old checkpoint are the same as the elements that are open.
+	private static void converge(Result result, Previous previous, Checkpoint old, OpenElement open) {
+		Map<OpenElement, OpenElement> moved = new IdentityHashMap<OpenElement, OpenElement>();
+
+		for (OpenElement element = old.open; element != null; element = element.parent, open = open.parent) {
+			moved.put(element, open);
+		}
+
+		int markers = result.checkpoint.markers + result.found.size();
+
+		for (int i = old.index; i < previous.checkpoints.size(); i++) {
+			Checkpoint checkpoint = previous.checkpoints.get(i);
+
+			result.checkpoints.add(new Checkpoint(result.checkpoint.index + result.checkpoints.size() + 1, checkpoint.offset + previous.delta, previous.move(checkpoint.open, moved), markers + checkpoint.markers - old.markers));
+		}
+
+		for (int i = old.markers; i < previous.found.size(); i++) {
+			result.found.add(previous.move(previous.found.get(i)));
+		}
+
+		for (Marker marker : previous.unclosed) {
+			result.unclosed.add(previous.move(marker));
+		}
+	}
+
+	// Closes the element with the name, returns the elements that are still
+	// open.
+	private static OpenElement close(Result result, OpenElement open, String name, int start, int end) {
+		if (open != null && open.name.equals(name)) {
+			return open.parent;
+		}
+
+		OpenElement element = open;
+
+		while (element != null && !element.name.equals(name)) {
+			element = element.parent;
+		}
+
+		if (element == null) {
+			// not the end of an open element, ignore the end tag.
+			if (open != null) {
+				result.found.add(new Marker(start, end, "End tag \"" + name + "\" does not match start tag \"" + open.name + "\""));
+			} else {
+				result.found.add(new Marker(start, end, "End tag \"" + name + "\" without start tag"));
+			}
+
+			return open;
+		}
+
+		for (OpenElement unclosed = open; unclosed != element; unclosed = unclosed.parent) {
+			result.found.add(new Marker(unclosed.start, unclosed.end, "Element \"" + unclosed.name + "\" is not closed"));
+		}
+
+		return element.parent;
+	}
+
+	// Returns true for the '<' or "</" of a start or end tag.
+	private static boolean isTagStart(DocumentSnapshot text, int start, int end) {
+		return text.charAt(start) == '<' && (end - start == 1 || (end - start == 2 && text.charAt(start + 1) == '/'));
+	}
+
+	// Publishes the markers, on the event dispatch thread.
+	private void publish(Result result, long version) {
+		synchronized (this) {
+			if (isStale(version)) {
+				return;
+			}
+
+			List<Checkpoint> newCheckpoints = new ArrayList<Checkpoint>(checkpoints.subList(0, result.checkpoint.index + 1));
+			newCheckpoints.addAll(result.checkpoints);
+
+			List<Marker> newFound = new ArrayList<Marker>(found.subList(0, result.checkpoint.markers));
+			newFound.addAll(result.found);
+
+			ErrorMarkers.Builder builder = new ErrorMarkers.Builder();
+
+			for (Marker marker : newFound) {
+				builder.add(marker.start, marker.end, marker.message);
+			}
+
+			for (Marker marker : result.unclosed) {
+				builder.add(marker.start, marker.end, marker.message);
+			}
+
+			ErrorMarkers newMarkers = builder.build(Integer.MAX_VALUE);
+
+			checkpoints = newCheckpoints;
+			found = newFound;
+			unclosed = result.unclosed;
+			changed = getChangedOffset(markers, newMarkers);
+			markers = newMarkers;
+			dirty = Integer.MAX_VALUE;
+			dirtyEnd = 0;
+			delta = 0;
+		}
+
+		ChangeEvent event = new ChangeEvent(this);
+		Object[] list = listeners.getListenerList();
+
+		for (int i = list.length - 2; i >= 0; i -= 2) {
+			if (list[i] == ChangeListener.class) {
+				((ChangeListener) list[i + 1]).stateChanged(event);
+			}
+		}
+	}
+
+	// Returns the start of the first marker that differs, Integer.MAX_VALUE
+	// when the markers are the same.
+	private static int getChangedOffset(ErrorMarkers before, ErrorMarkers after) {
+		int count = before != null ? before.getCount() : 0;
+
+		for (int i = 0; i < count || i < after.getCount(); i++) {
+			if (i >= count) {
+				return after.getStart(i);
+			} else if (i >= after.getCount()) {
+				return before.getStart(i);
+			} else if (before.getStart(i) != after.getStart(i) || before.getEnd(i) != after.getEnd(i) || !before.getMessage(i).equals(after.getMessage(i))) {
+				return Math.min(before.getStart(i), after.getStart(i));
+			}
+		}
+
+		return Integer.MAX_VALUE;
+	}
+
+	// The checker of a document, counts the users that have started it.
+	private static class SharedChecker extends XMLErrorChecker {
+		private int users = 0;
+
+		SharedChecker(Document document) {
+			super(document);
+		}
+
+		public synchronized void start() {
+			if (users++ == 0) {
+				super.start();
+			}
+		}
+
+		public synchronized void stop() {
+			if (users > 0 && --users == 0) {
+				super.stop();
+			}
+		}
+	}
+
+	// An element that has not been closed, the elements are shared between
+	// the checkpoints.
+	private static class OpenElement {
+		final String name;
+		final int start;
+		final int end;
+		final OpenElement parent;
+
+		OpenElement(String name, int start, int end, OpenElement parent) {
+			this.name = name;
+			this.start = start;
+			this.end = end;
+			this.parent = parent;
+		}
+	}
+
+	// The start of a tag, with the open elements and the number of markers
+	// found before the tag.
+	private static class Checkpoint {
+		final int index;
+		final int offset;
+		final OpenElement open;
+		final int markers;
+
+		Checkpoint(int index, int offset, OpenElement open, int markers) {
+			this.index = index;
+			this.offset = offset;
+			this.open = open;
+			this.markers = markers;
+		}
+	}
+
+	private static class Marker {
+		final int start;
+		final int end;
+		final String message;
+
+		Marker(int start, int end, String message) {
+			this.start = start;
+			this.end = end;
+			this.message = message;
+		}
+	}
+
+	// The result of the last check and the change of the document since, the
+	// offsets before the start and from the end of the changed text are
+	// moved to the text of the document.
+	private static class Previous {
+		final List<Checkpoint> checkpoints;
+		final List<Marker> found;
+		final List<Marker> unclosed;
+		final int start;
+		final int end;
+		final int delta;
+
+		Previous(List<Checkpoint> checkpoints, List<Marker> found, List<Marker> unclosed, int start, int end, int delta) {
+			this.checkpoints = checkpoints;
+			this.found = found;
+			this.unclosed = unclosed;
+			this.start = start;
+			this.end = end;
+			this.delta = delta;
+		}
+
+		// Returns the offset in the document, -1 for an offset in the text
+		// that has changed.
+		int move(int offset) {
+			if (offset < start) {
+				return offset;
+			} else if (offset >= end - delta) {
+				return offset + delta;
+			}
+
+			return -1;
+		}
+
+		Marker move(Marker marker) {
+			return new Marker(move(marker.start), move(marker.end), marker.message);
+		}
+
+		OpenElement move(OpenElement element, Map<OpenElement, OpenElement> moved) {
+			if (element == null) {
+				return null;
+			}
+
+			OpenElement result = moved.get(element);
+
+			if (result == null) {
+				result = new OpenElement(element.name, move(element.start), move(element.end), move(element.parent, moved));
+				moved.put(element, result);
+			}
+
+			return result;
+		}
+
+		// Returns true when the open elements are the elements of the
+		// previous check.
+		boolean matches(OpenElement open, OpenElement old) {
+			while (open != null && old != null) {
+				if (!open.name.equals(old.name) || open.start != move(old.start) || open.end != move(old.end)) {
+					return false;
+				}
+
+				open = open.parent;
+				old = old.parent;
+			}
+
+			return open == old;
+		}
+	}
+
+	// The checkpoints and markers found after a checkpoint.
+	private static class Result {
+		final Checkpoint checkpoint;
+		final List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		final List<Marker> found = new ArrayList<Marker>();
+		final List<Marker> unclosed = new ArrayList<Marker>();
+
+		Result(Checkpoint checkpoint) {
+			this.checkpoint = checkpoint;
+		}
+	}
+}
@@ -28,16 +28,17 @@
  */
 package org.bounce.text.xml;
 
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
 import java.io.IOException;
 
+import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.Element;
 import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
 import javax.xml.stream.events.XMLEvent;
 
 import org.bounce.text.FoldingMargin;
+import org.bounce.text.LargeDocument;
 
 /**
  * Line folding margin for a JTextComponent.
@@ -57,8 +58,6 @@ import org.bounce.text.FoldingMargin;
 public class XMLFoldingMargin extends FoldingMargin {
 	private static final long serialVersionUID = 8489615051963807472L;
 
-	private XMLScanner scanner = null;
-
 	/**
 	 * Convenience constructor for Text Components
 	 * @param editor the text component
@@ -66,88 +65,188 @@ public class XMLFoldingMargin extends FoldingMargin {
 	 */
 	public XMLFoldingMargin(JTextComponent editor) throws IOException {
 		super(editor);
-
-		initScanner(editor.getDocument());
-		
-		editor.addPropertyChangeListener("document", new PropertyChangeListener() {
-			@Override
-			public void propertyChange(PropertyChangeEvent event) {
-				Object prop = event.getNewValue();
-				
-				if (prop instanceof Document) {
-					try {
-						initScanner((Document)prop);
-					} catch (IOException e) {
-						// This will just not set the scanner object 
-					}
-				}
-			}
-		});
-	}
-	
-	private void initScanner(Document document) throws IOException {
-		scanner = new XMLScanner(document);
 	}
 
-	protected int getFoldClosingLine(int start, int end) {
-		Element element = editor.getDocument().getDefaultRootElement().getElement(start);
-		int tagStart = getStartTagLocation(element.getStartOffset(), element.getEndOffset());
-		
-		if (tagStart != -1) {
-			Element endElement = editor.getDocument().getDefaultRootElement().getElement(end);
-			int tagEnd = getEndTagLocation(tagStart, endElement.getEndOffset());
+	/**
+	 * Finds the first start or end tag on the start line and returns the line
+	 * of the end of the element, using the element pairs of the
+	 * {@link TagBoundaryIndex} of the document. The index is not built for a
+	 * {@link LargeDocument}, the lines up to the limit are scanned instead.
+	 */
+	protected int getFoldClosingLine(int start, int limit) {
+		Document document = editor.getDocument();
+
+		if (document instanceof LargeDocument) {
+			return getScannedClosingLine(document, start, limit);
+		}
+
+		Element root = document.getDefaultRootElement();
+		Element element = root.getElement(start);
+		TagBoundaryIndex tags = TagBoundaryIndex.getInstance(document);
+
+		int count = tags.getCount();
+
+		for (int index = tags.getIndex(element.getStartOffset() - 1) + 1; index < count && tags.getOffset(index) < element.getEndOffset(); index++) {
+			if (tags.isElementStart(index)) {
+				int end = tags.getElementEnd(index);
 
-			if (tagStart >= element.getStartOffset() && tagStart < element.getEndOffset() && tagEnd > element.getEndOffset()) {
-				return editor.getDocument().getDefaultRootElement().getElementIndex(tagEnd);
+				if (end == -1) {
+					return limit;
+				}
+
+				return Math.min(root.getElementIndex(tags.getOffset(end)), limit);
+			} else if (tags.isElementEnd(index)) {
+				break;
 			}
 		}
-		
+
 		return start;
 	}
 
-	private int getStartTagLocation(int offset, int end){
-		scanner.setValid(false);
-		XMLViewUtilities.updateScanner(scanner, editor.getDocument(), offset, end);
+	// Returns the closing line of the element that starts with the first tag
+	// on the start line, scanning the text from the start line to the limit.
+	private static int getScannedClosingLine(Document document, int start, int limit) {
+		Element root = document.getDefaultRootElement();
+		Element line = root.getElement(start);
+		int end = root.getElement(limit).getEndOffset();
 
 		try {
-			scanner.getNextTag();
+			XMLScanner scanner = new XMLScanner(document);
+			XMLViewUtilities.updateScannerFromTag(scanner, document, line.getStartOffset(), end);
+
+			if (scanner.getNextTag() != XMLEvent.START_ELEMENT || scanner.getStartOffset() >= line.getEndOffset()) {
+				return start;
+			}
+
+			int depth = 1;
+			int offset = scanner.getEndOffset();
+
+			while (depth > 0) {
+				int event = scanner.getNextTag();
+
+				if (scanner.getEndOffset() >= end || scanner.getEndOffset() <= offset) {
+					// not closed before the limit or the end of the document.
+					return limit;
+				} else if (event == XMLEvent.START_ELEMENT) {
+					depth++;
+				} else if (event == XMLEvent.END_ELEMENT) {
+					depth--;
+				}
+
+				offset = scanner.getEndOffset();
+			}
+
+			return Math.min(root.getElementIndex(scanner.getStartOffset()), limit);
 		} catch (IOException e) {
-			e.printStackTrace();
+			return start;
 		}
+	}
 
-		if (scanner.getEventType() == XMLEvent.START_ELEMENT) {
-			return scanner.getStartOffset();
-		}
-		
-		return -1;
+	/**
+	 * Folds all elements, the elements inside other elements are folded as
+	 * well. The elements are found in one pass over the tags of the document.
+	 */
+	public void foldAll() {
+		foldElements(-1, null);
 	}
 
-	private int getEndTagLocation(int startTagLocation, int endOffset) {
-		scanner.setValid(false);
-		XMLViewUtilities.updateScanner(scanner, editor.getDocument(), startTagLocation, endOffset);
+	/**
+	 * Folds all elements at the depth, the root element has depth 0. The
+	 * elements are found in one pass over the tags of the document and folded
+	 * in one batch.
+	 * 
+	 * @param depth
+	 *            the depth of the elements.
+	 */
+	public void foldElements(int depth) {
+		foldElements(depth, null);
+	}
 
-		int startTags = 1;
+	/**
+	 * Folds all elements with the qualified name, the elements are found in
+	 * one pass over the tags of the document and folded in one batch.
+	 * 
+	 * @param name
+	 *            the qualified name of the elements, for instance "xs:element".
+	 */
+	public void foldElements(String name) {
+		foldElements(-1, name);
+	}
 
-		do {
-			int event = -1;
+	// Folds the elements at the depth with the name, the depth is ignored
+	// when it is -1 and the name when it is null.
+	private void foldElements(final int depth, final String name) {
+		final Document document = editor.getDocument();
+		final int[][] result = new int[2][];
+		final int[] count = new int[1];
+
+		document.render(new Runnable() {
+			public void run() {
+				Element root = document.getDefaultRootElement();
+				TagBoundaryIndex tags = TagBoundaryIndex.getInstance(document);
+				Segment segment = new Segment();
+
+				int size = tags.getCount();
+				int[] starts = new int[16];
+				int[] ends = new int[16];
+
+				// the elements are paired and their depth found by the index,
+				// as for the fold of a single element.
+				for (int index = 0; index < size; index++) {
+					if (tags.isElementStart(index) && (depth == -1 || depth == tags.getDepth(index))) {
+						int end = tags.getElementEnd(index);
+
+						if (end != -1 && (name == null || hasName(document, tags.getOffset(index), name, segment))) {
+							if (count[0] == starts.length) {
+								starts = grow(starts);
+								ends = grow(ends);
+							}
+
+							starts[count[0]] = root.getElementIndex(tags.getOffset(index));
+							ends[count[0]] = root.getElementIndex(tags.getOffset(end));
+							count[0]++;
+						}
+					}
+				}
 
-			try {
-				event = scanner.getNextTag();
-			} catch (IOException e) {
-				e.printStackTrace();
+				result[0] = starts;
+				result[1] = ends;
 			}
+		});
 
-			if (event == XMLEvent.START_ELEMENT) {
-				startTags++;
-			} else if (event == XMLEvent.END_ELEMENT) {
-				startTags--;
+		fold(result[0], result[1], count[0]);
+	}
+
+	// Returns true when the tag at the offset has the name.
+	private static boolean hasName(Document document, int offset, String name, Segment segment) {
+		int length = name.length();
+
+		if (offset + length + 2 > document.getLength()) {
+			return false;
+		}
+
+		try {
+			document.getText(offset + 1, length + 1, segment);
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		for (int i = 0; i < length; i++) {
+			if (segment.array[segment.offset + i] != name.charAt(i)) {
+				return false;
 			}
-		} while (startTags > 0 && scanner.getEndOffset() < endOffset && scanner.token != null);
-		
-		if (startTags == 0) {
-			return scanner.getStartOffset();
 		}
-		
-		return endOffset;
+
+		char next = segment.array[segment.offset + length];
+
+		return next == '>' || next == '/' || Character.isWhitespace(next);
+	}
+
+	private static int[] grow(int[] array) {
+		int[] result = new int[array.length * 2];
+		System.arraycopy(array, 0, result, 0, array.length);
+
+		return result;
 	}
 }
@@ -29,6 +29,8 @@
 package org.bounce.text.xml;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.text.Document;
 import javax.xml.stream.events.XMLEvent;
@@ -45,17 +47,75 @@ import org.bounce.xml.XMLChar;
  * Prinzing </b>. See:
  * http://java.sun.com/products/jfc/tsc/articles/text/editor_kit/
  * </p>
+ * <p>
+ * The tokens can be scanned by two engines that return the same tokens, the
+ * original sub scanners and a state transition table, see
+ * {@link #XMLScanner(Document, int)}. The default engine can be selected with
+ * the <code>org.bounce.text.xml.XMLScanner.engine</code> system property, use
+ * "table" for the table engine.
+ * </p>
  * 
  * @version $Revision: 1.5 $, $Date: 2009/01/22 22:14:59 $
  * @author Edwin Dankert (edankert@gmail.com)
  */
 public class XMLScanner extends SyntaxHighlightingScanner {
+	/** The engine that scans with a sub scanner per construct. */
+	public static final int SCANNER_ENGINE = 0;
+	/** The engine that scans with a state transition table. */
+	public static final int TABLE_ENGINE = 1;
+
+	/** The system property that selects the default engine. */
+	public static final String ENGINE_PROPERTY = "org.bounce.text.xml.XMLScanner.engine";
+
+	// The packed state of a sub scanner, see Scanner#getState()
+	private static final int STATE_ACTIVE = 0x01;
+	private static final int STATE_FINISHED = 0x02;
+	private static final int STATE_SCANNER_SHIFT = 2;
+	private static final int STATE_SCANNER_MASK = 0x1F;
+	private static final int STATE_FLAG_1 = 0x80;
+	private static final int STATE_FLAG_2 = 0x100;
+	private static final int STATE_FLAG_3 = 0x200;
+	private static final int STATE_FLAG_4 = 0x400;
+	private static final int STATE_VALUE_SHIFT = 12;
+
+	// The tokens returned by this scanner, the index is the token id.
+	static final String[] TOKENS = {
+		XMLStyleConstants.ELEMENT_NAME, XMLStyleConstants.ELEMENT_PREFIX, XMLStyleConstants.ELEMENT_VALUE,
+		XMLStyleConstants.ATTRIBUTE_NAME, XMLStyleConstants.ATTRIBUTE_PREFIX, XMLStyleConstants.ATTRIBUTE_VALUE,
+		XMLStyleConstants.NAMESPACE_NAME, XMLStyleConstants.NAMESPACE_PREFIX, XMLStyleConstants.NAMESPACE_VALUE,
+		XMLStyleConstants.ENTITY, XMLStyleConstants.COMMENT, XMLStyleConstants.CDATA, XMLStyleConstants.DECLARATION,
+		XMLStyleConstants.SPECIAL, XMLStyleConstants.STRING, XMLStyleConstants.WHITESPACE,
+		XMLStyleConstants.ENTITY_REFERENCE };
+
+	// The ids of the tokens, the index of the token in the tokens.
+	private static final int ELEMENT_NAME = 0;
+	private static final int ELEMENT_PREFIX = 1;
+	private static final int ELEMENT_VALUE = 2;
+	private static final int ATTRIBUTE_NAME = 3;
+	private static final int ATTRIBUTE_PREFIX = 4;
+	private static final int ATTRIBUTE_VALUE = 5;
+	private static final int NAMESPACE_NAME = 6;
+	private static final int NAMESPACE_PREFIX = 7;
+	private static final int NAMESPACE_VALUE = 8;
+	private static final int ENTITY = 9;
+	private static final int COMMENT = 10;
+	private static final int CDATA = 11;
+	private static final int DECLARATION = 12;
+	private static final int SPECIAL = 13;
+	private static final int STRING = 14;
+	private static final int WHITESPACE = 15;
+	private static final int ENTITY_REFERENCE = 16;
+	static final int NO_TOKEN = -1;
+
+	// All sub scanners, the index + 1 is the id of the scanner.
+	private final List<Scanner> scanners = new ArrayList<Scanner>();
+
 	private Scanner tagScanner = null;
 
 	private final AttributeScanner ATTRIBUTE_SCANNER = new AttributeScanner(); // done
 	private final AttributeNameScanner ATTRIBUTE_NAME_SCANNER = new AttributeNameScanner(); // done
-	private final AttributeValueScanner ATTRIBUTE_VALUE_SCANNER = new AttributeValueScanner(XMLStyleConstants.ATTRIBUTE_VALUE); // done
-	private final AttributeValueScanner NAMESPACE_VALUE_SCANNER = new AttributeValueScanner(XMLStyleConstants.NAMESPACE_VALUE); // done
+	private final AttributeValueScanner ATTRIBUTE_VALUE_SCANNER = new AttributeValueScanner(ATTRIBUTE_VALUE); // done
+	private final AttributeValueScanner NAMESPACE_VALUE_SCANNER = new AttributeValueScanner(NAMESPACE_VALUE); // done
 	private final EntityReferenceScanner ENTITY_REFERENCE_SCANNER = new EntityReferenceScanner(); // done
 	private final WhitespaceScanner WHITESPACE_SCANNER = new WhitespaceScanner(); // done
 	private final ElementEndScanner ELEMENT_END_SCANNER = new ElementEndScanner(); // done
@@ -68,8 +128,14 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 	private final CDATAScanner CDATA_SCANNER = new CDATAScanner();
 	private final TagScanner TAG_SCANNER = new TagScanner();
 
+	private final boolean table;
+
+	// the state of the table engine.
+	private int tableState = XMLScannerTable.TOP;
+
 	/**
-	 * Constructs a scanner for the Document.
+	 * Constructs a scanner for the Document, that uses the engine selected by
+	 * the <code>org.bounce.text.xml.XMLScanner.engine</code> system property.
 	 * 
 	 * @param document
 	 *            the document containing the XML content.
@@ -77,11 +143,64 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 	 * @throws IOException if the document cannot be opened
 	 */
 	public XMLScanner(Document document) throws IOException {
+		this(document, getDefaultEngine());
+	}
+
+	/**
+	 * Constructs a scanner for the Document.
+	 * 
+	 * @param document
+	 *            the document containing the XML content.
+	 * @param engine
+	 *            the engine, {@link #SCANNER_ENGINE} or {@link #TABLE_ENGINE}.
+	 * 
+	 * @throws IOException if the document cannot be opened
+	 */
+	public XMLScanner(Document document, int engine) throws IOException {
 		super(document);
+
+		if (engine != SCANNER_ENGINE && engine != TABLE_ENGINE) {
+			throw new IllegalArgumentException("Unknown engine: " + engine);
+		}
+
+		table = engine == TABLE_ENGINE;
+	}
+
+	/**
+	 * @return the engine used by this scanner, {@link #SCANNER_ENGINE} or
+	 *         {@link #TABLE_ENGINE}.
+	 */
+	public int getEngine() {
+		return table ? TABLE_ENGINE : SCANNER_ENGINE;
+	}
+
+	private static int getDefaultEngine() {
+		try {
+			if ("table".equals(System.getProperty(ENGINE_PROPERTY))) {
+				return TABLE_ENGINE;
+			}
+		} catch (SecurityException e) {
+			// use the default engine.
+		}
+
+		return SCANNER_ENGINE;
+	}
+
+	/**
+	 * @see SyntaxHighlightingScanner#getTokens()
+	 */
+	public String[] getTokens() {
+		return TOKENS;
 	}
 
 	public int getEventType() {
-		if (tagScanner == TAG_SCANNER) {
+		if (table) {
+			int event = XMLScannerTable.getEventType(tableState);
+
+			if (event != 0) {
+				return event;
+			}
+		} else if (tagScanner == TAG_SCANNER) {
 			if (TAG_SCANNER.scanner == ELEMENT_START_SCANNER) {
 				// if (ELEMENT_START_TAG_SCANNER.scanner == ATTRIBUTE_SCANNER) {
 				// return TYPE.ATTRIBUTE;
@@ -114,9 +233,11 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		while (true) {
 			scan();
 			
-			if (token == XMLStyleConstants.ELEMENT_NAME) {
+			if (tokenId == ELEMENT_NAME) {
 				return getEventType();
-			} else if (tagScanner == TAG_SCANNER && TAG_SCANNER.scanner == ELEMENT_START_SCANNER && ELEMENT_START_SCANNER.scanner == TAG_END_SCANNER && TAG_END_SCANNER.emptyElement) {
+			} else if (table && XMLScannerTable.isEmptyElement(tableState)) {
+				return XMLEvent.END_ELEMENT;
+			} else if (!table && tagScanner == TAG_SCANNER && TAG_SCANNER.scanner == ELEMENT_START_SCANNER && ELEMENT_START_SCANNER.scanner == TAG_END_SCANNER && TAG_END_SCANNER.emptyElement) {
 				return XMLEvent.END_ELEMENT;
 			} else if (in.getLastChar() == -1) {
 				return getEventType();
@@ -136,10 +257,89 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 	 */
 	public void setRange(int start, int end) throws IOException {
 		tagScanner = null;
+		tableState = XMLScannerTable.TOP;
 
 		super.setRange(start, end);
 	}
 
+	/**
+	 * The lexical state of the XML scanner is complete.
+	 * 
+	 * @see SyntaxHighlightingScanner#hasLexicalState()
+	 */
+	public boolean hasLexicalState() {
+		return true;
+	}
+
+	/**
+	 * The lexical state only contains the state of the scanners that are
+	 * currently in use, all other scanners will be reset before they are used.
+	 * 
+	 * @see SyntaxHighlightingScanner#getLexicalState()
+	 */
+	protected int[] getLexicalState() {
+		if (table) {
+			return new int[] { XMLScannerTable.getRestartState(tableState) };
+		}
+
+		int[] state = new int[scanners.size() + 1];
+
+		// a finished scanner is discarded at the start of the next scan.
+		if (tagScanner != null && !tagScanner.isFinished()) {
+			state[0] = tagScanner.id;
+			tagScanner.saveState(state);
+		}
+
+		return state;
+	}
+
+	/**
+	 * @see SyntaxHighlightingScanner#setLexicalState(int[])
+	 */
+	protected void setLexicalState(int[] state) {
+		if (table) {
+			tableState = state[0];
+			return;
+		}
+
+		tagScanner = getScanner(state[0]);
+
+		// reset first, a reset can change the state of child scanners.
+		for (Scanner scanner : scanners) {
+			if (state[scanner.id] == 0) {
+				scanner.reset();
+			}
+		}
+
+		for (Scanner scanner : scanners) {
+			if (state[scanner.id] != 0) {
+				scanner.setState(state[scanner.id]);
+			}
+		}
+	}
+
+	private Scanner getScanner(int id) {
+		if (id == 0) {
+			return null;
+		}
+
+		return scanners.get(id - 1);
+	}
+
+	// Packs the id of the (child) scanner.
+	private static int encodeScanner(Scanner scanner) {
+		if (scanner == null) {
+			return 0;
+		}
+
+		return scanner.id << STATE_SCANNER_SHIFT;
+	}
+
+	// Unpacks the (child) scanner.
+	private Scanner decodeScanner(int state) {
+		return getScanner((state >> STATE_SCANNER_SHIFT) & STATE_SCANNER_MASK);
+	}
+
 	/**
 	 * Scans the Xml Stream for XML specific tokens.
 	 * 
@@ -148,18 +348,22 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 	 * @throws IOException if an IO error occurs
 	 */
 	public long scan() throws IOException {
+		if (table) {
+			return scanTable();
+		}
+
 		int character = in.getLastChar();
 
 		if (error && (character == '<' || character == -1)) {
 			tagScanner = null;
-			token = null;
+			setToken(NO_TOKEN);
 		}
 
 		error = false;
 
 		if (tagScanner != null && tagScanner.isFinished()) {
 			tagScanner = null;
-			token = null;
+			setToken(NO_TOKEN);
 		}
 
 		long l = pos;
@@ -167,12 +371,15 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 
 		while (true) {
 			if (tagScanner != null) {
-				token = tagScanner.scan(in);
+				setToken(tagScanner.scan(in));
 
 				character = in.getLastChar();
 
 				if (getEndOffset() > getStartOffset() || character == -1) {
 					break;
+				} else if (tagScanner == CONTENT_SCANNER && character == '<') {
+					// the content ends right after an entity reference.
+					tagScanner = null;
 				} else if (character == '<') {
 					character = in.read();
 				}
@@ -186,7 +393,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 				tagScanner = CONTENT_SCANNER;
 				tagScanner.reset();
 			} else {
-				token = null;
+				setToken(NO_TOKEN);
 				error = true;
 				break;
 			}
@@ -194,7 +401,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		
 		if (error) {
 			if (in.getLastChar() == -1 && getStartOffset() == getEndOffset()) {
-				token = null;
+				setToken(NO_TOKEN);
 				tagScanner = null;
 			}
 		}
@@ -202,6 +409,102 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		return l;
 	}
 
+	// Scans the next token with the state transition table.
+	private long scanTable() throws IOException {
+		int character = in.getLastChar();
+
+		if (error && (character == '<' || character == -1)) {
+			tableState = XMLScannerTable.TOP;
+		}
+
+		error = false;
+
+		int state = XMLScannerTable.getRestartState(tableState);
+
+		if (state == XMLScannerTable.TOP) {
+			setToken(NO_TOKEN);
+		}
+
+		long l = pos;
+		pos = in.pos;
+
+		while (true) {
+			int transition = XMLScannerTable.getTransition(state, character);
+
+			if ((transition & XMLScannerTable.ERROR) != 0) {
+				error = true;
+			}
+
+			if ((transition & XMLScannerTable.LOOP) != 0) {
+				character = readLoop(in, state, transition);
+			} else if ((transition & XMLScannerTable.READ) != 0) {
+				character = in.read();
+			}
+
+			if (XMLScannerTable.hasToken(transition)) {
+				setToken(XMLScannerTable.getTokenId(transition));
+			}
+
+			state = XMLScannerTable.getState(transition);
+
+			if ((transition & XMLScannerTable.RETURN) != 0) {
+				if ((transition & XMLScannerTable.STOP) != 0 || getEndOffset() > getStartOffset() || character == -1) {
+					break;
+				} else if (XMLScannerTable.isContentEnd(state) && character == '<') {
+					// the content ends right after an entity reference.
+					state = XMLScannerTable.TOP;
+				} else if (character == '<') {
+					character = in.read();
+				}
+			} else if ((transition & XMLScannerTable.STOP) != 0) {
+				break;
+			}
+		}
+
+		tableState = state;
+
+		if (error) {
+			if (in.getLastChar() == -1 && getStartOffset() == getEndOffset()) {
+				setToken(NO_TOKEN);
+				tableState = XMLScannerTable.TOP;
+			}
+		}
+
+		return l;
+	}
+
+	// Sets the token and the id of the token.
+	private void setToken(int id) {
+		tokenId = id;
+		token = id != NO_TOKEN ? TOKENS[id] : null;
+	}
+
+	// Reads the characters that are available without a call per character
+	// and that have the same transition, returns the first character that
+	// might have another transition.
+	private static int readLoop(DocumentInputReader in, int state, int transition) throws IOException {
+		char[] buffer = in.getBuffer();
+		int index = in.getIndex();
+		int limit = in.getLimit();
+		int i = index;
+
+		while (i < limit) {
+			char character = buffer[i];
+
+			if (character == '\r' || XMLScannerTable.getTransition(state, character) != transition) {
+				break;
+			}
+
+			i++;
+		}
+
+		if (i > index) {
+			in.advance(i - index);
+		}
+
+		return in.read();
+	}
+
 	/**
 	 * A scanner for anything starting with a ' <'.
 	 */
@@ -221,7 +524,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		/**
 		 * @see Scanner#scan(DocumentInputReader)
 		 */
-		public String scan(DocumentInputReader in) throws IOException {
+		public int scan(DocumentInputReader in) throws IOException {
 			if (scanner != null) {
 				if (scanner.isFinished()) {
 					scanner = null;
@@ -240,7 +543,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 						character = in.read();
 						scanner = COMMENT_SCANNER;
 						scanner.reset();
-						return XMLStyleConstants.COMMENT;
+						return COMMENT;
 					}
 
 				}
@@ -261,7 +564,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 											character = in.read();
 											scanner = CDATA_SCANNER;
 											scanner.reset();
-											return XMLStyleConstants.CDATA;
+											return CDATA;
 										}
 									}
 								}
@@ -275,26 +578,26 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 				}
 
 				scanner.reset();
-				return XMLStyleConstants.SPECIAL;
+				return SPECIAL;
 
 			} else if (character == '?') { // '?'
 				character = in.read();
 				scanner = ENTITY_TAG_SCANNER;
 				scanner.reset();
 
-				return XMLStyleConstants.SPECIAL;
+				return SPECIAL;
 
 			} else if (character == '/') { // '/'
 				character = in.read();
 				scanner = ELEMENT_END_SCANNER;
 				scanner.reset();
 
-				return XMLStyleConstants.SPECIAL;
+				return SPECIAL;
 
 			} else if (character == '>') { // '>'
 				character = in.read();
 				finished();
-				return XMLStyleConstants.SPECIAL;
+				return SPECIAL;
 
 			} else if (character == '<') { // '>'
 				scanner = ELEMENT_START_SCANNER; // for the show
@@ -302,12 +605,12 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 
 				error = true;
 				finished();
-				return XMLStyleConstants.SPECIAL;
+				return SPECIAL;
 			} else {
 				scanner = ELEMENT_START_SCANNER;
 				scanner.reset();
 
-				return XMLStyleConstants.SPECIAL;
+				return SPECIAL;
 			}
 		}
 
@@ -318,6 +621,23 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 			super.reset();
 			scanner = null;
 		}
+
+		int getState() {
+			return super.getState() | encodeScanner(scanner);
+		}
+
+		void setState(int state) {
+			super.setState(state);
+			scanner = decodeScanner(state);
+		}
+
+		void saveState(int[] state) {
+			super.saveState(state);
+
+			if (scanner != null) {
+				scanner.saveState(state);
+			}
+		}
 	}
 
 	/**
@@ -328,7 +648,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		/**
 		 * @see Scanner#scan(DocumentInputReader)
 		 */
-		public String scan(DocumentInputReader in) throws IOException {
+		public int scan(DocumentInputReader in) throws IOException {
 			int character = in.read();
 
 			while (true) {
@@ -336,14 +656,14 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 				case -1:
 					// System.err.println("Error ["+pos+"]: eof in entity!");
 					finished();
-					return XMLStyleConstants.ENTITY;
+					return ENTITY;
 
 				case 62: // '>'
 					finished();
-					return XMLStyleConstants.ENTITY;
+					return ENTITY;
 
 				default:
-					character = in.read();
+					character = in.readUntil('>');
 					break;
 
 				}
@@ -365,7 +685,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		/**
 		 * @see Scanner#scan(DocumentInputReader)
 		 */
-		public String scan(DocumentInputReader in) throws IOException {
+		public int scan(DocumentInputReader in) throws IOException {
 			int character = in.read();
 
 			while (true) {
@@ -374,7 +694,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 				switch (character) {
 				case -1: // EOF
 					finished();
-					return XMLStyleConstants.COMMENT;
+					return COMMENT;
 
 				case 45: // '-'
 					character = in.read();
@@ -384,13 +704,13 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 							character = in.read();
 							finished();
 							tagScanner.finished();
-							return XMLStyleConstants.COMMENT;
+							return COMMENT;
 						}
 					}
 					break;
 
 				default:
-					character = in.read();
+					character = in.readUntil('-');
 					break;
 
 				}
@@ -412,7 +732,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		/**
 		 * @see Scanner#scan(DocumentInputReader)
 		 */
-		public String scan(DocumentInputReader in) throws IOException {
+		public int scan(DocumentInputReader in) throws IOException {
 			int character = in.read();
 
 			while (true) {
@@ -421,7 +741,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 				switch (character) {
 				case -1: // EOF
 					finished();
-					return XMLStyleConstants.CDATA;
+					return CDATA;
 
 				case 93: // ']'
 					character = in.read();
@@ -431,13 +751,13 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 							character = in.read();
 							finished();
 							tagScanner.finished();
-							return XMLStyleConstants.CDATA;
+							return CDATA;
 						}
 					}
 					break;
 
 				default:
-					character = in.read();
+					character = in.readUntil(']');
 					break;
 
 				}
@@ -462,8 +782,8 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		/**
 		 * @see Scanner#scan(DocumentInputReader)
 		 */
-		public String scan(DocumentInputReader in) throws IOException {
-			String token = scanner.scan(in);
+		public int scan(DocumentInputReader in) throws IOException {
+			int token = scanner.scan(in);
 
 			if (scanner.isFinished()) {
 				if (scanner == TAG_END_SCANNER) {
@@ -500,6 +820,23 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 			scanner = ELEMENT_NAME_SCANNER;
 			scanner.reset();
 		}
+
+		int getState() {
+			return super.getState() | encodeScanner(scanner);
+		}
+
+		void setState(int state) {
+			super.setState(state);
+			scanner = decodeScanner(state);
+		}
+
+		void saveState(int[] state) {
+			super.saveState(state);
+
+			if (scanner != null) {
+				scanner.saveState(state);
+			}
+		}
 	}
 
 	/**
@@ -512,8 +849,8 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		/**
 		 * @see Scanner#scan(DocumentInputReader)
 		 */
-		public String scan(DocumentInputReader in) throws IOException {
-			String token = scanner.scan(in);
+		public int scan(DocumentInputReader in) throws IOException {
+			int token = scanner.scan(in);
 
 			if (scanner.isFinished()) {
 				if (scanner == TAG_END_SCANNER) {
@@ -548,6 +885,23 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 			scanner = ELEMENT_NAME_SCANNER;
 			scanner.reset();
 		}
+
+		int getState() {
+			return super.getState() | encodeScanner(scanner);
+		}
+
+		void setState(int state) {
+			super.setState(state);
+			scanner = decodeScanner(state);
+		}
+
+		void saveState(int[] state) {
+			super.saveState(state);
+
+			if (scanner != null) {
+				scanner.saveState(state);
+			}
+		}
 	}
 
 	/**
@@ -558,11 +912,11 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		/**
 		 * @see Scanner#scan(DocumentInputReader)
 		 */
-		public String scan(DocumentInputReader in) throws IOException {
+		public int scan(DocumentInputReader in) throws IOException {
 			while (true) {
 				if (!isSpace((char) in.read())) {
 					finished();
-					return XMLStyleConstants.WHITESPACE;
+					return WHITESPACE;
 				}
 			}
 		}
@@ -579,7 +933,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		/**
 		 * @see Scanner#scan(DocumentInputReader)
 		 */
-		public String scan(DocumentInputReader in) throws IOException {
+		public int scan(DocumentInputReader in) throws IOException {
 
 			int character = in.getLastChar();
 			
@@ -591,7 +945,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 
 					if (character == '<' || character == -1) {
 						finished();
-						return XMLStyleConstants.ELEMENT_NAME;
+						return ELEMENT_NAME;
 					}
 				}
 
@@ -610,7 +964,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 						if (character == '<' || character == -1) {
 							finished();
 
-							return XMLStyleConstants.ELEMENT_NAME;
+							return ELEMENT_NAME;
 						} else {
 							character = in.read();
 						}
@@ -619,22 +973,22 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 					if (prefix) {
 						character = in.read();
 						nameStart = true;
-						return XMLStyleConstants.SPECIAL;
+						return SPECIAL;
 					}
 
 					prefix = true;
-					return XMLStyleConstants.ELEMENT_PREFIX;
+					return ELEMENT_PREFIX;
 				} else if (isName(character)) {
-					character = in.read();
+					character = readName(in);
 				} else if (isSpace(character) || character == '/' || character == '>') {
 					finished();
-					return XMLStyleConstants.ELEMENT_NAME;
+					return ELEMENT_NAME;
 				} else {
 					error = true;
 
 					if (character == '<' || character == -1) {
 						finished();
-						return XMLStyleConstants.ELEMENT_NAME;
+						return ELEMENT_NAME;
 					} else {
 						character = in.read();
 					}
@@ -651,6 +1005,17 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 			first = true;
 			nameStart = false;
 		}
+
+		int getState() {
+			return super.getState() | (prefix ? STATE_FLAG_1 : 0) | (first ? STATE_FLAG_2 : 0) | (nameStart ? STATE_FLAG_3 : 0);
+		}
+
+		void setState(int state) {
+			super.setState(state);
+			prefix = (state & STATE_FLAG_1) != 0;
+			first = (state & STATE_FLAG_2) != 0;
+			nameStart = (state & STATE_FLAG_3) != 0;
+		}
 	}
 
 	private class TagEndScanner extends Scanner {
@@ -659,7 +1024,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		/**
 		 * @see Scanner#scan(DocumentInputReader)
 		 */
-		public String scan(DocumentInputReader in) throws IOException {
+		public int scan(DocumentInputReader in) throws IOException {
 			int character = in.getLastChar();
 
 			do {
@@ -669,11 +1034,11 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 				} else if (character == '>') {
 					character = in.read();
 					finished();
-					return XMLStyleConstants.SPECIAL;
+					return SPECIAL;
 				} else {
 					if (character == '<' || character == -1) {
 						finished();
-						return XMLStyleConstants.SPECIAL;
+						return SPECIAL;
 					} else {
 						character = in.read();
 					}
@@ -690,6 +1055,15 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 			super.reset();
 			emptyElement = false;
 		}
+
+		int getState() {
+			return super.getState() | (emptyElement ? STATE_FLAG_1 : 0);
+		}
+
+		void setState(int state) {
+			super.setState(state);
+			emptyElement = (state & STATE_FLAG_1) != 0;
+		}
 	}
 
 	/**
@@ -702,15 +1076,15 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		/**
 		 * @see Scanner#scan(DocumentInputReader)
 		 */
-		public String scan(DocumentInputReader in) throws IOException {
-			String token = null;
+		public int scan(DocumentInputReader in) throws IOException {
+			int token = NO_TOKEN;
 			int ch = in.getLastChar();
 			
 			if (ch == '=') {
 				in.read();
 				foundEquals = true;
 				
-				token = XMLStyleConstants.SPECIAL;
+				token = SPECIAL;
 			} else {
 				token = scanner.scan(in);
 			}
@@ -755,6 +1129,27 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 			scanner = ATTRIBUTE_NAME_SCANNER;
 			scanner.reset();
 		}
+
+		int getState() {
+			return super.getState() | encodeScanner(scanner) | (foundEquals ? STATE_FLAG_1 : 0);
+		}
+
+		void setState(int state) {
+			super.setState(state);
+			scanner = decodeScanner(state);
+			foundEquals = (state & STATE_FLAG_1) != 0;
+		}
+
+		void saveState(int[] state) {
+			super.saveState(state);
+
+			if (scanner != null) {
+				scanner.saveState(state);
+			}
+
+			// the namespace flag is used after the name has been scanned.
+			ATTRIBUTE_NAME_SCANNER.saveState(state);
+		}
 	}
 
 	/**
@@ -769,7 +1164,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		/**
 		 * @see Scanner#scan(DocumentInputReader)
 		 */
-		public String scan(DocumentInputReader in) throws IOException {
+		public int scan(DocumentInputReader in) throws IOException {
 			int character = in.getLastChar();
 			
 			if (firstTime) {
@@ -797,7 +1192,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 
 					if (character == '<' || character == -1) {
 						finished();
-						return XMLStyleConstants.ATTRIBUTE_NAME;
+						return ATTRIBUTE_NAME;
 					} else {
 						character = in.read();
 					}
@@ -817,12 +1212,12 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 							finished();
 
 							if (namespace && prefix) {
-								return XMLStyleConstants.NAMESPACE_PREFIX;
+								return NAMESPACE_PREFIX;
 							} else if (namespace) {
-								return XMLStyleConstants.NAMESPACE_NAME;
+								return NAMESPACE_NAME;
 							}
 							
-							return XMLStyleConstants.ATTRIBUTE_NAME;
+							return ATTRIBUTE_NAME;
 						} else {
 							character = in.read();
 						}
@@ -831,26 +1226,26 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 					if (prefix) {
 						character = in.read();
 						nameStart = true;
-						return XMLStyleConstants.SPECIAL;
+						return SPECIAL;
 					} else if (namespace) {
 						prefix = true;
-						return XMLStyleConstants.NAMESPACE_NAME;
+						return NAMESPACE_NAME;
 					}
 					
 					prefix = true;
-					return XMLStyleConstants.ATTRIBUTE_PREFIX;
+					return ATTRIBUTE_PREFIX;
 				} else if (isSpace(character) || character == '=') {
 					finished();
 					
 					if (namespace && prefix) {
-						return XMLStyleConstants.NAMESPACE_PREFIX;
+						return NAMESPACE_PREFIX;
 					} else if (namespace) {
-						return XMLStyleConstants.NAMESPACE_NAME;
+						return NAMESPACE_NAME;
 					}
 					
-					return XMLStyleConstants.ATTRIBUTE_NAME;
+					return ATTRIBUTE_NAME;
 				} else if (isName(character)) {
-					character = in.read();
+					character = readName(in);
 				} else {
 					error = true;
 
@@ -858,12 +1253,12 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 						finished();
 
 						if (namespace && prefix) {
-							return XMLStyleConstants.NAMESPACE_PREFIX;
+							return NAMESPACE_PREFIX;
 						} else if (namespace) {
-							return XMLStyleConstants.NAMESPACE_NAME;
+							return NAMESPACE_NAME;
 						}
 						
-						return XMLStyleConstants.ATTRIBUTE_NAME;
+						return ATTRIBUTE_NAME;
 					} else {
 						character = in.read();
 					}
@@ -882,6 +1277,18 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 			namespace = false;
 			nameStart = false;
 		}
+
+		int getState() {
+			return super.getState() | (prefix ? STATE_FLAG_1 : 0) | (firstTime ? STATE_FLAG_2 : 0) | (namespace ? STATE_FLAG_3 : 0) | (nameStart ? STATE_FLAG_4 : 0);
+		}
+
+		void setState(int state) {
+			super.setState(state);
+			prefix = (state & STATE_FLAG_1) != 0;
+			firstTime = (state & STATE_FLAG_2) != 0;
+			namespace = (state & STATE_FLAG_3) != 0;
+			nameStart = (state & STATE_FLAG_4) != 0;
+		}
 	}
 
 	/**
@@ -889,17 +1296,17 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 	 */
 	private class AttributeValueScanner extends Scanner {
 		private Scanner scanner = null;
-		private String style = null;
+		private final int style;
 		private int start = -1;
 		
-		public AttributeValueScanner(String style) {
+		public AttributeValueScanner(int style) {
 			this.style = style;
 		}
 		
 		/**
 		 * @see Scanner#scan(DocumentInputReader)
 		 */
-		public String scan(DocumentInputReader in) throws IOException {
+		public int scan(DocumentInputReader in) throws IOException {
 			if (scanner != null && !scanner.isFinished()) {
 				return scanner.scan(in);
 			} else {
@@ -917,7 +1324,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 
 						return style;
 					} else if (isContent(character)) {
-						character = in.read();
+						character = readContent(in, start);
 					} else if (character == '&') {
 						scanner = ENTITY_REFERENCE_SCANNER;
 						scanner.reset();
@@ -942,8 +1349,27 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		 */
 		public void reset() {
 			super.reset();
+			scanner = null;
 			start = -1;
 		}
+
+		int getState() {
+			return super.getState() | encodeEntityScanner(scanner) | ((start + 1) << STATE_VALUE_SHIFT);
+		}
+
+		void setState(int state) {
+			super.setState(state);
+			scanner = decodeScanner(state);
+			start = (state >>> STATE_VALUE_SHIFT) - 1;
+		}
+
+		void saveState(int[] state) {
+			super.saveState(state);
+
+			if (scanner != null && !scanner.isFinished()) {
+				scanner.saveState(state);
+			}
+		}
 	}
 
 	/**
@@ -955,7 +1381,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		/**
 		 * @see Scanner#scan(DocumentInputReader)
 		 */
-		public String scan(DocumentInputReader in) throws IOException {
+		public int scan(DocumentInputReader in) throws IOException {
 			if (scanner != null && !scanner.isFinished()) {
 				return scanner.scan(in);
 			} else {
@@ -963,21 +1389,21 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 				
 				do {
 					if (isContent(character)) {
-						character = in.read();
+						character = readContent(in, -1);
 					} else if (character == '&') {
 						scanner = ENTITY_REFERENCE_SCANNER;
 						scanner.reset();
 	
-						return XMLStyleConstants.ELEMENT_VALUE;
+						return ELEMENT_VALUE;
 					} else if (character == '<' || character == -1) {
 						finished();
-						return XMLStyleConstants.ELEMENT_VALUE;
+						return ELEMENT_VALUE;
 					} else {
 						error = true;
 
 						if (character == '<' || character == -1) {
 							finished();
-							return XMLStyleConstants.ELEMENT_VALUE;
+							return ELEMENT_VALUE;
 						} else {
 							character = in.read();
 						}
@@ -991,6 +1417,24 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		 */
 		public void reset() {
 			super.reset();
+			scanner = null;
+		}
+
+		int getState() {
+			return super.getState() | encodeEntityScanner(scanner);
+		}
+
+		void setState(int state) {
+			super.setState(state);
+			scanner = decodeScanner(state);
+		}
+
+		void saveState(int[] state) {
+			super.saveState(state);
+
+			if (scanner != null && !scanner.isFinished()) {
+				scanner.saveState(state);
+			}
 		}
 	}
 
@@ -1004,7 +1448,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		/**
 		 * @see Scanner#scan(DocumentInputReader)
 		 */
-		public String scan(DocumentInputReader in) throws IOException {
+		public int scan(DocumentInputReader in) throws IOException {
 				int character = in.read();
 				if (isNameStart(character)) {
 					character = in.read();
@@ -1021,7 +1465,7 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 					
 					if (character == '<' || character == -1) {
 						finished();
-						return XMLStyleConstants.ENTITY_REFERENCE;
+						return ENTITY_REFERENCE;
 					} else {
 						character = in.read();
 					}
@@ -1035,13 +1479,13 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 					} else if (character == ';') {
 						character = in.read();
 						finished();
-						return XMLStyleConstants.ENTITY_REFERENCE;
+						return ENTITY_REFERENCE;
 					} else {
 						error = true;
 
 						if (character == '<' || character == -1) {
 							finished();
-							return XMLStyleConstants.ENTITY_REFERENCE;
+							return ENTITY_REFERENCE;
 						} else {
 							character = in.read();
 						}
@@ -1057,23 +1501,39 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 			characterReference = false;
 			hexadecimal = false;
 		}
+
+		int getState() {
+			return super.getState() | (characterReference ? STATE_FLAG_1 : 0) | (hexadecimal ? STATE_FLAG_2 : 0);
+		}
+
+		void setState(int state) {
+			super.setState(state);
+			characterReference = (state & STATE_FLAG_1) != 0;
+			hexadecimal = (state & STATE_FLAG_2) != 0;
+		}
 	}
 
 	/**
 	 * Abstract scanner class..
 	 */
 	abstract class Scanner {
+		private final int id;
 		private boolean finished = false;
 
+		Scanner() {
+			scanners.add(this);
+			id = scanners.size();
+		}
+
 		/**
 		 * Scan the input steam for a token.
 		 * 
 		 * @param in
 		 *            the input stream reader.
-		 * @return the token.
+		 * @return the id of the token.
 		 * @throws IOException
 		 */
-		public abstract String scan(DocumentInputReader in) throws IOException;
+		public abstract int scan(DocumentInputReader in) throws IOException;
 		
 		/**
 		 * The scanner has finished scanning the information, only a reset can
@@ -1099,8 +1559,91 @@ public class XMLScanner extends SyntaxHighlightingScanner {
 		public void reset() {
 			finished = false;
 		}
+
+		/**
+		 * Returns the state of this scanner packed in an int, subclasses add
+		 * their own variables to the state. A state is never 0.
+		 * 
+		 * @return the packed state.
+		 */
+		int getState() {
+			return STATE_ACTIVE | (finished ? STATE_FINISHED : 0);
+		}
+
+		/**
+		 * Restores the state as returned by getState().
+		 * 
+		 * @param state
+		 *            the packed state.
+		 */
+		void setState(int state) {
+			finished = (state & STATE_FINISHED) != 0;
+		}
+
+		/**
+		 * Stores the state of this scanner and the scanners it uses.
+		 * 
+		 * @param state
+		 *            the lexical state, indexed by scanner id.
+		 */
+		void saveState(int[] state) {
+			state[id] = getState();
+		}
+	}
+
+	// A finished entity reference scanner is not used by the value scanners.
+	private static int encodeEntityScanner(Scanner scanner) {
+		if (scanner == null || scanner.isFinished()) {
+			return 0;
+		}
+
+		return encodeScanner(scanner);
 	}
 	
+	// Reads the content characters that are available without a call per
+	// character, returns the first character that might not be content.
+	private static int readContent(DocumentInputReader in, int stop) throws IOException {
+		char[] buffer = in.getBuffer();
+		int index = in.getIndex();
+		int limit = in.getLimit();
+		int i = index;
+
+		while (i < limit) {
+			char character = buffer[i];
+
+			if (character == stop || character == '\r' || !isContent(character)) {
+				break;
+			}
+
+			i++;
+		}
+
+		if (i > index) {
+			in.advance(i - index);
+		}
+
+		return in.read();
+	}
+
+	// Reads the name characters that are available without a call per
+	// character, returns the first character that might not be a name character.
+	private static int readName(DocumentInputReader in) throws IOException {
+		char[] buffer = in.getBuffer();
+		int index = in.getIndex();
+		int limit = in.getLimit();
+		int i = index;
+
+		while (i < limit && isName(buffer[i])) {
+			i++;
+		}
+
+		if (i > index) {
+			in.advance(i - index);
+		}
+
+		return in.read();
+	}
+
 	private static boolean isNameStart(int character) {
 		if (character == -1 || character == ':') {
 			return false;
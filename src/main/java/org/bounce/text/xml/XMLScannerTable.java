@@ -0,0 +1,799 @@
+/*
+ * Copyright (c) 2002 - 2009, Edwin Dankert
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * * Neither the name of 'Edwin Dankert' nor the names of its contributors
+ *   may  be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.bounce.text.xml;
+
+import javax.xml.stream.events.XMLEvent;
+
+import org.bounce.xml.XMLChar;
+
+/**
+ * The state transition table of the table driven {@link XMLScanner} engine.
+ * <p>
+ * The table encodes the same token grammar as the sub scanners of the
+ * XMLScanner as a flat state machine over character classes. Every entry
+ * contains the next state, whether the character is read, whether the token
+ * is in error, the token and whether the scan returns. Entries that do not
+ * read a character only change the state, these are used to make more than
+ * one decision on the same character.
+ * </p>
+ * <p>
+ * A state that follows a finished tag or content is restarted at the top
+ * level at the start of the next scan, see {@link #getRestartState(int)}.
+ * </p>
+ */
+final class XMLScannerTable {
+	// the character classes, a class can contain more than one character.
+	private static final int EOF = 0;
+	private static final int LT = 1;
+	private static final int GT = 2;
+	private static final int SLASH = 3;
+	private static final int QUESTION = 4;
+	private static final int BANG = 5;
+	private static final int DASH = 6;
+	private static final int OPEN_BRACKET = 7;
+	private static final int CLOSE_BRACKET = 8;
+	private static final int EQUALS = 9;
+	private static final int DOUBLE_QUOTE = 10;
+	private static final int SINGLE_QUOTE = 11;
+	private static final int AMPERSAND = 12;
+	private static final int HASH = 13;
+	private static final int SEMICOLON = 14;
+	private static final int COLON = 15;
+	private static final int LOWER_X = 16;
+	private static final int LOWER_M = 17;
+	private static final int LOWER_L = 18;
+	private static final int LOWER_N = 19;
+	private static final int LOWER_S = 20;
+	private static final int UPPER_C = 21;
+	private static final int UPPER_D = 22;
+	private static final int UPPER_A = 23;
+	private static final int UPPER_T = 24;
+	private static final int DIGIT = 25; // '1' to '8', a character reference
+	private static final int HEX_LETTER = 26; // other hexadecimal letters
+	private static final int NAME_START = 27; // other name start characters
+	private static final int NAME = 28; // other name characters
+	private static final int SPACE = 29;
+	private static final int CONTENT = 30; // other content characters
+	private static final int OTHER = 31;
+
+	private static final int CLASSES = 32;
+
+	// the classes of the characters that are checked by the scanner.
+	private static final long NAME_START_CLASSES = mask(LOWER_X, LOWER_M, LOWER_L, LOWER_N, LOWER_S, UPPER_C, UPPER_D, UPPER_A, UPPER_T, HEX_LETTER, NAME_START);
+	private static final long NAME_CLASSES = NAME_START_CLASSES | mask(DASH, DIGIT, NAME);
+	private static final long CONTENT_CLASSES = ~mask(EOF, LT, AMPERSAND, OTHER) & ((1L << CLASSES) - 1);
+	private static final long HEX_CLASSES = mask(DIGIT, HEX_LETTER, UPPER_A, UPPER_C, UPPER_D);
+	private static final long ALL_CLASSES = (1L << CLASSES) - 1;
+
+	private static final byte[] ASCII_CLASSES = new byte[128];
+
+	// the bits of a transition.
+	private static final int STATE_MASK = 0xFF;
+
+	/** The character is read. */
+	static final int READ = 0x100;
+	/** The token is in error. */
+	static final int ERROR = 0x200;
+	/** The scan returns when the token is not empty. */
+	static final int RETURN = 0x400;
+	/** The scan returns, also when the token is empty. */
+	static final int STOP = 0x800;
+	/** The character is read and the state does not change. */
+	static final int LOOP = 0x1000;
+
+	private static final int TOKEN_SHIFT = 13;
+	private static final int TOKEN_MASK = 0x1F;
+	private static final int NO_TOKEN = 0;
+	private static final int NULL_TOKEN = TOKEN_MASK;
+
+	// marks the transitions that have been set while building the table.
+	private static final int SET = 0x40000000;
+
+	// the event type of the states, 0 for the start or end of the document.
+	private static final int[] EVENTS = new int[STATE_MASK + 1];
+	private static final int[] RESTART = new int[STATE_MASK + 1];
+	private static final boolean[] EMPTY = new boolean[STATE_MASK + 1];
+
+	private static int states = 0;
+
+	/** The state outside any tag or content. */
+	static final int TOP = state(0);
+
+	// the element content, a finished content scanner continues to scan
+	// content in the same scan.
+	private static final int CONTENT_BODY = state(XMLEvent.CHARACTERS);
+	private static final int CONTENT_DONE = done(XMLEvent.CHARACTERS);
+
+	// after a '<' and "<!" with the "<![CDATA[" characters.
+	private static final int TAG_START = state(0);
+	private static final int BANG_START = state(0);
+	private static final int BANG_DASH = state(0);
+	private static final int[] CDATA_START = { state(0), state(0), state(0), state(0), state(0), state(0), state(0) };
+
+	private static final int DECLARATION_START = state(0);
+	private static final int DECLARATION_BODY = state(0);
+	private static final int DECLARATION_DONE = done(0);
+
+	private static final int COMMENT_START = state(XMLEvent.COMMENT);
+	private static final int COMMENT_BODY = state(XMLEvent.COMMENT);
+	private static final int COMMENT_DASH = state(XMLEvent.COMMENT);
+	private static final int COMMENT_DASHES = state(XMLEvent.COMMENT);
+	private static final int COMMENT_DONE = done(XMLEvent.COMMENT);
+
+	private static final int CDATA_BEGIN = state(XMLEvent.CDATA);
+	private static final int CDATA_BODY = state(XMLEvent.CDATA);
+	private static final int CDATA_BRACKET = state(XMLEvent.CDATA);
+	private static final int CDATA_BRACKETS = state(XMLEvent.CDATA);
+	private static final int CDATA_DONE = done(XMLEvent.CDATA);
+
+	// the element start tag, indexed by whether a prefix has been found.
+	private static final int START_NAME_FIRST = state(XMLEvent.START_ELEMENT);
+	private static final int[] START_NAME = { state(XMLEvent.START_ELEMENT), state(XMLEvent.START_ELEMENT) };
+	private static final int START_NAME_START = state(XMLEvent.START_ELEMENT);
+	private static final int START_WHITESPACE = state(XMLEvent.START_ELEMENT);
+	private static final int START_NEXT = state(XMLEvent.START_ELEMENT);
+	private static final int START_TAG_END = state(XMLEvent.START_ELEMENT);
+	private static final int START_TAG_END_EMPTY = empty(state(XMLEvent.END_ELEMENT));
+	private static final int START_DONE = done(XMLEvent.START_ELEMENT);
+	private static final int START_DONE_EMPTY = empty(done(XMLEvent.END_ELEMENT));
+
+	// the attributes, indexed by whether the '=' has been found, whether a
+	// prefix has been found and whether the attribute is a namespace.
+	private static final int[] ATTRIBUTE_FIRST = new int[2];
+	private static final int[][] ATTRIBUTE_XMLNS = new int[2][4];
+	private static final int[][][] ATTRIBUTE_NAME = new int[2][2][2];
+	private static final int[][] ATTRIBUTE_NAME_START = new int[2][2];
+	private static final int[][] ATTRIBUTE_NEXT = new int[2][2];
+	private static final int[][] ATTRIBUTE_WHITESPACE = new int[2][2];
+	private static final int[][] ATTRIBUTE_EQUALS = new int[2][2];
+
+	// the attribute values, indexed by whether the attribute is a namespace
+	// and by the quote.
+	private static final int[][] VALUE_START = new int[2][2];
+	private static final int[][] VALUE_BODY = new int[2][2];
+	private static final int[][] VALUE_NEXT = new int[2][2];
+
+	// the element end tag, indexed by whether a prefix has been found and
+	// whether the name has been finished before.
+	private static final int END_NAME_FIRST = state(XMLEvent.END_ELEMENT);
+	private static final int[][] END_NAME = { { state(XMLEvent.END_ELEMENT), state(XMLEvent.END_ELEMENT) }, { state(XMLEvent.END_ELEMENT), state(XMLEvent.END_ELEMENT) } };
+	private static final int[] END_NAME_START = { state(XMLEvent.END_ELEMENT), state(XMLEvent.END_ELEMENT) };
+	private static final int[] END_NEXT_NAME = { state(XMLEvent.END_ELEMENT), state(XMLEvent.END_ELEMENT) };
+	private static final int END_NEXT_NAME_START = state(XMLEvent.END_ELEMENT);
+	private static final int END_NEXT_WHITESPACE = state(XMLEvent.END_ELEMENT);
+	private static final int END_WHITESPACE = state(XMLEvent.END_ELEMENT);
+	private static final int END_WHITESPACE_AGAIN = state(XMLEvent.END_ELEMENT);
+	private static final int END_TAG_END = state(XMLEvent.END_ELEMENT);
+	private static final int END_DONE = done(XMLEvent.END_ELEMENT);
+
+	// the entity references, in content, in finished content and in the
+	// attribute values.
+	private static final int ENTITY_CONTENTS = 6;
+	private static final int[] ENTITY_START = new int[ENTITY_CONTENTS];
+	private static final int[] ENTITY_FIRST = new int[ENTITY_CONTENTS];
+	private static final int[] ENTITY_HASH = new int[ENTITY_CONTENTS];
+	private static final int[] ENTITY_DECIMAL = new int[ENTITY_CONTENTS];
+	private static final int[] ENTITY_HEXADECIMAL = new int[ENTITY_CONTENTS];
+	private static final int[] ENTITY_NAME = new int[ENTITY_CONTENTS];
+
+	private static final int[] TRANSITIONS;
+
+	static {
+		for (int fe = 0; fe < 2; fe++) {
+			ATTRIBUTE_FIRST[fe] = state(XMLEvent.START_ELEMENT);
+
+			for (int i = 0; i < 4; i++) {
+				ATTRIBUTE_XMLNS[fe][i] = state(XMLEvent.START_ELEMENT);
+			}
+
+			for (int ns = 0; ns < 2; ns++) {
+				ATTRIBUTE_NAME[fe][0][ns] = state(XMLEvent.START_ELEMENT);
+				ATTRIBUTE_NAME[fe][1][ns] = state(XMLEvent.START_ELEMENT);
+				ATTRIBUTE_NAME_START[fe][ns] = state(XMLEvent.START_ELEMENT);
+				ATTRIBUTE_NEXT[fe][ns] = state(XMLEvent.START_ELEMENT);
+				ATTRIBUTE_WHITESPACE[fe][ns] = state(XMLEvent.START_ELEMENT);
+				ATTRIBUTE_EQUALS[fe][ns] = state(XMLEvent.START_ELEMENT);
+			}
+		}
+
+		for (int ns = 0; ns < 2; ns++) {
+			for (int q = 0; q < 2; q++) {
+				VALUE_START[ns][q] = state(XMLEvent.START_ELEMENT);
+				VALUE_BODY[ns][q] = state(XMLEvent.START_ELEMENT);
+				VALUE_NEXT[ns][q] = state(XMLEvent.START_ELEMENT);
+			}
+		}
+
+		for (int i = 0; i < ENTITY_CONTENTS; i++) {
+			int event = i < 2 ? XMLEvent.CHARACTERS : XMLEvent.START_ELEMENT;
+
+			ENTITY_START[i] = state(event);
+			ENTITY_FIRST[i] = state(event);
+			ENTITY_HASH[i] = state(event);
+			ENTITY_DECIMAL[i] = state(event);
+			ENTITY_HEXADECIMAL[i] = state(event);
+			ENTITY_NAME[i] = state(event);
+		}
+
+		// an entity in finished content is restarted like the content.
+		RESTART[ENTITY_START[1]] = TOP;
+
+		TRANSITIONS = new int[states * CLASSES];
+
+		initClasses();
+		initContent();
+		initTags();
+		initStartTag();
+		initAttributes();
+		initEndTag();
+		initEntities();
+
+		for (int i = 0; i < TRANSITIONS.length; i++) {
+			if ((TRANSITIONS[i] & SET) == 0) {
+				throw new IllegalStateException("no transition for state " + (i / CLASSES) + " and class " + (i % CLASSES));
+			}
+
+			TRANSITIONS[i] &= ~SET;
+		}
+	}
+
+	private XMLScannerTable() {
+	}
+
+	/**
+	 * Returns the transition for the state and the character.
+	 * 
+	 * @param state
+	 *            the current state.
+	 * @param character
+	 *            the character, -1 for the end of the input.
+	 * @return the transition.
+	 */
+	static int getTransition(int state, int character) {
+		return TRANSITIONS[state * CLASSES + getCharacterClass(character)];
+	}
+
+	/**
+	 * @param transition
+	 *            the transition.
+	 * @return the state after the transition.
+	 */
+	static int getState(int transition) {
+		return transition & STATE_MASK;
+	}
+
+	/**
+	 * @param transition
+	 *            the transition.
+	 * @return true when the transition sets the token.
+	 */
+	static boolean hasToken(int transition) {
+		return ((transition >> TOKEN_SHIFT) & TOKEN_MASK) != NO_TOKEN;
+	}
+
+	/**
+	 * @param transition
+	 *            the transition.
+	 * @return the id of the token set by the transition, can be
+	 *         {@link XMLScanner#NO_TOKEN}.
+	 */
+	static int getTokenId(int transition) {
+		int token = (transition >> TOKEN_SHIFT) & TOKEN_MASK;
+
+		if (token == NULL_TOKEN) {
+			return XMLScanner.NO_TOKEN;
+		}
+
+		return token - 1;
+	}
+
+	/**
+	 * Returns the state to use at the start of a scan, the state after a
+	 * finished tag or content is the top level state.
+	 * 
+	 * @param state
+	 *            the state at the end of the last scan.
+	 * @return the state at the start of the next scan.
+	 */
+	static int getRestartState(int state) {
+		return RESTART[state];
+	}
+
+	/**
+	 * Returns true when the state is the end of the element content, a scan
+	 * that has not returned a token yet continues with the next tag.
+	 * 
+	 * @param state
+	 *            the state.
+	 * @return true when the content has ended.
+	 */
+	static boolean isContentEnd(int state) {
+		return state == CONTENT_DONE;
+	}
+
+	/**
+	 * @param state
+	 *            the state.
+	 * @return the event type of the state, 0 for the start or the end of the
+	 *         document.
+	 */
+	static int getEventType(int state) {
+		return EVENTS[state];
+	}
+
+	/**
+	 * @param state
+	 *            the state.
+	 * @return true when the state is at the end of an empty element tag.
+	 */
+	static boolean isEmptyElement(int state) {
+		return EMPTY[state];
+	}
+
+	private static int getCharacterClass(int character) {
+		if (character == -1) {
+			return EOF;
+		} else if (character < 128) {
+			return ASCII_CLASSES[character];
+		} else if (XMLChar.isNameStart(character)) {
+			return NAME_START;
+		} else if (XMLChar.isName(character)) {
+			return NAME;
+		} else if (XMLChar.isContent(character)) {
+			return CONTENT;
+		}
+
+		return OTHER;
+	}
+
+	private static void initClasses() {
+		for (int c = 0; c < 128; c++) {
+			if (XMLChar.isSpace(c)) {
+				ASCII_CLASSES[c] = SPACE;
+			} else if (XMLChar.isNameStart(c)) {
+				ASCII_CLASSES[c] = NAME_START;
+			} else if (XMLChar.isName(c)) {
+				ASCII_CLASSES[c] = NAME;
+			} else if (XMLChar.isContent(c)) {
+				ASCII_CLASSES[c] = CONTENT;
+			} else {
+				ASCII_CLASSES[c] = OTHER;
+			}
+		}
+
+		for (char c = '1'; c <= '8'; c++) {
+			ASCII_CLASSES[c] = DIGIT;
+		}
+
+		for (char c = 'a'; c <= 'f'; c++) {
+			ASCII_CLASSES[c] = HEX_LETTER;
+		}
+
+		ASCII_CLASSES['B'] = HEX_LETTER;
+		ASCII_CLASSES['E'] = HEX_LETTER;
+		ASCII_CLASSES['F'] = HEX_LETTER;
+
+		ASCII_CLASSES['<'] = LT;
+		ASCII_CLASSES['>'] = GT;
+		ASCII_CLASSES['/'] = SLASH;
+		ASCII_CLASSES['?'] = QUESTION;
+		ASCII_CLASSES['!'] = BANG;
+		ASCII_CLASSES['-'] = DASH;
+		ASCII_CLASSES['['] = OPEN_BRACKET;
+		ASCII_CLASSES[']'] = CLOSE_BRACKET;
+		ASCII_CLASSES['='] = EQUALS;
+		ASCII_CLASSES['"'] = DOUBLE_QUOTE;
+		ASCII_CLASSES['\''] = SINGLE_QUOTE;
+		ASCII_CLASSES['&'] = AMPERSAND;
+		ASCII_CLASSES['#'] = HASH;
+		ASCII_CLASSES[';'] = SEMICOLON;
+		ASCII_CLASSES[':'] = COLON;
+		ASCII_CLASSES['x'] = LOWER_X;
+		ASCII_CLASSES['m'] = LOWER_M;
+		ASCII_CLASSES['l'] = LOWER_L;
+		ASCII_CLASSES['n'] = LOWER_N;
+		ASCII_CLASSES['s'] = LOWER_S;
+		ASCII_CLASSES['C'] = UPPER_C;
+		ASCII_CLASSES['D'] = UPPER_D;
+		ASCII_CLASSES['A'] = UPPER_A;
+		ASCII_CLASSES['T'] = UPPER_T;
+	}
+
+	// The top level and the element content.
+	private static void initContent() {
+		on(TOP, mask(LT), READ, TAG_START);
+		on(TOP, CONTENT_CLASSES | mask(AMPERSAND), 0, CONTENT_BODY);
+		on(TOP, ALL_CLASSES, ERROR | STOP | token(NULL_TOKEN), TOP);
+
+		initContent(CONTENT_BODY, ENTITY_START[0]);
+		initContent(CONTENT_DONE, ENTITY_START[1]);
+	}
+
+	private static void initContent(int state, int entity) {
+		int value = token(XMLStyleConstants.ELEMENT_VALUE);
+
+		on(state, CONTENT_CLASSES, READ, state);
+		on(state, mask(AMPERSAND), RETURN | value, entity);
+		on(state, mask(LT, EOF), RETURN | value, CONTENT_DONE);
+		on(state, ALL_CLASSES, ERROR | READ, state);
+	}
+
+	// Anything that starts with a '<', a finished tag starts again.
+	private static void initTags() {
+		int special = token(XMLStyleConstants.SPECIAL);
+
+		int[] tags = { TAG_START, DECLARATION_DONE, COMMENT_DONE, CDATA_DONE, START_DONE, START_DONE_EMPTY, END_DONE };
+
+		for (int tag : tags) {
+			on(tag, mask(BANG), READ, BANG_START);
+			on(tag, mask(QUESTION), READ | RETURN | special, DECLARATION_START);
+			on(tag, mask(SLASH), READ | RETURN | special, END_NAME_FIRST);
+			on(tag, mask(GT), READ | RETURN | special, TAG_START);
+			on(tag, mask(LT), ERROR | RETURN | special, START_NAME_FIRST);
+			on(tag, ALL_CLASSES, RETURN | special, START_NAME_FIRST);
+		}
+
+		on(BANG_START, mask(DASH), READ, BANG_DASH);
+		on(BANG_START, ALL_CLASSES, 0, CDATA_START[0]);
+
+		on(BANG_DASH, mask(DASH), READ | RETURN | token(XMLStyleConstants.COMMENT), COMMENT_START);
+		on(BANG_DASH, ALL_CLASSES, 0, CDATA_START[0]);
+
+		int[] cdata = { OPEN_BRACKET, UPPER_C, UPPER_D, UPPER_A, UPPER_T, UPPER_A, OPEN_BRACKET };
+
+		for (int i = 0; i < cdata.length - 1; i++) {
+			on(CDATA_START[i], mask(cdata[i]), READ, CDATA_START[i + 1]);
+			on(CDATA_START[i], ALL_CLASSES, RETURN | special, DECLARATION_START);
+		}
+
+		on(CDATA_START[6], mask(cdata[6]), READ | RETURN | token(XMLStyleConstants.CDATA), CDATA_BEGIN);
+		on(CDATA_START[6], ALL_CLASSES, RETURN | special, DECLARATION_START);
+
+		// the first character is always part of the declaration.
+		on(DECLARATION_START, ALL_CLASSES, READ, DECLARATION_BODY);
+		on(DECLARATION_BODY, mask(EOF, GT), RETURN | token(XMLStyleConstants.ENTITY), DECLARATION_DONE);
+		on(DECLARATION_BODY, ALL_CLASSES, READ, DECLARATION_BODY);
+
+		initSection(COMMENT_START, COMMENT_BODY, COMMENT_DASH, COMMENT_DASHES, COMMENT_DONE, DASH, token(XMLStyleConstants.COMMENT));
+		initSection(CDATA_BEGIN, CDATA_BODY, CDATA_BRACKET, CDATA_BRACKETS, CDATA_DONE, CLOSE_BRACKET, token(XMLStyleConstants.CDATA));
+	}
+
+	// A comment or CDATA section that ends with two end characters and a '>'.
+	private static void initSection(int start, int body, int first, int second, int done, int end, int token) {
+		// the first character is always part of the section.
+		on(start, ALL_CLASSES, READ, body);
+
+		on(body, mask(EOF), RETURN | token, done);
+		on(body, mask(end), READ, first);
+		on(body, ALL_CLASSES, READ, body);
+
+		on(first, mask(end), READ, second);
+		on(first, ALL_CLASSES, 0, body);
+
+		on(second, mask(GT), READ | RETURN | token, done);
+		on(second, ALL_CLASSES, 0, body);
+	}
+
+	private static void initStartTag() {
+		int name = token(XMLStyleConstants.ELEMENT_NAME);
+
+		on(START_NAME_FIRST, NAME_START_CLASSES, READ, START_NAME[0]);
+		on(START_NAME_FIRST, mask(LT, EOF), ERROR | name, START_NEXT);
+		on(START_NAME_FIRST, ALL_CLASSES, ERROR | READ, START_NAME[0]);
+
+		on(START_NAME[0], mask(COLON), RETURN | token(XMLStyleConstants.ELEMENT_PREFIX), START_NAME[1]);
+		on(START_NAME[1], mask(COLON), READ | RETURN | token(XMLStyleConstants.SPECIAL), START_NAME_START);
+
+		for (int p = 0; p < 2; p++) {
+			on(START_NAME[p], NAME_CLASSES, READ, START_NAME[p]);
+			on(START_NAME[p], mask(SPACE, SLASH, GT), name, START_NEXT);
+			on(START_NAME[p], mask(LT, EOF), ERROR | name, START_NEXT);
+			on(START_NAME[p], ALL_CLASSES, ERROR | READ, START_NAME[p]);
+		}
+
+		on(START_NAME_START, NAME_START_CLASSES, READ, START_NAME[1]);
+		on(START_NAME_START, mask(LT, EOF), ERROR | name, START_NEXT);
+		on(START_NAME_START, ALL_CLASSES, ERROR | READ, START_NAME[1]);
+
+		// after a name, whitespace or attribute.
+		on(START_NEXT, mask(SLASH, GT), RETURN, START_TAG_END);
+		on(START_NEXT, mask(SPACE), RETURN, START_WHITESPACE);
+		on(START_NEXT, mask(LT), ERROR | RETURN, START_DONE);
+		on(START_NEXT, ALL_CLASSES, RETURN, ATTRIBUTE_FIRST[0]);
+
+		on(START_WHITESPACE, mask(SPACE), READ, START_WHITESPACE);
+		on(START_WHITESPACE, ALL_CLASSES, token(XMLStyleConstants.WHITESPACE), START_NEXT);
+
+		int special = token(XMLStyleConstants.SPECIAL);
+
+		on(START_TAG_END, mask(SLASH), READ, START_TAG_END_EMPTY);
+		on(START_TAG_END, mask(GT), READ | RETURN | special, START_DONE);
+		on(START_TAG_END, mask(LT, EOF), RETURN | special, START_DONE);
+		on(START_TAG_END, ALL_CLASSES, ERROR | READ, START_TAG_END);
+
+		on(START_TAG_END_EMPTY, mask(SLASH), READ, START_TAG_END_EMPTY);
+		on(START_TAG_END_EMPTY, mask(GT), READ | RETURN | special, START_DONE_EMPTY);
+		on(START_TAG_END_EMPTY, mask(LT, EOF), RETURN | special, START_DONE_EMPTY);
+		on(START_TAG_END_EMPTY, ALL_CLASSES, ERROR | READ, START_TAG_END_EMPTY);
+	}
+
+	// The attributes of a start tag, a '=' at the start of a scan is always
+	// part of the attribute.
+	private static void initAttributes() {
+		int special = token(XMLStyleConstants.SPECIAL);
+		int whitespace = token(XMLStyleConstants.WHITESPACE);
+		int[] xmlns = { LOWER_M, LOWER_L, LOWER_N, LOWER_S };
+
+		for (int fe = 0; fe < 2; fe++) {
+			on(ATTRIBUTE_FIRST[fe], mask(EQUALS), READ | RETURN | special, ATTRIBUTE_FIRST[1]);
+			on(ATTRIBUTE_FIRST[fe], mask(LOWER_X), READ, ATTRIBUTE_XMLNS[fe][0]);
+			on(ATTRIBUTE_FIRST[fe], NAME_START_CLASSES, 0, ATTRIBUTE_NAME[fe][0][0]);
+			on(ATTRIBUTE_FIRST[fe], mask(LT, EOF), ERROR | token(XMLStyleConstants.ATTRIBUTE_NAME), ATTRIBUTE_NEXT[fe][0]);
+			on(ATTRIBUTE_FIRST[fe], ALL_CLASSES, ERROR | READ, ATTRIBUTE_NAME[fe][0][0]);
+
+			for (int i = 0; i < 4; i++) {
+				int next = i < 3 ? ATTRIBUTE_XMLNS[fe][i + 1] : ATTRIBUTE_NAME[fe][0][1];
+
+				on(ATTRIBUTE_XMLNS[fe][i], mask(xmlns[i]), READ, next);
+				on(ATTRIBUTE_XMLNS[fe][i], ALL_CLASSES, 0, ATTRIBUTE_NAME[fe][0][0]);
+			}
+
+			for (int ns = 0; ns < 2; ns++) {
+				for (int p = 0; p < 2; p++) {
+					int state = ATTRIBUTE_NAME[fe][p][ns];
+					int name = getAttributeNameToken(p, ns);
+
+					if (p == 1) {
+						on(state, mask(COLON), READ | RETURN | special, ATTRIBUTE_NAME_START[fe][ns]);
+					} else if (ns == 1) {
+						on(state, mask(COLON), RETURN | token(XMLStyleConstants.NAMESPACE_NAME), ATTRIBUTE_NAME[fe][1][ns]);
+					} else {
+						on(state, mask(COLON), RETURN | token(XMLStyleConstants.ATTRIBUTE_PREFIX), ATTRIBUTE_NAME[fe][1][ns]);
+					}
+
+					on(state, mask(SPACE, EQUALS), name, ATTRIBUTE_NEXT[fe][ns]);
+					on(state, NAME_CLASSES, READ, state);
+					on(state, mask(LT, EOF), ERROR | name, ATTRIBUTE_NEXT[fe][ns]);
+					on(state, ALL_CLASSES, ERROR | READ, state);
+				}
+
+				int state = ATTRIBUTE_NAME_START[fe][ns];
+
+				on(state, mask(EQUALS), READ | RETURN | special, ATTRIBUTE_NAME_START[1][ns]);
+				on(state, NAME_START_CLASSES, READ, ATTRIBUTE_NAME[fe][1][ns]);
+				on(state, mask(LT, EOF), ERROR | getAttributeNameToken(1, ns), ATTRIBUTE_NEXT[fe][ns]);
+				on(state, ALL_CLASSES, ERROR | READ, ATTRIBUTE_NAME[fe][1][ns]);
+
+				// after the name or whitespace.
+				state = ATTRIBUTE_NEXT[fe][ns];
+
+				on(state, mask(SPACE), RETURN, ATTRIBUTE_WHITESPACE[fe][ns]);
+				on(state, mask(DOUBLE_QUOTE), (fe == 0 ? ERROR : 0) | RETURN, VALUE_START[ns][0]);
+				on(state, mask(SINGLE_QUOTE), (fe == 0 ? ERROR : 0) | RETURN, VALUE_START[ns][1]);
+				on(state, mask(EQUALS), RETURN, ATTRIBUTE_EQUALS[fe][ns]);
+				on(state, mask(SLASH, GT), ERROR | RETURN, START_TAG_END);
+				on(state, mask(LT), ERROR | RETURN, START_DONE);
+				on(state, ALL_CLASSES, ERROR | RETURN, ATTRIBUTE_FIRST[0]);
+
+				on(ATTRIBUTE_WHITESPACE[fe][ns], mask(SPACE), READ, ATTRIBUTE_WHITESPACE[fe][ns]);
+				on(ATTRIBUTE_WHITESPACE[fe][ns], ALL_CLASSES, whitespace, state);
+
+				on(ATTRIBUTE_EQUALS[fe][ns], mask(EQUALS), READ | special, ATTRIBUTE_NEXT[1][ns]);
+				on(ATTRIBUTE_EQUALS[fe][ns], ALL_CLASSES, 0, state);
+			}
+		}
+
+		int[] quotes = { DOUBLE_QUOTE, SINGLE_QUOTE };
+
+		for (int ns = 0; ns < 2; ns++) {
+			int value = token(ns == 1 ? XMLStyleConstants.NAMESPACE_VALUE : XMLStyleConstants.ATTRIBUTE_VALUE);
+
+			for (int q = 0; q < 2; q++) {
+				int body = VALUE_BODY[ns][q];
+
+				// the quote.
+				on(VALUE_START[ns][q], ALL_CLASSES, READ, body);
+
+				on(body, mask(quotes[q]), READ | value, START_NEXT);
+				on(body, CONTENT_CLASSES, READ, body);
+				on(body, mask(AMPERSAND), RETURN | value, ENTITY_START[2 + ns * 2 + q]);
+				on(body, mask(LT, EOF), ERROR | value, START_NEXT);
+				on(body, ALL_CLASSES, ERROR | READ, body);
+
+				// after an entity reference.
+				on(VALUE_NEXT[ns][q], mask(EQUALS), READ | RETURN | special, VALUE_NEXT[ns][q]);
+				on(VALUE_NEXT[ns][q], ALL_CLASSES, 0, body);
+			}
+		}
+	}
+
+	private static int getAttributeNameToken(int prefix, int namespace) {
+		if (namespace == 1 && prefix == 1) {
+			return token(XMLStyleConstants.NAMESPACE_PREFIX);
+		} else if (namespace == 1) {
+			return token(XMLStyleConstants.NAMESPACE_NAME);
+		}
+
+		return token(XMLStyleConstants.ATTRIBUTE_NAME);
+	}
+
+	// The end tag, a finished name or whitespace is scanned again when it is
+	// followed by an unexpected character.
+	private static void initEndTag() {
+		int name = token(XMLStyleConstants.ELEMENT_NAME);
+		int special = token(XMLStyleConstants.SPECIAL);
+
+		on(END_NAME_FIRST, NAME_START_CLASSES, READ, END_NAME[0][0]);
+		on(END_NAME_FIRST, mask(LT, EOF), ERROR | name, END_NEXT_NAME[0]);
+		on(END_NAME_FIRST, ALL_CLASSES, ERROR | READ, END_NAME[0][0]);
+
+		for (int f = 0; f < 2; f++) {
+			on(END_NAME[0][f], mask(COLON), (f == 0 ? RETURN : 0) | token(XMLStyleConstants.ELEMENT_PREFIX), f == 0 ? END_NAME[1][0] : END_NEXT_NAME[1]);
+			on(END_NAME[1][f], mask(COLON), READ | (f == 0 ? RETURN : 0) | special, f == 0 ? END_NAME_START[0] : END_NEXT_NAME_START);
+
+			for (int p = 0; p < 2; p++) {
+				on(END_NAME[p][f], NAME_CLASSES, READ, END_NAME[p][f]);
+				on(END_NAME[p][f], mask(SPACE, SLASH, GT), name, END_NEXT_NAME[p]);
+				on(END_NAME[p][f], mask(LT, EOF), ERROR | name, END_NEXT_NAME[p]);
+				on(END_NAME[p][f], ALL_CLASSES, ERROR | READ, END_NAME[p][f]);
+			}
+
+			on(END_NAME_START[f], NAME_START_CLASSES, READ, END_NAME[1][f]);
+			on(END_NAME_START[f], mask(LT, EOF), ERROR | name, END_NEXT_NAME[1]);
+			on(END_NAME_START[f], ALL_CLASSES, ERROR | READ, END_NAME[1][f]);
+		}
+
+		// after the name or whitespace, the state to scan again when the
+		// character is not expected.
+		initEndNext(END_NEXT_NAME[0], END_NAME[0][1]);
+		initEndNext(END_NEXT_NAME[1], END_NAME[1][1]);
+		initEndNext(END_NEXT_NAME_START, END_NAME_START[1]);
+		initEndNext(END_NEXT_WHITESPACE, END_WHITESPACE_AGAIN);
+
+		on(END_WHITESPACE, mask(SPACE), READ, END_WHITESPACE);
+		on(END_WHITESPACE, ALL_CLASSES, token(XMLStyleConstants.WHITESPACE), END_NEXT_WHITESPACE);
+
+		// the first character is always part of the whitespace.
+		on(END_WHITESPACE_AGAIN, ALL_CLASSES, READ, END_WHITESPACE);
+
+		on(END_TAG_END, mask(SLASH), READ, END_TAG_END);
+		on(END_TAG_END, mask(GT), READ | RETURN | special, END_DONE);
+		on(END_TAG_END, mask(LT, EOF), RETURN | special, END_DONE);
+		on(END_TAG_END, ALL_CLASSES, ERROR | READ, END_TAG_END);
+	}
+
+	private static void initEndNext(int state, int again) {
+		on(state, mask(GT), RETURN, END_TAG_END);
+		on(state, mask(SPACE), RETURN, END_WHITESPACE);
+		on(state, mask(LT, EOF), ERROR | RETURN, END_DONE);
+		on(state, ALL_CLASSES, ERROR | READ | RETURN, again);
+	}
+
+	private static void initEntities() {
+		int reference = token(XMLStyleConstants.ENTITY_REFERENCE);
+
+		for (int i = 0; i < ENTITY_CONTENTS; i++) {
+			int next;
+
+			if (i == 0) {
+				next = CONTENT_BODY;
+			} else if (i == 1) {
+				next = CONTENT_DONE;
+			} else {
+				next = VALUE_NEXT[(i - 2) / 2][(i - 2) % 2];
+			}
+
+			// the '&'.
+			on(ENTITY_START[i], ALL_CLASSES, READ, ENTITY_FIRST[i]);
+
+			on(ENTITY_FIRST[i], NAME_START_CLASSES, READ, ENTITY_NAME[i]);
+			on(ENTITY_FIRST[i], mask(HASH), READ, ENTITY_HASH[i]);
+			on(ENTITY_FIRST[i], mask(LT, EOF), ERROR | RETURN | reference, next);
+			on(ENTITY_FIRST[i], ALL_CLASSES, ERROR | READ, ENTITY_NAME[i]);
+
+			on(ENTITY_HASH[i], mask(LOWER_X), READ, ENTITY_HEXADECIMAL[i]);
+			on(ENTITY_HASH[i], ALL_CLASSES, 0, ENTITY_DECIMAL[i]);
+
+			initEntity(ENTITY_DECIMAL[i], mask(DIGIT), next);
+			initEntity(ENTITY_HEXADECIMAL[i], HEX_CLASSES, next);
+			initEntity(ENTITY_NAME[i], NAME_CLASSES, next);
+		}
+	}
+
+	private static void initEntity(int state, long classes, int next) {
+		int reference = token(XMLStyleConstants.ENTITY_REFERENCE);
+
+		on(state, classes, READ, state);
+		on(state, mask(SEMICOLON), READ | RETURN | reference, next);
+		on(state, mask(LT, EOF), ERROR | RETURN | reference, next);
+		on(state, ALL_CLASSES, ERROR | READ, state);
+	}
+
+	// Sets the transitions of the classes that have not been set yet, like
+	// the branches of an if-else statement.
+	private static void on(int state, long classes, int action, int next) {
+		if ((action & READ) != 0 && (action & ~READ) == 0 && next == state) {
+			action |= LOOP;
+		}
+
+		for (int c = 0; c < CLASSES; c++) {
+			int index = state * CLASSES + c;
+
+			if ((classes & (1L << c)) != 0 && (TRANSITIONS[index] & SET) == 0) {
+				TRANSITIONS[index] = SET | action | next;
+			}
+		}
+	}
+
+	private static int token(String token) {
+		for (int i = 0; i < XMLScanner.TOKENS.length; i++) {
+			if (XMLScanner.TOKENS[i] == token) {
+				return (i + 1) << TOKEN_SHIFT;
+			}
+		}
+
+		throw new IllegalArgumentException(token);
+	}
+
+	private static int token(int token) {
+		return token << TOKEN_SHIFT;
+	}
+
+	private static long mask(int... classes) {
+		long mask = 0;
+
+		for (int c : classes) {
+			mask |= 1L << c;
+		}
+
+		return mask;
+	}
+
+	private static int state(int event) {
+		int state = states++;
+
+		EVENTS[state] = event;
+		RESTART[state] = state;
+
+		return state;
+	}
+
+	// A state after a finished tag or content.
+	private static int done(int event) {
+		int state = state(event);
+
+		RESTART[state] = TOP;
+
+		return state;
+	}
+
+	private static int empty(int state) {
+		EMPTY[state] = true;
+
+		return state;
+	}
+}
@@ -29,14 +29,25 @@
 
 package org.bounce.text.xml;
 
+import java.awt.Component;
+import java.awt.Rectangle;
 import java.io.IOException;
 
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
 import javax.swing.text.StyleContext;
+import javax.swing.text.View;
 
+import org.bounce.text.BackgroundTokenizer;
+import org.bounce.text.ErrorMarkers;
+import org.bounce.text.LargeDocument;
 import org.bounce.text.SyntaxHighlightingScanner;
 import org.bounce.text.SyntaxHighlightingView;
+import org.bounce.text.TokenStyleTable;
 
 /**
  * The XML View uses the XML scanner to determine the style (font, color) of the
@@ -52,6 +63,21 @@ import org.bounce.text.SyntaxHighlightingView;
  * @version $Revision: 1.4 $, $Date: 2008/04/16 19:36:18 $
  */
 public class XMLView extends SyntaxHighlightingView {
+	// the property of the document with the shared tokenizer.
+	static final String TOKENIZER_ATTRIBUTE = "org.bounce.text.xml.XMLTokenizer";
+
+	private XMLErrorChecker checker = null;
+
+	private final ChangeListener checkerListener = new ChangeListener() {
+		public void stateChanged(ChangeEvent event) {
+			int offset = ((XMLErrorChecker) event.getSource()).getChangedOffset();
+
+			if (offset != Integer.MAX_VALUE) {
+				damageFrom(offset);
+			}
+		}
+	};
+
 	/**
 	 * Construct a colorized view of xml text for the element. Gets the current
 	 * document and creates a new Scanner object.
@@ -68,9 +94,145 @@ public class XMLView extends SyntaxHighlightingView {
 		super(scanner, context, elem);
 	}
 
-	// Update the scanner to point to the '<' begin token.
+	/**
+	 * Construct a colorized view of xml text for the element, using the
+	 * compiled fonts and colors of the style table.
+	 * 
+	 * @param scanner the scanner
+	 * @param styles
+	 *            the fonts and colors used to colorize the view.
+	 * @param elem
+	 *            the element to create the view for.
+	 * @throws IOException
+	 *             input/output exception while reading document
+	 */
+	public XMLView(XMLScanner scanner, TokenStyleTable styles, Element elem) throws IOException {
+		super(scanner, styles, elem);
+	}
+
+	/**
+	 * Scans the document in the background with an XML scanner, a
+	 * {@link LargeDocument} is only scanned while painting because the
+	 * tokenizer scans a copy of the document. A long document is scanned in
+	 * parts that start at a tag, see
+	 * {@link TagBoundaryIndex#findSafeOffsets(Document, int)}.
+	 * <p>
+	 * The views of a document share the tokenizer, it is kept as a property
+	 * of the document and scans the document while any of the views is in
+	 * the view hierarchy.
+	 * </p>
+	 * 
+	 * @see SyntaxHighlightingView#createTokenizer()
+	 */
+	protected BackgroundTokenizer createTokenizer() {
+		if (getDocument() instanceof LargeDocument) {
+			return null;
+		}
+
+		return getTokenizer(getDocument());
+	}
+
+	// Returns the tokenizer shared by the views of the document.
+	private static synchronized BackgroundTokenizer getTokenizer(Document document) {
+		BackgroundTokenizer tokenizer = (BackgroundTokenizer) document.getProperty(TOKENIZER_ATTRIBUTE);
+
+		if (tokenizer == null) {
+			tokenizer = new SharedTokenizer(document);
+			document.putProperty(TOKENIZER_ATTRIBUTE, tokenizer);
+		}
+
+		return tokenizer;
+	}
+
+	/**
+	 * Creates the checker of the well-formedness of the document, the views
+	 * of a document share the checker, see
+	 * {@link XMLErrorChecker#getInstance(Document)}. A {@link LargeDocument}
+	 * is not checked.
+	 * 
+	 * @return the error checker or null.
+	 */
+	protected XMLErrorChecker createErrorChecker() {
+		if (getDocument() instanceof LargeDocument) {
+			return null;
+		}
+
+		return XMLErrorChecker.getInstance(getDocument());
+	}
+
+	/**
+	 * Returns the markers of the last check of the document.
+	 * 
+	 * @see SyntaxHighlightingView#getErrorMarkers()
+	 */
+	protected ErrorMarkers getErrorMarkers() {
+		return checker != null ? checker.getMarkers() : null;
+	}
+
+	/**
+	 * Starts the error checker when the view is added to the view hierarchy
+	 * and stops it when the view is removed.
+	 * 
+	 * @see SyntaxHighlightingView#setParent(View)
+	 */
+	public void setParent(View parent) {
+		super.setParent(parent);
+
+		if (parent != null) {
+			if (checker == null) {
+				checker = createErrorChecker();
+
+				if (checker != null) {
+					checker.addChangeListener(checkerListener);
+					checker.start();
+				}
+			}
+		} else if (checker != null) {
+			checker.removeChangeListener(checkerListener);
+			checker.stop();
+			checker = null;
+		}
+	}
+
+	// Repaints the visible lines from the line that contains the offset.
+	private void damageFrom(int offset) {
+		Component container = getContainer();
+
+		if (container instanceof JTextComponent) {
+			JTextComponent editor = (JTextComponent) container;
+			Rectangle visible = editor.getVisibleRect();
+
+			try {
+				Rectangle start = editor.modelToView(Math.min(offset, getDocument().getLength()));
+
+				if (start != null) {
+					int y = Math.max(start.y, visible.y);
+
+					if (y < visible.y + visible.height) {
+						editor.repaint(visible.x, y, visible.width, visible.y + visible.height - y);
+					}
+
+					return;
+				}
+			} catch (BadLocationException e) {
+				// repaint everything.
+			}
+		}
+
+		if (container != null) {
+			container.repaint();
+		}
+	}
+
+	// Update the scanner to point to the token that contains the start.
 	protected void updateScanner(SyntaxHighlightingScanner scanner, Document doc, int start, int end) {
-		XMLViewUtilities.updateScanner(scanner, doc, start, end);
+		if (doc instanceof LargeDocument) {
+			// only reads the text before the painted lines.
+			XMLViewUtilities.updateScannerFromTag(scanner, doc, start, end);
+			return;
+		}
+
+		XMLViewUtilities.updateScanner(scanner, getCheckpoints(), doc, start, end);
 	}
 
 	@Override
@@ -83,4 +245,35 @@ public class XMLView extends SyntaxHighlightingView {
 
 		return false;
 	}
-}
\ No newline at end of file
+
+	// The XML tokenizer of a document, the tokenizer is started by every view
+	// that is added to the view hierarchy and stopped when the last of these
+	// views has been removed.
+	private static class SharedTokenizer extends BackgroundTokenizer {
+		private int users = 0;
+
+		SharedTokenizer(Document document) {
+			super(document);
+		}
+
+		protected SyntaxHighlightingScanner createScanner(Document document) throws IOException {
+			return new XMLScanner(document);
+		}
+
+		protected int[] getSafeOffsets(Document document, int interval) {
+			return TagBoundaryIndex.findSafeOffsets(document, interval);
+		}
+
+		public synchronized void start() {
+			if (users++ == 0) {
+				super.start();
+			}
+		}
+
+		public synchronized void stop() {
+			if (users > 0 && --users == 0) {
+				super.stop();
+			}
+		}
+	}
+}
\ No newline at end of file
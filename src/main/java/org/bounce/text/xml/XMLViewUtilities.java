@@ -33,7 +33,10 @@ import java.io.IOException;
 
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
 
+import org.bounce.text.ScannerCheckpoints;
 import org.bounce.text.SyntaxHighlightingScanner;
 
 /**
@@ -50,11 +53,17 @@ import org.bounce.text.SyntaxHighlightingScanner;
  * @version $Revision: 1.5 $, $Date: 2009/01/22 22:14:59 $
  */
 class XMLViewUtilities {
-	// Update the scanner to point to the '<' begin token.
+	private static final int TAG_SEARCH_LENGTH = 65536;
+
+	// the start and end of the sections that can contain a '<'.
+	private static final String[][] SECTIONS = { { "<!--", "-->" }, { "<![CDATA[", "]]>" }, { "<?", "?>" } };
+
+	// Update the scanner to point to the token that contains the start,
+	// scanning from the start of the tag before the start.
 	public static void updateScanner(SyntaxHighlightingScanner scanner, Document doc, int start, int end) {
 		try {
 			if (!scanner.isValid()) {
-				scanner.setRange(getTagEnd(doc, start), end);
+				scanner.setRange(TagBoundaryIndex.getInstance(doc).getSafeOffset(start), end);
 				scanner.setValid(true);
 			}
 
@@ -68,37 +77,123 @@ class XMLViewUtilities {
 		}
 	}
 
-	// Return the end position of the current tag.
-	private static int getTagEnd(Document doc, int p) {
-		int elementEnd = 0;
-
-		if (p > 0) {
-			try {
-				int index;
-
-				String s = doc.getText(0, p);
-				int cdataStart = s.lastIndexOf("<![CDATA[");
-
-				if (cdataStart > 0 && cdataStart > s.lastIndexOf("]]>")) {
- 					index = s.lastIndexOf(">", cdataStart);
- 				} else {
-					int commentStart = s.lastIndexOf("<!--");
-
-					if (commentStart > 0 && commentStart > s.lastIndexOf("-->")) {
-						index = s.lastIndexOf(">", commentStart);
-					} else {
-						index = s.lastIndexOf(">");
- 					}
- 				}
- 				
-				if (index != -1) {
-					elementEnd = index;
+	// Update the scanner to point to the token that contains the start,
+	// scanning from the last tag, comment, CDATA section or processing
+	// instruction in the text before the start. Only this text is read, the
+	// tokens can be wrong when the start is in a section that starts more than
+	// TAG_SEARCH_LENGTH characters before the start.
+	public static void updateScannerFromTag(SyntaxHighlightingScanner scanner, Document doc, int start, int end) {
+		try {
+			if (!scanner.isValid()) {
+				scanner.setRange(getTagOffset(doc, start), end);
+				scanner.setValid(true);
+			}
+
+			int offset = scanner.getEndOffset();
+
+			while (offset <= start && end > offset) {
+				scanner.scan();
+
+				if (scanner.getEndOffset() <= offset) {
+					// the scanner cannot make any progress.
+					break;
 				}
-			} catch (BadLocationException bl) {
-				// empty
+
+				offset = scanner.getEndOffset();
+			}
+		} catch (BadLocationException e) {
+			// can't adjust scanner... calling logic
+			// will simply render the remaining text.
+		} catch (IOException e) {
+			// can't adjust scanner... calling logic
+			// will simply render the remaining text.
+		}
+	}
+
+	// Returns the offset of the start of the section that contains the offset,
+	// or else of the last '<' after the last section in the text before the
+	// offset, or the end of that section when there is no '<' after it, or the
+	// offset when there is no section and no '<'.
+	private static int getTagOffset(Document doc, int offset) throws BadLocationException {
+		int start = Math.max(0, offset - TAG_SEARCH_LENGTH);
+		Segment segment = new Segment();
+		doc.getText(start, offset - start, segment);
+
+		String text = segment.toString();
+		int[] opens = new int[SECTIONS.length];
+		int[] closes = new int[SECTIONS.length];
+
+		for (int i = 0; i < SECTIONS.length; i++) {
+			opens[i] = text.lastIndexOf(SECTIONS[i][0]);
+			closes[i] = text.lastIndexOf(SECTIONS[i][1]);
+		}
+
+		int open = -1;
+		int end = -1;
+
+		for (int i = 0; i < SECTIONS.length; i++) {
+			if (opens[i] != -1 && opens[i] > closes[i] && !isInSection(opens[i], opens, closes)) {
+				// the first open section contains the sections after it.
+				open = open == -1 ? opens[i] : Math.min(open, opens[i]);
+			} else if (closes[i] != -1) {
+				end = Math.max(end, closes[i] + SECTIONS[i][1].length());
+			}
+		}
+
+		if (open != -1) {
+			return start + open;
+		}
+
+		int tag = text.lastIndexOf('<');
+
+		if (tag != -1 && tag >= end) {
+			return start + tag;
+		} else if (end != -1) {
+			return start + end;
+		}
+
+		return offset;
+	}
+
+	// Returns true when the index is inside a section that has been closed.
+	private static boolean isInSection(int index, int[] opens, int[] closes) {
+		for (int i = 0; i < opens.length; i++) {
+			if (opens[i] != -1 && opens[i] < index && closes[i] > index) {
+				return true;
 			}
 		}
 
-		return elementEnd;
+		return false;
+	}
+
+	// Update the scanner to point to the token that contains the start, using
+	// the line checkpoints when the scanner has to be repositioned.
+	public static void updateScanner(SyntaxHighlightingScanner scanner, ScannerCheckpoints checkpoints, Document doc, int start, int end) {
+		try {
+			Element root = doc.getDefaultRootElement();
+			int line = root.getElementIndex(start);
+
+			// also reposition when lines have been skipped (folded).
+			if (!scanner.isValid() || scanner.getEndOffset() < root.getElement(line).getStartOffset()) {
+				checkpoints.restore(line);
+				scanner.setValid(true);
+			}
+
+			int offset = scanner.getEndOffset();
+
+			while (offset <= start && end > offset) {
+				scanner.scan();
+
+				if (scanner.getEndOffset() <= offset) {
+					// the scanner cannot make any progress.
+					break;
+				}
+
+				offset = scanner.getEndOffset();
+			}
+		} catch (IOException e) {
+			// can't adjust scanner... calling logic
+			// will simply render the remaining text.
+		}
 	}
 }
\ No newline at end of file
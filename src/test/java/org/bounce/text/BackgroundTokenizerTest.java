@@ -0,0 +1,371 @@
+package org.bounce.text;
+
+import java.io.IOException;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+
+import junit.framework.TestCase;
+
+import org.bounce.text.xml.TagBoundaryIndex;
+import org.bounce.text.xml.XMLScanner;
+
+public class BackgroundTokenizerTest extends TestCase {
+	private static final String XML =
+		"<?xml version=\"1.0\"?>\n" +
+		"<test xmlns=\"test.xml\">\n" +
+		"  <child name=\"name1\">text &amp; text</child>\n" +
+		"  <!--This is a\n multiline\n Comment -->\n" +
+		"  <cdata><![CDATA[cdata\n <element>]]></cdata>\n" +
+		"</test>\n";
+
+	public void testSpans() throws Exception {
+		final PlainDocument doc = new PlainDocument();
+		doc.insertString(0, XML, null);
+
+		final BackgroundTokenizer tokenizer = createTokenizer(doc);
+		start(tokenizer, 6);
+
+		assertSpans(doc, tokenizer, 0);
+
+		// the changed line and the following lines are not covered, on the
+		// event dispatch thread so no new spans can be published in between.
+		final Exception[] exception = new Exception[1];
+
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				try {
+					doc.insertString(XML.indexOf("<!--"), "<!--", null);
+				} catch (Exception e) {
+					exception[0] = e;
+				}
+
+				assertNull(tokenizer.getSpans(3));
+				assertNotNull(tokenizer.getSpans(2));
+			}
+		});
+
+		assertNull(exception[0]);
+
+		waitForSpans(tokenizer, 6);
+		assertSpans(doc, tokenizer, 0);
+
+		tokenizer.stop();
+		assertNull(tokenizer.getSpans(0));
+	}
+
+	// A change rescans the lines up to the line where the state converges,
+	// the spans of the following lines are reused.
+	public void testIncremental() throws Exception {
+		final PlainDocument doc = new PlainDocument();
+		doc.insertString(0, createLargeXML(), null);
+
+		int lines = doc.getDefaultRootElement().getElementCount();
+		BackgroundTokenizer tokenizer = createTokenizer(doc);
+		start(tokenizer, lines - 1);
+
+		TokenSpans tail = tokenizer.getSpans(lines - 10);
+
+		edit(doc, tokenizer, "<a b='c'>", doc.getDefaultRootElement().getElement(200).getStartOffset() + 2);
+		assertSame(tail, tokenizer.getSpans(lines - 10));
+		assertSpans(doc, tokenizer);
+
+		edit(doc, tokenizer, "<x>\n</x>\n", doc.getDefaultRootElement().getElement(300).getStartOffset());
+		assertSame(tail, tokenizer.getSpans(lines - 8));
+		assertSpans(doc, tokenizer);
+
+		// the comment changes all following lines, until it is closed.
+		int offset = doc.getDefaultRootElement().getElement(400).getStartOffset();
+
+		edit(doc, tokenizer, "<!--", offset);
+		assertSpans(doc, tokenizer);
+
+		edit(doc, tokenizer, "-->", offset + 4);
+		assertSpans(doc, tokenizer);
+
+		// two changes before the next scan.
+		final Element root = doc.getDefaultRootElement();
+
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				try {
+					doc.insertString(root.getElement(500).getStartOffset(), "<y/>\n", null);
+					doc.remove(root.getElement(100).getStartOffset(), 3);
+				} catch (BadLocationException e) {
+					fail(e.getMessage());
+				}
+			}
+		});
+
+		waitForSpans(tokenizer, root.getElementCount() - 1);
+		assertSame(tail, tokenizer.getSpans(lines - 7));
+		assertSpans(doc, tokenizer);
+
+		tokenizer.stop();
+	}
+
+	public void testParallel() throws Exception {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, createLargeXML(), null);
+
+		System.setProperty(BackgroundTokenizer.PARALLEL_PROPERTY, "0");
+
+		try {
+			BackgroundTokenizer tokenizer = new BackgroundTokenizer(doc) {
+				protected SyntaxHighlightingScanner createScanner(Document document) throws IOException {
+					return new XMLScanner(document);
+				}
+
+				protected int[] getSafeOffsets(Document document, int interval) {
+					return TagBoundaryIndex.findSafeOffsets(document, 1000);
+				}
+			};
+
+			start(tokenizer, doc.getDefaultRootElement().getElementCount() - 1);
+			assertSpans(doc, tokenizer, 0);
+			tokenizer.stop();
+		} finally {
+			System.getProperties().remove(BackgroundTokenizer.PARALLEL_PROPERTY);
+		}
+	}
+
+	// The parts that do not start at a safe offset are scanned again.
+	public void testParallelWrongOffsets() throws Exception {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, createLargeXML(), null);
+
+		System.setProperty(BackgroundTokenizer.PARALLEL_PROPERTY, "0");
+
+		try {
+			BackgroundTokenizer tokenizer = new BackgroundTokenizer(doc) {
+				protected SyntaxHighlightingScanner createScanner(Document document) throws IOException {
+					return new XMLScanner(document);
+				}
+
+				protected int[] getSafeOffsets(Document document, int interval) {
+					int[] offsets = new int[document.getLength() / 997];
+
+					for (int i = 0; i < offsets.length; i++) {
+						offsets[i] = i * 997;
+					}
+
+					return offsets;
+				}
+			};
+
+			start(tokenizer, doc.getDefaultRootElement().getElementCount() - 1);
+			assertSpans(doc, tokenizer, 0);
+			tokenizer.stop();
+		} finally {
+			System.getProperties().remove(BackgroundTokenizer.PARALLEL_PROPERTY);
+		}
+	}
+
+	// A scanner without a lexical state is not restarted at a checkpoint, the
+	// document is scanned again from the start.
+	public void testScannerWithoutState() throws Exception {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, "one two\nthree\n", null);
+
+		BackgroundTokenizer tokenizer = new BackgroundTokenizer(doc) {
+			protected SyntaxHighlightingScanner createScanner(Document document) throws IOException {
+				return new WordScanner(document);
+			}
+		};
+
+		start(tokenizer, 2);
+		edit(doc, tokenizer, "four ", doc.getText(0, doc.getLength()).indexOf("three"));
+
+		TokenSpans spans = tokenizer.getSpans(1);
+		int[] starts = { 0, 4, 5 };
+		int[] lengths = { 4, 1, 5 };
+		int[] ids = { 0, 1, 0 };
+
+		for (int i = 0; i < starts.length; i++) {
+			assertEquals("start of " + i, starts[i], spans.getStart(i));
+			assertEquals("length of " + i, lengths[i], spans.getLength(i));
+			assertEquals("id of " + i, ids[i], spans.getTokenId(i));
+		}
+
+		tokenizer.stop();
+	}
+
+	// Inserts the text on the event dispatch thread and waits for the spans
+	// of all lines.
+	private static void edit(final Document doc, BackgroundTokenizer tokenizer, final String text, final int offset) throws Exception {
+		final Exception[] exception = new Exception[1];
+
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				try {
+					doc.insertString(offset, text, null);
+				} catch (Exception e) {
+					exception[0] = e;
+				}
+			}
+		});
+
+		assertNull(exception[0]);
+		waitForSpans(tokenizer, doc.getDefaultRootElement().getElementCount() - 1);
+	}
+
+	// Compares the spans with the spans of a new tokenizer.
+	private static void assertSpans(Document doc, BackgroundTokenizer tokenizer) throws Exception {
+		int lines = doc.getDefaultRootElement().getElementCount();
+		BackgroundTokenizer expected = createTokenizer(doc);
+		start(expected, lines - 1);
+
+		for (int i = 0; i < lines; i++) {
+			TokenSpans spans = tokenizer.getSpans(i);
+			TokenSpans expectedSpans = expected.getSpans(i);
+
+			assertNotNull("spans of line " + i, spans);
+			assertEquals("spans of line " + i, expectedSpans.getCount(), spans.getCount());
+
+			for (int j = 0; j < spans.getCount(); j++) {
+				assertEquals(expectedSpans.getStart(j), spans.getStart(j));
+				assertEquals(expectedSpans.getLength(j), spans.getLength(j));
+				assertEquals(expectedSpans.getTokenId(j), spans.getTokenId(j));
+				assertEquals(expectedSpans.isError(j), spans.isError(j));
+			}
+		}
+
+		expected.stop();
+	}
+
+	private static String createLargeXML() {
+		StringBuilder text = new StringBuilder("<?xml version=\"1.0\"?>\n<!DOCTYPE test [\n<!ELEMENT test ANY>\n]>\n<test>\n");
+
+		for (int i = 0; text.length() < 50000; i++) {
+			text.append("  <child name=\"name").append(i).append("\" value='a < b'>text &amp; text</child>\n");
+
+			if (i % 7 == 0) {
+				text.append("  <!--\n  <child>commented</child>\n  -->\n");
+			}
+
+			if (i % 11 == 0) {
+				text.append("  <cdata><![CDATA[\n  <child>cdata</child>\n  ]]></cdata>\n");
+			}
+
+			if (i % 13 == 0) {
+				text.append("  <?pi <child>instruction</child> ?>\n");
+			}
+		}
+
+		return text.append("</test>\n").toString();
+	}
+
+	// Compares the spans with the tokens found by a scanner.
+	private static void assertSpans(Document doc, BackgroundTokenizer tokenizer, int line) throws IOException {
+		XMLScanner scanner = new XMLScanner(doc);
+		scanner.setRange(0, doc.getLength());
+
+		Element root = doc.getDefaultRootElement();
+
+		for (int i = line; i < root.getElementCount(); i++) {
+			TokenSpans spans = tokenizer.getSpans(i);
+			int start = root.getElement(i).getStartOffset();
+
+			assertNotNull("spans of line " + i, spans);
+
+			for (int j = 0; j < spans.getCount(); j++) {
+				while (scanner.getEndOffset() <= start + spans.getStart(j)) {
+					scanner.scan();
+				}
+
+				assertEquals(scanner.getTokenId(), spans.getTokenId(j));
+				assertEquals(scanner.isError(), spans.isError(j));
+				assertTrue(scanner.getStartOffset() <= start + spans.getStart(j));
+				assertTrue(scanner.getEndOffset() >= start + spans.getStart(j) + spans.getLength(j));
+			}
+		}
+	}
+
+	// Returns words and the text between words, only sets the token.
+	private static class WordScanner extends SyntaxHighlightingScanner {
+		private static final String[] TOKENS = { "word", "other" };
+
+		WordScanner(Document document) throws IOException {
+			super(document);
+		}
+
+		public String[] getTokens() {
+			return TOKENS;
+		}
+
+		public long scan() throws IOException {
+			int character = in.getLastChar();
+			long last = pos;
+			pos = in.pos;
+
+			if (character == -1) {
+				token = null;
+				return last;
+			}
+
+			boolean word = Character.isLetter(character);
+			token = word ? "word" : "other";
+
+			while (character != -1 && Character.isLetter(character) == word) {
+				character = in.read();
+			}
+
+			return last;
+		}
+	}
+
+	private static BackgroundTokenizer createTokenizer(Document doc) {
+		return new BackgroundTokenizer(doc) {
+			protected SyntaxHighlightingScanner createScanner(Document document) throws IOException {
+				return new XMLScanner(document);
+			}
+		};
+	}
+
+	private static void start(BackgroundTokenizer tokenizer, int line) throws Exception {
+		tokenizer.start();
+		waitForSpans(tokenizer, line);
+	}
+
+	// Waits until the tokenizer has published the spans of the line.
+	private static void waitForSpans(final BackgroundTokenizer tokenizer, int line) throws Exception {
+		final Object lock = new Object();
+
+		ChangeListener listener = new ChangeListener() {
+			public void stateChanged(ChangeEvent event) {
+				synchronized (lock) {
+					lock.notifyAll();
+				}
+			}
+		};
+
+		tokenizer.addChangeListener(listener);
+
+		long timeout = System.currentTimeMillis() + 10000;
+
+		while (!isCovered(tokenizer, line) && System.currentTimeMillis() < timeout) {
+			synchronized (lock) {
+				lock.wait(100);
+			}
+		}
+
+		tokenizer.removeChangeListener(listener);
+	}
+
+	private static boolean isCovered(final BackgroundTokenizer tokenizer, final int line) throws Exception {
+		final boolean[] covered = new boolean[1];
+
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				covered[0] = tokenizer.getSpans(0) != null && tokenizer.getSpans(line) != null;
+			}
+		});
+
+		return covered[0];
+	}
+}
@@ -0,0 +1,128 @@
+package org.bounce.text;
+
+import java.io.IOException;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+
+import junit.framework.TestCase;
+
+public class DocumentInputReaderTest extends TestCase {
+	private static final String TEXT = "<test>\n  <!-- a comment -->\r\n  <child>text</child>\r  <![CDATA[ ]]>\n</test>\n";
+
+	private PlainDocument document = null;
+
+	protected void setUp() throws BadLocationException {
+		document = new PlainDocument();
+		document.insertString(0, TEXT, null);
+
+		// moves the gap of the content to the middle of the text.
+		document.insertString(30, "x", null);
+		document.remove(30, 1);
+	}
+
+	public void testRead() throws IOException {
+		DocumentInputReader in = new DocumentInputReader(document);
+		in.setRange(0, document.getLength());
+
+		StringBuilder text = new StringBuilder();
+		int character = in.read();
+
+		while (character != -1) {
+			text.append((char) character);
+			character = in.read();
+		}
+
+		assertEquals(TEXT.replace("\r\n", "\n").replace('\r', '\n'), text.toString());
+		assertEquals(6, (int) (in.pos >>> 32));
+	}
+
+	public void testReadRange() throws IOException {
+		DocumentInputReader in = new DocumentInputReader(document);
+		in.setRange(9, 29);
+
+		char[] chars = new char[64];
+		assertEquals(19, in.read(chars, 0, 64));
+		assertEquals("<!-- a comment -->\n", new String(chars, 0, 19));
+		assertEquals(-1, in.read(chars, 0, 64));
+	}
+
+	public void testBulkRead() throws IOException {
+		DocumentInputReader in = new DocumentInputReader(document);
+		DocumentInputReader expected = new DocumentInputReader(document);
+		in.setRange(0, document.getLength());
+		expected.setRange(0, document.getLength());
+
+		char[] chars = new char[5];
+		int count = in.read(chars, 0, 5);
+
+		while (count != -1) {
+			for (int i = 0; i < count; i++) {
+				assertEquals(expected.read(), chars[i]);
+			}
+
+			if (in.getLastChar() != -1) {
+				assertEquals(expected.pos, in.pos);
+			}
+
+			count = in.read(chars, 0, 5);
+		}
+
+		assertEquals(-1, expected.read());
+	}
+
+	public void testReadUntil() throws IOException {
+		DocumentInputReader in = new DocumentInputReader(document);
+		DocumentInputReader expected = new DocumentInputReader(document);
+		in.setRange(0, document.getLength());
+		expected.setRange(0, document.getLength());
+
+		int character = in.readUntil('>');
+
+		while (character != -1) {
+			int c = expected.read();
+
+			while (c != '>' && c != -1) {
+				c = expected.read();
+			}
+
+			assertEquals(c, character);
+			assertEquals(expected.pos, in.pos);
+			assertEquals(expected.getLastChar(), in.getLastChar());
+
+			character = in.readUntil('>');
+		}
+	}
+
+	public void testAdvance() throws IOException {
+		DocumentInputReader in = new DocumentInputReader(document);
+		DocumentInputReader expected = new DocumentInputReader(document);
+		in.setRange(0, document.getLength());
+		expected.setRange(0, document.getLength());
+
+		in.read();
+		expected.read();
+
+		while (in.getLastChar() != -1) {
+			int count = 0;
+
+			while (in.getIndex() + count < in.getLimit() && count < 3 && in.getBuffer()[in.getIndex() + count] != '\r') {
+				count++;
+			}
+
+			if (count > 0) {
+				in.advance(count);
+
+				for (int i = 0; i < count; i++) {
+					expected.read();
+				}
+			} else {
+				in.read();
+				expected.read();
+			}
+
+			assertEquals(expected.getLastChar(), in.getLastChar());
+			assertEquals(expected.pos, in.pos);
+		}
+	}
+}
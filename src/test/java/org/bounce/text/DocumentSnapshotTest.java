@@ -0,0 +1,94 @@
+package org.bounce.text;
+
+import java.util.Random;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+
+import junit.framework.TestCase;
+
+public class DocumentSnapshotTest extends TestCase {
+	private static final String XML =
+		"<?xml version=\"1.0\"?>\n" +
+		"<test>\n" +
+		"  <child name=\"name1\">text &amp; text</child>\n" +
+		"  <!--This is a\n multiline\n Comment -->\n" +
+		"</test>\n";
+
+	public void testSnapshot() throws BadLocationException {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, XML, null);
+
+		DocumentSnapshot snapshot = DocumentSnapshot.create(doc);
+		assertSnapshot(doc, snapshot);
+		assertFalse(snapshot.isStale());
+
+		// the document has not changed.
+		assertSame(snapshot, DocumentSnapshot.create(doc));
+
+		doc.insertString(XML.indexOf("text"), "more ", null);
+		assertTrue(snapshot.isStale());
+		assertEquals(XML, snapshot.getText(0, snapshot.getLength()));
+
+		DocumentSnapshot next = DocumentSnapshot.create(doc);
+		assertSnapshot(doc, next);
+		assertFalse(next.isStale());
+		assertEquals(DocumentSnapshot.getVersion(doc), next.getVersion());
+
+		try {
+			next.insertString(0, "<", null);
+			fail("read-only");
+		} catch (BadLocationException e) {
+			// expected
+		}
+	}
+
+	public void testEdits() throws BadLocationException {
+		Random random = new Random(24);
+
+		for (int run = 0; run < 2; run++) {
+			PlainDocument doc = run == 0 ? new PlainDocument() : new PlainDocument(new PieceTableContent());
+			doc.insertString(0, XML, null);
+
+			for (int i = 0; i < 500; i++) {
+				int length = doc.getLength();
+				int offset = random.nextInt(length + 1);
+
+				if (random.nextBoolean() || length == 0) {
+					doc.insertString(offset, random.nextBoolean() ? "\n" : "<a>\nb", null);
+				} else {
+					doc.remove(offset, Math.min(random.nextInt(8), length - offset));
+				}
+
+				if (random.nextInt(3) == 0) {
+					assertSnapshot(doc, DocumentSnapshot.create(doc));
+				}
+			}
+		}
+	}
+
+	private static void assertSnapshot(PlainDocument doc, DocumentSnapshot snapshot) throws BadLocationException {
+		String text = doc.getText(0, doc.getLength());
+
+		assertEquals(text, snapshot.getText(0, snapshot.getLength()));
+
+		for (int i = 0; i < text.length(); i++) {
+			assertEquals(text.charAt(i), snapshot.charAt(i));
+		}
+
+		Element expected = doc.getDefaultRootElement();
+		Element actual = snapshot.getDefaultRootElement();
+
+		assertEquals(expected.getElementCount(), actual.getElementCount());
+
+		for (int i = 0; i < expected.getElementCount(); i++) {
+			assertEquals(expected.getElement(i).getStartOffset(), actual.getElement(i).getStartOffset());
+			assertEquals(expected.getElement(i).getEndOffset(), actual.getElement(i).getEndOffset());
+		}
+
+		for (int offset = 0; offset <= text.length() + 1; offset++) {
+			assertEquals(expected.getElementIndex(offset), actual.getElementIndex(offset));
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package org.bounce.text;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+
+import junit.framework.TestCase;
+
+public class FoldIndexTest extends TestCase {
+	public void testEmpty() {
+		FoldIndex index = new FoldIndex();
+
+		assertEquals("hidden", 0, index.getHiddenCount());
+		assertEquals("line", 1000, index.getLine(1000));
+		assertEquals("row", 1000, index.getRow(1000));
+	}
+
+	// Compares the index with the conversions over the list of folds.
+	public void testRandom() throws BadLocationException {
+		PlainDocument doc = new PlainDocument();
+		StringBuilder text = new StringBuilder();
+
+		for (int i = 0; i < 500; i++) {
+			text.append("line ").append(i).append('\n');
+		}
+
+		doc.insertString(0, text.toString(), null);
+
+		Element root = doc.getDefaultRootElement();
+		Random random = new Random(5);
+		FoldIndex index = new FoldIndex();
+		List<Fold> folds = new ArrayList<Fold>();
+
+		for (int i = 0; i < 500; i++) {
+			if (folds.isEmpty() || random.nextInt(3) > 0) {
+				int start = random.nextInt(root.getElementCount() - 1);
+				int end = start + 1 + random.nextInt(Math.min(60, root.getElementCount() - start - 1));
+				Fold fold = new Fold(root.getElement(start), root.getElement(end));
+
+				if (add(folds, fold)) {
+					index.add(fold);
+				}
+			} else {
+				index.remove(folds.remove(random.nextInt(folds.size())));
+			}
+
+			int hidden = 0;
+
+			for (Fold fold : folds) {
+				hidden += fold.getEnd() - fold.getStart() - 1;
+			}
+
+			assertEquals("hidden", hidden, index.getHiddenCount());
+
+			for (int row = 0; row < root.getElementCount() - hidden + 10; row++) {
+				int line = getLine(folds, row);
+
+				assertEquals("line of row " + row, line, index.getLine(row));
+				assertEquals("row of line " + line, row, index.getRow(line));
+			}
+		}
+	}
+
+	// Adds the fold when it does not overlap the other folds.
+	private static boolean add(List<Fold> folds, Fold fold) {
+		for (int i = 0; i < folds.size(); i++) {
+			Fold other = folds.get(i);
+
+			if (other.getStart() >= fold.getEnd()) {
+				folds.add(i, fold);
+				return true;
+			} else if (other.getEnd() > fold.getStart()) {
+				return false;
+			}
+		}
+
+		folds.add(fold);
+		return true;
+	}
+
+	private static int getLine(List<Fold> folds, int row) {
+		for (Fold fold : folds) {
+			if (fold.getStart() < row) {
+				row = row + ((fold.getEnd() - fold.getStart()) - 1);
+			} else {
+				break;
+			}
+		}
+
+		return row;
+	}
+}
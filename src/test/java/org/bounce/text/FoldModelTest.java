@@ -0,0 +1,253 @@
+package org.bounce.text;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+
+import junit.framework.TestCase;
+
+public class FoldModelTest extends TestCase {
+	private PlainDocument doc;
+	private Element root;
+
+	protected void setUp() throws Exception {
+		doc = new PlainDocument();
+		StringBuilder text = new StringBuilder();
+
+		for (int i = 0; i < 300; i++) {
+			text.append("line ").append(i).append('\n');
+		}
+
+		doc.insertString(0, text.toString(), null);
+		root = doc.getDefaultRootElement();
+	}
+
+	public void testNesting() {
+		FoldModel model = new FoldModel();
+
+		assertTrue(model.fold(fold(20, 30)));
+		assertTrue(model.fold(fold(40, 50)));
+		assertEquals("hidden", 18, model.getIndex().getHiddenCount());
+
+		// the outer fold takes the folds inside as children.
+		assertTrue(model.fold(fold(10, 60)));
+		assertEquals("folds", 1, model.getFolds().size());
+		assertEquals("hidden", 49, model.getIndex().getHiddenCount());
+		assertEquals("fold", 10, model.getFold(25).getStart());
+		assertNull("start not hidden", model.getFold(10));
+		assertNull("end not hidden", model.getFold(60));
+
+		// the same start line is ignored.
+		assertFalse(model.fold(fold(10, 20)));
+
+		// unfolding a line inside a child removes the child as well.
+		assertTrue(model.unfold(25));
+		assertEquals("folds", 1, model.getFolds().size());
+		assertEquals("fold", 40, model.getFold(45).getStart());
+		assertNull(model.getFold(25));
+		assertEquals("hidden", 9, model.getIndex().getHiddenCount());
+
+		assertFalse(model.unfold(25));
+	}
+
+	public void testUpdate() throws BadLocationException {
+		final FoldModel model = new FoldModel();
+
+		model.fold(fold(20, 30));
+		model.fold(fold(40, 50));
+
+		doc.addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent event) {
+				model.update(event);
+			}
+
+			public void removeUpdate(DocumentEvent event) {
+				model.update(event);
+			}
+
+			public void changedUpdate(DocumentEvent event) {}
+		});
+
+		// lines before the folds move the hidden lines.
+		doc.insertString(root.getElement(5).getStartOffset(), "a\nb\n", null);
+
+		assertEquals("fold", 22, model.getFold(25).getStart());
+		assertEquals("row", 23, model.getIndex().getRow(32));
+		assertEquals("line", 32, model.getIndex().getLine(23));
+
+		// a line removed inside a fold removes the fold.
+		doc.remove(root.getElement(25).getStartOffset(), root.getElement(25).getEndOffset() - root.getElement(25).getStartOffset());
+
+		assertEquals("folds", 1, model.getFolds().size());
+		assertEquals("hidden", 9, model.getIndex().getHiddenCount());
+		assertEquals("fold", 41, model.getFold(45).getStart());
+		assertEquals("row", 43, model.getIndex().getRow(52));
+	}
+
+	// Adds and removes lines around random folds, the index has to follow the
+	// folds that remain.
+	public void testEdits() throws BadLocationException {
+		final FoldModel model = new FoldModel();
+		Random random = new Random(7);
+
+		doc.addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent event) {
+				model.update(event);
+			}
+
+			public void removeUpdate(DocumentEvent event) {
+				model.update(event);
+			}
+
+			public void changedUpdate(DocumentEvent event) {}
+		});
+
+		for (int i = 0; i < 30; i++) {
+			model.fold(randomFold(random));
+		}
+
+		for (int i = 0; i < 200; i++) {
+			int line = random.nextInt(root.getElementCount() - 1);
+
+			if (random.nextBoolean()) {
+				doc.insertString(root.getElement(line).getStartOffset() + random.nextInt(3), "x\ny\n", null);
+			} else {
+				int end = Math.min(root.getElementCount() - 1, line + random.nextInt(4));
+				int offset = root.getElement(line).getStartOffset() + random.nextInt(3);
+
+				doc.remove(offset, root.getElement(end).getStartOffset() - offset);
+			}
+
+			for (Fold fold : model.getFolds()) {
+				assertTrue("valid", fold.isValid());
+			}
+
+			assertIndex(model);
+
+			for (int j = 0; j < root.getElementCount(); j++) {
+				if (model.getFold(j) == null) {
+					assertEquals("line " + j, j, model.getIndex().getLine(model.getIndex().getRow(j)));
+				}
+			}
+
+			if (random.nextInt(10) == 0) {
+				model.fold(randomFold(random));
+			}
+		}
+	}
+
+	// Compares a batch of folds with the same folds added one by one.
+	public void testBatch() {
+		Random random = new Random(3);
+
+		for (int i = 0; i < 200; i++) {
+			FoldModel single = new FoldModel();
+			FoldModel batch = new FoldModel();
+
+			for (int j = random.nextInt(5); j > 0; j--) {
+				Fold fold = randomFold(random);
+
+				single.fold(fold);
+				batch.fold(fold(fold.getStart(), fold.getEnd()));
+			}
+
+			List<Fold> folds = new ArrayList<Fold>();
+			List<Fold> copies = new ArrayList<Fold>();
+
+			for (int j = random.nextInt(20); j > 0; j--) {
+				Fold fold = randomFold(random);
+
+				folds.add(fold);
+				copies.add(fold(fold.getStart(), fold.getEnd()));
+			}
+
+			sort(folds);
+
+			int count = 0;
+
+			for (Fold fold : folds) {
+				if (single.fold(fold)) {
+					count++;
+				}
+			}
+
+			assertEquals("added", count, batch.fold(copies));
+			assertEquals("folds", toString(single.getFolds()), toString(batch.getFolds()));
+			assertEquals("hidden", single.getIndex().getHiddenCount(), batch.getIndex().getHiddenCount());
+
+			for (int line = 0; line < root.getElementCount(); line++) {
+				assertEquals("row", single.getIndex().getRow(line), batch.getIndex().getRow(line));
+				assertEquals("fold", single.getFold(line) != null, batch.getFold(line) != null);
+			}
+
+			// unfold every line and check the index against the folds.
+			for (int line = 0; line < root.getElementCount(); line += 1 + random.nextInt(10)) {
+				batch.unfold(line);
+				assertIndex(batch);
+			}
+		}
+	}
+
+	private void assertIndex(FoldModel model) {
+		int hidden = 0;
+		int previous = -1;
+
+		for (Fold fold : model.getFolds()) {
+			assertTrue("sorted", fold.getStart() >= previous);
+
+			hidden += fold.getEnd() - fold.getStart() - 1;
+			previous = fold.getEnd();
+		}
+
+		assertEquals("hidden", hidden, model.getIndex().getHiddenCount());
+
+		for (int line = 0; line < root.getElementCount(); line++) {
+			assertEquals("hidden line " + line, model.getFold(line) != null, model.getIndex().isHidden(line));
+		}
+	}
+
+	private Fold randomFold(Random random) {
+		int start = random.nextInt(root.getElementCount() - 2);
+		int end = start + 2 + random.nextInt(Math.min(40, root.getElementCount() - start - 2));
+
+		return fold(start, end);
+	}
+
+	private Fold fold(int start, int end) {
+		return new Fold(root.getElement(start), root.getElement(end));
+	}
+
+	// Sorts the folds by start line, the longest fold first.
+	private static void sort(List<Fold> folds) {
+		for (int i = 1; i < folds.size(); i++) {
+			for (int j = i; j > 0 && compare(folds.get(j - 1), folds.get(j)) > 0; j--) {
+				folds.set(j, folds.set(j - 1, folds.get(j)));
+			}
+		}
+	}
+
+	private static int compare(Fold fold1, Fold fold2) {
+		if (fold1.getStart() != fold2.getStart()) {
+			return fold1.getStart() - fold2.getStart();
+		}
+
+		return fold2.getEnd() - fold1.getEnd();
+	}
+
+	private static String toString(List<Fold> folds) {
+		StringBuilder result = new StringBuilder();
+
+		for (Fold fold : folds) {
+			result.append('[').append(fold.getStart()).append(',').append(fold.getEnd());
+			result.append(toString(fold.getChildren())).append(']');
+		}
+
+		return result.toString();
+	}
+}
@@ -0,0 +1,84 @@
+package org.bounce.text;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class LineWidthsTest extends TestCase {
+	public void testReplace() {
+		LineWidths widths = new LineWidths();
+		widths.clear(3);
+
+		assertEquals("unknown", 3, widths.getUnknownCount());
+
+		widths.setWidth(0, 10);
+		widths.setWidth(1, 30);
+		widths.setWidth(2, 20);
+		assertEquals("longest", 1, widths.getLongestLine(0, 3));
+
+		widths.replace(1, 1, 2);
+		assertEquals("lines", 4, widths.getLineCount());
+		assertEquals("unknown", 2, widths.getUnknownCount());
+		assertEquals("moved", 20, widths.getWidth(3));
+
+		widths.setWidth(1, 5);
+		widths.setWidth(2, 20);
+		assertEquals("first longest", 2, widths.getLongestLine(0, 4));
+		assertEquals("range", 3, widths.getLongestLine(3, 4));
+		assertEquals("empty", -1, widths.getLongestLine(2, 2));
+	}
+
+	// Compares the longest lines with a list of widths.
+	public void testRandom() {
+		Random random = new Random(7);
+		LineWidths widths = new LineWidths();
+		List<Integer> expected = new ArrayList<Integer>();
+
+		widths.clear(0);
+
+		for (int i = 0; i < 2000; i++) {
+			int action = random.nextInt(3);
+
+			if (action == 0 || expected.isEmpty()) {
+				int index = random.nextInt(expected.size() + 1);
+				int removed = random.nextInt(Math.min(3, expected.size() - index) + 1);
+				int added = random.nextInt(4);
+
+				widths.replace(index, removed, added);
+
+				for (int j = 0; j < removed; j++) {
+					expected.remove(index);
+				}
+
+				for (int j = 0; j < added; j++) {
+					int width = random.nextInt(50);
+					expected.add(index + j, width);
+					widths.setWidth(index + j, width);
+				}
+			} else {
+				int line = random.nextInt(expected.size());
+				int width = random.nextInt(50);
+
+				expected.set(line, width);
+				widths.setWidth(line, width);
+			}
+
+			assertEquals("lines", expected.size(), widths.getLineCount());
+			assertEquals("unknown", 0, widths.getUnknownCount());
+
+			int start = random.nextInt(expected.size() + 1);
+			int end = start + random.nextInt(expected.size() - start + 1);
+			int longest = -1;
+
+			for (int line = start; line < end; line++) {
+				if (longest == -1 || expected.get(line) > expected.get(longest)) {
+					longest = line;
+				}
+			}
+
+			assertEquals("longest of " + start + "-" + end, longest, widths.getLongestLine(start, end));
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package org.bounce.text;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+
+import junit.framework.TestCase;
+
+public class MappedContentTest extends TestCase {
+	private static final String[] PARTS = {
+		"<test>", "</test>", "text", " ", "\n", "\r\n", "\t", "\u00e9", "\u20ac", "\ud834\udd1e", "&amp;", "<!-- -->" };
+
+	private File file = null;
+
+	protected void setUp() throws IOException {
+		file = File.createTempFile("mapped", ".xml");
+	}
+
+	protected void tearDown() {
+		file.delete();
+	}
+
+	public void testLatin1() throws BadLocationException, IOException {
+		write(new byte[] { 'a', (byte) 0xE9, '\n', 'b' });
+
+		MappedContent content = new MappedContent(file, "ISO-8859-1");
+
+		assertEquals("length", 5, content.length());
+		assertEquals("text", "a\u00e9\nb\n", content.getString(0, 5));
+		assertEquals("lines", 2, content.getLineCount());
+		assertEquals("line start", 3, content.getLineStart(1));
+	}
+
+	public void testByteOrderMark() throws BadLocationException, IOException {
+		write(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF, '<', 'a', '/', '>' });
+
+		MappedContent content = new MappedContent(file);
+
+		assertEquals("length", 5, content.length());
+		assertEquals("text", "<a/>", content.getString(0, 4));
+	}
+
+	public void testMalformed() throws BadLocationException, IOException {
+		// a lead byte without continuation and a continuation without lead.
+		write(new byte[] { 'a', (byte) 0xC3, 'b', (byte) 0xA9, 'c', (byte) 0xF0, (byte) 0x9D });
+
+		MappedContent content = new MappedContent(file);
+
+		assertEquals("text", "a\ufffdbc\ufffd\ufffd\n", content.getString(0, content.length()));
+	}
+
+	public void testReadOnly() throws IOException {
+		write("<test/>".getBytes("UTF-8"));
+
+		MappedDocument document = new MappedDocument(file);
+
+		try {
+			document.insertString(0, "x", null);
+			fail("insert in read-only document");
+		} catch (BadLocationException e) {
+			// expected
+		}
+
+		assertEquals("length", 7, document.getLength());
+	}
+
+	public void testRandom() throws BadLocationException, IOException {
+		Random random = new Random(10);
+		StringBuilder builder = new StringBuilder();
+
+		while (builder.length() < 100000) {
+			builder.append(PARTS[random.nextInt(PARTS.length)]);
+		}
+
+		String text = builder.toString();
+		write(text.getBytes("UTF-8"));
+
+		MappedDocument document = new MappedDocument(file);
+		PlainDocument expected = new PlainDocument();
+		expected.insertString(0, text, null);
+
+		// reads a few lines before the complete file has been indexed.
+		Element root = document.getDefaultRootElement();
+		assertEquals("third line", expected.getDefaultRootElement().getElement(2).getStartOffset(), root.getElement(2).getStartOffset());
+
+		assertEquals("length", text.length(), document.getLength());
+		assertEquals("text", text, document.getText(0, document.getLength()));
+		assertEquals("lines", expected.getDefaultRootElement().getElementCount(), root.getElementCount());
+
+		for (int i = 0; i < 1000; i++) {
+			int offset = random.nextInt(text.length() + 1);
+			int length = random.nextInt(Math.min(5000, text.length() + 1 - offset));
+			Element line = root.getElement(root.getElementIndex(offset));
+			Element expectedLine = expected.getDefaultRootElement().getElement(expected.getDefaultRootElement().getElementIndex(offset));
+
+			assertEquals("text at " + offset, text.substring(offset, offset + length), document.getText(offset, length));
+			assertEquals("line start at " + offset, expectedLine.getStartOffset(), line.getStartOffset());
+			assertEquals("line end at " + offset, expectedLine.getEndOffset(), line.getEndOffset());
+		}
+
+		// a partial return contains at most a part of the text.
+		Segment segment = new Segment();
+		segment.setPartialReturn(true);
+		document.getText(10, text.length() - 10, segment);
+		assertTrue("partial return", segment.count > 0);
+		assertEquals("partial text", text.substring(10, 10 + segment.count), segment.toString());
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+}
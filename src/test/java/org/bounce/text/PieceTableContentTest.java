@@ -0,0 +1,158 @@
+package org.bounce.text;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.GapContent;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+
+import junit.framework.TestCase;
+
+import org.bounce.text.xml.XMLScanner;
+
+public class PieceTableContentTest extends TestCase {
+	private static final String[] PARTS = {
+		"<test>", "</test>", "text", " ", "\n", "a", "b", "\u00e9", "&amp;", "<!-- -->" };
+
+	public void testEdits() throws BadLocationException {
+		PieceTableContent content = new PieceTableContent();
+
+		assertEquals("length", 1, content.length());
+		assertEquals("text", "\n", content.getString(0, 1));
+
+		content.insertString(0, "abc");
+		content.insertString(3, "def");
+		content.insertString(1, "XY");
+		assertEquals("text", "aXYbcdef\n", content.getString(0, content.length()));
+
+		UndoableEdit edit = content.remove(2, 3);
+		assertEquals("text", "aXdef\n", content.getString(0, content.length()));
+
+		edit.undo();
+		assertEquals("undo", "aXYbcdef\n", content.getString(0, content.length()));
+
+		edit.redo();
+		assertEquals("redo", "aXdef\n", content.getString(0, content.length()));
+
+		try {
+			content.remove(0, content.length());
+			fail("removed the implied newline");
+		} catch (BadLocationException e) {
+			// expected
+		}
+	}
+
+	public void testPartialReturn() throws BadLocationException {
+		PieceTableContent content = new PieceTableContent();
+		content.insertString(0, "first");
+		content.insertString(0, "second");
+
+		Segment segment = new Segment();
+		segment.setPartialReturn(true);
+		content.getChars(0, 11, segment);
+		assertEquals("first piece", "second", segment.toString());
+
+		segment.setPartialReturn(false);
+		content.getChars(3, 6, segment);
+		assertEquals("copy", "ondfir", segment.toString());
+	}
+
+	// Compares the text and the positions with a gap content.
+	public void testRandom() throws BadLocationException {
+		Random random = new Random(11);
+
+		for (int run = 0; run < 50; run++) {
+			AbstractDocument.Content expected = new GapContent();
+			PieceTableContent actual = new PieceTableContent();
+			List<Position[]> positions = new ArrayList<Position[]>();
+			List<UndoableEdit[]> edits = new ArrayList<UndoableEdit[]>();
+
+			for (int i = 0; i < 300; i++) {
+				int length = expected.length();
+				int action = random.nextInt(10);
+
+				if (action < 5) {
+					int where = random.nextInt(length);
+					String text = PARTS[random.nextInt(PARTS.length)];
+
+					edits.add(new UndoableEdit[] { expected.insertString(where, text), actual.insertString(where, text) });
+				} else if (action < 7 && length > 1) {
+					int where = random.nextInt(length - 1);
+					int nitems = 1 + random.nextInt(Math.min(20, length - 1 - where));
+
+					edits.add(new UndoableEdit[] { expected.remove(where, nitems), actual.remove(where, nitems) });
+				} else if (action < 9) {
+					int offset = random.nextInt(length + 1);
+
+					positions.add(new Position[] { expected.createPosition(offset), actual.createPosition(offset) });
+				} else if (!edits.isEmpty()) {
+					// undo and redo the last edits
+					int count = 1 + random.nextInt(Math.min(5, edits.size()));
+
+					for (int j = edits.size() - 1; j >= edits.size() - count; j--) {
+						edits.get(j)[0].undo();
+						edits.get(j)[1].undo();
+					}
+
+					assertSame(expected, actual, positions);
+
+					if (random.nextBoolean()) {
+						for (int j = edits.size() - count; j < edits.size(); j++) {
+							edits.get(j)[0].redo();
+							edits.get(j)[1].redo();
+						}
+					} else {
+						edits.subList(edits.size() - count, edits.size()).clear();
+					}
+				}
+
+				assertSame(expected, actual, positions);
+			}
+		}
+	}
+
+	public void testScanner() throws BadLocationException, IOException {
+		PlainDocument expected = new PlainDocument();
+		PlainDocument actual = new PlainDocument(new PieceTableContent());
+		Random random = new Random(3);
+
+		for (int i = 0; i < 200; i++) {
+			int where = random.nextInt(expected.getLength() + 1);
+			String text = PARTS[random.nextInt(PARTS.length)];
+
+			expected.insertString(where, text, null);
+			actual.insertString(where, text, null);
+		}
+
+		assertEquals("lines", expected.getDefaultRootElement().getElementCount(), actual.getDefaultRootElement().getElementCount());
+
+		XMLScanner expectedScanner = new XMLScanner(expected);
+		XMLScanner actualScanner = new XMLScanner(actual);
+		expectedScanner.setRange(0, expected.getLength());
+		actualScanner.setRange(0, actual.getLength());
+
+		while (expectedScanner.getEndOffset() < expected.getLength()) {
+			expectedScanner.scan();
+			actualScanner.scan();
+
+			assertEquals("token", expectedScanner.token, actualScanner.token);
+			assertEquals("end", expectedScanner.getEndOffset(), actualScanner.getEndOffset());
+		}
+	}
+
+	private static void assertSame(AbstractDocument.Content expected, AbstractDocument.Content actual, List<Position[]> positions) throws BadLocationException {
+		assertEquals("length", expected.length(), actual.length());
+		assertEquals("text", expected.getString(0, expected.length()), actual.getString(0, actual.length()));
+
+		for (int i = 0; i < positions.size(); i++) {
+			assertEquals("position " + i, positions.get(i)[0].getOffset(), positions.get(i)[1].getOffset());
+		}
+	}
+}
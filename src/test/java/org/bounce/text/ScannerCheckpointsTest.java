@@ -0,0 +1,231 @@
+package org.bounce.text;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+
+import junit.framework.TestCase;
+
+import org.bounce.text.xml.XMLScanner;
+
+public class ScannerCheckpointsTest extends TestCase {
+	private static final String XML =
+		"<?xml version=\"1.0\"?>\n" +
+		"<test xmlns=\"test.xml\" xmlns:tst=\"http://www.test.com\">\n" +
+		"  <child name=\"name1\">text &amp; text</child>\n" +
+		"  <tst:child name=\"name1\"\n" +
+		"     tst:name=\"prefixed\">\n" +
+		"    <cdata>normal <![CDATA[cdata\n <element> & attribute]]></cdata>\n" +
+		"  </tst:child>\n" +
+		"  <!--This is a\n multiline\n Comment -->\n" +
+		"  <parent name='name1'><child>text</child></parent>\n" +
+		"</test>\n";
+
+	public void testRestore() throws BadLocationException, IOException {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, XML, null);
+
+		XMLScanner scanner = new XMLScanner(doc);
+		ScannerCheckpoints checkpoints = new ScannerCheckpoints(scanner, doc);
+
+		assertCheckpoints(doc, scanner, checkpoints);
+	}
+
+	public void testEdits() throws BadLocationException, IOException {
+		final PlainDocument doc = new PlainDocument();
+		doc.insertString(0, XML, null);
+
+		XMLScanner scanner = new XMLScanner(doc);
+		final ScannerCheckpoints checkpoints = new ScannerCheckpoints(scanner, doc);
+
+		doc.addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent event) {
+				checkpoints.update(event);
+			}
+
+			public void removeUpdate(DocumentEvent event) {
+				checkpoints.update(event);
+			}
+
+			public void changedUpdate(DocumentEvent event) {}
+		});
+
+		assertCheckpoints(doc, scanner, checkpoints);
+
+		// open a comment that is never closed
+		int offset = XML.indexOf("  <child");
+		doc.insertString(offset, "<!--", null);
+		assertCheckpoints(doc, scanner, checkpoints);
+
+		doc.remove(offset, 4);
+		assertCheckpoints(doc, scanner, checkpoints);
+
+		// break an attribute value over a line
+		offset = XML.indexOf("name1") + 2;
+		doc.insertString(offset, "\n\n", null);
+		assertCheckpoints(doc, scanner, checkpoints);
+
+		doc.remove(offset - 1, 4);
+		assertCheckpoints(doc, scanner, checkpoints);
+
+		// join lines inside the comment
+		offset = doc.getText(0, doc.getLength()).indexOf(" multiline") - 1;
+		doc.remove(offset, 1);
+		assertCheckpoints(doc, scanner, checkpoints);
+
+		// edit only the end of the document
+		doc.insertString(doc.getLength() - 1, "<end/>\n<!-- -->", null);
+		assertCheckpoints(doc, scanner, checkpoints);
+
+		doc.remove(0, doc.getLength());
+		assertCheckpoints(doc, scanner, checkpoints);
+	}
+
+	public void testUpdateBeforeRestore() throws BadLocationException, IOException {
+		final PlainDocument doc = new PlainDocument();
+
+		XMLScanner scanner = new XMLScanner(doc);
+		final ScannerCheckpoints checkpoints = new ScannerCheckpoints(scanner, doc);
+
+		doc.addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent event) {
+				checkpoints.update(event);
+			}
+
+			public void removeUpdate(DocumentEvent event) {
+				checkpoints.update(event);
+			}
+
+			public void changedUpdate(DocumentEvent event) {}
+		});
+
+		doc.insertString(0, XML, null);
+		assertCheckpoints(doc, scanner, checkpoints);
+	}
+
+	public void testConverge() throws BadLocationException, IOException {
+		final PlainDocument doc = new PlainDocument();
+		doc.insertString(0, XML, null);
+
+		XMLScanner scanner = new XMLScanner(doc);
+		final ScannerCheckpoints checkpoints = new ScannerCheckpoints(scanner, doc);
+
+		doc.addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent event) {
+				checkpoints.update(event);
+			}
+
+			public void removeUpdate(DocumentEvent event) {
+				checkpoints.update(event);
+			}
+
+			public void changedUpdate(DocumentEvent event) {}
+		});
+
+		int lines = doc.getDefaultRootElement().getElementCount();
+		checkpoints.restore(lines - 1);
+		assertEquals(lines, checkpoints.getValidLines());
+
+		// an edit in element content does not change the following lines
+		doc.insertString(XML.indexOf("text &amp;"), "more ", null);
+		assertEquals(3, checkpoints.getValidLines());
+
+		checkpoints.restore(4);
+		assertEquals(lines, checkpoints.getValidLines());
+
+		assertCheckpoints(doc, scanner, checkpoints);
+	}
+
+	public void testConvergeDamage() throws BadLocationException, IOException {
+		final PlainDocument doc = new PlainDocument();
+		doc.insertString(0, XML, null);
+
+		XMLScanner scanner = new XMLScanner(doc);
+		final ScannerCheckpoints checkpoints = new ScannerCheckpoints(scanner, doc);
+
+		doc.addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent event) {
+				checkpoints.update(event);
+			}
+
+			public void removeUpdate(DocumentEvent event) {
+				checkpoints.update(event);
+			}
+
+			public void changedUpdate(DocumentEvent event) {}
+		});
+
+		int lines = doc.getDefaultRootElement().getElementCount();
+		checkpoints.restore(lines - 1);
+
+		// an edit in element content only changes the edited line.
+		doc.insertString(XML.indexOf("text &amp;"), "more ", null);
+		assertEquals(3, checkpoints.converge(lines - 1));
+
+		// opening a comment changes the lines up to the end of the next comment.
+		int offset = doc.getText(0, doc.getLength()).indexOf("  <tst:child");
+		doc.insertString(offset, "<!--", null);
+		assertEquals(11, checkpoints.converge(lines - 1));
+
+		// closing the comment again changes the same lines.
+		doc.remove(offset, 4);
+		assertEquals(6, checkpoints.converge(5));
+		assertEquals(11, checkpoints.converge(lines - 1));
+
+		// no change.
+		assertEquals(lines, checkpoints.converge(lines - 1));
+
+		// the checkpoints from before an earlier change that has not been
+		// computed again do not converge.
+		doc.insertString(offset, "<!--", null);
+		doc.remove(offset, 4);
+		assertTrue(checkpoints.converge(lines - 1) >= 11);
+
+		assertCheckpoints(doc, scanner, checkpoints);
+	}
+
+	// Checks that scanning from every checkpoint returns the same tokens as
+	// scanning the whole document.
+	private static void assertCheckpoints(PlainDocument doc, XMLScanner scanner, ScannerCheckpoints checkpoints) throws IOException {
+		List<String> expected = scan(scanner, doc, -1);
+		int lines = doc.getDefaultRootElement().getElementCount();
+
+		for (int line = lines - 1; line >= 0; line--) {
+			checkpoints.restore(line);
+
+			int start = doc.getDefaultRootElement().getElement(line).getStartOffset();
+			assertTrue("checkpoint after line start", scanner.getEndOffset() >= start);
+
+			List<String> actual = scan(scanner, doc, scanner.getStartOffset());
+			assertEquals("tokens from line " + line, expected.subList(expected.size() - actual.size(), expected.size()), actual);
+		}
+	}
+
+	// Scans the rest of the document, starting with the current token when the
+	// start is not -1.
+	private static List<String> scan(XMLScanner scanner, PlainDocument doc, int start) throws IOException {
+		List<String> tokens = new ArrayList<String>();
+
+		if (start == -1) {
+			scanner.setRange(0, doc.getLength());
+		}
+
+		tokens.add(toString(scanner));
+
+		while (scanner.getEndOffset() < doc.getLength()) {
+			scanner.scan();
+			tokens.add(toString(scanner));
+		}
+
+		return tokens;
+	}
+
+	private static String toString(XMLScanner scanner) {
+		return scanner.token + "[" + scanner.getStartOffset() + "," + scanner.getEndOffset() + "]" + (scanner.isError() ? "!" : "");
+	}
+}
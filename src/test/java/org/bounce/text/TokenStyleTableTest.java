@@ -0,0 +1,38 @@
+package org.bounce.text;
+
+import java.awt.Color;
+import java.awt.Font;
+
+import javax.swing.text.Style;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+
+import junit.framework.TestCase;
+
+public class TokenStyleTableTest extends TestCase {
+	public void testTokenId() {
+		StyleContext context = new StyleContext();
+		Style style = context.addStyle("word", null);
+		StyleConstants.setForeground(style, Color.RED);
+		StyleConstants.setBold(style, true);
+
+		TokenStyleTable styles = new TokenStyleTable(context, new String[] { "tag" });
+		styles.update(new Font("Monospaced", Font.PLAIN, 12));
+
+		assertEquals("known token", 0, styles.getTokenId("tag"));
+
+		// a token without an id is added and gets the font and color of its
+		// style.
+		int id = styles.getTokenId("word");
+		assertEquals("added token", 1, id);
+		assertEquals("same token", id, styles.getTokenId("word"));
+		assertEquals("color", Color.RED, styles.getForeground(id));
+		assertTrue("bold", styles.getFont(id).isBold());
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals("token " + i, i + 2, styles.getTokenId("token" + i));
+		}
+
+		assertEquals("color after growing", Color.RED, styles.getForeground(id));
+	}
+}
@@ -0,0 +1,151 @@
+package org.bounce.text.xml;
+
+import java.util.Random;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+
+import junit.framework.TestCase;
+
+public class TagBoundaryIndexTest extends TestCase {
+	private static final String XML =
+		"<?xml version=\"1.0\"?>\n" +
+		"<test xmlns=\"test.xml\">\n" +
+		"  <child name=\"a > b\">text &amp; text</child>\n" +
+		"  <!--This is a <comment>\n Comment -->\n" +
+		"  <cdata><![CDATA[cdata\n <element>]]></cdata>\n" +
+		"</test>\n";
+
+	public void testBoundaries() throws BadLocationException {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, XML, null);
+
+		TagBoundaryIndex index = TagBoundaryIndex.getInstance(doc);
+
+		assertBoundary(index, TagBoundaryIndex.TAG_START, XML.indexOf("<child"));
+		assertBoundary(index, TagBoundaryIndex.TAG_END, XML.indexOf("\">text") + 1);
+		assertBoundary(index, TagBoundaryIndex.COMMENT_START, XML.indexOf("<!--"));
+		assertBoundary(index, TagBoundaryIndex.COMMENT_END, XML.indexOf("-->") + 2);
+		assertBoundary(index, TagBoundaryIndex.CDATA_START, XML.indexOf("<![CDATA["));
+		assertBoundary(index, TagBoundaryIndex.CDATA_END, XML.indexOf("]]>") + 2);
+
+		// no boundaries in attribute values, comments and CDATA sections
+		assertEquals(-1, find(index, XML.indexOf("> b")));
+		assertEquals(-1, find(index, XML.indexOf("<comment>")));
+		assertEquals(-1, find(index, XML.indexOf("<element>")));
+
+		assertEquals(0, index.getSafeOffset(5));
+		assertEquals(XML.indexOf("<child"), index.getSafeOffset(XML.indexOf("a > b")));
+		assertEquals(XML.indexOf("<!--"), index.getSafeOffset(XML.indexOf("<comment>")));
+		assertEquals(XML.indexOf("<![CDATA["), index.getSafeOffset(XML.indexOf("<element>")));
+	}
+
+	public void testElements() throws BadLocationException {
+		String xml = "<?xml version=\"1.0\"?>\n<a>\n  <b attr=\"/\"/>\n  <!-- <c> -->\n  <c/>\n  <d>text</d>\n</a>\n<e>";
+
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, xml, null);
+
+		TagBoundaryIndex index = TagBoundaryIndex.getInstance(doc);
+
+		assertFalse(index.isElementStart(find(index, 0)));
+		assertElement(index, xml.indexOf("<a>"), xml.indexOf("</a>"), 0);
+		assertElement(index, xml.indexOf("<b"), xml.indexOf("/>") + 1, 1);
+		assertElement(index, xml.indexOf("<c/"), xml.indexOf("<c/") + 3, 1);
+		assertElement(index, xml.indexOf("<d>"), xml.indexOf("</d>"), 1);
+
+		// not ended
+		int e = find(index, xml.indexOf("<e>"));
+		assertTrue(index.isElementStart(e));
+		assertEquals(-1, index.getElementEnd(e));
+		assertEquals(0, index.getDepth(e));
+
+		// an edit before the elements changes the depth of all elements
+		doc.insertString(xml.indexOf("<a>"), "<x>", null);
+		assertElement(index, xml.indexOf("<a>") + 3, xml.indexOf("</a>") + 3, 1);
+		assertEquals(-1, index.getElementEnd(find(index, xml.indexOf("<a>"))));
+	}
+
+	public void testSafeOffsets() throws BadLocationException {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, XML, null);
+
+		// the first tag after every interval, not in comments or CDATA.
+		int[] offsets = TagBoundaryIndex.findSafeOffsets(doc, 1);
+		int[] expected = { 0, XML.indexOf("<test"), XML.indexOf("<child"), XML.indexOf("</child"), XML.indexOf("<cdata"), XML.indexOf("</cdata"), XML.indexOf("</test") };
+
+		assertEquals(expected.length, offsets.length);
+
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], offsets[i]);
+		}
+
+		int interval = XML.indexOf("text &amp;");
+		offsets = TagBoundaryIndex.findSafeOffsets(doc, interval);
+
+		assertEquals(XML.indexOf("</child"), offsets[1]);
+
+		for (int i = 1; i < offsets.length; i++) {
+			assertTrue(offsets[i] >= offsets[i - 1] + interval);
+		}
+	}
+
+	public void testEdits() throws BadLocationException {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, XML, null);
+
+		TagBoundaryIndex index = TagBoundaryIndex.getInstance(doc);
+		String[] inserts = { "<", ">", "<!--", "-->", "\"", "<![CDATA[", "]]>", "<a>", "</a>", "/", "text", "\n" };
+		Random random = new Random(42);
+
+		for (int i = 0; i < 500; i++) {
+			if (random.nextInt(3) == 0 && doc.getLength() > 0) {
+				int offset = random.nextInt(doc.getLength());
+				doc.remove(offset, Math.min(random.nextInt(12) + 1, doc.getLength() - offset));
+			} else {
+				doc.insertString(random.nextInt(doc.getLength() + 1), inserts[random.nextInt(inserts.length)], null);
+			}
+
+			assertSame(new TagBoundaryIndex(doc), index);
+		}
+	}
+
+	private static void assertSame(TagBoundaryIndex expected, TagBoundaryIndex actual) {
+		assertEquals(expected.getCount(), actual.getCount());
+
+		for (int i = 0; i < expected.getCount(); i++) {
+			assertEquals(expected.getOffset(i), actual.getOffset(i));
+			assertEquals(expected.getKind(i), actual.getKind(i));
+			assertEquals(expected.isElementStart(i), actual.isElementStart(i));
+			assertEquals(expected.isElementEnd(i), actual.isElementEnd(i));
+			assertEquals(expected.getDepth(i), actual.getDepth(i));
+			assertEquals(expected.getElementEnd(i), actual.getElementEnd(i));
+		}
+	}
+
+	private static void assertElement(TagBoundaryIndex index, int start, int end, int depth) {
+		int i = find(index, start);
+
+		assertTrue("element at " + start, index.isElementStart(i));
+		assertEquals(depth, index.getDepth(i));
+		assertEquals(end, index.getOffset(index.getElementEnd(i)));
+		assertTrue(index.isElementEnd(index.getElementEnd(i)));
+	}
+
+	private static void assertBoundary(TagBoundaryIndex index, int kind, int offset) {
+		int i = find(index, offset);
+
+		assertTrue("boundary at " + offset, i != -1);
+		assertEquals(kind, index.getKind(i));
+	}
+
+	private static int find(TagBoundaryIndex index, int offset) {
+		int i = index.getIndex(offset);
+
+		if (i != -1 && index.getOffset(i) == offset) {
+			return i;
+		}
+
+		return -1;
+	}
+}
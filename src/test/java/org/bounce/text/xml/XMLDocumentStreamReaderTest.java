@@ -0,0 +1,210 @@
+package org.bounce.text.xml;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import junit.framework.TestCase;
+
+public class XMLDocumentStreamReaderTest extends TestCase {
+	private static final String XML =
+		"<?xml version=\"1.0\" encoding='UTF-8' standalone=\"yes\"?>\n" +
+		"<!DOCTYPE test [ <!ELEMENT test ANY> ]>\n" +
+		"<?target some data?>\n" +
+		"<test xmlns=\"test.xml\" xmlns:tst=\"http://www.test.com\">\n" +
+		"  <child name=\"name1\">text &amp; text &lt;&#65;&#x42;</child>\n" +
+		"  <tst:child name=\"name1\"\n" +
+		"     tst:name=\"pre&quot;fixed\" value='a\tb'>\n" +
+		"    <cdata>normal <![CDATA[cdata\n <element> & attribute]]></cdata>\n" +
+		"  </tst:child>\n" +
+		"  <!--This is a\n multiline\n Comment -->\n" +
+		"  <parent name='name1'><child xmlns=\"\">text</child><empty tst:a='1'/></parent>\n" +
+		"</test>\n" +
+		"<!-- end -->";
+
+	public void testSameEvents() throws BadLocationException, IOException, XMLStreamException {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, XML, null);
+
+		XMLStreamReader expected = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(XML));
+		XMLStreamReader actual = new XMLDocumentStreamReader(doc);
+
+		assertEquals(events(expected), events(actual));
+	}
+
+	public void testDeclaration() throws BadLocationException, IOException, XMLStreamException {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, XML, null);
+
+		XMLStreamReader reader = new XMLDocumentStreamReader(doc);
+
+		assertEquals(XMLStreamReader.START_DOCUMENT, reader.getEventType());
+		assertEquals("1.0", reader.getVersion());
+		assertEquals("UTF-8", reader.getCharacterEncodingScheme());
+		assertTrue(reader.standaloneSet());
+		assertTrue(reader.isStandalone());
+	}
+
+	public void testLocation() throws BadLocationException, IOException, XMLStreamException {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, XML, null);
+
+		XMLStreamReader reader = new XMLDocumentStreamReader(doc);
+
+		while (reader.hasNext()) {
+			if (reader.next() == XMLStreamReader.START_ELEMENT && reader.getLocalName().equals("cdata")) {
+				int offset = XML.indexOf("<cdata>");
+
+				assertEquals(offset, reader.getLocation().getCharacterOffset());
+				assertEquals(8, reader.getLocation().getLineNumber());
+				assertEquals(5, reader.getLocation().getColumnNumber());
+				assertEquals("normal ", reader.getElementText().substring(0, 7));
+				assertEquals(XML.indexOf("</cdata>"), reader.getLocation().getCharacterOffset());
+			}
+		}
+
+		assertEquals(doc.getLength(), reader.getLocation().getCharacterOffset());
+	}
+
+	public void testErrors() throws BadLocationException, IOException, XMLStreamException {
+		String[] documents = { "", "<", "</", "<a", "<a b='", "<a><b></a>", "text", "<a>&unknown; &#xZZ; & </a>", "<!DOCTYPE", "<?pi", "<!--",
+				"<![CDATA[", "<a b=c>", "\u0001<a/>", "<a>\u0001</a>", "<a x:y='1'/>", "<<a>>", "</a></b>" };
+
+		for (String text : documents) {
+			PlainDocument doc = new PlainDocument();
+			doc.insertString(0, text, null);
+
+			XMLStreamReader reader = new XMLDocumentStreamReader(doc);
+			int events = 0;
+
+			while (reader.hasNext()) {
+				reader.next();
+
+				if (reader.hasText()) {
+					reader.getText();
+				}
+
+				assertTrue(text, ++events < 100);
+			}
+		}
+	}
+
+	public void testUnknownReference() throws BadLocationException, IOException, XMLStreamException {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, "<a b='&c;'>&unknown; &amp;</a>", null);
+
+		XMLStreamReader reader = new XMLDocumentStreamReader(doc);
+
+		assertEquals(XMLStreamReader.START_ELEMENT, reader.next());
+		assertEquals("&c;", reader.getAttributeValue(null, "b"));
+		assertEquals("&unknown; &", reader.getElementText());
+	}
+
+	public void testNamespaceContext() throws BadLocationException, IOException, XMLStreamException {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, XML, null);
+
+		XMLStreamReader reader = new XMLDocumentStreamReader(doc);
+
+		while (reader.next() != XMLStreamReader.START_ELEMENT) {
+			// skips the prolog
+		}
+
+		NamespaceContext context = reader.getNamespaceContext();
+
+		assertEquals("test.xml", context.getNamespaceURI(XMLConstants.DEFAULT_NS_PREFIX));
+		assertEquals("http://www.test.com", context.getNamespaceURI("tst"));
+		assertEquals(XMLConstants.NULL_NS_URI, context.getNamespaceURI("unknown"));
+		assertEquals("tst", context.getPrefix("http://www.test.com"));
+		assertNull(context.getPrefix("unknown"));
+
+		assertEquals(XMLConstants.XML_NS_URI, context.getNamespaceURI(XMLConstants.XML_NS_PREFIX));
+		assertEquals(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, context.getNamespaceURI(XMLConstants.XMLNS_ATTRIBUTE));
+		assertEquals(XMLConstants.XML_NS_PREFIX, context.getPrefix(XMLConstants.XML_NS_URI));
+		assertEquals(XMLConstants.XMLNS_ATTRIBUTE, context.getPrefix(XMLConstants.XMLNS_ATTRIBUTE_NS_URI));
+
+		Iterator<?> prefixes = context.getPrefixes(XMLConstants.XML_NS_URI);
+		assertEquals(XMLConstants.XML_NS_PREFIX, prefixes.next());
+		assertFalse(prefixes.hasNext());
+
+		try {
+			context.getNamespaceURI(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		try {
+			context.getPrefix(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	// Returns the events as strings, adjacent characters and CDATA sections
+	// are joined and whitespace outside the root element is ignored.
+	private static List<String> events(XMLStreamReader reader) throws XMLStreamException {
+		List<String> events = new ArrayList<String>();
+		StringBuilder characters = null;
+		int depth = 0;
+
+		while (reader.hasNext()) {
+			int event = reader.next();
+
+			if (event == XMLStreamReader.CHARACTERS || event == XMLStreamReader.SPACE || event == XMLStreamReader.CDATA) {
+				if (characters == null) {
+					characters = new StringBuilder();
+				}
+
+				characters.append(reader.getText());
+				continue;
+			}
+
+			if (characters != null) {
+				if (depth > 0 || characters.toString().trim().length() > 0) {
+					events.add("characters " + characters);
+				}
+
+				characters = null;
+			}
+
+			StringBuilder result = new StringBuilder();
+			result.append(event);
+
+			if (event == XMLStreamReader.START_ELEMENT) {
+				depth++;
+				result.append(" ").append(reader.getName());
+
+				for (int i = 0; i < reader.getNamespaceCount(); i++) {
+					result.append(" xmlns:").append(reader.getNamespacePrefix(i)).append("=").append(reader.getNamespaceURI(i));
+				}
+
+				for (int i = 0; i < reader.getAttributeCount(); i++) {
+					result.append(" ").append(reader.getAttributeName(i)).append("=").append(reader.getAttributeValue(i));
+				}
+			} else if (event == XMLStreamReader.END_ELEMENT) {
+				depth--;
+				result.append(" ").append(reader.getName()).append(" ").append(reader.getNamespaceCount());
+			} else if (event == XMLStreamReader.PROCESSING_INSTRUCTION) {
+				result.append(" ").append(reader.getPITarget()).append(" ").append(reader.getPIData());
+			} else if (event == XMLStreamReader.COMMENT) {
+				result.append(" ").append(reader.getText());
+			}
+
+			events.add(result.toString());
+		}
+
+		return events;
+	}
+}
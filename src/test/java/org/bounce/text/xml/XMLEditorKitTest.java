@@ -0,0 +1,141 @@
+package org.bounce.text.xml;
+
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+
+import javax.swing.JEditorPane;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+import javax.swing.text.StyleContext;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+
+import junit.framework.TestCase;
+
+import org.bounce.text.BackgroundTokenizer;
+
+public class XMLEditorKitTest extends TestCase {
+	private JEditorPane editor;
+	private XMLEditorKit kit;
+	private CountingDocument document;
+
+	// the characters read by the last key press.
+	private int read = 0;
+
+	protected void setUp() throws Exception {
+		kit = new XMLEditorKit() {
+			private static final long serialVersionUID = 1L;
+
+			// the views do not scan or check the document in the background, so
+			// only the key press reads the document while the reads are counted.
+			public ViewFactory getViewFactory() {
+				return new ViewFactory() {
+					public View create(Element elem) {
+						try {
+							return new XMLView(new XMLScanner(elem.getDocument()), new StyleContext(), elem) {
+								protected BackgroundTokenizer createTokenizer() {
+									return null;
+								}
+
+								protected XMLErrorChecker createErrorChecker() {
+									return null;
+								}
+							};
+						} catch (IOException e) {
+							throw new IllegalStateException(e);
+						}
+					}
+				};
+			}
+		};
+		kit.setTagCompletion(true);
+		kit.setAutoIndentation(true);
+
+		editor = new JEditorPane();
+		editor.setEditorKit(kit);
+
+		document = new CountingDocument();
+		editor.setDocument(document);
+	}
+
+	public void testCompleteTag() throws BadLocationException {
+		assertEquals(" <a></a>", type(" <a", '>'));
+		assertEquals(" <ns:a b='1' c=\"2\"></ns:a>", type(" <ns:a b='1' c=\"2\"", '>'));
+		assertEquals("<x> <a/>", type("<x> <a/", '>'));
+		assertEquals("<x> <!-- c -->", type("<x> <!-- c --", '>'));
+		assertEquals("<x> </a>", type("<x> </a", '>'));
+		assertEquals("<x> <?pi?>", type("<x> <?pi?", '>'));
+		assertEquals("<x> < a>", type("<x> < a", '>'));
+		assertEquals("<x> <>", type("<x> <", '>'));
+		assertEquals("<x> text>", type("<x> text", '>'));
+
+		// a tag at the start of the document is not completed.
+		assertEquals("<a>", type("<a", '>'));
+	}
+
+	public void testAutoIndent() throws BadLocationException {
+		assertEquals("\t<a>\r\n\t\t", type("\t<a>", '\n'));
+		assertEquals("  <a/>\r\n  ", type("  <a/>", '\n'));
+		assertEquals("  <a></a>\r\n  ", type("  <a></a>", '\n'));
+		assertEquals("  <a b='1'\r\n  \t", type("  <a b='1'", '\n'));
+		assertEquals("  text\r\n  ", type("  text", '\n'));
+		assertEquals(">\r\n", type(">", '\n'));
+		assertEquals("<a>\n\t<b>\r\n\t\t", type("<a>\n\t<b>", '\n'));
+	}
+
+	// The characters read for a completion do not depend on the size of the
+	// document.
+	public void testLatency() throws BadLocationException {
+		StringBuilder text = new StringBuilder("<root>\n");
+
+		while (text.length() < 1000000) {
+			text.append("  <element attribute=\"value\">text</element>\n");
+		}
+
+		text.append("  <element attribute=\"value\"");
+
+		assertEquals("></element>", type(text.toString(), '>').substring(text.length()));
+		assertTrue("read " + read, read < 256);
+
+		text.append("></element>");
+
+		assertEquals("\r\n  ", type(text.toString(), '\n').substring(text.length()));
+		assertTrue("read " + read, read < 256);
+	}
+
+	// Sets the text, presses the key at the end and returns the text.
+	private String type(String text, char key) throws BadLocationException {
+		document.remove(0, document.getLength());
+		document.insertString(0, text, null);
+		editor.setCaretPosition(text.length());
+
+		document.read = 0;
+		kit.keyPressed(new KeyEvent(editor, KeyEvent.KEY_PRESSED, 0, 0, KeyEvent.VK_UNDEFINED, key));
+		read = document.read;
+
+		if (key == '>') {
+			// the key is inserted after the key has been pressed.
+			document.insertString(editor.getCaretPosition(), ">", null);
+		}
+
+		return document.getText(0, document.getLength());
+	}
+
+	private static class CountingDocument extends PlainDocument {
+		private static final long serialVersionUID = 1L;
+
+		private int read = 0;
+
+		public String getText(int offset, int length) throws BadLocationException {
+			read += length;
+			return super.getText(offset, length);
+		}
+
+		public void getText(int offset, int length, Segment segment) throws BadLocationException {
+			read += length;
+			super.getText(offset, length, segment);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package org.bounce.text.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+
+import junit.framework.TestCase;
+
+import org.bounce.text.ErrorMarkers;
+
+public class XMLErrorCheckerTest extends TestCase {
+	private static final String[] EDITS = { "<", "</", ">", "/>", "<b>", "</b>", "<c>", "</c>", "<!--", "-->", "<![CDATA[", "]]>", "'", "\"", "=", "x", " ", "\n", "&", ";" };
+
+	public void testMarkers() throws Exception {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, "<a>\n <b></c>\n <d><e/>\n</a>\n<f x='1'>&;</f>", null);
+
+		XMLErrorChecker checker = new XMLErrorChecker(doc);
+		ErrorMarkers markers = check(checker);
+
+		assertEquals(4, markers.getCount());
+		assertMarker(doc, markers, 0, "b", "Element \"b\" is not closed");
+		assertMarker(doc, markers, 1, "c", "End tag \"c\" does not match start tag \"b\"");
+		assertMarker(doc, markers, 2, "d", "Element \"d\" is not closed");
+		assertMarker(doc, markers, 3, "&;", "Syntax error");
+
+		checker.stop();
+		assertNull(checker.getMarkers());
+	}
+
+	public void testUnclosed() throws Exception {
+		PlainDocument doc = new PlainDocument();
+		doc.insertString(0, "<a><b>\n</b></x>", null);
+
+		XMLErrorChecker checker = new XMLErrorChecker(doc);
+		ErrorMarkers markers = check(checker);
+
+		assertEquals(2, markers.getCount());
+		assertMarker(doc, markers, 0, "a", "Element \"a\" is not closed");
+		assertMarker(doc, markers, 1, "x", "End tag \"x\" does not match start tag \"a\"");
+
+		checker.stop();
+	}
+
+	public void testIncremental() throws Exception {
+		StringBuilder text = new StringBuilder("<root>\n");
+
+		for (int i = 0; i < 400; i++) {
+			text.append("  <e").append(i % 7).append(" a='").append(i).append("'>text &amp; <!-- comment --></e").append(i % 7).append(">\n");
+		}
+
+		text.append("</root>\n");
+
+		final PlainDocument doc = new PlainDocument();
+		doc.insertString(0, text.toString(), null);
+
+		XMLErrorChecker checker = new XMLErrorChecker(doc);
+		check(checker);
+
+		final Random random = new Random(22);
+
+		for (int i = 0; i < 60; i++) {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					try {
+						int offset = random.nextInt(doc.getLength() + 1);
+
+						if (random.nextBoolean() && offset < doc.getLength()) {
+							doc.remove(offset, Math.min(random.nextInt(8) + 1, doc.getLength() - offset));
+						} else {
+							doc.insertString(offset, EDITS[random.nextInt(EDITS.length)], null);
+						}
+					} catch (Exception e) {
+						fail(e.getMessage());
+					}
+				}
+			});
+
+			XMLErrorChecker expected = new XMLErrorChecker(doc);
+
+			assertEquals(toList(check(expected)), toList(check(checker)));
+			expected.stop();
+		}
+
+		checker.stop();
+	}
+
+	// Makes a few edits before every check, the old checkpoints and markers
+	// after the edits are moved by the change of the length.
+	public void testEditsBeforeCheck() throws Exception {
+		StringBuilder text = new StringBuilder("<root>\n");
+
+		for (int i = 0; i < 600; i++) {
+			text.append("  <e").append(i % 5).append(">text</e").append(i % 5).append(i % 97 == 0 ? "x" : "").append(">\n");
+		}
+
+		text.append("</root>\n");
+
+		final PlainDocument doc = new PlainDocument();
+		doc.insertString(0, text.toString(), null);
+
+		XMLErrorChecker checker = new XMLErrorChecker(doc);
+		check(checker);
+
+		final Random random = new Random(5);
+
+		for (int i = 0; i < 40; i++) {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					try {
+						int offset = random.nextInt(doc.getLength() + 1);
+
+						for (int j = random.nextInt(4); j >= 0; j--) {
+							offset = Math.max(0, Math.min(doc.getLength(), offset + random.nextInt(200) - 100));
+
+							if (random.nextBoolean() && offset < doc.getLength()) {
+								doc.remove(offset, Math.min(random.nextInt(8) + 1, doc.getLength() - offset));
+							} else {
+								doc.insertString(offset, EDITS[random.nextInt(EDITS.length)], null);
+							}
+						}
+					} catch (Exception e) {
+						fail(e.getMessage());
+					}
+				}
+			});
+
+			XMLErrorChecker expected = new XMLErrorChecker(doc);
+
+			assertEquals(toList(check(expected)), toList(check(checker)));
+			expected.stop();
+		}
+
+		checker.stop();
+	}
+
+	public void testChangedOffset() throws Exception {
+		final PlainDocument doc = new PlainDocument();
+		doc.insertString(0, "<a>\n <b></b>\n <c></c>\n</a>", null);
+
+		XMLErrorChecker checker = new XMLErrorChecker(doc);
+		check(checker);
+		assertEquals("no markers", Integer.MAX_VALUE, checker.getChangedOffset());
+
+		edit(doc, doc.getText(0, doc.getLength()).indexOf("</c>"), 4, null);
+		check(checker);
+		assertEquals("unclosed", doc.getText(0, doc.getLength()).indexOf("c"), checker.getChangedOffset());
+
+		// the markers before the change are the same.
+		edit(doc, doc.getText(0, doc.getLength()).indexOf("</a>"), 0, " ");
+		check(checker);
+		assertEquals("same markers", Integer.MAX_VALUE, checker.getChangedOffset());
+
+		checker.stop();
+	}
+
+	// Removes the length and inserts the text at the offset, on the event
+	// dispatch thread.
+	private static void edit(final Document doc, final int offset, final int length, final String text) throws Exception {
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				try {
+					doc.remove(offset, length);
+
+					if (text != null) {
+						doc.insertString(offset, text, null);
+					}
+				} catch (Exception e) {
+					fail(e.getMessage());
+				}
+			}
+		});
+	}
+
+	private static void assertMarker(Document doc, ErrorMarkers markers, int index, String text, String message) throws Exception {
+		assertEquals(text, doc.getText(markers.getStart(index), markers.getEnd(index) - markers.getStart(index)));
+		assertEquals(message, markers.getMessage(index));
+	}
+
+	private static List<String> toList(ErrorMarkers markers) {
+		List<String> list = new ArrayList<String>();
+
+		for (int i = 0; i < markers.getCount(); i++) {
+			list.add(markers.getStart(i) + "-" + markers.getEnd(i) + " " + markers.getMessage(i));
+		}
+
+		return list;
+	}
+
+	// Starts the checker and waits until the whole document has been checked.
+	private static ErrorMarkers check(final XMLErrorChecker checker) throws Exception {
+		final ErrorMarkers[] markers = new ErrorMarkers[1];
+		long timeout = System.currentTimeMillis() + 10000;
+
+		checker.start();
+
+		while (System.currentTimeMillis() < timeout) {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					markers[0] = checker.getMarkers();
+				}
+			});
+
+			if (markers[0] != null && markers[0].getLimit() == Integer.MAX_VALUE) {
+				return markers[0];
+			}
+
+			Thread.sleep(10);
+		}
+
+		fail("not checked");
+
+		return null;
+	}
+}
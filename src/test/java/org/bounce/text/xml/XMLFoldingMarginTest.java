@@ -0,0 +1,158 @@
+package org.bounce.text.xml;
+
+import java.awt.Insets;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import javax.swing.JEditorPane;
+import javax.swing.JPanel;
+import javax.swing.text.Document;
+
+import junit.framework.TestCase;
+
+import org.bounce.text.MappedDocument;
+
+public class XMLFoldingMarginTest extends TestCase {
+	private static final String XML =
+		"<root>\n" +       // 0
+		"  <a>\n" +        // 1
+		"    <b>\n" +      // 2
+		"      text\n" +   // 3
+		"    </b>\n" +     // 4
+		"    <c/>\n" +     // 5
+		"  </a>\n" +       // 6
+		"  <b name='b'\n" +// 7
+		"     >\n" +       // 8
+		"    <x:b/>\n" +   // 9
+		"  </b>\n" +       // 10
+		"</root>\n";       // 11
+
+	private JEditorPane editor;
+	private XMLFoldingMargin margin;
+
+	protected void setUp() throws Exception {
+		editor = new JEditorPane();
+		editor.setEditorKit(new XMLEditorKit());
+		editor.setText(XML);
+		editor.setSize(400, 1000);
+
+		margin = new XMLFoldingMargin(editor);
+		new JPanel().add(margin);
+	}
+
+	public void testFoldDepth() {
+		assertEquals("rows", 13, getRows());
+
+		margin.foldElements(1);
+		assertEquals("rows", 7, getRows());
+
+		margin.unfoldAll();
+		assertEquals("rows", 13, getRows());
+
+		margin.foldElements(0);
+		assertEquals("rows", 3, getRows());
+	}
+
+	public void testFoldName() {
+		margin.foldElements("b");
+		assertEquals("rows", 10, getRows());
+
+		// the element stays folded inside the folded parent.
+		margin.foldElements(1);
+		assertEquals("rows", 7, getRows());
+
+		margin.unfoldAll();
+		margin.foldElements("x:b");
+		assertEquals("rows", 13, getRows());
+	}
+
+	public void testFoldAll() {
+		margin.foldAll();
+		assertEquals("rows", 3, getRows());
+	}
+
+	public void testFoldStrayEndTag() {
+		editor.setText(
+			"<root>\n" +  // 0
+			"  <a>\n" +   // 1
+			"  </a>\n" +  // 2
+			"</root>\n" + // 3
+			"</y>\n" +    // 4
+			"<c>\n" +     // 5
+			"  <d>\n" +   // 6
+			"  </d>\n" +  // 7
+			"</c>\n");    // 8
+
+		assertEquals("closing line", 8, margin.getFoldClosingLine(5, 9));
+
+		// the stray end tag lowers the depth of the elements after it, as in
+		// the index.
+		margin.foldElements(0);
+		assertEquals("rows", 8, getRows());
+
+		margin.unfoldAll();
+		margin.foldAll();
+		assertEquals("rows", 6, getRows());
+	}
+
+	public void testFoldAfterEdit() throws Exception {
+		margin.foldAll();
+		margin.unfoldAll();
+
+		// the candidates after the added line are moved.
+		editor.getDocument().insertString(0, "<?xml version='1.0'?>\n", null);
+		margin.foldElements(1);
+		assertEquals("rows", 8, getRows());
+
+		// the fold around the added line ends one line later.
+		margin.unfoldAll();
+		editor.getDocument().insertString(editor.getDocument().getDefaultRootElement().getElement(5).getStartOffset(), "      more\n", null);
+		margin.foldElements(1);
+		assertEquals("rows", 8, getRows());
+
+		margin.unfoldAll();
+		assertEquals("rows", 15, getRows());
+	}
+
+	public void testLargeDocument() throws Exception {
+		String text = "<!-- <c>\n -->\n" + XML.replace("<c/>", "<![CDATA[ <c>\n ]]>");
+		editor.setText(text);
+
+		File file = File.createTempFile("folding", ".xml");
+
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(text.getBytes("UTF-8"));
+			out.close();
+
+			JEditorPane large = new JEditorPane();
+			large.setEditorKit(new XMLEditorKit());
+			large.setDocument(new MappedDocument(file));
+			large.setEditable(false);
+
+			XMLFoldingMargin mapped = new XMLFoldingMargin(large);
+			Document document = editor.getDocument();
+			int lines = document.getDefaultRootElement().getElementCount();
+
+			assertEquals("lines", lines, large.getDocument().getDefaultRootElement().getElementCount());
+
+			// the lines are scanned instead of indexed.
+			for (int line = 0; line < lines; line++) {
+				int limit = Math.min(line + 3, lines - 1);
+
+				assertEquals("closing line of " + line, margin.getFoldClosingLine(line, lines - 1), mapped.getFoldClosingLine(line, lines - 1));
+				assertEquals("closing line of " + line + " before " + limit, margin.getFoldClosingLine(line, limit), mapped.getFoldClosingLine(line, limit));
+			}
+
+			assertNull("index", large.getDocument().getProperty(TagBoundaryIndex.INDEX_ATTRIBUTE));
+		} finally {
+			file.delete();
+		}
+	}
+
+	private int getRows() {
+		Insets insets = editor.getInsets();
+
+		return (editor.getPreferredSize().height - insets.top - insets.bottom) / editor.getFontMetrics(editor.getFont()).getHeight();
+	}
+}
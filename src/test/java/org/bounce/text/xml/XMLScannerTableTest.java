@@ -0,0 +1,76 @@
+package org.bounce.text.xml;
+
+import java.io.IOException;
+import java.util.Random;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+
+/**
+ * Runs the scanner tests against the table engine and compares the engines.
+ */
+public class XMLScannerTableTest extends XMLScannerTest {
+	private static final String[] PARTS = {
+		"<", "</", ">", "/>", "/", "?", "!", "-", "--", "[", "]", "]]", "=", "\"", "'", "&", "#", "#x", ";", ":",
+		"x", "xmlns", "xmlns:", "a", "b", "C", "D", "A", "T", "CDATA", "<![CDATA[", "<!--", "-->", "<?", "?>",
+		" ", "\n", "\r\n", "\r", "\t", "1", "0", "9", "e", "F", ".", "\u00e9", "\u3000", "\u0001" };
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		System.setProperty(XMLScanner.ENGINE_PROPERTY, "table");
+	}
+
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(XMLScanner.ENGINE_PROPERTY);
+
+		super.tearDown();
+	}
+
+	public void testEngine() throws IOException {
+		assertEquals("table engine", XMLScanner.TABLE_ENGINE, new XMLScanner(new PlainDocument()).getEngine());
+	}
+
+	public void testSameTokens() throws BadLocationException, IOException {
+		Random random = new Random(8);
+
+		for (int i = 0; i < 2000; i++) {
+			StringBuilder text = new StringBuilder();
+			int parts = random.nextInt(40);
+
+			for (int j = 0; j < parts; j++) {
+				text.append(PARTS[random.nextInt(PARTS.length)]);
+			}
+
+			PlainDocument doc = new PlainDocument();
+			doc.insertString(0, text.toString(), null);
+
+			XMLScanner expected = new XMLScanner(doc, XMLScanner.SCANNER_ENGINE);
+			XMLScanner actual = new XMLScanner(doc, XMLScanner.TABLE_ENGINE);
+			expected.setRange(0, doc.getLength());
+			actual.setRange(0, doc.getLength());
+
+			// scan a few times past the end of the document, the scanner does
+			// not make progress after an invalid character at the top level.
+			for (int end = 0, steps = 0; end < 3 && steps < 1000; steps++) {
+				expected.scan();
+				actual.scan();
+
+				assertEquals(text.toString(), toString(expected), toString(actual));
+
+				// continue with a scanner restored from the state.
+				XMLScanner restored = new XMLScanner(doc, XMLScanner.TABLE_ENGINE);
+				restored.setState(actual.getState(), actual.getEndOffset(), doc.getLength());
+				actual = restored;
+
+				if (expected.getEndOffset() >= doc.getLength()) {
+					end++;
+				}
+			}
+		}
+	}
+
+	private static String toString(XMLScanner scanner) {
+		return scanner.token + "[" + scanner.getStartOffset() + "," + scanner.getEndOffset() + "]" + (scanner.isError() ? "!" : "") + " " + scanner.getEventType();
+	}
+}
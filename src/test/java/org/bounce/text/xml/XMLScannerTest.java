@@ -2378,4 +2378,71 @@ public class XMLScannerTest extends TestCase {
 		assertEquals("EOF start-offset", 20, scanner.getStartOffset());
 		assertEquals("EOF end-offset", 20, scanner.getEndOffset());
 	}
+
+	public void testContentEndsWithEntity() throws BadLocationException, IOException {
+		Content content = new GapContent();
+		content.insertString(0, "<a>&amp;</a>");
+		PlainDocument doc = new PlainDocument(content);
+
+		XMLScanner scanner = new XMLScanner(doc);
+		scanner.setRange(3, doc.getLength());
+
+		assertEquals("'&amp;' = ENTITY_REFERENCE", XMLStyleConstants.ENTITY_REFERENCE, scanner.token);
+		assertEquals("'&amp;' start-offset", 3, scanner.getStartOffset());
+		assertEquals("'&amp;' end-offset", 8, scanner.getEndOffset());
+
+		scanner.scan();
+
+		assertEquals("'</' = SPECIAL", XMLStyleConstants.SPECIAL, scanner.token);
+		assertEquals("scanner-type", XMLEvent.END_ELEMENT, scanner.getEventType());
+		assertEquals("'</' start-offset", 8, scanner.getStartOffset());
+		assertEquals("'</' end-offset", 10, scanner.getEndOffset());
+
+		scanner.scan();
+
+		assertEquals("'a' = ELEMENT_NAME", XMLStyleConstants.ELEMENT_NAME, scanner.token);
+		assertEquals("scanner-type", XMLEvent.END_ELEMENT, scanner.getEventType());
+		assertEquals("'a' start-offset", 10, scanner.getStartOffset());
+		assertEquals("'a' end-offset", 11, scanner.getEndOffset());
+	}
+
+	public void testTokenId() throws BadLocationException, IOException {
+		Content content = new GapContent();
+		content.insertString(0, "<?xml version='1.0'?><!DOCTYPE a><a xmlns:p='u' p:b=\"&amp;\"><!-- c --><![CDATA[<d>]]>&e; f</a><");
+		PlainDocument doc = new PlainDocument(content);
+
+		for (int engine : new int[] { XMLScanner.SCANNER_ENGINE, XMLScanner.TABLE_ENGINE }) {
+			XMLScanner scanner = new XMLScanner(doc, engine);
+			scanner.setRange(0, doc.getLength());
+
+			while (scanner.getStartOffset() < doc.getLength()) {
+				int id = scanner.getTokenId();
+
+				assertSame("token at " + scanner.getStartOffset(), scanner.token, id != -1 ? scanner.getTokens()[id] : null);
+				scanner.scan();
+			}
+		}
+	}
+
+	public void testRestartFromTag() throws BadLocationException, IOException {
+		Content content = new GapContent();
+		content.insertString(0, "<a><!-- <b> --> c <![CDATA[ <d> ]]><?p <e> ?><!-- <![CDATA[ --><f> g</f></a>");
+		PlainDocument doc = new PlainDocument(content);
+		int length = doc.getLength();
+
+		XMLScanner expected = new XMLScanner(doc);
+		expected.setRange(0, length);
+
+		for (int offset = 0; offset < length; offset++) {
+			while (expected.getEndOffset() <= offset) {
+				expected.scan();
+			}
+
+			XMLScanner scanner = new XMLScanner(doc);
+			XMLViewUtilities.updateScannerFromTag(scanner, doc, offset, length);
+
+			assertEquals("start of token at " + offset, expected.getStartOffset(), scanner.getStartOffset());
+			assertSame("token at " + offset, expected.token, scanner.token);
+		}
+	}
 }
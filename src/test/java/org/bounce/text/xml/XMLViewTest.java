@@ -0,0 +1,116 @@
+package org.bounce.text.xml;
+
+import javax.swing.JEditorPane;
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+
+import junit.framework.TestCase;
+
+import org.bounce.text.BackgroundTokenizer;
+import org.bounce.text.ErrorMarkers;
+
+public class XMLViewTest extends TestCase {
+	private static final String XML = "<root>\n  <a>text</a>\n</root>\n";
+
+	// The editors of a document share the tokenizer, it stops when the last
+	// editor no longer shows the document.
+	public void testSharedTokenizer() throws Exception {
+		JEditorPane first = createEditor();
+		first.setText(XML);
+
+		Document document = first.getDocument();
+		JEditorPane second = createEditor();
+		second.setDocument(document);
+
+		BackgroundTokenizer tokenizer = (BackgroundTokenizer) document.getProperty(XMLView.TOKENIZER_ATTRIBUTE);
+
+		assertNotNull("tokenizer", tokenizer);
+		assertTrue("scanned", isScanned(tokenizer));
+
+		first.setDocument(new PlainDocument());
+		assertTrue("still scanned", isScanned(tokenizer));
+
+		second.setDocument(new PlainDocument());
+		assertFalse("stopped", isScanned(tokenizer));
+	}
+
+	// The checker is started when the document is shown, before the errors
+	// are painted.
+	public void testSharedChecker() throws Exception {
+		JEditorPane first = createEditor();
+		first.setText("<root>\n  <a>\n</root>\n");
+
+		Document document = first.getDocument();
+		JEditorPane second = createEditor();
+		second.setDocument(document);
+
+		XMLErrorChecker checker = XMLErrorChecker.getInstance(document);
+
+		assertSame("checker", checker, document.getProperty(XMLErrorChecker.CHECKER_ATTRIBUTE));
+		assertTrue("checked", isChecked(checker));
+		assertEquals("markers", 1, getMarkers(checker).getCount());
+
+		first.setDocument(new PlainDocument());
+		assertTrue("still checked", isChecked(checker));
+
+		second.setDocument(new PlainDocument());
+		assertFalse("stopped", isChecked(checker));
+	}
+
+	private static JEditorPane createEditor() {
+		JEditorPane editor = new JEditorPane();
+		editor.setEditorKit(new XMLEditorKit());
+
+		return editor;
+	}
+
+	// Returns true when the checker publishes the markers of the document.
+	private static boolean isChecked(XMLErrorChecker checker) throws Exception {
+		long timeout = System.currentTimeMillis() + 2000;
+
+		while (System.currentTimeMillis() < timeout) {
+			if (getMarkers(checker) != null) {
+				return true;
+			}
+
+			Thread.sleep(10);
+		}
+
+		return false;
+	}
+
+	private static ErrorMarkers getMarkers(final XMLErrorChecker checker) throws Exception {
+		final ErrorMarkers[] markers = new ErrorMarkers[1];
+
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				markers[0] = checker.getMarkers();
+			}
+		});
+
+		return markers[0];
+	}
+
+	// Returns true when the tokenizer publishes the spans of the document.
+	private static boolean isScanned(final BackgroundTokenizer tokenizer) throws Exception {
+		final boolean[] scanned = new boolean[1];
+		long timeout = System.currentTimeMillis() + 2000;
+
+		while (System.currentTimeMillis() < timeout) {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					scanned[0] = tokenizer.getSpans(0) != null;
+				}
+			});
+
+			if (scanned[0]) {
+				return true;
+			}
+
+			Thread.sleep(10);
+		}
+
+		return false;
+	}
+}